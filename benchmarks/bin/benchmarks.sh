@@ -41,10 +41,15 @@ tso() {
     exec java $JVM_FLAGS -Dlog4j.configuration=file:../conf/log4j.xml -cp $CLASSPATH org.apache.omid.benchmarks.tso.TSOServerBenchmark $@
 }
 
+statemachine() {
+    exec java $JVM_FLAGS -Dlog4j.configuration=file:../conf/log4j.xml -cp $CLASSPATH org.apache.omid.benchmarks.statemachine.StateMachineDispatchBenchmark $@
+}
+
 usage() {
     echo "Usage: benchmarks.sh <benchmark> <options>"
     echo "where <benchmark> is one of:"
     echo "  tso           Starts the tso benchmark."
+    echo "  statemachine  Compares the event dispatch of the state machine with the reflective one."
 }
 
 # if no args specified, show usage
@@ -58,6 +63,8 @@ shift
 
 if [ "$COMMAND" = "tso" ]; then
     tso $@;
+elif [ "$COMMAND" = "statemachine" ]; then
+    statemachine $@;
 else
     exec java -cp $CLASSPATH $COMMAND $@
 fi
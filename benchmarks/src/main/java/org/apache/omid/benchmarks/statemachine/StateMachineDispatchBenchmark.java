@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.benchmarks.statemachine;
+
+import org.apache.statemachine.StateMachine;
+import org.apache.statemachine.StateMachine.Event;
+import org.apache.statemachine.StateMachine.Fsm;
+import org.apache.statemachine.StateMachine.State;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compares the method handle dispatch of the states with the reflective dispatch it replaced, delivering the mix of
+ * events that the connected state of the TSOClient handles: mostly requests and their responses, some timeouts and
+ * the occasional error. Run it with:
+ *
+ * benchmarks.sh statemachine [events per round] [rounds]
+ */
+public class StateMachineDispatchBenchmark {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StateMachineDispatchBenchmark.class);
+
+    // Events shaped like the ones of the TSOClient
+    static class ParamEvent<T> implements Event {
+        final T param;
+
+        ParamEvent(T param) {
+            this.param = param;
+        }
+    }
+
+    static class UserEvent implements StateMachine.DeferrableEvent {
+        @Override
+        public void error(Throwable t) {
+        }
+    }
+
+    static class RequestEvent extends UserEvent {
+    }
+
+    static class CloseEvent extends UserEvent {
+    }
+
+    static class ResponseEvent extends ParamEvent<Long> {
+        ResponseEvent(long response) {
+            super(response);
+        }
+    }
+
+    static class ErrorEvent extends ParamEvent<Throwable> {
+        ErrorEvent(Throwable t) {
+            super(t);
+        }
+    }
+
+    static class TimeoutEvent implements Event {
+    }
+
+    static class BaseState extends State {
+        long handled = 0;
+
+        BaseState(Fsm fsm) {
+            super(fsm);
+        }
+
+        public State handleEvent(Event e) {
+            handled++;
+            return this;
+        }
+    }
+
+    static class ConnectedState extends BaseState {
+
+        ConnectedState(Fsm fsm) {
+            super(fsm);
+        }
+
+        public State handleEvent(UserEvent e) {
+            handled++;
+            return this;
+        }
+
+        public State handleEvent(RequestEvent e) {
+            handled++;
+            return this;
+        }
+
+        public State handleEvent(ResponseEvent e) {
+            handled += e.param;
+            return this;
+        }
+
+        public State handleEvent(TimeoutEvent e) {
+            handled++;
+            return this;
+        }
+
+        public State handleEvent(ErrorEvent e) {
+            handled++;
+            return this;
+        }
+    }
+
+    // The reflective dispatch replaced by the method handles
+    static class ReflectiveDispatcher {
+        private final ConcurrentHashMap<Class<?>, Method> handlerCache = new ConcurrentHashMap<>();
+
+        State dispatch(State state, Event e) throws Exception {
+            Method m = handlerCache.get(e.getClass());
+            if (m == null) {
+                m = findHandler(state.getClass(), e.getClass());
+                handlerCache.putIfAbsent(e.getClass(), m);
+            }
+            return (State) m.invoke(state, e);
+        }
+
+        private Method findHandler(Class<?> state, Class<?> e) throws NoSuchMethodException {
+            Method best = null;
+            for (Method m : state.getMethods()) {
+                if (m.getName().equals("handleEvent") && m.getParameterTypes().length == 1
+                        && m.getParameterTypes()[0].isAssignableFrom(e)
+                        && (best == null || best.getParameterTypes()[0].isAssignableFrom(m.getParameterTypes()[0]))) {
+                    best = m;
+                }
+            }
+            if (best == null) {
+                throw new NoSuchMethodException("Handler doesn't exist");
+            }
+            best.setAccessible(true);
+            return best;
+        }
+    }
+
+    private static Event[] eventMix(int size) {
+        List<Event> events = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            switch (i % 20) {
+                case 0:
+                    events.add(new TimeoutEvent());
+                    break;
+                case 1:
+                    events.add(i % 1000 == 1 ? new ErrorEvent(new Exception()) : new CloseEvent());
+                    break;
+                default:
+                    events.add(i % 2 == 0 ? new RequestEvent() : new ResponseEvent(1));
+                    break;
+            }
+        }
+        return events.toArray(new Event[size]);
+    }
+
+    public static void main(String[] args) throws Throwable {
+        int eventsPerRound = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        Event[] events = eventMix(eventsPerRound);
+        ConnectedState state = new ConnectedState(null);
+        ReflectiveDispatcher reflective = new ReflectiveDispatcher();
+
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            for (Event e : events) {
+                reflective.dispatch(state, e);
+            }
+            long reflectiveNs = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (Event e : events) {
+                state.dispatch(e);
+            }
+            long methodHandleNs = System.nanoTime() - start;
+
+            LOG.info(String.format("Round %2d: reflective %6.2f ns/event, method handles %6.2f ns/event", round,
+                                   (double) reflectiveNs / eventsPerRound, (double) methodHandleNs / eventsPerRound));
+        }
+        // Keeps the handlers from being optimized away
+        LOG.info("Events handled: {}", state.handled);
+    }
+
+}
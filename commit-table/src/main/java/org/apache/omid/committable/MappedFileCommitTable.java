@@ -0,0 +1,596 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.committable;
+
+import org.apache.phoenix.thirdparty.com.google.common.annotations.VisibleForTesting;
+import org.apache.phoenix.thirdparty.com.google.common.base.Optional;
+import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.Futures;
+import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.ListenableFuture;
+import org.apache.omid.committable.CommitTable.CommitTimestamp.Location;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+import static org.apache.omid.committable.InMemoryCommitTable.removeCheckpointBits;
+
+/**
+ * Commit Table stored in local memory-mapped files.
+ *
+ * Every change is appended to a commit log made of fixed-size segment files. Each record holds the start timestamp,
+ * the commit timestamp (or the invalidation/deletion marker) and a check word, so a torn record at the tail of the
+ * log is detected and discarded when the log is replayed on startup. The current content of the table is kept in a
+ * compact start timestamp to commit timestamp index rebuilt from the log.
+ *
+ * Writes are made durable by forcing the mapped segments to disk. Concurrent flushes are coalesced, so a single
+ * force covers all the records appended by the writers waiting for it (group fsync).
+ *
+ * The low watermark is kept in its own file. When it advances, the oldest segments holding only start timestamps
+ * below it are reclaimed. The entries of those segments still present in the index (e.g. committed transactions
+ * whose shadow cells were not written yet) are carried forward to the active segment before the files are removed.
+ *
+ * The files are owned by the process that opens them, so the clients of this table must live in the same JVM. HBase
+ * clients, the compactor and the coprocessors can't resolve commits from it, so it's meant for tests and standalone
+ * setups where everything runs in the JVM of the TSO.
+ */
+public class MappedFileCommitTable implements CommitTable, Closeable {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    static final String SEGMENT_FILE_PREFIX = "commit-log-";
+    static final String SEGMENT_FILE_SUFFIX = ".log";
+    static final String LOW_WATERMARK_FILE = "low-watermark";
+
+    // Record layout: start timestamp | commit timestamp | check word
+    static final int RECORD_SIZE = 3 * Long.SIZE / Byte.SIZE;
+    static final long RECORD_CHECK_SEED = 0x4F4D49442D43544CL;
+    static final long DELETED_MARKER = Long.MIN_VALUE;
+
+    private final File directory;
+    private final int segmentSize;
+
+    // Guarded by this
+    private final CommitIndex index = new CommitIndex();
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private long nextSegmentId;
+
+    // Serializes the forces of the mapped files so concurrent flushes are coalesced
+    private final Object syncLock = new Object();
+
+    private final RandomAccessFile lowWatermarkFile;
+    private final MappedByteBuffer lowWatermarkBuffer;
+    private volatile long lowWatermark;
+    private long truncatedLowWatermark;
+
+    public MappedFileCommitTable(File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public MappedFileCommitTable(File directory, int segmentSize) throws IOException {
+        if (segmentSize < RECORD_SIZE) {
+            throw new IllegalArgumentException("Segment size must hold at least one record: " + segmentSize);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create commit table directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize - (segmentSize % RECORD_SIZE);
+
+        lowWatermarkFile = new RandomAccessFile(new File(directory, LOW_WATERMARK_FILE), "rw");
+        lowWatermarkBuffer = lowWatermarkFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, Long.SIZE / Byte.SIZE);
+        lowWatermark = lowWatermarkBuffer.getLong(0);
+        truncatedLowWatermark = lowWatermark;
+
+        recover();
+    }
+
+    @Override
+    public CommitTable.Writer getWriter() {
+        return new Writer();
+    }
+
+    @Override
+    public CommitTable.Client getClient() {
+        return new Client();
+    }
+
+    @Override
+    public void close() throws IOException {
+        sync();
+        synchronized (this) {
+            for (Segment segment : segments) {
+                segment.close();
+            }
+            segments.clear();
+        }
+        lowWatermarkFile.close();
+    }
+
+    public synchronized int countElements() {
+        return index.size();
+    }
+
+    @VisibleForTesting
+    synchronized int countSegments() {
+        return segments.size();
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Writer and client
+    // ----------------------------------------------------------------------------------------------------------------
+
+    public class Writer implements CommitTable.Writer {
+
+        private long[] startTimestamps = new long[16];
+        private long[] commitTimestamps = new long[16];
+        private int numBufferedEntries = 0;
+
+        private long lowWatermarkToPersist = -1;
+
+        @Override
+        public void addCommittedTransaction(long startTimestamp, long commitTimestamp) {
+            if (numBufferedEntries == startTimestamps.length) {
+                startTimestamps = Arrays.copyOf(startTimestamps, numBufferedEntries * 2);
+                commitTimestamps = Arrays.copyOf(commitTimestamps, numBufferedEntries * 2);
+            }
+            startTimestamps[numBufferedEntries] = startTimestamp;
+            commitTimestamps[numBufferedEntries] = commitTimestamp;
+            numBufferedEntries++;
+        }
+
+        @Override
+        public void updateLowWatermark(long lowWatermark) {
+            lowWatermarkToPersist = lowWatermark;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (MappedFileCommitTable.this) {
+                for (int i = 0; i < numBufferedEntries; i++) {
+                    // As in the HBase commit table, an invalidation prevails over a later commit
+                    if (index.putIfAbsent(startTimestamps[i], commitTimestamps[i])) {
+                        append(startTimestamps[i], commitTimestamps[i]);
+                    }
+                }
+            }
+            numBufferedEntries = 0;
+            sync();
+            if (lowWatermarkToPersist != -1) {
+                persistLowWatermark(lowWatermarkToPersist);
+                lowWatermarkToPersist = -1;
+                truncate();
+            }
+        }
+
+        @Override
+        public void clearWriteBuffer() {
+            numBufferedEntries = 0;
+        }
+
+        @Override
+        public boolean atomicAddCommittedTransaction(long startTimestamp, long commitTimestamp) throws IOException {
+            startTimestamp = removeCheckpointBits(startTimestamp);
+            synchronized (MappedFileCommitTable.this) {
+                if (!index.putIfAbsent(startTimestamp, commitTimestamp)) {
+                    return false;
+                }
+                append(startTimestamp, commitTimestamp);
+            }
+            sync();
+            return true;
+        }
+
+    }
+
+    public class Client implements CommitTable.Client {
+
+        @Override
+        public ListenableFuture<Optional<CommitTimestamp>> getCommitTimestamp(long startTimestamp) {
+            startTimestamp = removeCheckpointBits(startTimestamp);
+            long commitTimestamp;
+            synchronized (MappedFileCommitTable.this) {
+                commitTimestamp = index.get(startTimestamp);
+            }
+            if (commitTimestamp == CommitIndex.NOT_FOUND) {
+                return Futures.immediateFuture(Optional.<CommitTimestamp>absent());
+            }
+            if (commitTimestamp == INVALID_TRANSACTION_MARKER) {
+                return Futures.immediateFuture(Optional.of(
+                        new CommitTimestamp(Location.COMMIT_TABLE, INVALID_TRANSACTION_MARKER, false)));
+            }
+            return Futures.immediateFuture(Optional.of(
+                    new CommitTimestamp(Location.COMMIT_TABLE, commitTimestamp, true)));
+        }
+
+        @Override
+        public ListenableFuture<Long> readLowWatermark() {
+            return Futures.immediateFuture(lowWatermark);
+        }
+
+        @Override
+        public ListenableFuture<Void> deleteCommitEntry(long startTimestamp) {
+            startTimestamp = removeCheckpointBits(startTimestamp);
+            try {
+                synchronized (MappedFileCommitTable.this) {
+                    if (index.remove(startTimestamp)) {
+                        // Not forced. If lost in a crash, the entry is just removed again later
+                        append(startTimestamp, DELETED_MARKER);
+                    }
+                }
+                return Futures.<Void>immediateFuture(null);
+            } catch (IOException e) {
+                return Futures.immediateFailedFuture(e);
+            }
+        }
+
+        @Override
+        public ListenableFuture<Boolean> tryInvalidateTransaction(long startTimestamp) {
+            startTimestamp = removeCheckpointBits(startTimestamp);
+            try {
+                synchronized (MappedFileCommitTable.this) {
+                    long commitTimestamp = index.get(startTimestamp);
+                    if (commitTimestamp != CommitIndex.NOT_FOUND) {
+                        return Futures.immediateFuture(commitTimestamp == INVALID_TRANSACTION_MARKER);
+                    }
+                    index.putIfAbsent(startTimestamp, INVALID_TRANSACTION_MARKER);
+                    append(startTimestamp, INVALID_TRANSACTION_MARKER);
+                }
+                sync();
+                return Futures.immediateFuture(true);
+            } catch (IOException e) {
+                return Futures.immediateFailedFuture(e);
+            }
+        }
+
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Commit log management
+    // ----------------------------------------------------------------------------------------------------------------
+
+    private synchronized void recover() throws IOException {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_FILE_PREFIX) && name.endsWith(SEGMENT_FILE_SUFFIX);
+            }
+        });
+        List<Long> segmentIds = new ArrayList<>();
+        for (File file : files) {
+            String name = file.getName();
+            segmentIds.add(Long.parseLong(
+                    name.substring(SEGMENT_FILE_PREFIX.length(), name.length() - SEGMENT_FILE_SUFFIX.length())));
+        }
+        Collections.sort(segmentIds);
+
+        for (long segmentId : segmentIds) {
+            Segment segment = new Segment(segmentFile(segmentId), segmentSize);
+            segment.replay(index);
+            segments.addLast(segment);
+            nextSegmentId = segmentId + 1;
+        }
+        if (segments.isEmpty()) {
+            rollSegment();
+        }
+    }
+
+    // Must be called holding the lock of the table
+    private void append(long startTimestamp, long commitTimestamp) throws IOException {
+        Segment active = segments.getLast();
+        if (active.isFull()) {
+            active = rollSegment();
+        }
+        active.append(startTimestamp, commitTimestamp);
+    }
+
+    // Must be called holding the lock of the table
+    private Segment rollSegment() throws IOException {
+        long segmentId = nextSegmentId++;
+        Segment segment = new Segment(segmentFile(segmentId), segmentSize);
+        segments.addLast(segment);
+        return segment;
+    }
+
+    private File segmentFile(long segmentId) {
+        return new File(directory, String.format("%s%020d%s", SEGMENT_FILE_PREFIX, segmentId, SEGMENT_FILE_SUFFIX));
+    }
+
+    /**
+     * Forces to disk all the records appended so far. Threads arriving while a force is in progress wait for it and
+     * then only force again if their records were not covered by it.
+     */
+    private void sync() throws IOException {
+        List<Segment> dirtySegments = new ArrayList<>(1);
+        List<Integer> targetPositions = new ArrayList<>(1);
+        synchronized (this) {
+            for (Segment segment : segments) {
+                int position = segment.position;
+                if (segment.syncedPosition < position) {
+                    dirtySegments.add(segment);
+                    targetPositions.add(position);
+                }
+            }
+        }
+        if (dirtySegments.isEmpty()) {
+            return;
+        }
+        synchronized (syncLock) {
+            for (int i = 0; i < dirtySegments.size(); i++) {
+                Segment segment = dirtySegments.get(i);
+                if (segment.syncedPosition >= targetPositions.get(i)) {
+                    continue; // Already covered by a force issued by another thread
+                }
+                int position;
+                synchronized (this) {
+                    position = segment.position;
+                }
+                segment.buffer.force();
+                segment.syncedPosition = position;
+            }
+        }
+    }
+
+    private void persistLowWatermark(long newLowWatermark) {
+        synchronized (lowWatermarkBuffer) {
+            if (newLowWatermark <= lowWatermark) {
+                return;
+            }
+            lowWatermarkBuffer.putLong(0, newLowWatermark);
+            lowWatermarkBuffer.force();
+            lowWatermark = newLowWatermark;
+        }
+    }
+
+    /**
+     * Reclaims the oldest segments whose start timestamps are all below the low watermark. Only a prefix of the log
+     * is removed, so the deletion records of the remaining segments never refer to entries resurrected on replay.
+     */
+    private void truncate() throws IOException {
+        long currentLowWatermark = lowWatermark;
+        List<Segment> reclaimedSegments = new ArrayList<>();
+        synchronized (this) {
+            if (currentLowWatermark <= truncatedLowWatermark) {
+                return;
+            }
+            truncatedLowWatermark = currentLowWatermark;
+            // Segments rolled while carrying entries forward are left for the next truncation
+            Segment active = segments.getLast();
+            while (segments.getFirst() != active && segments.getFirst().maxStartTimestamp < currentLowWatermark) {
+                Segment segment = segments.removeFirst();
+                segment.carryForward(index, this);
+                reclaimedSegments.add(segment);
+            }
+        }
+        if (reclaimedSegments.isEmpty()) {
+            return;
+        }
+        // The carried forward entries must be durable before their original records disappear
+        sync();
+        for (Segment segment : reclaimedSegments) {
+            segment.close();
+            if (!segment.file.delete()) {
+                throw new IOException("Can't delete commit log segment " + segment.file);
+            }
+        }
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Helper classes
+    // ----------------------------------------------------------------------------------------------------------------
+
+    private static class Segment {
+
+        final File file;
+        final RandomAccessFile raf;
+        final MappedByteBuffer buffer;
+        final int size;
+
+        // Guarded by the lock of the table
+        int position = 0;
+        long maxStartTimestamp = Long.MIN_VALUE;
+
+        // Guarded by the sync lock
+        volatile int syncedPosition = 0;
+
+        Segment(File file, int size) throws IOException {
+            this.file = file;
+            this.size = size;
+            this.raf = new RandomAccessFile(file, "rw");
+            if (raf.length() < size) {
+                raf.setLength(size);
+            }
+            this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+
+        boolean isFull() {
+            return position + RECORD_SIZE > size;
+        }
+
+        void append(long startTimestamp, long commitTimestamp) {
+            buffer.putLong(position, startTimestamp);
+            buffer.putLong(position + 8, commitTimestamp);
+            buffer.putLong(position + 16, checkWord(startTimestamp, commitTimestamp));
+            position += RECORD_SIZE;
+            maxStartTimestamp = Math.max(maxStartTimestamp, startTimestamp);
+        }
+
+        /**
+         * Applies the valid records of the segment to the index and leaves the append position after the last one
+         */
+        void replay(CommitIndex index) {
+            while (!isFull()) {
+                long startTimestamp = buffer.getLong(position);
+                long commitTimestamp = buffer.getLong(position + 8);
+                if (buffer.getLong(position + 16) != checkWord(startTimestamp, commitTimestamp)) {
+                    break; // End of the log or torn record
+                }
+                if (commitTimestamp == DELETED_MARKER) {
+                    index.remove(startTimestamp);
+                } else {
+                    index.putIfAbsent(startTimestamp, commitTimestamp);
+                }
+                position += RECORD_SIZE;
+                maxStartTimestamp = Math.max(maxStartTimestamp, startTimestamp);
+            }
+            syncedPosition = position;
+        }
+
+        /**
+         * Re-appends to the active segment the entries of this segment that are still in the index
+         */
+        void carryForward(CommitIndex index, MappedFileCommitTable table) throws IOException {
+            for (int offset = 0; offset < position; offset += RECORD_SIZE) {
+                long startTimestamp = buffer.getLong(offset);
+                long commitTimestamp = index.get(startTimestamp);
+                if (commitTimestamp != CommitIndex.NOT_FOUND && buffer.getLong(offset + 8) != DELETED_MARKER) {
+                    table.append(startTimestamp, commitTimestamp);
+                }
+            }
+        }
+
+        void close() throws IOException {
+            buffer.force();
+            raf.close();
+        }
+
+        static long checkWord(long startTimestamp, long commitTimestamp) {
+            return startTimestamp ^ Long.rotateLeft(commitTimestamp, 32) ^ RECORD_CHECK_SEED;
+        }
+
+    }
+
+    /**
+     * Open addressing hash map from start timestamps to commit timestamps (or the invalidation marker) that avoids
+     * boxing the keys and values of the live entries of the table. Not thread-safe.
+     */
+    @VisibleForTesting
+    static class CommitIndex {
+
+        static final long NOT_FOUND = DELETED_MARKER;
+
+        private static final long EMPTY = Long.MIN_VALUE;
+        private static final int INITIAL_CAPACITY = 1024;
+
+        private long[] keys;
+        private long[] values;
+        private int size = 0;
+
+        CommitIndex() {
+            allocate(INITIAL_CAPACITY);
+        }
+
+        int size() {
+            return size;
+        }
+
+        long get(long key) {
+            int mask = keys.length - 1;
+            for (int slot = slotOf(key, mask); keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return values[slot];
+                }
+            }
+            return NOT_FOUND;
+        }
+
+        /**
+         * @return true if the entry was added, false if the key was already present
+         */
+        boolean putIfAbsent(long key, long value) {
+            int mask = keys.length - 1;
+            int slot = slotOf(key, mask);
+            for (; keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return false;
+                }
+            }
+            keys[slot] = key;
+            values[slot] = value;
+            if (++size > keys.length / 2) {
+                resize(keys.length * 2);
+            }
+            return true;
+        }
+
+        /**
+         * @return true if the entry was present and has been removed
+         */
+        boolean remove(long key) {
+            int mask = keys.length - 1;
+            int slot = slotOf(key, mask);
+            for (; keys[slot] != key; slot = (slot + 1) & mask) {
+                if (keys[slot] == EMPTY) {
+                    return false;
+                }
+            }
+            // Backward shift deletion keeps the probe sequences of the remaining keys unbroken
+            int hole = slot;
+            for (int next = (hole + 1) & mask; keys[next] != EMPTY; next = (next + 1) & mask) {
+                int home = slotOf(keys[next], mask);
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    keys[hole] = keys[next];
+                    values[hole] = values[next];
+                    hole = next;
+                }
+            }
+            keys[hole] = EMPTY;
+            size--;
+            return true;
+        }
+
+        private void allocate(int capacity) {
+            keys = new long[capacity];
+            values = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+        }
+
+        private void resize(int capacity) {
+            long[] oldKeys = keys;
+            long[] oldValues = values;
+            allocate(capacity);
+            int mask = capacity - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    int slot = slotOf(oldKeys[i], mask);
+                    while (keys[slot] != EMPTY) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+
+        private static int slotOf(long key, int mask) {
+            long hash = key * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ (hash >>> 32)) & mask;
+        }
+
+    }
+
+}
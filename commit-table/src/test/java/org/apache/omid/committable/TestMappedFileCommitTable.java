@@ -0,0 +1,228 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.committable;
+
+import org.apache.phoenix.thirdparty.com.google.common.base.Optional;
+import org.apache.omid.committable.CommitTable.CommitTimestamp;
+import org.apache.omid.committable.MappedFileCommitTable.CommitIndex;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestMappedFileCommitTable {
+
+    private static final int SMALL_SEGMENT_SIZE = 10 * MappedFileCommitTable.RECORD_SIZE;
+
+    private File directory;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("omid-commit-table").toFile();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test(timeOut = 10_000)
+    public void testBasicBehaviour() throws Exception {
+        try (MappedFileCommitTable commitTable = new MappedFileCommitTable(directory)) {
+            CommitTable.Writer writer = commitTable.getWriter();
+            CommitTable.Client client = commitTable.getClient();
+
+            writer.addCommittedTransaction(100, 101);
+            writer.addCommittedTransaction(200, 201);
+            assertEquals(commitTable.countElements(), 0, "Entries must be buffered until flushed");
+            writer.flush();
+            assertEquals(commitTable.countElements(), 2);
+
+            Optional<CommitTimestamp> commitTimestamp = client.getCommitTimestamp(100).get();
+            assertTrue(commitTimestamp.isPresent());
+            assertTrue(commitTimestamp.get().isValid());
+            assertEquals(commitTimestamp.get().getValue(), 101);
+            assertFalse(client.getCommitTimestamp(300).get().isPresent());
+
+            client.deleteCommitEntry(100).get();
+            assertFalse(client.getCommitTimestamp(100).get().isPresent());
+            assertEquals(commitTable.countElements(), 1);
+
+            writer.clearWriteBuffer();
+            writer.addCommittedTransaction(300, 301);
+            writer.clearWriteBuffer();
+            writer.flush();
+            assertFalse(client.getCommitTimestamp(300).get().isPresent());
+
+            writer.updateLowWatermark(150);
+            writer.flush();
+            assertEquals((long) client.readLowWatermark().get(), 150);
+        }
+    }
+
+    @Test(timeOut = 10_000)
+    public void testInvalidation() throws Exception {
+        try (MappedFileCommitTable commitTable = new MappedFileCommitTable(directory)) {
+            CommitTable.Writer writer = commitTable.getWriter();
+            CommitTable.Client client = commitTable.getClient();
+
+            // A committed transaction can't be invalidated
+            writer.addCommittedTransaction(100, 101);
+            writer.flush();
+            assertFalse(client.tryInvalidateTransaction(100).get());
+
+            // An invalidated transaction can't be committed
+            assertTrue(client.tryInvalidateTransaction(200).get());
+            assertTrue(client.tryInvalidateTransaction(200).get());
+            assertFalse(writer.atomicAddCommittedTransaction(200, 201));
+            writer.addCommittedTransaction(200, 201);
+            writer.flush();
+            CommitTimestamp commitTimestamp = client.getCommitTimestamp(200).get().get();
+            assertFalse(commitTimestamp.isValid());
+            assertEquals(commitTimestamp.getValue(), CommitTable.INVALID_TRANSACTION_MARKER);
+
+            // Checkpoints share the entry of their transaction
+            assertTrue(writer.atomicAddCommittedTransaction(300, 301));
+            assertEquals(client.getCommitTimestamp(301).get().get().getValue(), 301);
+        }
+    }
+
+    @Test(timeOut = 10_000)
+    public void testRecovery() throws Exception {
+        try (MappedFileCommitTable commitTable = new MappedFileCommitTable(directory, SMALL_SEGMENT_SIZE)) {
+            CommitTable.Writer writer = commitTable.getWriter();
+            CommitTable.Client client = commitTable.getClient();
+            for (long startTimestamp = 100; startTimestamp < 2500; startTimestamp += 100) {
+                writer.addCommittedTransaction(startTimestamp, startTimestamp + 1);
+            }
+            writer.updateLowWatermark(50);
+            writer.flush();
+            client.deleteCommitEntry(200).get();
+            assertTrue(client.tryInvalidateTransaction(5000).get());
+            assertTrue(commitTable.countSegments() > 1);
+        }
+
+        // Simulate a record torn by a crash at the tail of the log
+        File[] segmentFiles = directory.listFiles();
+        File lastSegment = null;
+        for (File file : segmentFiles) {
+            if (file.getName().startsWith(MappedFileCommitTable.SEGMENT_FILE_PREFIX)
+                    && (lastSegment == null || file.getName().compareTo(lastSegment.getName()) > 0)) {
+                lastSegment = file;
+            }
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(lastSegment, "rw")) {
+            long offset = 0;
+            while (raf.readLong() != 0) {
+                raf.seek(offset += MappedFileCommitTable.RECORD_SIZE);
+            }
+            raf.seek(offset);
+            raf.writeLong(7000);
+        }
+
+        try (MappedFileCommitTable commitTable = new MappedFileCommitTable(directory, SMALL_SEGMENT_SIZE)) {
+            CommitTable.Client client = commitTable.getClient();
+            assertEquals(commitTable.countElements(), 24);
+            assertEquals(client.getCommitTimestamp(100).get().get().getValue(), 101);
+            assertEquals(client.getCommitTimestamp(2400).get().get().getValue(), 2401);
+            assertFalse(client.getCommitTimestamp(200).get().isPresent());
+            assertFalse(client.getCommitTimestamp(5000).get().get().isValid());
+            assertFalse(client.getCommitTimestamp(7000).get().isPresent());
+            assertEquals((long) client.readLowWatermark().get(), 50);
+
+            // The log keeps working after the torn record
+            assertTrue(commitTable.getWriter().atomicAddCommittedTransaction(7000, 7001));
+        }
+        try (MappedFileCommitTable commitTable = new MappedFileCommitTable(directory, SMALL_SEGMENT_SIZE)) {
+            assertEquals(commitTable.getClient().getCommitTimestamp(7000).get().get().getValue(), 7001);
+        }
+    }
+
+    @Test(timeOut = 10_000)
+    public void testTruncationBelowLowWatermark() throws Exception {
+        try (MappedFileCommitTable commitTable = new MappedFileCommitTable(directory, SMALL_SEGMENT_SIZE)) {
+            CommitTable.Writer writer = commitTable.getWriter();
+            CommitTable.Client client = commitTable.getClient();
+            for (long startTimestamp = 100; startTimestamp <= 5000; startTimestamp += 100) {
+                writer.addCommittedTransaction(startTimestamp, startTimestamp + 1);
+            }
+            writer.flush();
+            assertEquals(commitTable.countSegments(), 5);
+
+            // All the entries but one are cleaned up by the clients
+            for (long startTimestamp = 100; startTimestamp <= 5000; startTimestamp += 100) {
+                if (startTimestamp != 1500) {
+                    client.deleteCommitEntry(startTimestamp).get();
+                }
+            }
+            writer.updateLowWatermark(5050);
+            writer.flush();
+            assertEquals(commitTable.countSegments(), 1, "Segments below the low watermark must be reclaimed");
+            assertEquals(client.getCommitTimestamp(1500).get().get().getValue(), 1501);
+        }
+
+        // The entry carried forward survives the truncation
+        try (MappedFileCommitTable commitTable = new MappedFileCommitTable(directory, SMALL_SEGMENT_SIZE)) {
+            assertEquals(commitTable.countElements(), 1);
+            assertEquals(commitTable.getClient().getCommitTimestamp(1500).get().get().getValue(), 1501);
+            assertEquals((long) commitTable.getClient().readLowWatermark().get(), 5050);
+        }
+    }
+
+    @Test(timeOut = 10_000)
+    public void testCommitIndex() {
+        CommitIndex index = new CommitIndex();
+        Map<Long, Long> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            long key = random.nextInt(10_000) * (long) CommitTable.MAX_CHECKPOINTS_PER_TXN;
+            if (random.nextBoolean()) {
+                boolean added = index.putIfAbsent(key, key + 1);
+                assertEquals(added, !expected.containsKey(key));
+                if (added) {
+                    expected.put(key, key + 1);
+                }
+            } else {
+                assertEquals(index.remove(key), expected.remove(key) != null);
+            }
+        }
+        assertEquals(index.size(), expected.size());
+        for (long key = 0; key < 10_000 * CommitTable.MAX_CHECKPOINTS_PER_TXN; key += CommitTable.MAX_CHECKPOINTS_PER_TXN) {
+            Long value = expected.get(key);
+            assertEquals(index.get(key), value == null ? CommitIndex.NOT_FOUND : value);
+        }
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.proto;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Capability negotiation between TSO clients and servers. In the handshake each peer advertises its protocol version
+ * and the wire-format features it supports. A connection only uses the features supported by both sides, so a peer
+ * that doesn't know about a feature (e.g. an older release) automatically falls back to the basic wire format.
+ */
+public final class ProtocolCapabilities {
+
+    // Version 1 introduced the capability negotiation. Peers that predate it report version 0 and no features
+    public static final int PROTOCOL_VERSION = 1;
+
+    private ProtocolCapabilities() {
+    }
+
+    /**
+     * Returns the capabilities to advertise in the handshake for the given supported features
+     */
+    public static TSOProto.Capabilities advertise(Set<TSOProto.Feature> supportedFeatures) {
+        return advertise(supportedFeatures, TSOProto.CellIdHash.MURMUR3_128);
+    }
+
+    /**
+     * Returns the capabilities to advertise in the handshake for the given supported features and cell id hash
+     */
+    public static TSOProto.Capabilities advertise(Set<TSOProto.Feature> supportedFeatures,
+                                                  TSOProto.CellIdHash cellIdHash) {
+        return TSOProto.Capabilities.newBuilder()
+                .setProtocolVersion(PROTOCOL_VERSION)
+                .addAllFeatures(supportedFeatures)
+                .setCellIdHash(cellIdHash.getNumber())
+                .build();
+    }
+
+    /**
+     * Returns the cell id hash used by the peer, or null if this peer doesn't know it
+     */
+    public static TSOProto.CellIdHash getCellIdHash(TSOProto.Capabilities peerCapabilities) {
+        return TSOProto.CellIdHash.valueOf(peerCapabilities.getCellIdHash());
+    }
+
+    /**
+     * Returns the features that both peers support. Features unknown to this peer are never part of the result
+     */
+    public static Set<TSOProto.Feature> negotiate(Set<TSOProto.Feature> supportedFeatures,
+                                                  TSOProto.Capabilities peerCapabilities) {
+        Set<TSOProto.Feature> agreedFeatures = EnumSet.noneOf(TSOProto.Feature.class);
+        for (TSOProto.Feature feature : peerCapabilities.getFeaturesList()) {
+            if (supportedFeatures.contains(feature)) {
+                agreedFeatures.add(feature);
+            }
+        }
+        return agreedFeatures;
+    }
+
+    /**
+     * Returns the protocol version that both peers speak
+     */
+    public static int negotiateVersion(TSOProto.Capabilities peerCapabilities) {
+        return Math.min(PROTOCOL_VERSION, peerCapabilities.getProtocolVersion());
+    }
+
+}
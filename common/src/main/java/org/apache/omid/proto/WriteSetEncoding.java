@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.proto;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.apache.omid.proto.TSOProto.CommitRequest;
+import org.apache.omid.proto.TSOProto.Feature;
+import org.apache.phoenix.thirdparty.com.google.common.primitives.Longs;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Encodings of the write set of a commit request. The basic encoding (one tagged varint per cell id) costs up to 11
+ * bytes per cell, as cell ids are 64 bit hashes. When the server supports them, the client uses instead:
+ * <ul>
+ *     <li>Packed fixed64 cell ids, 8 bytes per cell and much cheaper to parse</li>
+ *     <li>For big write sets, the sorted cell ids delta-encoded as varints. The deltas shrink as the write set grows,
+ *     e.g. about 7 bytes per cell for 100K cells</li>
+ * </ul>
+ */
+public final class WriteSetEncoding {
+
+    // Write sets from this size on are delta-encoded when the server supports it. Cell ids are uniformly distributed
+    // hashes, so the deltas of smaller write sets don't fit in less than 8 bytes and are not worth sorting
+    public static final int DELTA_ENCODING_MIN_CELLS = 16 * 1024;
+
+    private WriteSetEncoding() {
+    }
+
+    /**
+     * Adds the first numCells cell ids to the commit request using the most compact encoding in the features agreed
+     * with the server
+     */
+    public static void setCellIds(CommitRequest.Builder builder, long[] cellIds, int numCells, Set<Feature> features) {
+        if (numCells >= DELTA_ENCODING_MIN_CELLS && features.contains(Feature.DELTA_ENCODED_WRITE_SET)) {
+            builder.setDeltaEncodedCellIds(deltaEncode(cellIds, numCells));
+        } else if (features.contains(Feature.PACKED_WRITE_SET)) {
+            builder.addAllPackedCellId(Longs.asList(cellIds).subList(0, numCells));
+        } else {
+            builder.addAllCellId(Longs.asList(cellIds).subList(0, numCells));
+        }
+    }
+
+    /**
+     * Returns the cell ids of the commit request, whatever the encoding used
+     */
+    public static List<Long> getCellIds(CommitRequest request) throws InvalidProtocolBufferException {
+        if (request.hasDeltaEncodedCellIds()) {
+            return Longs.asList(deltaDecode(request.getDeltaEncodedCellIds()));
+        } else if (request.getPackedCellIdCount() > 0) {
+            return request.getPackedCellIdList();
+        }
+        return request.getCellIdList();
+    }
+
+    /**
+     * Returns whether a server that agreed on the features given can decode the write set of the commit request
+     */
+    public static boolean isSupported(CommitRequest request, Set<Feature> features) {
+        if (request.hasDeltaEncodedCellIds()) {
+            return features.contains(Feature.DELTA_ENCODED_WRITE_SET);
+        } else if (request.getPackedCellIdCount() > 0) {
+            return features.contains(Feature.PACKED_WRITE_SET);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the commit request with its write set in the basic encoding, understood by every server
+     */
+    public static CommitRequest toBasicEncoding(CommitRequest request) throws InvalidProtocolBufferException {
+        List<Long> cellIds = getCellIds(request);
+        return CommitRequest.newBuilder(request)
+                .clearDeltaEncodedCellIds()
+                .clearPackedCellId()
+                .clearCellId()
+                .addAllCellId(cellIds)
+                .build();
+    }
+
+    static ByteString deltaEncode(long[] cellIds, int numCells) {
+        long[] sortedCellIds = Arrays.copyOf(cellIds, numCells);
+        Arrays.sort(sortedCellIds);
+        // The deltas are computed with wrap-around, so they are the unsigned distances between consecutive cell ids
+        int size = 0;
+        long previous = 0;
+        for (long cellId : sortedCellIds) {
+            size += CodedOutputStream.computeRawVarint64Size(cellId - previous);
+            previous = cellId;
+        }
+        byte[] encoded = new byte[size];
+        CodedOutputStream out = CodedOutputStream.newInstance(encoded);
+        try {
+            previous = 0;
+            for (long cellId : sortedCellIds) {
+                out.writeRawVarint64(cellId - previous);
+                previous = cellId;
+            }
+            out.checkNoSpaceLeft();
+        } catch (IOException e) {
+            throw new IllegalStateException("Can't happen writing to a byte array of the right size", e);
+        }
+        return ByteString.copyFrom(encoded);
+    }
+
+    static long[] deltaDecode(ByteString encoded) throws InvalidProtocolBufferException {
+        byte[] bytes = encoded.toByteArray();
+        // The last byte of every varint is the only one with the most significant bit unset
+        int numCells = 0;
+        for (byte b : bytes) {
+            if ((b & 0x80) == 0) {
+                numCells++;
+            }
+        }
+        long[] cellIds = new long[numCells];
+        CodedInputStream in = CodedInputStream.newInstance(bytes);
+        try {
+            long previous = 0;
+            for (int i = 0; i < numCells; i++) {
+                previous += in.readRawVarint64();
+                cellIds[i] = previous;
+            }
+            if (!in.isAtEnd()) {
+                throw new InvalidProtocolBufferException("Truncated delta-encoded write set");
+            }
+        } catch (InvalidProtocolBufferException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new InvalidProtocolBufferException(e.getMessage());
+        }
+        return cellIds;
+    }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.proto;
+
+import org.apache.omid.proto.TSOProto.Capabilities;
+import org.apache.omid.proto.TSOProto.CellIdHash;
+import org.apache.omid.proto.TSOProto.Feature;
+import org.testng.annotations.Test;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class TestProtocolCapabilities {
+
+    @Test(timeOut = 1_000)
+    public void testFeaturesSupportedByBothPeersAreAgreed() {
+        Capabilities peer = ProtocolCapabilities.advertise(EnumSet.of(Feature.BATCHED_MESSAGES));
+        assertEquals(ProtocolCapabilities.negotiate(EnumSet.of(Feature.BATCHED_MESSAGES), peer),
+                     EnumSet.of(Feature.BATCHED_MESSAGES));
+        assertTrue(ProtocolCapabilities.negotiate(EnumSet.noneOf(Feature.class), peer).isEmpty());
+        assertEquals(ProtocolCapabilities.negotiateVersion(peer), ProtocolCapabilities.PROTOCOL_VERSION);
+    }
+
+    @Test(timeOut = 1_000)
+    public void testLegacyPeersFallBackToTheBasicWireFormat() {
+        Capabilities legacyPeer = Capabilities.newBuilder().build();
+        assertTrue(ProtocolCapabilities.negotiate(EnumSet.allOf(Feature.class), legacyPeer).isEmpty());
+        assertEquals(ProtocolCapabilities.negotiateVersion(legacyPeer), 0);
+    }
+
+    @Test(timeOut = 1_000)
+    public void testFeaturesUnknownToThisPeerAreIgnored() throws Exception {
+        // Protocol version 2 and features BATCHED_MESSAGES plus a feature (99) this release doesn't know about
+        byte[] serialized = new byte[] { 0x10, 0x02, 0x18, 0x01, 0x18, 0x63 };
+        Capabilities newerPeer = Capabilities.parseFrom(serialized);
+        Set<Feature> agreed = ProtocolCapabilities.negotiate(EnumSet.allOf(Feature.class), newerPeer);
+        assertEquals(agreed, EnumSet.of(Feature.BATCHED_MESSAGES));
+        assertEquals(ProtocolCapabilities.negotiateVersion(newerPeer), ProtocolCapabilities.PROTOCOL_VERSION);
+    }
+
+    @Test(timeOut = 1_000)
+    public void testCellIdHash() {
+        Capabilities legacyPeer = Capabilities.newBuilder().build();
+        assertEquals(ProtocolCapabilities.getCellIdHash(legacyPeer), CellIdHash.MURMUR3_128);
+        Capabilities peer = ProtocolCapabilities.advertise(EnumSet.noneOf(Feature.class), CellIdHash.XXHASH64);
+        assertEquals(ProtocolCapabilities.getCellIdHash(peer), CellIdHash.XXHASH64);
+        // A hash this release doesn't know about is never mistaken for a known one
+        Capabilities newerPeer = Capabilities.newBuilder().setCellIdHash(99).build();
+        assertNull(ProtocolCapabilities.getCellIdHash(newerPeer));
+    }
+
+}
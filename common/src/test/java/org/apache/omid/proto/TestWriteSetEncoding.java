@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.proto;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.apache.omid.proto.TSOProto.CommitRequest;
+import org.apache.omid.proto.TSOProto.Feature;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestWriteSetEncoding {
+
+    private static final Random RANDOM = new Random(42);
+
+    @Test(timeOut = 10_000)
+    public void testEncodingsRoundTrip() throws Exception {
+        for (int numCells : new int[] { 0, 1, 10, WriteSetEncoding.DELTA_ENCODING_MIN_CELLS, 100_000 }) {
+            long[] cellIds = randomCellIds(numCells);
+            List<Long> expected = sorted(cellIds);
+
+            CommitRequest basic = encode(cellIds, EnumSet.noneOf(Feature.class));
+            assertEquals(basic.getCellIdCount(), numCells);
+            assertEquals(sorted(WriteSetEncoding.getCellIds(basic)), expected);
+
+            CommitRequest packed = encode(cellIds, EnumSet.of(Feature.PACKED_WRITE_SET));
+            assertEquals(packed.getPackedCellIdCount(), numCells);
+            assertEquals(sorted(WriteSetEncoding.getCellIds(packed)), expected);
+
+            CommitRequest compact = encode(cellIds, EnumSet.allOf(Feature.class));
+            assertEquals(compact.hasDeltaEncodedCellIds(), numCells >= WriteSetEncoding.DELTA_ENCODING_MIN_CELLS);
+            assertEquals(WriteSetEncoding.getCellIds(compact).size(), numCells);
+            assertEquals(sorted(WriteSetEncoding.getCellIds(compact)), expected);
+            assertTrue(compact.getSerializedSize() <= basic.getSerializedSize());
+        }
+    }
+
+    @Test(timeOut = 10_000)
+    public void testFallbackToTheBasicEncoding() throws Exception {
+        long[] cellIds = randomCellIds(WriteSetEncoding.DELTA_ENCODING_MIN_CELLS);
+        CommitRequest compact = encode(cellIds, EnumSet.allOf(Feature.class));
+        assertTrue(WriteSetEncoding.isSupported(compact, EnumSet.of(Feature.DELTA_ENCODED_WRITE_SET)));
+        assertFalse(WriteSetEncoding.isSupported(compact, EnumSet.of(Feature.PACKED_WRITE_SET)));
+
+        CommitRequest basic = WriteSetEncoding.toBasicEncoding(compact);
+        assertTrue(WriteSetEncoding.isSupported(basic, EnumSet.noneOf(Feature.class)));
+        assertFalse(basic.hasDeltaEncodedCellIds());
+        assertEquals(basic.getStartTimestamp(), compact.getStartTimestamp());
+        assertEquals(sorted(basic.getCellIdList()), sorted(cellIds));
+    }
+
+    @Test(timeOut = 10_000)
+    public void testCorruptedDeltaEncodedWriteSetsAreRejected() throws Exception {
+        CommitRequest compact = encode(randomCellIds(WriteSetEncoding.DELTA_ENCODING_MIN_CELLS),
+                                       EnumSet.allOf(Feature.class));
+        CommitRequest truncated = CommitRequest.newBuilder(compact)
+                .setDeltaEncodedCellIds(compact.getDeltaEncodedCellIds().concat(
+                        ByteString.copyFrom(new byte[] { (byte) 0x80 })))
+                .build();
+        try {
+            WriteSetEncoding.getCellIds(truncated);
+            fail("The last cell id is truncated");
+        } catch (InvalidProtocolBufferException e) {
+            // Expected
+        }
+    }
+
+    private static CommitRequest encode(long[] cellIds, Set<Feature> features) {
+        CommitRequest.Builder builder = CommitRequest.newBuilder().setStartTimestamp(100);
+        WriteSetEncoding.setCellIds(builder, cellIds, cellIds.length, features);
+        return builder.build();
+    }
+
+    private static long[] randomCellIds(int numCells) {
+        long[] cellIds = new long[numCells];
+        for (int i = 0; i < numCells; i++) {
+            cellIds[i] = RANDOM.nextLong();
+        }
+        return cellIds;
+    }
+
+    private static List<Long> sorted(long[] cellIds) {
+        List<Long> list = new ArrayList<>(cellIds.length);
+        for (long cellId : cellIds) {
+            list.add(cellId);
+        }
+        return sorted(list);
+    }
+
+    private static List<Long> sorted(List<Long> cellIds) {
+        List<Long> list = new ArrayList<>(cellIds);
+        Collections.sort(list);
+        return list;
+    }
+
+}
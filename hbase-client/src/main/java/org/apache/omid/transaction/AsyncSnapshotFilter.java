@@ -0,0 +1,612 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.transaction;
+
+import static org.apache.omid.committable.CommitTable.CommitTimestamp.Location.CACHE;
+import static org.apache.omid.committable.CommitTable.CommitTimestamp.Location.COMMIT_TABLE;
+import static org.apache.omid.committable.CommitTable.CommitTimestamp.Location.NOT_PRESENT;
+import static org.apache.omid.committable.CommitTable.CommitTimestamp.Location.SHADOW_CELL;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.omid.AsyncTableWrapper;
+import org.apache.omid.committable.CommitTable;
+import org.apache.omid.committable.CommitTable.CommitTimestamp;
+import org.apache.omid.transaction.AbstractTransaction.VisibilityLevel;
+import org.apache.omid.transaction.HBaseTransactionManager.CommitTimestampLocatorImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.phoenix.thirdparty.com.google.common.base.Function;
+import org.apache.phoenix.thirdparty.com.google.common.base.Optional;
+import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.AsyncFunction;
+import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.FutureCallback;
+import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.Futures;
+import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Snapshot filter used by {@link AsyncTTable}. It applies the visibility rules of {@link SnapshotFilterImpl}, but the
+ * reads of pending versions and shadow cells and the commit table lookups are composed as futures, so no thread waits
+ * for them. The steps run in the executor passed, so the threads completing the operations of the table and the
+ * commit table only hand over the results.
+ */
+class AsyncSnapshotFilter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncSnapshotFilter.class);
+
+    // Versions read by the pending gets of family deletion markers, as in SnapshotFilterImpl
+    private static final int FAMILY_DELETION_VERSIONS_TO_FETCH = 3;
+
+    private final AsyncTableWrapper table;
+
+    private final CommitTable.Client commitTableClient;
+
+    private final Executor executor;
+
+    /**
+     * @param commitTableClient if null, the one of the transaction manager is used
+     * @param executor          runs the filtering steps
+     */
+    AsyncSnapshotFilter(AsyncTableWrapper table, CommitTable.Client commitTableClient, Executor executor) {
+        this.table = table;
+        this.commitTableClient = commitTableClient;
+        this.executor = executor;
+    }
+
+    ListenableFuture<Result> get(final Get get, final HBaseTransaction transaction) {
+
+        return Futures.transformAsync(table.get(get), new AsyncFunction<Result, Result>() {
+            @Override
+            public ListenableFuture<Result> apply(Result result) {
+                if (result.isEmpty()) {
+                    return Futures.immediateFuture(Result.create(Collections.<Cell>emptyList()));
+                }
+                return Futures.transform(filterCellsForSnapshot(result.listCells(), transaction,
+                                                                get.getMaxVersions(),
+                                                                new ConcurrentHashMap<String, Long>(),
+                                                                get.getAttributesMap()),
+                                         new Function<List<Cell>, Result>() {
+                                             @Override
+                                             public Result apply(List<Cell> cells) {
+                                                 return Result.create(cells);
+                                             }
+                                         }, executor);
+            }
+        }, executor);
+
+    }
+
+    /**
+     * @param versionsToRequest max versions of the scan issued by the client, which drives the versions read when
+     *                          no version of a column is in the snapshot
+     */
+    ListenableFuture<List<Result>> scanAll(final Scan scan, final int versionsToRequest,
+                                           final HBaseTransaction transaction) {
+
+        return Futures.transformAsync(table.scanAll(scan), new AsyncFunction<List<Result>, List<Result>>() {
+            @Override
+            public ListenableFuture<List<Result>> apply(List<Result> rows) {
+                // Shared by the rows of the scan, as the one of the scanner of TTable. Rows are filtered concurrently
+                Map<String, Long> familyDeletionCache = new ConcurrentHashMap<>();
+                List<ListenableFuture<List<Cell>>> filteredRows = new ArrayList<>(rows.size());
+                for (Result row : rows) {
+                    if (!row.isEmpty()) {
+                        filteredRows.add(filterCellsForSnapshot(row.listCells(), transaction, versionsToRequest,
+                                                                familyDeletionCache, scan.getAttributesMap()));
+                    }
+                }
+                return Futures.transform(Futures.allAsList(filteredRows),
+                                         new Function<List<List<Cell>>, List<Result>>() {
+                                             @Override
+                                             public List<Result> apply(List<List<Cell>> rowsInSnapshot) {
+                                                 List<Result> results = new ArrayList<>(rowsInSnapshot.size());
+                                                 for (List<Cell> cells : rowsInSnapshot) {
+                                                     if (!cells.isEmpty()) {
+                                                         results.add(Result.create(cells));
+                                                     }
+                                                 }
+                                                 return results;
+                                             }
+                                         }, executor);
+            }
+        }, executor);
+
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Filtering, see SnapshotFilterImpl.filterCellsForSnapshot()
+    // ----------------------------------------------------------------------------------------------------------------
+
+    private ListenableFuture<List<Cell>> filterCellsForSnapshot(final List<Cell> rawCells,
+                                                                final HBaseTransaction transaction,
+                                                                int versionsToRequest,
+                                                                final Map<String, Long> familyDeletionCache,
+                                                                final Map<String, byte[]> attributeMap) {
+
+        int numberOfVersionsToFetch = versionsToRequest * 2;
+        if (numberOfVersionsToFetch < 1) {
+            numberOfVersionsToFetch = versionsToRequest;
+        }
+        final int versionsToFetch = numberOfVersionsToFetch;
+
+        final Map<Long, Long> commitCache = SnapshotFilterImpl.buildCommitCache(rawCells);
+        ListenableFuture<Void> familyDeletions =
+                buildFamilyDeletionCache(transaction, rawCells, 0, familyDeletionCache, commitCache);
+        return Futures.transformAsync(familyDeletions, new AsyncFunction<Void, List<Cell>>() {
+            @Override
+            public ListenableFuture<List<Cell>> apply(Void ignored) {
+                List<ListenableFuture<List<Cell>>> columnsInSnapshot = new ArrayList<>();
+                for (Collection<Cell> columnCells : groupCellsByColumn(rawCells, transaction)) {
+                    columnsInSnapshot.add(filterColumn(new ArrayList<>(columnCells), 0, new ArrayList<Cell>(),
+                                                       transaction, versionsToFetch, familyDeletionCache,
+                                                       commitCache, attributeMap));
+                }
+                return Futures.transform(Futures.allAsList(columnsInSnapshot),
+                                         new Function<List<List<Cell>>, List<Cell>>() {
+                                             @Override
+                                             public List<Cell> apply(List<List<Cell>> columns) {
+                                                 List<Cell> keyValuesInSnapshot = new ArrayList<>();
+                                                 for (List<Cell> columnInSnapshot : columns) {
+                                                     keyValuesInSnapshot.addAll(columnInSnapshot);
+                                                 }
+                                                 Collections.sort(keyValuesInSnapshot, KeyValue.COMPARATOR);
+                                                 return keyValuesInSnapshot;
+                                             }
+                                         }, executor);
+            }
+        }, executor);
+
+    }
+
+    private static Collection<Collection<Cell>> groupCellsByColumn(List<Cell> rawCells,
+                                                                   HBaseTransaction transaction) {
+        if (transaction.getVisibilityLevel() == VisibilityLevel.SNAPSHOT_ALL) {
+            return SnapshotFilterImpl.groupCellsByColumnFilteringShadowCells(rawCells);
+        }
+        return SnapshotFilterImpl.groupCellsByColumnFilteringShadowCellsAndFamilyDeletion(rawCells);
+    }
+
+    /**
+     * Looks for the versions of a column in the snapshot, from the newest one. If none of the versions read is, the
+     * older ones are read and filtered
+     */
+    private ListenableFuture<List<Cell>> filterColumn(final List<Cell> columnCells, final int index,
+                                                      final List<Cell> columnInSnapshot,
+                                                      final HBaseTransaction transaction,
+                                                      final int versionsToFetch,
+                                                      final Map<String, Long> familyDeletionCache,
+                                                      final Map<Long, Long> commitCache,
+                                                      final Map<String, byte[]> attributeMap) {
+
+        if (index == columnCells.size()) {
+            return readOlderVersions(columnCells.get(index - 1), columnInSnapshot, transaction, versionsToFetch,
+                                     familyDeletionCache, attributeMap);
+        }
+
+        final Cell cell = columnCells.get(index);
+        final boolean inTransaction = SnapshotFilterImpl.isInTransaction(cell, transaction);
+        ListenableFuture<Boolean> visible = inTransaction
+                ? Futures.immediateFuture(true)
+                : Futures.transform(getTSIfInSnapshot(cell, transaction, commitCache),
+                                    new Function<Optional<Long>, Boolean>() {
+                                        @Override
+                                        public Boolean apply(Optional<Long> commitTimestamp) {
+                                            return commitTimestamp.isPresent();
+                                        }
+                                    }, executor);
+        return Futures.transformAsync(visible, new AsyncFunction<Boolean, List<Cell>>() {
+            @Override
+            public ListenableFuture<List<Cell>> apply(Boolean inSnapshot) {
+                if (!inSnapshot) {
+                    return filterColumn(columnCells, index + 1, columnInSnapshot, transaction, versionsToFetch,
+                                        familyDeletionCache, commitCache, attributeMap);
+                }
+                if (transaction.getVisibilityLevel() == VisibilityLevel.SNAPSHOT_ALL) {
+                    columnInSnapshot.add(cell);
+                    if (inTransaction) {
+                        return filterColumn(columnCells, index + 1, columnInSnapshot, transaction, versionsToFetch,
+                                            familyDeletionCache, commitCache, attributeMap);
+                    }
+                } else if (!isDeletedByFamily(cell, familyDeletionCache) && !CellUtils.isTombstone(cell)) {
+                    columnInSnapshot.add(cell);
+                }
+                return Futures.immediateFuture(columnInSnapshot);
+            }
+        }, executor);
+
+    }
+
+    private ListenableFuture<List<Cell>> readOlderVersions(Cell oldestCell, final List<Cell> columnInSnapshot,
+                                                           final HBaseTransaction transaction,
+                                                           final int versionsToFetch,
+                                                           final Map<String, Long> familyDeletionCache,
+                                                           final Map<String, byte[]> attributeMap) {
+
+        Get pendingGet;
+        try {
+            pendingGet = SnapshotFilterImpl.createPendingGet(oldestCell, versionsToFetch);
+        } catch (IOException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+        for (Map.Entry<String, byte[]> entry : attributeMap.entrySet()) {
+            pendingGet.setAttribute(entry.getKey(), entry.getValue());
+        }
+        return Futures.transformAsync(table.get(pendingGet), new AsyncFunction<Result, List<Cell>>() {
+            @Override
+            public ListenableFuture<List<Cell>> apply(Result pendingGetResult) {
+                if (pendingGetResult.isEmpty()) {
+                    return Futures.immediateFuture(columnInSnapshot);
+                }
+                return Futures.transform(filterCellsForSnapshot(pendingGetResult.listCells(), transaction,
+                                                                versionsToFetch, familyDeletionCache, attributeMap),
+                                         new Function<List<Cell>, List<Cell>>() {
+                                             @Override
+                                             public List<Cell> apply(List<Cell> olderInSnapshot) {
+                                                 columnInSnapshot.addAll(olderInSnapshot);
+                                                 return columnInSnapshot;
+                                             }
+                                         }, executor);
+            }
+        }, executor);
+
+    }
+
+    private static boolean isDeletedByFamily(Cell cell, Map<String, Long> familyDeletionCache) {
+        Long familyDeletionCommitTimestamp = familyDeletionCache.get(SnapshotFilterImpl.getRowFamilyString(cell));
+        return familyDeletionCommitTimestamp != null && familyDeletionCommitTimestamp >= cell.getTimestamp();
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Family deletion markers, see SnapshotFilterImpl.buildFamilyDeletionCache()
+    // ----------------------------------------------------------------------------------------------------------------
+
+    private ListenableFuture<Void> buildFamilyDeletionCache(final HBaseTransaction transaction,
+                                                            final List<Cell> rawCells, int index,
+                                                            final Map<String, Long> familyDeletionCache,
+                                                            final Map<Long, Long> commitCache) {
+
+        for (int i = index; i < rawCells.size(); i++) {
+            final Cell cell = rawCells.get(i);
+            if (!CellUtils.isFamilyDeleteCell(cell)) {
+                continue;
+            }
+            final String key = SnapshotFilterImpl.getRowFamilyString(cell);
+            if (familyDeletionCache.containsKey(key)) {
+                return Futures.<Void>immediateFuture(null);
+            }
+            final int next = i + 1;
+            ListenableFuture<Optional<Long>> commitTimestamp = SnapshotFilterImpl.isInTransaction(cell, transaction)
+                    ? Futures.immediateFuture(Optional.of(cell.getTimestamp()))
+                    : getTSIfInSnapshot(cell, transaction, commitCache);
+            return Futures.transformAsync(commitTimestamp, new AsyncFunction<Optional<Long>, Void>() {
+                @Override
+                public ListenableFuture<Void> apply(Optional<Long> commitTimestamp) {
+                    ListenableFuture<Optional<Long>> familyDeletion = commitTimestamp.isPresent()
+                            ? Futures.immediateFuture(commitTimestamp)
+                            : findCommittedFamilyDeletion(cell, transaction);
+                    return Futures.transformAsync(familyDeletion, new AsyncFunction<Optional<Long>, Void>() {
+                        @Override
+                        public ListenableFuture<Void> apply(Optional<Long> familyDeletion) {
+                            if (familyDeletion.isPresent()) {
+                                familyDeletionCache.put(key, familyDeletion.get());
+                            }
+                            return buildFamilyDeletionCache(transaction, rawCells, next, familyDeletionCache,
+                                                            commitCache);
+                        }
+                    }, executor);
+                }
+            }, executor);
+        }
+        return Futures.<Void>immediateFuture(null);
+
+    }
+
+    // Reads the older family deletion markers of the row until one is found in the snapshot
+    private ListenableFuture<Optional<Long>> findCommittedFamilyDeletion(final Cell lastCell,
+                                                                         final HBaseTransaction transaction) {
+
+        Get pendingGet;
+        try {
+            pendingGet = SnapshotFilterImpl.createPendingGet(lastCell, FAMILY_DELETION_VERSIONS_TO_FETCH);
+        } catch (IOException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+        return Futures.transformAsync(table.get(pendingGet), new AsyncFunction<Result, Optional<Long>>() {
+            @Override
+            public ListenableFuture<Optional<Long>> apply(Result result) {
+                List<Cell> resultCells = result.listCells();
+                if (resultCells == null) {
+                    return Futures.immediateFuture(Optional.<Long>absent());
+                }
+                return firstCommittedFamilyDeletion(resultCells, 0, SnapshotFilterImpl.buildCommitCache(resultCells),
+                                                    lastCell, lastCell, transaction);
+            }
+        }, executor);
+
+    }
+
+    private ListenableFuture<Optional<Long>> firstCommittedFamilyDeletion(final List<Cell> cells, int index,
+                                                                          final Map<Long, Long> commitCache,
+                                                                          final Cell readFrom, Cell lastCell,
+                                                                          final HBaseTransaction transaction) {
+
+        for (int i = index; i < cells.size(); i++) {
+            final Cell cell = cells.get(i);
+            if (!CellUtils.isFamilyDeleteCell(cell)) {
+                continue;
+            }
+            final int next = i + 1;
+            return Futures.transformAsync(getTSIfInSnapshot(cell, transaction, commitCache),
+                                          new AsyncFunction<Optional<Long>, Optional<Long>>() {
+                                              @Override
+                                              public ListenableFuture<Optional<Long>> apply(Optional<Long> ts) {
+                                                  if (ts.isPresent()) {
+                                                      return Futures.immediateFuture(ts);
+                                                  }
+                                                  return firstCommittedFamilyDeletion(cells, next, commitCache,
+                                                                                      readFrom, cell, transaction);
+                                              }
+                                          }, executor);
+        }
+        if (lastCell == readFrom) {
+            // No older marker was read, so there's nothing left to look at
+            return Futures.immediateFuture(Optional.<Long>absent());
+        }
+        return findCommittedFamilyDeletion(lastCell, transaction);
+
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Commit timestamps, see SnapshotFilterImpl.locateCellCommitTimestamp()
+    // ----------------------------------------------------------------------------------------------------------------
+
+    private ListenableFuture<Optional<Long>> getTSIfInSnapshot(Cell cell, final HBaseTransaction transaction,
+                                                               Map<Long, Long> commitCache) {
+
+        return Futures.transform(getCommitTimestamp(cell, transaction, commitCache),
+                                 new Function<Optional<Long>, Optional<Long>>() {
+                                     @Override
+                                     public Optional<Long> apply(Optional<Long> commitTimestamp) {
+                                         if (commitTimestamp.isPresent()
+                                                 && commitTimestamp.get() < transaction.getStartTimestamp()) {
+                                             return commitTimestamp;
+                                         }
+                                         return Optional.absent();
+                                     }
+                                 }, executor);
+
+    }
+
+    private ListenableFuture<Optional<Long>> getCommitTimestamp(final Cell cell, HBaseTransaction transaction,
+                                                                Map<Long, Long> commitCache) {
+
+        long startTimestamp = transaction.getStartTimestamp();
+        if (cell.getTimestamp() == startTimestamp) {
+            return Futures.immediateFuture(Optional.of(startTimestamp));
+        }
+
+        HBaseCellId cellId = new HBaseCellId(null,
+                                             CellUtil.cloneRow(cell),
+                                             CellUtil.cloneFamily(cell),
+                                             CellUtil.cloneQualifier(cell),
+                                             cell.getTimestamp());
+        ListenableFuture<CommitTimestamp> tentativeCommitTimestamp =
+                locateCellCommitTimestamp(cellId, transaction.getEpoch(), commitCache,
+                                          commitTableClient(transaction), transaction.isLowLatency());
+        return Futures.transform(tentativeCommitTimestamp, new Function<CommitTimestamp, Optional<Long>>() {
+            @Override
+            public Optional<Long> apply(CommitTimestamp tentativeCommitTimestamp) {
+                // If transaction that added the cell was invalidated
+                if (!tentativeCommitTimestamp.isValid()) {
+                    return Optional.absent();
+                }
+                switch (tentativeCommitTimestamp.getLocation()) {
+                    case COMMIT_TABLE:
+                        // The shadow cell is healed to avoid further lookups in the commit table
+                        healShadowCell(cell, tentativeCommitTimestamp.getValue());
+                        return Optional.of(tentativeCommitTimestamp.getValue());
+                    case CACHE:
+                    case SHADOW_CELL:
+                        return Optional.of(tentativeCommitTimestamp.getValue());
+                    case NOT_PRESENT:
+                    default:
+                        return Optional.absent();
+                }
+            }
+        }, executor);
+
+    }
+
+    private CommitTable.Client commitTableClient(HBaseTransaction transaction) {
+        if (commitTableClient != null) {
+            return commitTableClient;
+        }
+        assert (transaction.getTransactionManager() != null);
+        return transaction.getTransactionManager().getCommitTableClient();
+    }
+
+    private ListenableFuture<CommitTimestamp> locateCellCommitTimestamp(final HBaseCellId cellId, final long epoch,
+                                                                        Map<Long, Long> commitCache,
+                                                                        final CommitTable.Client commitTableClient,
+                                                                        final boolean isLowLatency) {
+
+        final long cellStartTimestamp = cellId.getTimestamp();
+
+        // 1) First check the cache
+        Long cachedCommitTimestamp = commitCache.get(cellStartTimestamp);
+        if (cachedCommitTimestamp != null) {
+            return Futures.immediateFuture(new CommitTimestamp(CACHE, cachedCommitTimestamp, true));
+        }
+
+        // 2) Then check the commit table
+        return Futures.transformAsync(commitTableClient.getCommitTimestamp(cellStartTimestamp),
+                                      new AsyncFunction<Optional<CommitTimestamp>, CommitTimestamp>() {
+            @Override
+            public ListenableFuture<CommitTimestamp> apply(final Optional<CommitTimestamp> commitTimestampFromCT) {
+                // If the data was written at a previous epoch, check whether the transaction was invalidated
+                final boolean invalidatedByOther;
+                if (commitTimestampFromCT.isPresent()) {
+                    if (isLowLatency && !commitTimestampFromCT.get().isValid()) {
+                        invalidatedByOther = true;
+                    } else {
+                        return Futures.immediateFuture(commitTimestampFromCT.get());
+                    }
+                } else {
+                    invalidatedByOther = false;
+                }
+
+                // 3) Read from shadow cell
+                return Futures.transformAsync(readCommitTimestampFromShadowCell(cellId),
+                                              new AsyncFunction<Optional<CommitTimestamp>, CommitTimestamp>() {
+                    @Override
+                    public ListenableFuture<CommitTimestamp> apply(Optional<CommitTimestamp> commitTimestamp) {
+                        if (commitTimestamp.isPresent()) {
+                            return Futures.immediateFuture(commitTimestamp.get());
+                        }
+                        // In case of LL, if found invalid ct cell, still must check sc in stage 3 then return
+                        if (invalidatedByOther) {
+                            return Futures.immediateFuture(commitTimestampFromCT.get());
+                        }
+                        // 4) Check the epoch and invalidate the entry
+                        // if the data was written by a transaction from a previous epoch (previous TSO)
+                        if (cellStartTimestamp < epoch || isLowLatency) {
+                            return invalidateCellTransaction(cellId, commitTableClient, isLowLatency);
+                        }
+                        return locateAfterFailedInvalidation(cellId, commitTableClient);
+                    }
+                }, executor);
+            }
+        }, executor);
+
+    }
+
+    private ListenableFuture<CommitTimestamp> invalidateCellTransaction(final HBaseCellId cellId,
+                                                                        final CommitTable.Client commitTableClient,
+                                                                        final boolean isLowLatency) {
+
+        final long cellStartTimestamp = cellId.getTimestamp();
+        return Futures.transformAsync(commitTableClient.tryInvalidateTransaction(cellStartTimestamp),
+                                      new AsyncFunction<Boolean, CommitTimestamp>() {
+            @Override
+            public ListenableFuture<CommitTimestamp> apply(Boolean invalidated) {
+                if (!invalidated) {
+                    return locateAfterFailedInvalidation(cellId, commitTableClient);
+                }
+                final CommitTimestamp invalid =
+                        new CommitTimestamp(COMMIT_TABLE, CommitTable.INVALID_TRANSACTION_MARKER, false);
+                if (!isLowLatency) {
+                    return Futures.immediateFuture(invalid);
+                }
+                // If we are running lowLatency Omid, we could have manged to invalidate a ct entry,
+                // but the committing client already wrote to shadow cells:
+                return Futures.transform(readCommitTimestampFromShadowCell(cellId),
+                                         new Function<Optional<CommitTimestamp>, CommitTimestamp>() {
+                    @Override
+                    public CommitTimestamp apply(Optional<CommitTimestamp> commitTimestamp) {
+                        if (commitTimestamp.isPresent()) {
+                            // Remove false invalidation from commit table
+                            commitTableClient.deleteCommitEntry(cellStartTimestamp);
+                            return commitTimestamp.get();
+                        }
+                        return invalid;
+                    }
+                }, executor);
+            }
+        }, executor);
+
+    }
+
+    // We did not manage to invalidate the transaction, so it committed in the meantime or it's still running
+    private ListenableFuture<CommitTimestamp> locateAfterFailedInvalidation(final HBaseCellId cellId,
+                                                                            CommitTable.Client commitTableClient) {
+
+        // 5) Check the commit table
+        return Futures.transformAsync(commitTableClient.getCommitTimestamp(cellId.getTimestamp()),
+                                      new AsyncFunction<Optional<CommitTimestamp>, CommitTimestamp>() {
+            @Override
+            public ListenableFuture<CommitTimestamp> apply(Optional<CommitTimestamp> commitTimestamp) {
+                if (commitTimestamp.isPresent()) {
+                    return Futures.immediateFuture(commitTimestamp.get());
+                }
+                // 6) Read from shadow cell
+                return Futures.transform(readCommitTimestampFromShadowCell(cellId),
+                                         new Function<Optional<CommitTimestamp>, CommitTimestamp>() {
+                    @Override
+                    public CommitTimestamp apply(Optional<CommitTimestamp> commitTimestamp) {
+                        if (commitTimestamp.isPresent()) {
+                            return commitTimestamp.get();
+                        }
+                        // *) Otherwise return not found
+                        return new CommitTimestamp(NOT_PRESENT, -1L, true);
+                    }
+                }, executor);
+            }
+        }, executor);
+
+    }
+
+    private ListenableFuture<Optional<CommitTimestamp>> readCommitTimestampFromShadowCell(final HBaseCellId cellId) {
+
+        Get shadowCellGet;
+        try {
+            shadowCellGet = CommitTimestampLocatorImpl.shadowCellGet(cellId, cellId.getTimestamp());
+        } catch (IOException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+        return Futures.transform(table.get(shadowCellGet), new Function<Result, Optional<CommitTimestamp>>() {
+            @Override
+            public Optional<CommitTimestamp> apply(Result result) {
+                Optional<Long> commitTimestamp =
+                        CommitTimestampLocatorImpl.commitTimestampFromShadowCell(cellId, result);
+                if (commitTimestamp.isPresent()) {
+                    return Optional.of(new CommitTimestamp(SHADOW_CELL, commitTimestamp.get(), true));
+                }
+                return Optional.absent();
+            }
+        }, executor);
+
+    }
+
+    private void healShadowCell(final Cell cell, long commitTimestamp) {
+        ListenableFuture<Void> put = table.put(SnapshotFilterImpl.shadowCellPut(cell, commitTimestamp));
+        Futures.addCallback(put, new FutureCallback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                LOG.warn("Failed healing shadow cell for kv {}", cell, t);
+            }
+        }, executor);
+    }
+
+}
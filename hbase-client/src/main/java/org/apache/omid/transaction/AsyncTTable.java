@@ -0,0 +1,259 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.transaction;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.omid.AsyncConnectionWrapper;
+import org.apache.omid.AsyncTableWrapper;
+import org.apache.omid.committable.CommitTable;
+
+import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.AsyncFunction;
+import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.Futures;
+import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Provides non-blocking transactional methods for accessing and modifying a given snapshot of data identified by an
+ * opaque {@link Transaction} object. It's built on the asynchronous client of HBase 2.x. HBase 1.x has no such client,
+ * so there the operations are run on a pool of threads.
+ *
+ * The snapshot filtering is the same as in {@link TTable}. The rows, their pending versions and shadow cells and the
+ * commit table entries are read without blocking, so a thread can keep many transactional reads in flight. The
+ * filtering steps run in the executor passed.
+ *
+ * The writes are sent as soon as they are issued instead of being buffered until commit, so their futures must
+ * complete before reading them back or committing the transaction. The writeSet of the transactions is tracked through
+ * an underlying {@link TTable}, so transactions can write with both. The updates of the writeSet of a transaction are
+ * serialized, so its writes can be issued from several threads.
+ */
+public class AsyncTTable implements Closeable {
+
+    private final TTable table;
+
+    private final AsyncTableWrapper asyncTable;
+
+    private final AsyncSnapshotFilter snapshotFilter;
+
+    private final Executor executor;
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Construction
+    // ----------------------------------------------------------------------------------------------------------------
+
+    public AsyncTTable(Connection connection, AsyncConnectionWrapper asyncConnection, Executor executor,
+                       String tableName) throws IOException {
+        this(connection, asyncConnection, executor, tableName, null);
+    }
+
+    /**
+     * @param connection      used for tracking the writeSet
+     * @param asyncConnection shared connection the operations are issued through. It's not closed with the table
+     * @param executor        runs the snapshot filtering steps and the continuations of the deletions, so the threads
+     *                        completing the operations of the asynchronous connection aren't held
+     */
+    public AsyncTTable(Connection connection, AsyncConnectionWrapper asyncConnection, Executor executor,
+                       String tableName, CommitTable.Client commitTableClient) throws IOException {
+        this(new TTable(connection, tableName, commitTableClient),
+             asyncConnection.getTable(TableName.valueOf(tableName)),
+             executor,
+             commitTableClient);
+    }
+
+    AsyncTTable(TTable table, AsyncTableWrapper asyncTable, Executor executor, CommitTable.Client commitTableClient)
+            throws IOException {
+        this.table = table;
+        this.asyncTable = asyncTable;
+        this.executor = executor;
+        this.snapshotFilter = new AsyncSnapshotFilter(asyncTable, commitTableClient, executor);
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Closeable implementation
+    // ----------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Releases the underlying {@link TTable}. The asynchronous connection and the executor are shared, so they are
+     * left open
+     *
+     * @throws IOException if a remote or network exception occurs.
+     */
+    @Override
+    public void close() throws IOException {
+        table.close();
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Transactional operations
+    // ----------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Non-blocking version of {@link TTable#get(Transaction, Get)}
+     *
+     * @param tx  an instance of transaction to be used
+     * @param get an instance of Get
+     * @return future with the cells of the snapshot read
+     */
+    public ListenableFuture<Result> get(Transaction tx, Get get) {
+
+        TTable.throwExceptionIfOpSetsTimerange(get);
+
+        HBaseTransaction transaction = TTable.enforceHBaseTransactionAsParam(tx);
+
+        try {
+            return snapshotFilter.get(TTable.snapshotGet(get, transaction.getReadTimestamp()), transaction);
+        } catch (IOException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    /**
+     * Non-blocking version of {@link TTable#get(Transaction, List)}. The gets are issued in parallel
+     *
+     * @param tx   an instance of transaction to be used
+     * @param gets list of Get instances
+     * @return future with the results, in the order of the gets
+     */
+    public ListenableFuture<List<Result>> get(Transaction tx, List<Get> gets) {
+
+        List<ListenableFuture<Result>> results = new ArrayList<>(gets.size());
+        for (Get get : gets) {
+            results.add(get(tx, get));
+        }
+        return Futures.allAsList(results);
+    }
+
+    /**
+     * Non-blocking version of {@link TTable#getScanner(Transaction, Scan)}. All the rows are returned at once, so it's
+     * meant for scans of bounded size
+     *
+     * @param tx   an instance of transaction to be used
+     * @param scan an instance of Scan
+     * @return future with the rows of the snapshot scanned
+     */
+    public ListenableFuture<List<Result>> scanAll(Transaction tx, Scan scan) {
+
+        TTable.throwExceptionIfOpSetsTimerange(scan);
+
+        HBaseTransaction transaction = TTable.enforceHBaseTransactionAsParam(tx);
+
+        try {
+            return snapshotFilter.scanAll(TTable.snapshotScan(scan, transaction.getReadTimestamp()),
+                                          scan.getMaxVersions(), transaction);
+        } catch (IOException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    /**
+     * Non-blocking version of {@link TTable#put(Transaction, Put)}
+     *
+     * @param tx  an instance of transaction to be used
+     * @param put an instance of Put
+     * @return future completed when the cells have been written
+     */
+    public ListenableFuture<Void> put(Transaction tx, Put put) {
+
+        try {
+            Put tsput;
+            synchronized (tx) {
+                tsput = table.putInternal(tx, put, false);
+            }
+            return asyncTable.put(tsput);
+        } catch (IOException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    /**
+     * Non-blocking version of {@link TTable#put(Transaction, List)}
+     *
+     * @param tx   an instance of transaction to be used
+     * @param puts list of Put instances
+     * @return future completed when all the cells have been written
+     */
+    public ListenableFuture<Void> put(Transaction tx, List<Put> puts) {
+
+        List<Put> tsputs = new ArrayList<>(puts.size());
+        try {
+            synchronized (tx) {
+                for (Put put : puts) {
+                    tsputs.add(table.putInternal(tx, put, false));
+                }
+            }
+        } catch (IOException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+        return asyncTable.put(tsputs);
+    }
+
+    /**
+     * Non-blocking version of {@link TTable#delete(Transaction, Delete)}. Whole row and family deletions read the
+     * columns deleted first and add them to the writeSet in the executor when they arrive
+     *
+     * @param tx     an instance of transaction to be used
+     * @param delete an instance of Delete
+     * @return future completed when the tombstones have been written
+     */
+    public ListenableFuture<Void> delete(Transaction tx, final Delete delete) {
+
+        TTable.throwExceptionIfOpSetsTimerange(delete);
+
+        final HBaseTransaction transaction = TTable.enforceHBaseTransactionAsParam(tx);
+        TTable.throwExceptionIfTransactionIsReadOnly(transaction);
+
+        Get deleteG = table.deletionGet(transaction, delete);
+        ListenableFuture<Result> deletedColumns =
+                deleteG == null ? Futures.<Result>immediateFuture(null) : get(transaction, deleteG);
+        return Futures.transformAsync(deletedColumns, new AsyncFunction<Result, Void>() {
+            @Override
+            public ListenableFuture<Void> apply(Result deletedColumns) throws IOException {
+                Put deleteP;
+                synchronized (transaction) {
+                    deleteP = table.deleteInternal(transaction, delete, deletedColumns);
+                }
+                if (deleteP.isEmpty()) {
+                    return Futures.immediateFuture(null);
+                }
+                return asyncTable.put(deleteP);
+            }
+        }, executor);
+    }
+
+    /**
+     * @return the table used for tracking the writeSet of the transactions
+     */
+    public TTable getTTable() {
+        return table;
+    }
+
+    public byte[] getTableName() {
+        return table.getTableName();
+    }
+
+}
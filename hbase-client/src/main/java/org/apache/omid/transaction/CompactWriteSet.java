@@ -0,0 +1,283 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.transaction;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.omid.proto.TSOProto.CellIdHash;
+
+/**
+ * Write set that packs its cells in byte arenas instead of keeping an {@link HBaseCellId} and its arrays per cell, so
+ * transactions writing millions of cells use a fraction of the heap. Each cell takes its row, family and qualifier
+ * bytes plus 28 bytes in the arena (table index, cell id hash, cell id, timestamp and lengths), and a 16 byte slot in
+ * the open addressing index, which is keyed by the cell id already used to detect conflicts. The arena and the index
+ * start small and grow with the transaction, so transactions writing a few cells stay cheap.
+ *
+ * Cells are compared by content, so writing the same cell twice keeps a single copy. Iterating the set recreates the
+ * cells in insertion order, with their cell ids already computed. Cells can't be removed.
+ *
+ * Not thread-safe, as the rest of the transaction state
+ */
+final class CompactWriteSet extends AbstractSet<HBaseCellId> {
+
+    static final int CHUNK_SIZE = 64 * 1024;
+    static final int INITIAL_CHUNK_SIZE = 256;
+
+    private static final int INITIAL_INDEX_CAPACITY = 8;
+    private static final int ENTRY_OVERHEAD = Bytes.SIZEOF_INT + Bytes.SIZEOF_BYTE + 2 * Bytes.SIZEOF_LONG
+            + Bytes.SIZEOF_SHORT + Bytes.SIZEOF_BYTE + Bytes.SIZEOF_INT;
+
+    // Tables of the cells, referenced by index from the arena
+    private final List<TTable> tables = new ArrayList<>();
+    private final Map<TTable, Integer> tableIndexes = new HashMap<>();
+
+    // Arena chunks and the bytes used in each. Cells are appended to the last chunk, or to a new one twice its size,
+    // up to CHUNK_SIZE. Cells that don't fit in a regular chunk get a chunk of their own
+    private final List<byte[]> chunks = new ArrayList<>();
+    private final List<Integer> chunkSizes = new ArrayList<>();
+
+    // Open addressing index. Addresses are (chunk << 32 | offset) + 1, so 0 marks an empty slot
+    private long[] indexCellIds;
+    private long[] indexAddresses;
+    private int size = 0;
+
+    @Override
+    public boolean add(HBaseCellId cell) {
+        long cellId = cell.getCellId();
+        if (indexAddresses == null) {
+            indexCellIds = new long[INITIAL_INDEX_CAPACITY];
+            indexAddresses = new long[INITIAL_INDEX_CAPACITY];
+        }
+        int slot = findSlot(cell, cellId);
+        if (indexAddresses[slot] != 0) {
+            return false;
+        }
+        indexCellIds[slot] = cellId;
+        indexAddresses[slot] = append(cell, cellId) + 1;
+        if (++size > indexAddresses.length * 3 / 4) {
+            growIndex();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof HBaseCellId) || indexAddresses == null) {
+            return false;
+        }
+        HBaseCellId cell = (HBaseCellId) o;
+        return indexAddresses[findSlot(cell, cell.getCellId())] != 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        tables.clear();
+        tableIndexes.clear();
+        chunks.clear();
+        chunkSizes.clear();
+        indexCellIds = null;
+        indexAddresses = null;
+        size = 0;
+    }
+
+    @Override
+    public Iterator<HBaseCellId> iterator() {
+        return new Iterator<HBaseCellId>() {
+
+            private int chunk = 0;
+            private int offset = 0;
+            private int returned = 0;
+
+            @Override
+            public boolean hasNext() {
+                return returned < size;
+            }
+
+            @Override
+            public HBaseCellId next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                while (offset >= chunkSizes.get(chunk)) {
+                    chunk++;
+                    offset = 0;
+                }
+                byte[] bytes = chunks.get(chunk);
+                int pos = offset;
+                int tableIndex = Bytes.toInt(bytes, pos);
+                pos += Bytes.SIZEOF_INT;
+                CellIdHash cellIdHash = CellIdHash.valueOf(bytes[pos]);
+                pos += Bytes.SIZEOF_BYTE;
+                long cellId = Bytes.toLong(bytes, pos);
+                pos += Bytes.SIZEOF_LONG;
+                long timestamp = Bytes.toLong(bytes, pos);
+                pos += Bytes.SIZEOF_LONG;
+                int rowLength = Bytes.toShort(bytes, pos) & 0xFFFF;
+                pos += Bytes.SIZEOF_SHORT;
+                byte[] row = Arrays.copyOfRange(bytes, pos, pos + rowLength);
+                pos += rowLength;
+                int familyLength = bytes[pos] & 0xFF;
+                pos += Bytes.SIZEOF_BYTE;
+                byte[] family = Arrays.copyOfRange(bytes, pos, pos + familyLength);
+                pos += familyLength;
+                int qualifierLength = Bytes.toInt(bytes, pos);
+                pos += Bytes.SIZEOF_INT;
+                byte[] qualifier = Arrays.copyOfRange(bytes, pos, pos + qualifierLength);
+                offset = pos + qualifierLength;
+                returned++;
+                return new HBaseCellId(tables.get(tableIndex), row, family, qualifier, timestamp,
+                                       cellIdHash, cellId);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("Cells can't be removed from the write set");
+            }
+
+        };
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Helper methods
+    // ----------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the slot of the index holding the cell, or the empty slot where it must be added
+     */
+    private int findSlot(HBaseCellId cell, long cellId) {
+        int mask = indexAddresses.length - 1;
+        int slot = (int) (cellId ^ (cellId >>> 32)) & mask;
+        while (indexAddresses[slot] != 0
+                && (indexCellIds[slot] != cellId || !isStoredAt(indexAddresses[slot] - 1, cell))) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private boolean isStoredAt(long address, HBaseCellId cell) {
+        byte[] bytes = chunks.get((int) (address >>> 32));
+        int pos = (int) address;
+        Integer tableIndex = tableIndexes.get(cell.getTable());
+        if (tableIndex == null || Bytes.toInt(bytes, pos) != tableIndex) {
+            return false;
+        }
+        pos += Bytes.SIZEOF_INT;
+        if (bytes[pos] != cell.getCellIdHash().getNumber()) {
+            return false;
+        }
+        pos += Bytes.SIZEOF_BYTE + Bytes.SIZEOF_LONG;
+        if (Bytes.toLong(bytes, pos) != cell.getTimestamp()) {
+            return false;
+        }
+        pos += Bytes.SIZEOF_LONG;
+        int rowLength = Bytes.toShort(bytes, pos) & 0xFFFF;
+        pos += Bytes.SIZEOF_SHORT;
+        if (!Bytes.equals(bytes, pos, rowLength, cell.getRow(), 0, cell.getRow().length)) {
+            return false;
+        }
+        pos += rowLength;
+        int familyLength = bytes[pos] & 0xFF;
+        pos += Bytes.SIZEOF_BYTE;
+        if (!Bytes.equals(bytes, pos, familyLength, cell.getFamily(), 0, cell.getFamily().length)) {
+            return false;
+        }
+        pos += familyLength;
+        int qualifierLength = Bytes.toInt(bytes, pos);
+        pos += Bytes.SIZEOF_INT;
+        return Bytes.equals(bytes, pos, qualifierLength, cell.getQualifier(), 0, cell.getQualifier().length);
+    }
+
+    /**
+     * Appends the cell to the arena and returns its address
+     */
+    private long append(HBaseCellId cell, long cellId) {
+        byte[] row = cell.getRow();
+        byte[] family = cell.getFamily();
+        byte[] qualifier = cell.getQualifier();
+        if (row.length > 0xFFFF || family.length > 0xFF) {
+            throw new IllegalArgumentException("Row or family too long in " + cell);
+        }
+        int length = ENTRY_OVERHEAD + row.length + family.length + qualifier.length;
+
+        int chunk = chunks.size() - 1;
+        if (chunk < 0 || chunkSizes.get(chunk) + length > chunks.get(chunk).length) {
+            int chunkSize = chunk < 0 ? INITIAL_CHUNK_SIZE : Math.min(chunks.get(chunk).length * 2, CHUNK_SIZE);
+            chunks.add(new byte[Math.max(chunkSize, length)]);
+            chunkSizes.add(0);
+            chunk++;
+        }
+        byte[] bytes = chunks.get(chunk);
+        int offset = chunkSizes.get(chunk);
+
+        int pos = Bytes.putInt(bytes, offset, tableIndex(cell));
+        pos = Bytes.putByte(bytes, pos, (byte) cell.getCellIdHash().getNumber());
+        pos = Bytes.putLong(bytes, pos, cellId);
+        pos = Bytes.putLong(bytes, pos, cell.getTimestamp());
+        pos = Bytes.putShort(bytes, pos, (short) row.length);
+        pos = Bytes.putBytes(bytes, pos, row, 0, row.length);
+        pos = Bytes.putByte(bytes, pos, (byte) family.length);
+        pos = Bytes.putBytes(bytes, pos, family, 0, family.length);
+        pos = Bytes.putInt(bytes, pos, qualifier.length);
+        pos = Bytes.putBytes(bytes, pos, qualifier, 0, qualifier.length);
+        chunkSizes.set(chunk, pos);
+
+        return ((long) chunk << 32) | offset;
+    }
+
+    private int tableIndex(HBaseCellId cell) {
+        Integer tableIndex = tableIndexes.get(cell.getTable());
+        if (tableIndex == null) {
+            tableIndex = tables.size();
+            tables.add(cell.getTable());
+            tableIndexes.put(cell.getTable(), tableIndex);
+        }
+        return tableIndex;
+    }
+
+    private void growIndex() {
+        long[] oldCellIds = indexCellIds;
+        long[] oldAddresses = indexAddresses;
+        indexCellIds = new long[oldAddresses.length * 2];
+        indexAddresses = new long[oldAddresses.length * 2];
+        int mask = indexAddresses.length - 1;
+        for (int i = 0; i < oldAddresses.length; i++) {
+            if (oldAddresses[i] != 0) {
+                int slot = (int) (oldCellIds[i] ^ (oldCellIds[i] >>> 32)) & mask;
+                while (indexAddresses[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                indexCellIds[slot] = oldCellIds[i];
+                indexAddresses[slot] = oldAddresses[i];
+            }
+        }
+    }
+
+}
@@ -0,0 +1,221 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.transaction;
+
+import static org.apache.omid.metrics.MetricsUtils.name;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.omid.metrics.Counter;
+import org.apache.omid.metrics.Gauge;
+import org.apache.omid.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.RateLimiter;
+import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Deletes the cells written by the transactions rolled back in the background, so rolling back doesn't wait for
+ * them. The deletes of the transactions queued are batched together per table and sent at the configured max rate,
+ * so a burst of aborts under contention doesn't compete with the regular transactions for the region servers. The
+ * cells queued are bounded, so when the cleanup falls behind the transactions rolled back delete their cells
+ * synchronously, as without this cleaner.
+ *
+ * Cleaning up is an optimization, as the cells of the transactions rolled back are never read and are eventually
+ * compacted away. So the cleanup of the transactions still queued when the cleaner is closed is abandoned.
+ */
+public class HBaseAsyncRollbackCleaner implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HBaseAsyncRollbackCleaner.class);
+
+    private final Connection connection;
+    private final RateLimiter rateLimiter;
+    private final long maxBacklog;
+    private final BlockingQueue<HBaseTransaction> queue = new LinkedBlockingQueue<>();
+    private final ExecutorService cleanupExecutor;
+
+    // Cells queued for deletion
+    private final AtomicLong backlog = new AtomicLong(0);
+
+    private final Counter cleanedUpTxsCounter;
+    private final Counter failedCleanupsCounter;
+    private final Counter rejectedTxsCounter;
+
+    /**
+     * @param maxDeletesPerSecond max cells deleted per second. 0 doesn't limit the rate
+     * @param maxBacklog          max cells queued for deletion
+     */
+    public HBaseAsyncRollbackCleaner(MetricsRegistry metrics, Connection connection, int maxDeletesPerSecond,
+                                     long maxBacklog) {
+        this.connection = connection;
+        this.rateLimiter = maxDeletesPerSecond > 0 ? RateLimiter.create(maxDeletesPerSecond) : null;
+        this.maxBacklog = maxBacklog;
+        this.cleanedUpTxsCounter = metrics.counter(name("omid", "tm", "hbase", "rollbackCleanup", "txs"));
+        this.failedCleanupsCounter = metrics.counter(name("omid", "tm", "hbase", "rollbackCleanup", "failures"));
+        this.rejectedTxsCounter = metrics.counter(name("omid", "tm", "hbase", "rollbackCleanup", "rejected"));
+        metrics.gauge(name("omid", "tm", "hbase", "rollbackCleanup", "backlog"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return getBacklog();
+            }
+        });
+        this.cleanupExecutor = Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder().setNameFormat("omid-rollback-cleanup-%d").setDaemon(true).build());
+        this.cleanupExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                cleanUp();
+            }
+        });
+    }
+
+    /**
+     * Queues the deletion of the cells written by a transaction rolled back. Its writes must be already flushed
+     *
+     * @return false if the backlog is full, so the cells must be deleted by the caller
+     */
+    public boolean cleanup(HBaseTransaction tx) {
+        long cells = tx.getWriteSet().size() + tx.getConflictFreeWriteSet().size();
+        if (cells == 0) {
+            return true;
+        }
+        if (backlog.addAndGet(cells) > maxBacklog) {
+            backlog.addAndGet(-cells);
+            rejectedTxsCounter.inc();
+            return false;
+        }
+        queue.add(tx);
+        return true;
+    }
+
+    /**
+     * Returns the number of cells queued for deletion
+     */
+    public long getBacklog() {
+        return backlog.get();
+    }
+
+    @Override
+    public void close() {
+        cleanupExecutor.shutdownNow();
+        if (getBacklog() > 0) {
+            LOG.info("Abandoning the cleanup of {} cells of transactions rolled back", getBacklog());
+        }
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Helper methods
+    // ----------------------------------------------------------------------------------------------------------------
+
+    private void cleanUp() {
+        List<HBaseTransaction> txs = new ArrayList<>();
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                txs.add(queue.take());
+                queue.drainTo(txs);
+                try {
+                    cleanUp(txs);
+                } catch (RuntimeException e) {
+                    LOG.warn("Failed cleanup of {} Txs. This issue has been ignored", txs.size(), e);
+                    failedCleanupsCounter.inc();
+                }
+                txs.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void cleanUp(List<HBaseTransaction> txs) throws InterruptedException {
+        try {
+            Map<TableName, List<Mutation>> mutations = new HashMap<>();
+            for (HBaseTransaction tx : txs) {
+                try {
+                    for (HBaseCellId cell : tx.getWriteSet()) {
+                        deleteCell(cell, mutations);
+                    }
+                    for (HBaseCellId cell : tx.getConflictFreeWriteSet()) {
+                        deleteCell(cell, mutations);
+                    }
+                } catch (IOException e) {
+                    LOG.warn("Failed cleanup for Tx {}. This issue has been ignored", tx.getTransactionId(), e);
+                    failedCleanupsCounter.inc();
+                }
+            }
+            for (Map.Entry<TableName, List<Mutation>> entry : mutations.entrySet()) {
+                try {
+                    flushMutations(entry.getKey(), entry.getValue());
+                } catch (IOException e) {
+                    LOG.warn("Failed cleanup of {} cells in table {}. This issue has been ignored",
+                             entry.getValue().size(), entry.getKey(), e);
+                    failedCleanupsCounter.inc();
+                }
+            }
+            cleanedUpTxsCounter.inc(txs.size());
+        } finally {
+            // Whatever the outcome, the cells are no longer queued
+            for (HBaseTransaction tx : txs) {
+                backlog.addAndGet(-(tx.getWriteSet().size() + tx.getConflictFreeWriteSet().size()));
+            }
+        }
+    }
+
+    private void deleteCell(HBaseCellId cell, Map<TableName, List<Mutation>> mutations)
+            throws IOException, InterruptedException {
+
+        TableName table = cell.getTable().getHTable().getName();
+        List<Mutation> tableMutations = mutations.get(table);
+        if (tableMutations == null) {
+            tableMutations = new ArrayList<>();
+            mutations.put(table, tableMutations);
+        }
+        tableMutations.add(HBaseTransaction.cellDeletion(cell));
+        if (tableMutations.size() > HBaseTransaction.MAX_DELETE_BATCH_SIZE) {
+            flushMutations(table, tableMutations);
+            mutations.remove(table);
+        }
+    }
+
+    private void flushMutations(TableName tableName, List<Mutation> mutations)
+            throws IOException, InterruptedException {
+
+        if (rateLimiter != null) {
+            rateLimiter.acquire(mutations.size());
+        }
+        // Tables are not thread-safe, so the ones of the application can't be used from here
+        try (Table table = connection.getTable(tableName)) {
+            table.batch(mutations, new Object[mutations.size()]);
+        }
+    }
+
+}
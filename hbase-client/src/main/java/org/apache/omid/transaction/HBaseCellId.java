@@ -19,6 +19,7 @@ package org.apache.omid.transaction;
 
 import static com.google.common.base.Charsets.UTF_8;
 
+import org.apache.omid.proto.TSOProto.CellIdHash;
 import org.apache.omid.tso.client.CellId;
 
 import org.apache.phoenix.thirdparty.com.google.common.hash.Hasher;
@@ -31,13 +32,33 @@ public class HBaseCellId implements CellId {
     private final byte[] family;
     private final byte[] qualifier;
     private long timestamp;
+    private final CellIdHash cellIdHash;
+
+    // Hashes computed on first use, as the write set is hashed several times. 0 if not computed yet
+    private volatile long cellId = 0;
+    private volatile long rowId = 0;
 
     public HBaseCellId(TTable table, byte[] row, byte[] family, byte[] qualifier, long timestamp) {
+        this(table, row, family, qualifier, timestamp, CellIdHash.MURMUR3_128);
+    }
+
+    public HBaseCellId(TTable table, byte[] row, byte[] family, byte[] qualifier, long timestamp,
+                       CellIdHash cellIdHash) {
         this.timestamp = timestamp;
         this.table = table;
         this.row = row;
         this.family = family;
         this.qualifier = qualifier;
+        this.cellIdHash = cellIdHash;
+    }
+
+    /**
+     * Recreates a cell whose id was already computed, e.g. when it's read back from a {@link CompactWriteSet}
+     */
+    HBaseCellId(TTable table, byte[] row, byte[] family, byte[] qualifier, long timestamp, CellIdHash cellIdHash,
+                long cellId) {
+        this(table, row, family, qualifier, timestamp, cellIdHash);
+        this.cellId = cellId;
     }
 
     public TTable getTable() {
@@ -69,29 +90,68 @@ public class HBaseCellId implements CellId {
                 + ":" + timestamp;
     }
 
+    public CellIdHash getCellIdHash() {
+        return cellIdHash;
+    }
+
     @Override
     public long getCellId() {
-        return getHasher()
-                .putBytes(table.getTableName())
-                .putBytes(row)
-                .putBytes(family)
-                .putBytes(qualifier)
-                .hash().asLong();
+        long id = cellId;
+        if (id == 0) {
+            switch (cellIdHash) {
+                case XXHASH64:
+                    id = XXHash64.hash(qualifier, XXHash64.hash(family, getRowId()));
+                    break;
+                case MURMUR3_128:
+                default:
+                    id = getHasher()
+                            .putBytes(table.getTableName())
+                            .putBytes(row)
+                            .putBytes(family)
+                            .putBytes(qualifier)
+                            .hash().asLong();
+            }
+            cellId = id;
+        }
+        return id;
     }
 
     @Override
     public long getTableId() {
-        return getHasher()
-                .putBytes(table.getTableName())
-                .hash().asLong();
+        return table.getTableId(cellIdHash);
     }
 
     @Override
     public long getRowId() {
-        return getHasher()
-                .putBytes(table.getTableName())
-                .putBytes(row)
-                .hash().asLong();
+        long id = rowId;
+        if (id == 0) {
+            switch (cellIdHash) {
+                case XXHASH64:
+                    id = XXHash64.hash(row, getTableId());
+                    break;
+                case MURMUR3_128:
+                default:
+                    id = getHasher()
+                            .putBytes(table.getTableName())
+                            .putBytes(row)
+                            .hash().asLong();
+            }
+            rowId = id;
+        }
+        return id;
+    }
+
+    /**
+     * Returns the identifier of a table computed with the given hash function
+     */
+    public static long getTableId(byte[] tableName, CellIdHash cellIdHash) {
+        switch (cellIdHash) {
+            case XXHASH64:
+                return XXHash64.hash(tableName, 0);
+            case MURMUR3_128:
+            default:
+                return getHasher().putBytes(tableName).hash().asLong();
+        }
     }
 
     public static Hasher getHasher() {
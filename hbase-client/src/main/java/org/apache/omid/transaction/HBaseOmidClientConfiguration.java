@@ -22,6 +22,7 @@ import com.google.inject.Inject;
 import com.google.inject.name.Named;
 import org.apache.commons.beanutils.BeanUtils;
 import org.apache.omid.YAMLUtils;
+import org.apache.omid.committable.hbase.HBaseCommitTableConfig;
 import org.apache.omid.metrics.MetricsRegistry;
 import org.apache.omid.tools.hbase.SecureHBaseConfig;
 import org.apache.omid.tso.client.OmidClientConfiguration.ConflictDetectionLevel;
@@ -42,6 +43,13 @@ public class HBaseOmidClientConfiguration extends SecureHBaseConfig {
     private static final String CONFIG_FILE_NAME = "hbase-omid-client-config.yml";
     private Configuration hbaseConfiguration = HBaseConfiguration.create();
     private String commitTableName;
+    private int commitTableNumBuckets = HBaseCommitTableConfig.DEFAULT_COMMIT_TABLE_NUM_BUCKETS;
+    private int groupCommitMaxBatchSize = 0;
+    private int readOnlyMaxStalenessInMs = 0;
+    private int tableFlushThreads = 8;
+    private boolean asyncRollbackCleanup = false;
+    private int rollbackCleanupMaxDeletesPerSecond = 0;
+    private long rollbackCleanupMaxBacklog = 1_000_000;
     @Inject
     private OmidClientConfiguration omidClientConfiguration;
     private MetricsRegistry metrics;
@@ -109,6 +117,76 @@ public class HBaseOmidClientConfiguration extends SecureHBaseConfig {
         this.commitTableName = commitTableName;
     }
 
+    public int getCommitTableNumBuckets() {
+        return commitTableNumBuckets;
+    }
+
+    @Inject(optional = true)
+    @Named("omid.client.hbase.commitTableNumBuckets")
+    public void setCommitTableNumBuckets(int commitTableNumBuckets) {
+        this.commitTableNumBuckets = commitTableNumBuckets;
+    }
+
+    public int getGroupCommitMaxBatchSize() {
+        return groupCommitMaxBatchSize;
+    }
+
+    @Inject(optional = true)
+    @Named("omid.client.hbase.groupCommitMaxBatchSize")
+    public void setGroupCommitMaxBatchSize(int groupCommitMaxBatchSize) {
+        this.groupCommitMaxBatchSize = groupCommitMaxBatchSize;
+    }
+
+    public int getReadOnlyMaxStalenessInMs() {
+        return readOnlyMaxStalenessInMs;
+    }
+
+    @Inject(optional = true)
+    @Named("omid.client.hbase.readOnlyMaxStalenessInMs")
+    public void setReadOnlyMaxStalenessInMs(int readOnlyMaxStalenessInMs) {
+        this.readOnlyMaxStalenessInMs = readOnlyMaxStalenessInMs;
+    }
+
+    public int getTableFlushThreads() {
+        return tableFlushThreads;
+    }
+
+    @Inject(optional = true)
+    @Named("omid.client.hbase.tableFlushThreads")
+    public void setTableFlushThreads(int tableFlushThreads) {
+        this.tableFlushThreads = tableFlushThreads;
+    }
+
+    public boolean isAsyncRollbackCleanup() {
+        return asyncRollbackCleanup;
+    }
+
+    @Inject(optional = true)
+    @Named("omid.client.hbase.asyncRollbackCleanup")
+    public void setAsyncRollbackCleanup(boolean asyncRollbackCleanup) {
+        this.asyncRollbackCleanup = asyncRollbackCleanup;
+    }
+
+    public int getRollbackCleanupMaxDeletesPerSecond() {
+        return rollbackCleanupMaxDeletesPerSecond;
+    }
+
+    @Inject(optional = true)
+    @Named("omid.client.hbase.rollbackCleanupMaxDeletesPerSecond")
+    public void setRollbackCleanupMaxDeletesPerSecond(int rollbackCleanupMaxDeletesPerSecond) {
+        this.rollbackCleanupMaxDeletesPerSecond = rollbackCleanupMaxDeletesPerSecond;
+    }
+
+    public long getRollbackCleanupMaxBacklog() {
+        return rollbackCleanupMaxBacklog;
+    }
+
+    @Inject(optional = true)
+    @Named("omid.client.hbase.rollbackCleanupMaxBacklog")
+    public void setRollbackCleanupMaxBacklog(long rollbackCleanupMaxBacklog) {
+        this.rollbackCleanupMaxBacklog = rollbackCleanupMaxBacklog;
+    }
+
     public OmidClientConfiguration getOmidClientConfiguration() {
         return omidClientConfiguration;
     }
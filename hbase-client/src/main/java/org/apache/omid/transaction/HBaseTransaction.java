@@ -24,32 +24,57 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.apache.hadoop.hbase.client.Delete;
 import org.apache.hadoop.hbase.client.Mutation;
 import org.apache.hadoop.hbase.client.Table;
+import org.apache.phoenix.thirdparty.com.google.common.base.Optional;
+import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.MoreExecutors;
+import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.Uninterruptibles;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class HBaseTransaction extends AbstractTransaction<HBaseCellId> {
     private static final Logger LOG = LoggerFactory.getLogger(HBaseTransaction.class);
     static final int MAX_DELETE_BATCH_SIZE = 1000;
+
+    // Tables written by the transaction, tracked as the writeSet grows so they are not rebuilt from it on flush
+    private final Set<TTable> writtenTables = new HashSet<>();
     
     public HBaseTransaction(long transactionId, long epoch, Set<HBaseCellId> writeSet,
                             Set<HBaseCellId> conflictFreeWriteSet, AbstractTransactionManager tm, boolean isLowLatency) {
         super(transactionId, epoch, writeSet, conflictFreeWriteSet, tm, isLowLatency);
+        addWrittenTables(writeSet, conflictFreeWriteSet);
     }
 
     public HBaseTransaction(long transactionId, long epoch, Set<HBaseCellId> writeSet,
                             Set<HBaseCellId> conflictFreeWriteSet, AbstractTransactionManager tm,
                             long readTimestamp, long writeTimestamp, boolean isLowLatency) {
         super(transactionId, epoch, writeSet, conflictFreeWriteSet, tm, readTimestamp, writeTimestamp, isLowLatency);
+        addWrittenTables(writeSet, conflictFreeWriteSet);
     }
 
     public HBaseTransaction(long transactionId, long readTimestamp, VisibilityLevel visibilityLevel, long epoch,
                             Set<HBaseCellId> writeSet, Set<HBaseCellId> conflictFreeWriteSet,
                             AbstractTransactionManager tm, boolean isLowLatency) {
         super(transactionId, readTimestamp, visibilityLevel, epoch, writeSet, conflictFreeWriteSet, tm, isLowLatency);
+        addWrittenTables(writeSet, conflictFreeWriteSet);
+    }
+
+    @Override
+    public void addWriteSetElement(HBaseCellId element) {
+        super.addWriteSetElement(element);
+        writtenTables.add(element.getTable());
+    }
+
+    @Override
+    public void addConflictFreeWriteSetElement(HBaseCellId element) {
+        super.addConflictFreeWriteSetElement(element);
+        writtenTables.add(element.getTable());
     }
 
 
@@ -57,10 +82,18 @@ public class HBaseTransaction extends AbstractTransaction<HBaseCellId> {
         table.batch(mutations, new Object[mutations.size()]);
     }
 
-    private void deleteCell(HBaseCellId cell, Map<Table,List<Mutation>> mutations) throws IOException, InterruptedException {
-
+    /**
+     * Returns the Delete that removes the version of a cell written by a transaction rolled back
+     */
+    static Delete cellDeletion(HBaseCellId cell) {
         Delete delete = new Delete(cell.getRow());
         delete.addColumn(cell.getFamily(), cell.getQualifier(), cell.getTimestamp());
+        return delete;
+    }
+
+    private void deleteCell(HBaseCellId cell, Map<Table,List<Mutation>> mutations) throws IOException, InterruptedException {
+
+        Delete delete = cellDeletion(cell);
 
         Table table = cell.getTable().getHTable();
         List<Mutation> tableMutations = mutations.get(table);
@@ -80,6 +113,14 @@ public class HBaseTransaction extends AbstractTransaction<HBaseCellId> {
     @Override
     public void cleanup() {
 
+        AbstractTransactionManager tm = getTransactionManager();
+        if (tm instanceof HBaseTransactionManager) {
+            Optional<HBaseAsyncRollbackCleaner> rollbackCleaner = ((HBaseTransactionManager) tm).getRollbackCleaner();
+            if (rollbackCleaner.isPresent() && rollbackCleaner.get().cleanup(this)) {
+                return;
+            }
+        }
+
         Map<Table,List<Mutation>> mutations = new HashMap<>();
 
         try {
@@ -105,9 +146,62 @@ public class HBaseTransaction extends AbstractTransaction<HBaseCellId> {
      * @throws IOException in case of any I/O related issues
      */
     public void flushTables() throws IOException {
+        flushTables(MoreExecutors.newDirectExecutorService());
+    }
+
+    /**
+     * Flushes pending operations for tables touched by transaction concurrently, so a transaction spanning several
+     * tables waits for the slowest flush instead of for all of them. One of the tables is flushed by the calling
+     * thread, the rest on the executor
+     * @param executor the executor that flushes the tables
+     * @throws IOException in case of any I/O related issues. All the flushes are completed before it's thrown
+     */
+    public void flushTables(ExecutorService executor) throws IOException {
+
+        List<TTable> tables = new ArrayList<>(writtenTables.size());
+        for (TTable writtenTable : writtenTables) {
+            if (writtenTable.hasBufferedMutations()) {
+                tables.add(writtenTable);
+            }
+        }
+        if (tables.isEmpty()) {
+            return;
+        }
+
+        List<Future<Void>> flushes = new ArrayList<>(tables.size() - 1);
+        for (final TTable table : tables.subList(1, tables.size())) {
+            flushes.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    table.flushCommits();
+                    return null;
+                }
+            }));
+        }
 
-        for (TTable writtenTable : getWrittenTables()) {
-            writtenTable.flushCommits();
+        IOException failure = null;
+        try {
+            tables.get(0).flushCommits();
+        } catch (IOException e) {
+            failure = e;
+        }
+        for (Future<Void> flush : flushes) {
+            try {
+                // The flushes can't be abandoned, as the writes could reach HBase after the transaction completes
+                Uninterruptibles.getUninterruptibly(flush);
+            } catch (ExecutionException e) {
+                IOException cause = e.getCause() instanceof IOException
+                        ? (IOException) e.getCause()
+                        : new IOException("Failed flushing writes", e.getCause());
+                if (failure == null) {
+                    failure = cause;
+                } else {
+                    failure.addSuppressed(cause);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
         }
 
     }
@@ -116,17 +210,13 @@ public class HBaseTransaction extends AbstractTransaction<HBaseCellId> {
     // Helper methods
     // ****************************************************************************************************************
 
-    private Set<TTable> getWrittenTables() {
-        HashSet<HBaseCellId> writeSet = (HashSet<HBaseCellId>) getWriteSet();
-        Set<TTable> tables = new HashSet<TTable>();
+    private void addWrittenTables(Set<HBaseCellId> writeSet, Set<HBaseCellId> conflictFreeWriteSet) {
         for (HBaseCellId cell : writeSet) {
-            tables.add(cell.getTable());
+            writtenTables.add(cell.getTable());
         }
-        writeSet = (HashSet<HBaseCellId>) getConflictFreeWriteSet();
-        for (HBaseCellId cell : writeSet) {
-            tables.add(cell.getTable());
+        for (HBaseCellId cell : conflictFreeWriteSet) {
+            writtenTables.add(cell.getTable());
         }
-        return tables;
     }
 
 }
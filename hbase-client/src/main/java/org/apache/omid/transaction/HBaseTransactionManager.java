@@ -18,10 +18,12 @@
 package org.apache.omid.transaction;
 
 import java.io.IOException;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.hadoop.hbase.client.Connection;
 import org.apache.hadoop.hbase.client.ConnectionFactory;
@@ -31,10 +33,12 @@ import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.omid.committable.CommitTable;
 import org.apache.omid.committable.hbase.HBaseCommitTable;
 import org.apache.omid.committable.hbase.HBaseCommitTableConfig;
+import org.apache.omid.metrics.Counter;
 import org.apache.omid.tools.hbase.HBaseLogin;
 import org.apache.omid.tso.client.CellId;
 import org.apache.omid.tso.client.OmidClientConfiguration.ConflictDetectionLevel;
 import org.apache.omid.tso.client.TSOClient;
+import org.apache.omid.tso.client.TSOFuture;
 import org.apache.omid.tso.client.TSOProtocol;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -44,17 +48,28 @@ import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.Listening
 import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.MoreExecutors;
 import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+import static org.apache.omid.metrics.MetricsUtils.name;
+
 public class HBaseTransactionManager extends AbstractTransactionManager implements HBaseTransactionClient {
 
     private static final Logger LOG = LoggerFactory.getLogger(HBaseTransactionManager.class);
     private final Connection connection;
+    private final ExecutorService tableFlushExecutor;
+    private final Optional<HBaseAsyncRollbackCleaner> rollbackCleaner;
+
+    // Start timestamp shared by the read-only transactions. See beginReadOnly()
+    private final long readOnlyMaxStalenessInNs;
+    private volatile ReadOnlyTimestamp readOnlyTimestamp = null;
+    private final AtomicBoolean readOnlyTimestampRefreshInProgress = new AtomicBoolean(false);
+    private final Counter readOnlyCachedTimestampsCounter;
+    private final Counter readOnlyFreshTimestampsCounter;
 
     private static class HBaseTransactionFactory implements TransactionFactory<HBaseCellId> {
 
         @Override
         public HBaseTransaction createTransaction(long transactionId, long epoch, AbstractTransactionManager tm) {
 
-            return new HBaseTransaction(transactionId, epoch, new HashSet<HBaseCellId>(), new HashSet<HBaseCellId>(),
+            return new HBaseTransaction(transactionId, epoch, new CompactWriteSet(), new CompactWriteSet(),
                     tm, tm.isLowLatency());
 
         }
@@ -126,7 +141,30 @@ public class HBaseTransactionManager extends AbstractTransactionManager implemen
                                                commitTableClient,
                                                commitTableWriter,
                                                new HBaseTransactionFactory(),
-                                               connection);
+                                               connection,
+                                               buildAsyncExecutor(),
+                                               buildTableFlushExecutor(),
+                                               buildRollbackCleaner(connection));
+        }
+
+        private ListeningExecutorService buildAsyncExecutor() {
+            int threads = Math.max(1, hbaseOmidClientConf.getOmidClientConfiguration().getAsyncExecutorThreads());
+            return MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(threads,
+                    new ThreadFactoryBuilder().setNameFormat("omid-tm-async-%d").setDaemon(true).build()));
+        }
+
+        private ExecutorService buildTableFlushExecutor() {
+            return Executors.newFixedThreadPool(Math.max(1, hbaseOmidClientConf.getTableFlushThreads()),
+                    new ThreadFactoryBuilder().setNameFormat("omid-tm-flush-%d").setDaemon(true).build());
+        }
+
+        private Optional<HBaseAsyncRollbackCleaner> buildRollbackCleaner(Connection connection) {
+            if (!hbaseOmidClientConf.isAsyncRollbackCleanup()) {
+                return Optional.absent();
+            }
+            return Optional.of(new HBaseAsyncRollbackCleaner(hbaseOmidClientConf.getMetrics(), connection,
+                    hbaseOmidClientConf.getRollbackCleanupMaxDeletesPerSecond(),
+                    hbaseOmidClientConf.getRollbackCleanupMaxBacklog()));
         }
 
         private Optional<TSOProtocol> buildTSOClient() throws IOException, InterruptedException {
@@ -137,6 +175,7 @@ public class HBaseTransactionManager extends AbstractTransactionManager implemen
         private Optional<CommitTable.Client> buildCommitTableClient(Connection connection) throws IOException {
             HBaseCommitTableConfig commitTableConf = new HBaseCommitTableConfig();
             commitTableConf.setTableName(hbaseOmidClientConf.getCommitTableName());
+            commitTableConf.setNumBuckets(hbaseOmidClientConf.getCommitTableNumBuckets());
             CommitTable commitTable = new HBaseCommitTable(connection, commitTableConf);
             return Optional.of(commitTable.getClient());
         }
@@ -144,7 +183,11 @@ public class HBaseTransactionManager extends AbstractTransactionManager implemen
         private Optional<CommitTable.Writer> buildCommitTableWriter(Connection connection) throws IOException {
             HBaseCommitTableConfig commitTableConf = new HBaseCommitTableConfig();
             commitTableConf.setTableName(hbaseOmidClientConf.getCommitTableName());
-            CommitTable commitTable = new HBaseCommitTable(connection, commitTableConf);
+            commitTableConf.setNumBuckets(hbaseOmidClientConf.getCommitTableNumBuckets());
+            HBaseCommitTable commitTable = new HBaseCommitTable(connection, commitTableConf);
+            if (hbaseOmidClientConf.getGroupCommitMaxBatchSize() > 0) {
+                return Optional.of(commitTable.getGroupCommitWriter(hbaseOmidClientConf.getGroupCommitMaxBatchSize()));
+            }
             return Optional.of(commitTable.getWriter());
         }
 
@@ -180,15 +223,178 @@ public class HBaseTransactionManager extends AbstractTransactionManager implemen
                                     TSOProtocol tsoClient,
                                     CommitTable.Client commitTableClient,
                                     CommitTable.Writer commitTableWriter,
-                                    HBaseTransactionFactory hBaseTransactionFactory, Connection connection) {
+                                    HBaseTransactionFactory hBaseTransactionFactory, Connection connection,
+                                    ListeningExecutorService asyncExecutor,
+                                    ExecutorService tableFlushExecutor,
+                                    Optional<HBaseAsyncRollbackCleaner> rollbackCleaner) {
 
         super(hBaseOmidClientConfiguration.getMetrics(),
                 postCommitter,
                 tsoClient,
                 commitTableClient,
                 commitTableWriter,
-                hBaseTransactionFactory);
+                hBaseTransactionFactory,
+                asyncExecutor);
         this.connection = connection;
+        this.tableFlushExecutor = tableFlushExecutor;
+        this.rollbackCleaner = rollbackCleaner;
+        this.readOnlyMaxStalenessInNs =
+                TimeUnit.MILLISECONDS.toNanos(hBaseOmidClientConfiguration.getReadOnlyMaxStalenessInMs());
+        this.readOnlyCachedTimestampsCounter = hBaseOmidClientConfiguration.getMetrics()
+                .counter(name("omid", "tm", "hbase", "readOnly", "cachedTimestamps"));
+        this.readOnlyFreshTimestampsCounter = hBaseOmidClientConfiguration.getMetrics()
+                .counter(name("omid", "tm", "hbase", "readOnly", "freshTimestamps"));
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Read-only transactions
+    // ----------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Starts a read-only transaction that reuses the start timestamp obtained from the TSO by a previous read-only
+     * transaction, as long as it was requested less than readOnlyMaxStalenessInMs ago. The snapshot read is the same
+     * a regular transaction started at that timestamp would read, so it's consistent, just slightly in the past. The
+     * shared timestamp is refreshed in the background when it reaches half the
+     * staleness bound, so a steady flow of read-only transactions rarely waits for the TSO.
+     *
+     * @see org.apache.omid.transaction.TransactionManager#beginReadOnly()
+     */
+    @Override
+    public Transaction beginReadOnly() throws TransactionException {
+
+        try {
+            preBegin();
+
+            ReadOnlyTimestamp timestamp = getReadOnlyTimestamp();
+            HBaseTransaction tx = new HBaseTransaction(timestamp.startTimestamp, timestamp.epoch,
+                                                       new CompactWriteSet(), new CompactWriteSet(),
+                                                       this, isLowLatency());
+            tx.setReadOnly();
+
+            postBegin(tx);
+
+            return tx;
+        } catch (TransactionManagerException e) {
+            throw new TransactionException("An error has occured during PreBegin/PostBegin", e);
+        } catch (ExecutionException e) {
+            throw new TransactionException("Could not get new timestamp", e);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new TransactionException("Interrupted getting timestamp", ie);
+        }
+
+    }
+
+    /**
+     * The transaction created reads as if it had started at snapshotTimestamp. Its read timestamp is set just below
+     * it, so the cells written exactly at snapshotTimestamp, which belong to the transaction that got it as start
+     * timestamp, are not taken as written by this transaction.
+     *
+     * @see org.apache.omid.transaction.TransactionManager#beginReadOnly(long)
+     */
+    @Override
+    public Transaction beginReadOnly(long snapshotTimestamp) throws TransactionException {
+
+        long lowWatermark = getLowWatermark();
+        if (snapshotTimestamp < lowWatermark) {
+            throw new TransactionException("Snapshot timestamp " + snapshotTimestamp
+                    + " is below the low watermark " + lowWatermark);
+        }
+
+        try {
+            preBegin();
+
+            HBaseTransaction tx = new HBaseTransaction(snapshotTimestamp, snapshotTimestamp - 1,
+                                                       AbstractTransaction.VisibilityLevel.SNAPSHOT_EXCLUDE_CURRENT,
+                                                       tsoClient.getEpoch(),
+                                                       new CompactWriteSet(), new CompactWriteSet(),
+                                                       this, isLowLatency());
+            tx.setReadOnly();
+
+            postBegin(tx);
+
+            return tx;
+        } catch (TransactionManagerException e) {
+            throw new TransactionException("An error has occured during PreBegin/PostBegin", e);
+        }
+
+    }
+
+    private ReadOnlyTimestamp getReadOnlyTimestamp() throws ExecutionException, InterruptedException {
+
+        ReadOnlyTimestamp cached = readOnlyTimestamp;
+        // A timestamp from a previous TSO epoch can't be reused after a failover
+        if (cached != null && cached.startTimestamp >= tsoClient.getEpoch()) {
+            long age = System.nanoTime() - cached.requestTimeInNs;
+            if (age < readOnlyMaxStalenessInNs) {
+                if (age >= readOnlyMaxStalenessInNs / 2) {
+                    refreshReadOnlyTimestampInBackground();
+                }
+                readOnlyCachedTimestampsCounter.inc();
+                return cached;
+            }
+        }
+
+        long requestTimeInNs = System.nanoTime();
+        long startTimestamp, epoch;
+        do {
+            startTimestamp = tsoClient.getNewStartTimestamp().get();
+            epoch = tsoClient.getEpoch();
+        } while (epoch > startTimestamp);
+        readOnlyFreshTimestampsCounter.inc();
+        return updateReadOnlyTimestamp(new ReadOnlyTimestamp(startTimestamp, epoch, requestTimeInNs));
+
+    }
+
+    private void refreshReadOnlyTimestampInBackground() {
+
+        if (!readOnlyTimestampRefreshInProgress.compareAndSet(false, true)) {
+            return;
+        }
+        final long requestTimeInNs = System.nanoTime();
+        final TSOFuture<Long> future = tsoClient.getNewStartTimestamp();
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    long startTimestamp = future.get();
+                    long epoch = tsoClient.getEpoch();
+                    if (epoch <= startTimestamp) {
+                        updateReadOnlyTimestamp(new ReadOnlyTimestamp(startTimestamp, epoch, requestTimeInNs));
+                    }
+                } catch (ExecutionException | InterruptedException e) {
+                    LOG.warn("Could not refresh the start timestamp for read-only transactions", e);
+                } finally {
+                    readOnlyTimestampRefreshInProgress.set(false);
+                }
+            }
+        }, MoreExecutors.directExecutor());
+
+    }
+
+    private synchronized ReadOnlyTimestamp updateReadOnlyTimestamp(ReadOnlyTimestamp timestamp) {
+
+        if (readOnlyMaxStalenessInNs > 0
+                && (readOnlyTimestamp == null || readOnlyTimestamp.startTimestamp < timestamp.startTimestamp)) {
+            readOnlyTimestamp = timestamp;
+        }
+        return timestamp;
+
+    }
+
+    private static class ReadOnlyTimestamp {
+
+        final long startTimestamp;
+        final long epoch;
+        // Taken before the timestamp was requested, so the staleness is never underestimated
+        final long requestTimeInNs;
+
+        ReadOnlyTimestamp(long startTimestamp, long epoch, long requestTimeInNs) {
+            this.startTimestamp = startTimestamp;
+            this.epoch = epoch;
+            this.requestTimeInNs = requestTimeInNs;
+        }
+
     }
 
     // ----------------------------------------------------------------------------------------------------------------
@@ -196,6 +402,10 @@ public class HBaseTransactionManager extends AbstractTransactionManager implemen
     // ----------------------------------------------------------------------------------------------------------------
     @Override
     public void closeResources() throws IOException {
+        tableFlushExecutor.shutdown();
+        if (rollbackCleaner.isPresent()) {
+            rollbackCleaner.get().close();
+        }
         connection.close();
     }
 
@@ -204,7 +414,7 @@ public class HBaseTransactionManager extends AbstractTransactionManager implemen
         try {
             // Flush all pending writes
             HBaseTransaction hBaseTx = enforceHBaseTransactionAsParam(transaction);
-            hBaseTx.flushTables();
+            hBaseTx.flushTables(tableFlushExecutor);
         } catch (IOException e) {
             throw new TransactionManagerException("Exception while flushing writes", e);
         }
@@ -215,7 +425,7 @@ public class HBaseTransactionManager extends AbstractTransactionManager implemen
         try {
             // Flush all pending writes
             HBaseTransaction hBaseTx = enforceHBaseTransactionAsParam(transaction);
-            hBaseTx.flushTables();
+            hBaseTx.flushTables(tableFlushExecutor);
         } catch (IOException e) {
             throw new TransactionManagerException("Exception while flushing writes", e);
         }
@@ -223,7 +433,7 @@ public class HBaseTransactionManager extends AbstractTransactionManager implemen
 
     @Override
     public long getHashForTable(byte[] tableName) {
-        return HBaseCellId.getHasher().putBytes(tableName).hash().asLong();
+        return HBaseCellId.getTableId(tableName, getCellIdHash());
     }
 
     @Override
@@ -238,6 +448,18 @@ public class HBaseTransactionManager extends AbstractTransactionManager implemen
         }
     }
 
+    /**
+     * Returns the number of cells of the transactions rolled back still waiting to be deleted in the background.
+     * Always 0 when rollbacks delete them before returning
+     */
+    public long getRollbackCleanupBacklog() {
+        return rollbackCleaner.isPresent() ? rollbackCleaner.get().getBacklog() : 0;
+    }
+
+    Optional<HBaseAsyncRollbackCleaner> getRollbackCleaner() {
+        return rollbackCleaner;
+    }
+
     // ----------------------------------------------------------------------------------------------------------------
     // Helper methods
     // ----------------------------------------------------------------------------------------------------------------
@@ -291,13 +513,22 @@ public class HBaseTransactionManager extends AbstractTransactionManager implemen
         @Override
         public Optional<Long> readCommitTimestampFromShadowCell(long startTimestamp) throws IOException {
 
+            return commitTimestampFromShadowCell(hBaseCellId, tableAccessWrapper.get(shadowCellGet(hBaseCellId, startTimestamp)));
+        }
+
+        static Get shadowCellGet(HBaseCellId hBaseCellId, long startTimestamp) throws IOException {
+
             Get get = new Get(hBaseCellId.getRow());
-            byte[] family = hBaseCellId.getFamily();
-            byte[] shadowCellQualifier = CellUtils.addShadowCellSuffixPrefix(hBaseCellId.getQualifier());
-            get.addColumn(family, shadowCellQualifier);
+            get.addColumn(hBaseCellId.getFamily(), CellUtils.addShadowCellSuffixPrefix(hBaseCellId.getQualifier()));
             get.setMaxVersions(1);
             get.setTimeStamp(startTimestamp);
-            Result result = tableAccessWrapper.get(get);
+            return get;
+        }
+
+        static Optional<Long> commitTimestampFromShadowCell(HBaseCellId hBaseCellId, Result result) {
+
+            byte[] family = hBaseCellId.getFamily();
+            byte[] shadowCellQualifier = CellUtils.addShadowCellSuffixPrefix(hBaseCellId.getQualifier());
             if (result.containsColumn(family, shadowCellQualifier)) {
                 return Optional.of(Bytes.toLong(result.getValue(family, shadowCellQualifier)));
             }
@@ -90,7 +90,7 @@ public class SnapshotFilterImpl implements SnapshotFilter {
         this.commitTableClient = commitTableClient;
     }
 
-    private String getRowFamilyString(Cell cell) {
+    static String getRowFamilyString(Cell cell) {
         return Bytes.toString((CellUtil.cloneRow(cell))) + ":" + Bytes.toString(CellUtil.cloneFamily(cell));
     }
 
@@ -113,17 +113,21 @@ public class SnapshotFilterImpl implements SnapshotFilter {
     }
 
     private void healShadowCell(Cell cell, long commitTimestamp) {
+        try {
+            tableAccessWrapper.put(shadowCellPut(cell, commitTimestamp));
+        } catch (IOException e) {
+            LOG.warn("Failed healing shadow cell for kv {}", cell, e);
+        }
+    }
+
+    static Put shadowCellPut(Cell cell, long commitTimestamp) {
         Put put = new Put(CellUtil.cloneRow(cell));
         byte[] family = CellUtil.cloneFamily(cell);
         byte[] shadowCellQualifier = CellUtils.addShadowCellSuffixPrefix(cell.getQualifierArray(),
                                                                    cell.getQualifierOffset(),
                                                                    cell.getQualifierLength());
         put.addColumn(family, shadowCellQualifier, cell.getTimestamp(), Bytes.toBytes(commitTimestamp));
-        try {
-            tableAccessWrapper.put(put);
-        } catch (IOException e) {
-            LOG.warn("Failed healing shadow cell for kv {}", cell, e);
-        }
+        return put;
     }
 
     /**
@@ -304,7 +308,7 @@ public class SnapshotFilterImpl implements SnapshotFilter {
                 commitCache, transaction.isLowLatency());
     }
     
-    private Map<Long, Long> buildCommitCache(List<Cell> rawCells) {
+    static Map<Long, Long> buildCommitCache(List<Cell> rawCells) {
 
         Map<Long, Long> commitCache = new HashMap<>();
 
@@ -368,17 +372,21 @@ public class SnapshotFilterImpl implements SnapshotFilter {
 
 
     public Optional<Long> getTSIfInTransaction(Cell kv, HBaseTransaction transaction) {
+        if (isInTransaction(kv, transaction)) {
+            return Optional.of(kv.getTimestamp());
+        }
+
+        return Optional.absent();
+    }
+
+    static boolean isInTransaction(Cell kv, HBaseTransaction transaction) {
         long startTimestamp = transaction.getStartTimestamp();
         long readTimestamp = transaction.getReadTimestamp();
 
         // A cell was written by a transaction if its timestamp is larger than its startTimestamp and smaller or equal to its readTimestamp.
         // There also might be a case where the cell was written by the transaction and its timestamp equals to its writeTimestamp, however,
         // this case occurs after checkpoint and in this case we do not want to read this data.
-        if (kv.getTimestamp() >= startTimestamp && kv.getTimestamp() <= readTimestamp) {
-            return Optional.of(kv.getTimestamp());
-        }
-
-        return Optional.absent();
+        return kv.getTimestamp() >= startTimestamp && kv.getTimestamp() <= readTimestamp;
     }
 
 
@@ -393,7 +401,7 @@ public class SnapshotFilterImpl implements SnapshotFilter {
         return Optional.absent();
     }
 
-    private Get createPendingGet(Cell cell, int versionCount) throws IOException {
+    static Get createPendingGet(Cell cell, int versionCount) throws IOException {
 
         Get pendingGet = new Get(CellUtil.cloneRow(cell));
         pendingGet.addColumn(CellUtil.cloneFamily(cell), CellUtil.cloneQualifier(cell));
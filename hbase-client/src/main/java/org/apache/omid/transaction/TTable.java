@@ -49,6 +49,7 @@ import org.apache.hadoop.hbase.client.Table;
 import org.apache.hadoop.hbase.io.TimeRange;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.omid.committable.CommitTable;
+import org.apache.omid.proto.TSOProto.CellIdHash;
 import org.apache.omid.tso.client.OmidClientConfiguration.ConflictDetectionLevel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -69,11 +70,22 @@ public class TTable implements Closeable {
     private boolean serverSideFilter;
     
     private final List<Mutation> mutations;
+
+    // Buffered mutations indexed by row, so reads see them without flushing
+    private final WriteBufferOverlay writeBufferOverlay = new WriteBufferOverlay();
+
+    private final long writeBufferSize;
     
     private boolean autoFlush = true;
     
     private final boolean conflictFree;
+
+    // Identifier of the table, hashed on first use
+    private volatile TableId tableId;
     
+    public static final String WRITE_BUFFER_SIZE_KEY = "omid.client.write.buffer.size";
+    public static final long DEFAULT_WRITE_BUFFER_SIZE = 2 * 1024 * 1024;
+
     // ----------------------------------------------------------------------------------------------------------------
     // Construction
     // ----------------------------------------------------------------------------------------------------------------
@@ -130,6 +142,7 @@ public class TTable implements Closeable {
         this.table = hTable;
         this.conflictFree = conflictFree;
         this.mutations = new ArrayList<Mutation>();
+        this.writeBufferSize = writeBufferSize(hTable);
         this.serverSideFilter = serverSideFilter;
         this.snapshotFilter = (serverSideFilter) ?  new AttributeSetSnapshotFilter(hTable) :
                 new SnapshotFilterImpl(new HTableAccessWrapper(hTable, hTable));
@@ -139,6 +152,7 @@ public class TTable implements Closeable {
         this.table = hTable;
         this.conflictFree = conflictFree;
         this.mutations = new ArrayList<Mutation>();
+        this.writeBufferSize = writeBufferSize(hTable);
         this.snapshotFilter = snapshotFilter;
     }
 
@@ -146,11 +160,17 @@ public class TTable implements Closeable {
         this.table = hTable;
         this.conflictFree = conflictFree;
         this.mutations = new ArrayList<Mutation>();
+        this.writeBufferSize = writeBufferSize(hTable);
         this.serverSideFilter = table.getConfiguration().getBoolean("omid.server.side.filter", false);
         this.snapshotFilter = (serverSideFilter) ?  new AttributeSetSnapshotFilter(hTable) :
                 new SnapshotFilterImpl(new HTableAccessWrapper(hTable, hTable), commitTableClient);
     }
 
+    private static long writeBufferSize(Table hTable) {
+        Configuration conf = hTable.getConfiguration();
+        return conf == null ? DEFAULT_WRITE_BUFFER_SIZE : conf.getLong(WRITE_BUFFER_SIZE_KEY, DEFAULT_WRITE_BUFFER_SIZE);
+    }
+
     // ----------------------------------------------------------------------------------------------------------------
     // Closeable implementation
     // ----------------------------------------------------------------------------------------------------------------
@@ -187,11 +207,26 @@ public class TTable implements Closeable {
 
         throwExceptionIfOpSetsTimerange(get);
 
-        flushCommits();
+        // Filters can't be applied to the buffered cells, so they have to be flushed to be read
+        if (get.getFilter() != null) {
+            flushCommits();
+        }
 
         HBaseTransaction transaction = enforceHBaseTransactionAsParam(tx);
 
-        final long readTimestamp = transaction.getReadTimestamp();
+        Result result = snapshotFilter.get(snapshotGet(get, transaction.getReadTimestamp()), transaction);
+        if (writeBufferOverlay.isEmpty()) {
+            return result;
+        }
+        return writeBufferOverlay.merge(get.getRow(), result, get.getFamilyMap(), transaction);
+    }
+
+    /**
+     * Returns the Get that reads the versions of the cells requested that may belong to the snapshot, along with their
+     * shadow cells and the family deletion markers
+     */
+    static Get snapshotGet(Get get, long readTimestamp) throws IOException {
+
         final Get tsget = new Get(get.getRow()).setFilter(get.getFilter());
         propagateAttributes(get, tsget);
         TimeRange timeRange = get.getTimeRange();
@@ -215,7 +250,7 @@ public class TTable implements Closeable {
         }
         LOG.trace("Initial Get = {}", tsget);
 
-        return snapshotFilter.get(tsget, transaction);
+        return tsget;
     }
 
     static private void propagateAttributes(OperationWithAttributes from, OperationWithAttributes to) {
@@ -226,20 +261,19 @@ public class TTable implements Closeable {
         }
     }
 
-    private void familyQualifierBasedDeletion(HBaseTransaction tx, Put deleteP, Get deleteG) throws IOException {
-        Result result = this.get(tx, deleteG);
+    private void familyQualifierBasedDeletion(HBaseTransaction tx, Put deleteP, Result result) {
         if (!result.isEmpty()) {
             for (Entry<byte[], NavigableMap<byte[], NavigableMap<Long, byte[]>>> entryF : result.getMap()
                     .entrySet()) {
                 byte[] family = entryF.getKey();
                 for (Entry<byte[], NavigableMap<Long, byte[]>> entryQ : entryF.getValue().entrySet()) {
                     byte[] qualifier = entryQ.getKey();
-                    addWriteSetElement(tx, new HBaseCellId(this, deleteP.getRow(), family, qualifier,
+                    addWriteSetElement(tx, newCellId(tx, deleteP.getRow(), family, qualifier,
                             tx.getWriteTimestamp()));
                 }
                 deleteP.addColumn(family, CellUtils.FAMILY_DELETE_QUALIFIER, tx.getWriteTimestamp(),
                         CellUtils.DELETE_TOMBSTONE);
-                addWriteSetElement(tx, new HBaseCellId(this, deleteP.getRow(), family, CellUtils.FAMILY_DELETE_QUALIFIER,
+                addWriteSetElement(tx, newCellId(tx, deleteP.getRow(), family, CellUtils.FAMILY_DELETE_QUALIFIER,
                                                 tx.getWriteTimestamp()));
             }
         }
@@ -251,7 +285,7 @@ public class TTable implements Closeable {
         for (byte[] family : fset) {
             deleteP.addColumn(family, CellUtils.FAMILY_DELETE_QUALIFIER, tx.getWriteTimestamp(),
                     CellUtils.DELETE_TOMBSTONE);
-            addWriteSetElement(tx, new HBaseCellId(this, deleteP.getRow(), family, CellUtils.FAMILY_DELETE_QUALIFIER,
+            addWriteSetElement(tx, newCellId(tx, deleteP.getRow(), family, CellUtils.FAMILY_DELETE_QUALIFIER,
                     tx.getWriteTimestamp()));
 
         }
@@ -276,6 +310,45 @@ public class TTable implements Closeable {
         throwExceptionIfOpSetsTimerange(delete);
 
         HBaseTransaction transaction = enforceHBaseTransactionAsParam(tx);
+        throwExceptionIfTransactionIsReadOnly(transaction);
+
+        Get deleteG = deletionGet(transaction, delete);
+        return deleteInternal(transaction, delete, deleteG == null ? null : this.get(transaction, deleteG));
+    }
+
+    /**
+     * Returns the transactional Get that reads the columns removed by a whole row or family deletion, which must be
+     * added to the writeSet for detecting conflicts. null if the deletion doesn't need to read them
+     */
+    Get deletionGet(HBaseTransaction transaction, Delete delete) {
+
+        final Get deleteG = new Get(delete.getRow());
+        propagateAttributes(delete, deleteG);
+        Map<byte[], List<Cell>> fmap = delete.getFamilyCellMap();
+        if (fmap.isEmpty()) {
+            return deleteG;
+        }
+        for (List<Cell> cells : fmap.values()) {
+            for (Cell cell : cells) {
+                if (KeyValue.Type.codeToType(cell.getTypeByte()) == KeyValue.Type.DeleteFamily) {
+                    deleteG.addFamily(CellUtil.cloneFamily(cell));
+                }
+            }
+        }
+        if (!deleteG.hasFamilies() || enforceHBaseTransactionManagerAsParam(transaction.getTransactionManager()).
+                getConflictDetectionLevel() == ConflictDetectionLevel.ROW) {
+            return null;
+        }
+        return deleteG;
+    }
+
+    /**
+     * Returns the Put with the tombstones that implement a deletion, adding the cells deleted to the writeSet
+     *
+     * @param deletedColumns the result of the Get returned by {@link #deletionGet(HBaseTransaction, Delete)}, null if
+     *                       it returned null
+     */
+    Put deleteInternal(HBaseTransaction transaction, Delete delete, Result deletedColumns) throws IOException {
 
         final long writeTimestamp = transaction.getWriteTimestamp();
         boolean deleteFamily = false;
@@ -286,7 +359,7 @@ public class TTable implements Closeable {
         propagateAttributes(delete, deleteG);
         Map<byte[], List<Cell>> fmap = delete.getFamilyCellMap();
         if (fmap.isEmpty()) {
-            familyQualifierBasedDeletion(transaction, deleteP, deleteG);
+            familyQualifierBasedDeletion(transaction, deleteP, deletedColumns);
         }
 
         for (List<Cell> cells : fmap.values()) {
@@ -299,7 +372,7 @@ public class TTable implements Closeable {
                                     writeTimestamp,
                                     CellUtils.DELETE_TOMBSTONE);
                         addWriteSetElement(transaction,
-                            new HBaseCellId(this,
+                            newCellId(transaction,
                                             delete.getRow(),
                                             CellUtil.cloneFamily(cell),
                                             CellUtil.cloneQualifier(cell),
@@ -316,7 +389,7 @@ public class TTable implements Closeable {
                                         writeTimestamp,
                                         CellUtils.DELETE_TOMBSTONE);
                             addWriteSetElement(transaction,
-                                new HBaseCellId(this,
+                                newCellId(transaction,
                                                 delete.getRow(),
                                                 CellUtil.cloneFamily(cell),
                                                 CellUtil.cloneQualifier(cell),
@@ -336,7 +409,7 @@ public class TTable implements Closeable {
                     getConflictDetectionLevel() == ConflictDetectionLevel.ROW) {
                 familyQualifierBasedDeletionWithOutRead(transaction, deleteP, deleteG);
             } else {
-                familyQualifierBasedDeletion(transaction, deleteP, deleteG);
+                familyQualifierBasedDeletion(transaction, deleteP, deletedColumns);
             }
         }
 
@@ -398,11 +471,12 @@ public class TTable implements Closeable {
         addMutation(tsput);
     }
     
-    private Put putInternal(Transaction tx, Put put, boolean addShadowCell) throws IOException {
+    Put putInternal(Transaction tx, Put put, boolean addShadowCell) throws IOException {
 
         throwExceptionIfOpSetsTimerange(put);
 
         HBaseTransaction transaction = enforceHBaseTransactionAsParam(tx);
+        throwExceptionIfTransactionIsReadOnly(transaction);
 
         final long writeTimestamp = transaction.getWriteTimestamp();
 
@@ -426,7 +500,7 @@ public class TTable implements Closeable {
                             kv.getTimestamp(),
                             Bytes.toBytes(kv.getTimestamp()));
                 } else {
-                    HBaseCellId cellId = new HBaseCellId(this,
+                    HBaseCellId cellId = newCellId(transaction,
                             CellUtil.cloneRow(kv),
                             CellUtil.cloneFamily(kv),
                             CellUtil.cloneQualifier(kv),
@@ -450,14 +524,18 @@ public class TTable implements Closeable {
 
     private void addMutation(Mutation m) throws IOException {
         this.mutations.add(m);
-        if (autoFlush) {
+        writeBufferOverlay.add(m);
+        if (autoFlush || writeBufferOverlay.heapSize() >= writeBufferSize) {
             flushCommits();
         }
     }
     
     private void addMutations(List<Mutation> mutations) throws IOException {
         this.mutations.addAll(mutations);
-        if (autoFlush) {
+        for (Mutation m : mutations) {
+            writeBufferOverlay.add(m);
+        }
+        if (autoFlush || writeBufferOverlay.heapSize() >= writeBufferSize) {
             flushCommits();
         }
     }
@@ -473,12 +551,30 @@ public class TTable implements Closeable {
     public ResultScanner getScanner(Transaction tx, Scan scan) throws IOException {
 
         throwExceptionIfOpSetsTimerange(scan);
-        flushCommits();
+        // The buffered cells are merged row by row in ascending order, so the scans that filter, reverse or split the
+        // rows read them from HBase
+        if (scan.hasFilter() || scan.isReversed() || scan.getBatch() > 0 || scan.getAllowPartialResults()) {
+            flushCommits();
+        }
         HBaseTransaction transaction = enforceHBaseTransactionAsParam(tx);
 
+        ResultScanner scanner =
+                snapshotFilter.getScanner(snapshotScan(scan, transaction.getReadTimestamp()), transaction);
+        if (writeBufferOverlay.isEmpty()) {
+            return scanner;
+        }
+        return writeBufferOverlay.mergingScanner(scanner, scan, transaction);
+    }
+
+    /**
+     * Returns the Scan that reads the versions of the cells requested that may belong to the snapshot, along with their
+     * shadow cells and the family deletion markers
+     */
+    static Scan snapshotScan(Scan scan, long readTimestamp) throws IOException {
+
         Scan tsscan = new Scan(scan);
         tsscan.setMaxVersions(1);
-        tsscan.setTimeRange(0, transaction.getReadTimestamp() + 1);
+        tsscan.setTimeRange(0, readTimestamp + 1);
         propagateAttributes(scan, tsscan);
         Map<byte[], NavigableSet<byte[]>> kvs = scan.getFamilyMap();
         for (Map.Entry<byte[], NavigableSet<byte[]>> entry : kvs.entrySet()) {
@@ -495,7 +591,7 @@ public class TTable implements Closeable {
             }
         }
 
-        return snapshotFilter.getScanner(tsscan, transaction);
+        return tsscan;
     }
 
     /**
@@ -506,6 +602,37 @@ public class TTable implements Closeable {
         return table.getName().getName();
     }
 
+    /**
+     * Returns the identifier of the table computed with the given hash function. Cached, as every cell written
+     * includes it
+     */
+    long getTableId(CellIdHash cellIdHash) {
+        TableId id = tableId;
+        if (id == null || id.cellIdHash != cellIdHash) {
+            id = new TableId(cellIdHash, HBaseCellId.getTableId(getTableName(), cellIdHash));
+            tableId = id;
+        }
+        return id.value;
+    }
+
+    private static final class TableId {
+
+        final CellIdHash cellIdHash;
+        final long value;
+
+        TableId(CellIdHash cellIdHash, long value) {
+            this.cellIdHash = cellIdHash;
+            this.value = value;
+        }
+
+    }
+
+    private HBaseCellId newCellId(HBaseTransaction tx, byte[] row, byte[] family, byte[] qualifier, long timestamp) {
+        AbstractTransactionManager tm = tx.getTransactionManager();
+        CellIdHash cellIdHash = tm == null ? CellIdHash.MURMUR3_128 : tm.getCellIdHash();
+        return new HBaseCellId(this, row, family, qualifier, timestamp, cellIdHash);
+    }
+
     /**
      * Delegates to {@link Table#getConfiguration()}
      *
@@ -677,6 +804,14 @@ public class TTable implements Closeable {
         return table;
     }
 
+    /**
+     * When auto flush is disabled, the mutations are buffered until {@link #flushCommits()} is called, the transaction
+     * commits or rolls back, or their size reaches the {@value #WRITE_BUFFER_SIZE_KEY} configured. Transactions read
+     * the mutations they buffered without flushing them
+     *
+     * @param autoFlush whether each mutation is sent to HBase as soon as it's done
+     * @throws IOException if the buffered mutations can't be flushed
+     */
     public void setAutoFlush(boolean autoFlush) throws IOException {
         this.autoFlush = autoFlush;
         flushCommits();
@@ -686,6 +821,10 @@ public class TTable implements Closeable {
         return autoFlush;
     }
 
+    boolean hasBufferedMutations() {
+        return !mutations.isEmpty();
+    }
+
     public void flushCommits() throws IOException {
         try {
             if (this.mutations.size() > 0) {
@@ -696,6 +835,7 @@ public class TTable implements Closeable {
             throw new RuntimeException(e);
         } finally {
             this.mutations.clear();
+            writeBufferOverlay.clear();
         }
     }
 
@@ -703,31 +843,38 @@ public class TTable implements Closeable {
     // Helper methods
     // ----------------------------------------------------------------------------------------------------------------
 
-    private void throwExceptionIfOpSetsTimerange(Get getOperation) {
+    static void throwExceptionIfOpSetsTimerange(Get getOperation) {
         TimeRange tr = getOperation.getTimeRange();
         checkTimerangeIsSetToDefaultValuesOrThrowException(tr);
     }
 
-    private void throwExceptionIfOpSetsTimerange(Scan scanOperation) {
+    static void throwExceptionIfOpSetsTimerange(Scan scanOperation) {
         TimeRange tr = scanOperation.getTimeRange();
         checkTimerangeIsSetToDefaultValuesOrThrowException(tr);
     }
 
-    private void checkTimerangeIsSetToDefaultValuesOrThrowException(TimeRange tr) {
+    static void checkTimerangeIsSetToDefaultValuesOrThrowException(TimeRange tr) {
         if (tr.getMin() != 0L || tr.getMax() != Long.MAX_VALUE) {
             throw new IllegalArgumentException(
                 "Timestamp/timerange not allowed in transactional user operations");
         }
     }
 
-    private void throwExceptionIfOpSetsTimerange(Mutation userOperation) {
+    static void throwExceptionIfOpSetsTimerange(Mutation userOperation) {
         if (userOperation.getTimeStamp() != HConstants.LATEST_TIMESTAMP) {
             throw new IllegalArgumentException(
                 "Timestamp not allowed in transactional user operations");
         }
     }
 
-    private HBaseTransaction enforceHBaseTransactionAsParam(Transaction tx) {
+    static void throwExceptionIfTransactionIsReadOnly(HBaseTransaction transaction) {
+        if (transaction.isReadOnly()) {
+            throw new IllegalArgumentException(
+                String.format("Writes not allowed in read-only transaction %s", transaction));
+        }
+    }
+
+    static HBaseTransaction enforceHBaseTransactionAsParam(Transaction tx) {
         if (tx instanceof HBaseTransaction) {
             return (HBaseTransaction) tx;
         } else {
@@ -737,7 +884,7 @@ public class TTable implements Closeable {
         }
     }
 
-    private HBaseTransactionManager enforceHBaseTransactionManagerAsParam(TransactionManager tm) {
+    static HBaseTransactionManager enforceHBaseTransactionManagerAsParam(TransactionManager tm) {
         if (tm instanceof HBaseTransactionManager) {
             return (HBaseTransactionManager) tm;
         } else {
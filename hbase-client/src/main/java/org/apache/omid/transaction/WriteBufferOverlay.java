@@ -0,0 +1,323 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.transaction;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.metrics.ScanMetrics;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.omid.transaction.AbstractTransaction.VisibilityLevel;
+
+/**
+ * Index of the mutations buffered in a {@link TTable} that haven't been sent to HBase yet, sorted by row. The reads
+ * merge it into the snapshot read from HBase, so transactions read their own writes without flushing them. Only the
+ * cells written by the transaction reading are merged, i.e. the ones with timestamps between its start and read
+ * timestamps, so a table can buffer the writes of several transactions
+ */
+class WriteBufferOverlay {
+
+    private static final Result EMPTY_RESULT = Result.create(Collections.<Cell>emptyList());
+
+    private final NavigableMap<byte[], List<Cell>> rows = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+
+    private long heapSize = 0;
+
+    void add(Mutation mutation) {
+        List<Cell> rowCells = rows.get(mutation.getRow());
+        if (rowCells == null) {
+            rowCells = new ArrayList<>();
+            rows.put(mutation.getRow(), rowCells);
+        }
+        for (List<Cell> cells : mutation.getFamilyCellMap().values()) {
+            for (Cell cell : cells) {
+                if (!CellUtils.isShadowCell(cell)) {
+                    rowCells.add(cell);
+                }
+            }
+        }
+        heapSize += mutation.heapSize();
+    }
+
+    boolean isEmpty() {
+        return rows.isEmpty();
+    }
+
+    /**
+     * @return the estimated size of the mutations buffered
+     */
+    long heapSize() {
+        return heapSize;
+    }
+
+    void clear() {
+        rows.clear();
+        heapSize = 0;
+    }
+
+    /**
+     * Merges the cells buffered by a transaction into the snapshot of a row it read from HBase
+     *
+     * @param familyMap the columns read, as in {@link org.apache.hadoop.hbase.client.Get#getFamilyMap()}
+     */
+    Result merge(byte[] row, Result snapshot, Map<byte[], NavigableSet<byte[]>> familyMap,
+                 HBaseTransaction transaction) {
+
+        List<Cell> ownCells = ownCells(row, familyMap, transaction);
+        if (ownCells.isEmpty()) {
+            return snapshot;
+        }
+
+        List<Cell> merged = new ArrayList<>();
+        if (transaction.getVisibilityLevel() == VisibilityLevel.SNAPSHOT_ALL) {
+            // All the versions written by the transaction are visible
+            if (!snapshot.isEmpty()) {
+                merged.addAll(snapshot.listCells());
+            }
+            merged.addAll(ownCells);
+        } else {
+            // Newest version of each column written by the transaction. Cells are buffered in write order, so the
+            // last one wins on equal timestamps. Whatever the versions requested, the snapshot filter only returns the
+            // newest visible version of a column at these levels, so a write of the transaction hides all the
+            // committed ones, as it does once flushed
+            Map<ColumnWrapper, Cell> newestOwnCells = new HashMap<>();
+            Map<byte[], Long> familyDeletions = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+            for (Cell cell : ownCells) {
+                if (CellUtils.isFamilyDeleteCell(cell)) {
+                    Long familyDeletion = familyDeletions.get(CellUtil.cloneFamily(cell));
+                    if (familyDeletion == null || familyDeletion < cell.getTimestamp()) {
+                        familyDeletions.put(CellUtil.cloneFamily(cell), cell.getTimestamp());
+                    }
+                    continue;
+                }
+                ColumnWrapper column = new ColumnWrapper(CellUtil.cloneFamily(cell), CellUtil.cloneQualifier(cell));
+                Cell newest = newestOwnCells.get(column);
+                if (newest == null || newest.getTimestamp() <= cell.getTimestamp()) {
+                    newestOwnCells.put(column, cell);
+                }
+            }
+            if (!snapshot.isEmpty()) {
+                for (Cell cell : snapshot.listCells()) {
+                    ColumnWrapper column = new ColumnWrapper(CellUtil.cloneFamily(cell), CellUtil.cloneQualifier(cell));
+                    Cell newest = newestOwnCells.get(column);
+                    if (newest != null && newest.getTimestamp() >= cell.getTimestamp()) {
+                        continue; // Overwritten by the transaction
+                    }
+                    newestOwnCells.remove(column); // Already flushed a newer version
+                    if (!isDeletedByFamily(cell, familyDeletions)) {
+                        merged.add(cell);
+                    }
+                }
+            }
+            for (Cell cell : newestOwnCells.values()) {
+                if (!CellUtils.isTombstone(cell) && !isDeletedByFamily(cell, familyDeletions)) {
+                    merged.add(cell);
+                }
+            }
+        }
+
+        Collections.sort(merged, KeyValue.COMPARATOR);
+        return Result.create(merged);
+    }
+
+    /**
+     * Wraps a scanner over the snapshot so the rows buffered by the transaction in the range scanned are merged in
+     * row order
+     */
+    ResultScanner mergingScanner(ResultScanner snapshotScanner, Scan scan, HBaseTransaction transaction) {
+        return new MergingScanner(snapshotScanner, scan, transaction);
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Helper methods
+    // ----------------------------------------------------------------------------------------------------------------
+
+    private List<Cell> ownCells(byte[] row, Map<byte[], NavigableSet<byte[]>> familyMap,
+                                HBaseTransaction transaction) {
+        List<Cell> rowCells = rows.get(row);
+        if (rowCells == null) {
+            return Collections.emptyList();
+        }
+        List<Cell> ownCells = new ArrayList<>();
+        for (Cell cell : rowCells) {
+            if (cell.getTimestamp() >= transaction.getStartTimestamp()
+                    && cell.getTimestamp() <= transaction.getReadTimestamp()
+                    && isRead(cell, familyMap)) {
+                ownCells.add(cell);
+            }
+        }
+        return ownCells;
+    }
+
+    private static boolean isRead(Cell cell, Map<byte[], NavigableSet<byte[]>> familyMap) {
+        if (familyMap.isEmpty()) {
+            return true;
+        }
+        byte[] family = CellUtil.cloneFamily(cell);
+        if (!familyMap.containsKey(family)) {
+            return false;
+        }
+        NavigableSet<byte[]> qualifiers = familyMap.get(family);
+        return qualifiers == null
+                || qualifiers.isEmpty()
+                || CellUtils.isFamilyDeleteCell(cell)
+                || qualifiers.contains(CellUtil.cloneQualifier(cell));
+    }
+
+    private static boolean isDeletedByFamily(Cell cell, Map<byte[], Long> familyDeletions) {
+        Long familyDeletion = familyDeletions.get(CellUtil.cloneFamily(cell));
+        return familyDeletion != null && familyDeletion >= cell.getTimestamp();
+    }
+
+    private class MergingScanner implements ResultScanner {
+
+        private final ResultScanner snapshotScanner;
+        private final Map<byte[], NavigableSet<byte[]>> familyMap;
+        private final HBaseTransaction transaction;
+        // Rows buffered when the scan started. Rows buffered later are not scanned, as in HBase
+        private final Iterator<byte[]> bufferedRows;
+
+        private Result nextSnapshotRow = null;
+        private byte[] nextBufferedRow = null;
+
+        MergingScanner(ResultScanner snapshotScanner, Scan scan, HBaseTransaction transaction) {
+            this.snapshotScanner = snapshotScanner;
+            this.familyMap = scan.getFamilyMap();
+            this.transaction = transaction;
+            NavigableMap<byte[], List<Cell>> rowsScanned = rows.tailMap(scan.getStartRow(), true);
+            if (scan.getStopRow().length > 0) {
+                rowsScanned = rowsScanned.headMap(scan.getStopRow(), false);
+            }
+            this.bufferedRows = new ArrayList<>(rowsScanned.keySet()).iterator();
+        }
+
+        @Override
+        public Result next() throws IOException {
+            while (true) {
+                if (nextSnapshotRow == null) {
+                    nextSnapshotRow = snapshotScanner.next();
+                }
+                if (nextBufferedRow == null && bufferedRows.hasNext()) {
+                    nextBufferedRow = bufferedRows.next();
+                }
+                if (nextSnapshotRow == null && nextBufferedRow == null) {
+                    return null;
+                }
+
+                Result result;
+                int order = nextSnapshotRow == null ? 1
+                        : nextBufferedRow == null ? -1
+                        : Bytes.compareTo(nextSnapshotRow.getRow(), nextBufferedRow);
+                if (order < 0) {
+                    result = merge(nextSnapshotRow.getRow(), nextSnapshotRow, familyMap, transaction);
+                    nextSnapshotRow = null;
+                } else if (order == 0) {
+                    result = merge(nextBufferedRow, nextSnapshotRow, familyMap, transaction);
+                    nextSnapshotRow = null;
+                    nextBufferedRow = null;
+                } else {
+                    result = merge(nextBufferedRow, EMPTY_RESULT, familyMap, transaction);
+                    nextBufferedRow = null;
+                }
+                if (!result.isEmpty()) {
+                    return result;
+                }
+            }
+        }
+
+        @Override
+        public Result[] next(int nbRows) throws IOException {
+            ArrayList<Result> resultSets = new ArrayList<>(nbRows);
+            for (int i = 0; i < nbRows; i++) {
+                Result next = next();
+                if (next != null) {
+                    resultSets.add(next);
+                } else {
+                    break;
+                }
+            }
+            return resultSets.toArray(new Result[resultSets.size()]);
+        }
+
+        @Override
+        public void close() {
+            snapshotScanner.close();
+        }
+
+        // Not in all the HBase versions supported, so no @Override. See SnapshotFilterImpl.TransactionalClientScanner
+        public ScanMetrics getScanMetrics() {
+            return null;
+        }
+
+        // Same as above
+        public boolean renewLease() {
+            return false;
+        }
+
+        @Override
+        public Iterator<Result> iterator() {
+            return new Iterator<Result>() {
+
+                private Result next = advance();
+
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                @Override
+                public Result next() {
+                    Result result = next;
+                    next = advance();
+                    return result;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException("Not implemented");
+                }
+
+                private Result advance() {
+                    try {
+                        return MergingScanner.this.next();
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+
+            };
+        }
+
+    }
+
+}
@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.transaction;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.omid.AsyncConnectionWrapper;
+import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.Futures;
+import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.ListenableFuture;
+import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.testng.ITestContext;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test(groups = "sharedHBase")
+public class TestAsyncTTable extends OmidTestBase {
+
+    private final byte[] family = Bytes.toBytes(TEST_FAMILY);
+    private final byte[] qualifier = Bytes.toBytes("async-q");
+    private final byte[] data1 = Bytes.toBytes("async-data1");
+    private final byte[] data2 = Bytes.toBytes("async-data2");
+
+    private AsyncConnectionWrapper asyncConnection;
+    private ExecutorService executor;
+
+    @BeforeMethod(groups = "sharedHBase")
+    public void setUpAsyncConnection() throws Exception {
+        asyncConnection = AsyncConnectionWrapper.createConnection(connection.getConfiguration());
+        executor = Executors.newFixedThreadPool(4, new ThreadFactoryBuilder().setNameFormat("async-filter-%d").build());
+    }
+
+    @AfterMethod(groups = "sharedHBase")
+    public void tearDownAsyncConnection() throws Exception {
+        executor.shutdown();
+        asyncConnection.close();
+    }
+
+    @Test(timeOut = 30_000)
+    public void testReadsSeeTheTransactionSnapshot(ITestContext context) throws Exception {
+
+        TransactionManager tm = newTransactionManager(context);
+        byte[] row = Bytes.toBytes("async-row-snapshot");
+
+        try (AsyncTTable table = new AsyncTTable(connection, asyncConnection, executor, TEST_TABLE)) {
+
+            Transaction tx1 = tm.begin();
+            table.put(tx1, new Put(row).addColumn(family, qualifier, data1)).get();
+            assertValue(table.get(tx1, new Get(row)).get(), data1); // Own writes are read
+            tm.commit(tx1);
+
+            Transaction tx2 = tm.begin();
+            table.put(tx2, new Put(row).addColumn(family, qualifier, data2)).get();
+
+            // The newer version is not committed, so the one of tx1 is fetched
+            Transaction tx3 = tm.begin();
+            assertValue(table.get(tx3, new Get(row)).get(), data1);
+
+            tm.commit(tx2);
+
+            // tx3 started before tx2 committed, so it keeps reading the old value
+            assertValue(table.get(tx3, new Get(row)).get(), data1);
+            assertValue(table.get(tm.begin(), new Get(row)).get(), data2);
+        }
+
+    }
+
+    @Test(timeOut = 30_000)
+    public void testManyReadsInFlight(ITestContext context) throws Exception {
+
+        final int NUM_ROWS = 100;
+
+        TransactionManager tm = newTransactionManager(context);
+
+        try (AsyncTTable table = new AsyncTTable(connection, asyncConnection, executor, TEST_TABLE)) {
+
+            Transaction tx1 = tm.begin();
+            List<Put> puts = new ArrayList<>();
+            for (int i = 0; i < NUM_ROWS; i++) {
+                puts.add(new Put(Bytes.toBytes("async-row-" + i)).addColumn(family, qualifier, Bytes.toBytes(i)));
+            }
+            table.put(tx1, puts).get();
+            tm.commit(tx1);
+
+            Transaction tx2 = tm.begin();
+            List<ListenableFuture<Result>> results = new ArrayList<>();
+            for (int i = 0; i < NUM_ROWS; i++) {
+                results.add(table.get(tx2, new Get(Bytes.toBytes("async-row-" + i))));
+            }
+            List<Result> rows = Futures.allAsList(results).get();
+            for (int i = 0; i < NUM_ROWS; i++) {
+                assertValue(rows.get(i), Bytes.toBytes(i));
+            }
+
+            Scan scan = new Scan(Bytes.toBytes("async-row-"), Bytes.toBytes("async-row-~"));
+            scan.addColumn(family, qualifier);
+            assertEquals(table.scanAll(tx2, scan).get().size(), NUM_ROWS);
+            tm.commit(tx2);
+        }
+
+    }
+
+    @Test(timeOut = 30_000)
+    public void testDeletes(ITestContext context) throws Exception {
+
+        TransactionManager tm = newTransactionManager(context);
+        byte[] row = Bytes.toBytes("async-row-delete");
+
+        try (AsyncTTable table = new AsyncTTable(connection, asyncConnection, executor, TEST_TABLE)) {
+
+            Transaction tx1 = tm.begin();
+            table.put(tx1, new Put(row).addColumn(family, qualifier, data1)).get();
+            tm.commit(tx1);
+
+            // Family deletions read the columns deleted for detecting conflicts
+            Transaction tx2 = tm.begin();
+            table.delete(tx2, new Delete(row).addFamily(family)).get();
+            assertFalse(((HBaseTransaction) tx2).getWriteSet().isEmpty());
+            assertTrue(table.get(tx2, new Get(row)).get().isEmpty());
+            tm.rollback(tx2);
+
+            Transaction tx3 = tm.begin();
+            assertValue(table.get(tx3, new Get(row)).get(), data1);
+            table.delete(tx3, new Delete(row).addColumns(family, qualifier)).get();
+            tm.commit(tx3);
+
+            assertTrue(table.get(tm.begin(), new Get(row)).get().isEmpty());
+        }
+
+    }
+
+    private void assertValue(Result result, byte[] expected) {
+        assertTrue(Bytes.equals(result.getValue(family, qualifier), expected),
+                   "Expected " + Bytes.toString(expected) + " but got " + result);
+    }
+
+}
@@ -18,11 +18,16 @@
 package org.apache.omid.transaction;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
 
+import org.apache.hadoop.hbase.client.Delete;
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.omid.transaction.AbstractTransaction.VisibilityLevel;
 import org.testng.ITestContext;
 import org.testng.annotations.Test;
 
@@ -64,4 +69,129 @@ public class TestAutoFlush extends OmidTestBase {
         assertEquals(result.size(), 2, "Writes were not flushed to DB");
     }
 
+    @Test(timeOut = 10_000)
+    public void testBufferedWritesAreMergedIntoReadsWithoutFlushing(ITestContext context) throws Exception {
+
+        byte[] family = Bytes.toBytes(TEST_FAMILY);
+        byte[] row1 = Bytes.toBytes("buffered-row1");
+        byte[] row2 = Bytes.toBytes("buffered-row2");
+        byte[] row3 = Bytes.toBytes("buffered-row3");
+        byte[] col1 = Bytes.toBytes("col1");
+        byte[] col2 = Bytes.toBytes("col2");
+        TransactionManager tm = newTransactionManager(context);
+        TTable table = new TTable(connection, TEST_TABLE);
+
+        // Committed data, overwritten and deleted by the transaction below
+        Transaction t0 = tm.begin();
+        table.put(t0, new Put(row1).addColumn(family, col1, Bytes.toBytes("old")));
+        table.put(t0, new Put(row2).addColumn(family, col1, Bytes.toBytes("old")));
+        tm.commit(t0);
+
+        table.setAutoFlush(false);
+
+        Transaction t1 = tm.begin();
+        table.put(t1, new Put(row1).addColumn(family, col1, Bytes.toBytes("new")));
+        table.put(t1, new Put(row1).addColumn(family, col2, Bytes.toBytes("new")));
+        table.delete(t1, new Delete(row2).addColumn(family, col1));
+        table.put(t1, new Put(row3).addColumn(family, col1, Bytes.toBytes("new")));
+
+        Result result = table.get(t1, new Get(row1));
+        assertEquals(result.size(), 2, "Buffered writes should be read by the same transaction");
+        assertEquals(result.getValue(family, col1), Bytes.toBytes("new"), "Buffered write should hide committed one");
+        assertEquals(table.get(t1, new Get(row2)).size(), 0, "Buffered deletion should hide committed cell");
+
+        ResultScanner scanner = table.getScanner(t1, new Scan(row1, Bytes.toBytes("buffered-row4")));
+        Result first = scanner.next();
+        assertEquals(first.getRow(), row1);
+        assertEquals(first.size(), 2);
+        Result second = scanner.next();
+        assertEquals(second.getRow(), row3, "Deleted row should be skipped and buffered row merged");
+        assertNull(scanner.next());
+        scanner.close();
+
+        // Reading didn't flush the writes, so they are invisible to other transactions
+        assertEquals(table.getHTable().get(new Get(row3)).size(), 0, "Reads shouldn't flush the writes");
+        Transaction t2 = tm.begin();
+        assertEquals(table.get(t2, new Get(row1)).getValue(family, col1), Bytes.toBytes("old"));
+        assertEquals(table.get(t2, new Get(row3)).size(), 0, "Buffered writes are visible to other transactions");
+        tm.commit(t2);
+
+        tm.commit(t1);
+
+        Transaction t3 = tm.begin();
+        assertEquals(table.get(t3, new Get(row1)).getValue(family, col1), Bytes.toBytes("new"));
+        assertEquals(table.get(t3, new Get(row2)).size(), 0);
+        assertEquals(table.get(t3, new Get(row3)).size(), 1);
+        tm.commit(t3);
+    }
+
+    @Test(timeOut = 30_000)
+    public void testMultiVersionReadsOfBufferedWritesMatchTheFlushedOnes(ITestContext context) throws Exception {
+
+        byte[] family = Bytes.toBytes(TEST_FAMILY);
+        byte[] col = Bytes.toBytes("col1");
+        TransactionManager tm = newTransactionManager(context);
+
+        for (VisibilityLevel visibilityLevel : VisibilityLevel.values()) {
+            byte[] row = Bytes.toBytes("versioned-row-" + visibilityLevel);
+            TTable table = new TTable(connection, TEST_TABLE);
+
+            // Several committed versions behind the writes of the transaction below
+            for (int i = 0; i < 3; i++) {
+                Transaction t = tm.begin();
+                table.put(t, new Put(row).addColumn(family, col, Bytes.toBytes("committed" + i)));
+                tm.commit(t);
+            }
+
+            // A flushed write and two buffered ones, each in its own checkpoint
+            HBaseTransaction t1 = (HBaseTransaction) tm.begin();
+            table.put(t1, new Put(row).addColumn(family, col, Bytes.toBytes("flushed")));
+            table.setAutoFlush(false);
+            t1.checkpoint();
+            table.put(t1, new Put(row).addColumn(family, col, Bytes.toBytes("buffered1")));
+            t1.checkpoint();
+            table.put(t1, new Put(row).addColumn(family, col, Bytes.toBytes("buffered2")));
+            t1.setVisibilityLevel(visibilityLevel);
+
+            Get get = new Get(row);
+            get.setMaxVersions(3);
+            Result buffered = table.get(t1, get);
+            table.flushCommits();
+            Result flushed = table.get(t1, get);
+            Result.compareResults(buffered, flushed);
+
+            tm.rollback(t1);
+        }
+    }
+
+    @Test(timeOut = 10_000)
+    public void testCommitFlushesAllTheTablesWritten(ITestContext context) throws Exception {
+
+        byte[] family = Bytes.toBytes(TEST_FAMILY);
+        byte[] col = Bytes.toBytes("col1");
+        byte[] data = Bytes.toBytes("data");
+        TransactionManager tm = newTransactionManager(context);
+        TTable table1 = new TTable(connection, TEST_TABLE);
+        TTable table2 = new TTable(connection, TEST_TABLE);
+        TTable table3 = new TTable(connection, TEST_TABLE);
+        table1.setAutoFlush(false);
+        table2.setAutoFlush(false);
+        table3.setAutoFlush(false);
+
+        Transaction t = tm.begin();
+        table1.put(t, new Put(Bytes.toBytes("flushed-row1")).addColumn(family, col, data));
+        table2.put(t, new Put(Bytes.toBytes("flushed-row2")).addColumn(family, col, data));
+        table3.put(t, new Put(Bytes.toBytes("flushed-row3")).addColumn(family, col, data));
+        assertEquals(table1.getHTable().get(new Get(Bytes.toBytes("flushed-row2"))).size(), 0,
+                     "Writes are already in DB");
+
+        tm.commit(t);
+
+        // Cell and shadow cell of each row
+        for (String row : new String[] { "flushed-row1", "flushed-row2", "flushed-row3" }) {
+            Result result = table1.getHTable().get(new Get(Bytes.toBytes(row)));
+            assertEquals(result.size(), 2, "Writes of " + row + " were not flushed to DB");
+        }
+    }
+
 }
@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.transaction;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.omid.proto.TSOProto.CellIdHash;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+@Test(groups = "noHBase")
+public class TestCompactWriteSet {
+
+    private final byte[] family = Bytes.toBytes("test-family");
+
+    private TTable table1;
+    private TTable table2;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        table1 = newTable("test-table1");
+        table2 = newTable("test-table2");
+    }
+
+    @Test(timeOut = 10_000)
+    public void testCellsAreIteratedInInsertionOrder() {
+        CompactWriteSet writeSet = new CompactWriteSet();
+        assertTrue(writeSet.isEmpty());
+
+        List<HBaseCellId> cells = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            TTable table = i % 2 == 0 ? table1 : table2;
+            CellIdHash cellIdHash = i % 3 == 0 ? CellIdHash.XXHASH64 : CellIdHash.MURMUR3_128;
+            cells.add(new HBaseCellId(table, Bytes.toBytes("row" + i), family, Bytes.toBytes(i), i, cellIdHash));
+        }
+        // Bigger than a chunk of the arena
+        cells.add(new HBaseCellId(table1, Bytes.toBytes("big-row"), family, new byte[CompactWriteSet.CHUNK_SIZE * 2],
+                                  1L));
+        for (HBaseCellId cell : cells) {
+            assertTrue(writeSet.add(cell));
+        }
+        assertEquals(writeSet.size(), cells.size());
+
+        Iterator<HBaseCellId> it = writeSet.iterator();
+        for (HBaseCellId expected : cells) {
+            HBaseCellId cell = it.next();
+            assertSame(cell.getTable(), expected.getTable());
+            assertEquals(cell.getRow(), expected.getRow());
+            assertEquals(cell.getFamily(), expected.getFamily());
+            assertEquals(cell.getQualifier(), expected.getQualifier());
+            assertEquals(cell.getTimestamp(), expected.getTimestamp());
+            assertEquals(cell.getCellIdHash(), expected.getCellIdHash());
+            assertEquals(cell.getCellId(), expected.getCellId());
+            assertEquals(cell.getRowId(), expected.getRowId());
+            assertEquals(cell.getTableId(), expected.getTableId());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    @Test(timeOut = 10_000)
+    public void testCellsAreComparedByContent() {
+        CompactWriteSet writeSet = new CompactWriteSet();
+        HBaseCellId cell = new HBaseCellId(table1, Bytes.toBytes("row"), family, Bytes.toBytes("qual"), 1L);
+
+        assertTrue(writeSet.add(cell));
+        assertFalse(writeSet.add(new HBaseCellId(table1, Bytes.toBytes("row"), family, Bytes.toBytes("qual"), 1L)));
+        assertTrue(writeSet.contains(new HBaseCellId(table1, Bytes.toBytes("row"), family, Bytes.toBytes("qual"), 1L)));
+        assertEquals(writeSet.size(), 1);
+
+        // Same cell in another table or version
+        assertTrue(writeSet.add(new HBaseCellId(table2, Bytes.toBytes("row"), family, Bytes.toBytes("qual"), 1L)));
+        assertTrue(writeSet.add(new HBaseCellId(table1, Bytes.toBytes("row"), family, Bytes.toBytes("qual"), 2L)));
+        assertEquals(writeSet.size(), 3);
+
+        writeSet.clear();
+        assertTrue(writeSet.isEmpty());
+        assertFalse(writeSet.contains(cell));
+        assertTrue(writeSet.add(cell));
+    }
+
+    private static TTable newTable(String name) throws Exception {
+        Table hTable = mock(Table.class);
+        when(hTable.getName()).thenReturn(TableName.valueOf(name));
+        return new TTable(hTable, mock(SnapshotFilter.class), false);
+    }
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.transaction;
+
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.omid.proto.TSOProto.CellIdHash;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+
+@Test(groups = "noHBase")
+public class TestHBaseCellId {
+
+    private final byte[] tableName = Bytes.toBytes("test-table");
+    private final byte[] row = Bytes.toBytes("test-row");
+    private final byte[] family = Bytes.toBytes("test-family");
+    private final byte[] qualifier = Bytes.toBytes("test-qual");
+
+    private Table hTable;
+    private TTable table;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        hTable = mock(Table.class);
+        when(hTable.getName()).thenReturn(TableName.valueOf(tableName));
+        table = new TTable(hTable, mock(SnapshotFilter.class), false);
+    }
+
+    @Test(timeOut = 10_000)
+    public void testMurmurIdsAreCompatibleWithPreviousReleases() {
+        HBaseCellId cellId = new HBaseCellId(table, row, family, qualifier, 1L);
+        assertEquals(cellId.getTableId(), HBaseCellId.getHasher().putBytes(tableName).hash().asLong());
+        assertEquals(cellId.getRowId(), HBaseCellId.getHasher().putBytes(tableName).putBytes(row).hash().asLong());
+        assertEquals(cellId.getCellId(), HBaseCellId.getHasher()
+                .putBytes(tableName).putBytes(row).putBytes(family).putBytes(qualifier).hash().asLong());
+    }
+
+    @Test(timeOut = 10_000)
+    public void testXXHashIdsChainTableAndRowHashes() {
+        HBaseCellId cellId = new HBaseCellId(table, row, family, qualifier, 1L, CellIdHash.XXHASH64);
+        long tableId = XXHash64.hash(tableName, 0);
+        long rowId = XXHash64.hash(row, tableId);
+        assertEquals(cellId.getTableId(), tableId);
+        assertEquals(cellId.getRowId(), rowId);
+        assertEquals(cellId.getCellId(), XXHash64.hash(qualifier, XXHash64.hash(family, rowId)));
+
+        // Family and qualifier are hashed separately, so moving bytes from one to the other changes the id
+        HBaseCellId shiftedCellId = new HBaseCellId(table, row, Bytes.toBytes("test-famil"),
+                                                    Bytes.toBytes("ytest-qual"), 1L, CellIdHash.XXHASH64);
+        assertNotEquals(shiftedCellId.getCellId(), cellId.getCellId());
+    }
+
+    @Test(timeOut = 10_000)
+    public void testTableIdIsComputedOncePerHash() {
+        for (int i = 0; i < 10; i++) {
+            new HBaseCellId(table, row, family, Bytes.toBytes(i), 1L, CellIdHash.XXHASH64).getCellId();
+        }
+        verify(hTable, times(1)).getName();
+        assertEquals(table.getTableId(CellIdHash.MURMUR3_128),
+                     HBaseCellId.getTableId(tableName, CellIdHash.MURMUR3_128));
+        verify(hTable, times(2)).getName();
+    }
+
+    @Test(timeOut = 10_000)
+    public void testXXHash64() {
+        // Reference values of the xxHash64 specification
+        assertEquals(XXHash64.hash(new byte[0], 0), 0xEF46DB3751D8E999L);
+        assertEquals(XXHash64.hash(Bytes.toBytes("abc"), 0), 0x44BC2CF5AD770999L);
+        assertEquals(XXHash64.hash(Bytes.toBytes("Nobody inspects the spammish repetition"), 0), 0xFBCEA83C8A378BF1L);
+    }
+
+}
@@ -20,22 +20,28 @@ package org.apache.omid.transaction;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anySetOf;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.SettableFuture;
 import org.apache.omid.committable.CommitTable;
 import org.apache.omid.tso.client.TSOClient;
 import org.testng.ITestContext;
 import org.testng.annotations.Test;
 
+import java.util.concurrent.ExecutionException;
+
 // TODO These tests should be adapted to a future test for AbstractTransactionManager as they should be DB independent
 @Test(groups = "sharedHBase")
 public class TestHBaseTransactionManager extends OmidTestBase {
@@ -100,4 +106,150 @@ public class TestHBaseTransactionManager extends OmidTestBase {
 
     }
 
+    @Test(timeOut = 20_000)
+    public void testReadOnlyTransactionsShareRecentStartTimestamps(ITestContext context) throws Exception {
+
+        TSOClient tsoClient = spy(getClient(context));
+        HBaseOmidClientConfiguration clientConf = new HBaseOmidClientConfiguration();
+        clientConf.setConnectionString("localhost:" + port);
+        clientConf.setHBaseConfiguration(hbaseConf);
+        clientConf.setReadOnlyMaxStalenessInMs(60_000);
+        TransactionManager tm = HBaseTransactionManager.builder(clientConf)
+                .commitTableClient(getCommitTable(context).getClient())
+                .commitTableWriter(getCommitTable(context).getWriter())
+                .tsoClient(tsoClient).build();
+
+        try (TTable txTable = new TTable(connection, TEST_TABLE)) {
+
+            Transaction tx1 = tm.begin();
+            Put put = new Put(row1);
+            put.addColumn(testFamily, qualifier, data1);
+            txTable.put(tx1, put);
+            tm.commit(tx1);
+
+            // The first read-only tx gets a timestamp from the TSO...
+            reset(tsoClient);
+            Transaction readOnlyTx1 = tm.beginReadOnly();
+            verify(tsoClient, times(1)).getNewStartTimestamp();
+            Result r = txTable.get(readOnlyTx1, new Get(row1));
+            assertTrue(Bytes.equals(r.getValue(testFamily, qualifier), data1), "Wrong value for RO-TX " + readOnlyTx1);
+
+            // ...and the next ones reuse it
+            Transaction readOnlyTx2 = tm.beginReadOnly();
+            verify(tsoClient, times(1)).getNewStartTimestamp();
+            assertEquals(readOnlyTx2.getTransactionId(), readOnlyTx1.getTransactionId());
+            assertTrue(readOnlyTx2.getTransactionId() > tx1.getTransactionId());
+            r = txTable.get(readOnlyTx2, new Get(row1));
+            assertTrue(Bytes.equals(r.getValue(testFamily, qualifier), data1), "Wrong value for RO-TX " + readOnlyTx2);
+
+            // Writes are rejected
+            try {
+                txTable.put(readOnlyTx2, put);
+                fail("Writes must be rejected in read-only transactions");
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+            assertTrue(((AbstractTransaction) readOnlyTx2).isReadOnly());
+            assertFalse(((AbstractTransaction) tx1).isReadOnly());
+
+            tm.commit(readOnlyTx1);
+            tm.commit(readOnlyTx2);
+            assertEquals(readOnlyTx2.getStatus(), Transaction.Status.COMMITTED_RO);
+        }
+
+    }
+
+    @Test(timeOut = 20_000)
+    public void testReadOnlyTransactionsAtAnExplicitSnapshot(ITestContext context) throws Exception {
+
+        CommitTable.Client commitTableClient = spy(getCommitTable(context).getClient());
+        TransactionManager tm = newTransactionManager(context, commitTableClient);
+
+        try (TTable txTable = new TTable(connection, TEST_TABLE)) {
+
+            Transaction tx1 = tm.begin();
+            Put put = new Put(row1);
+            put.addColumn(testFamily, qualifier, data1);
+            txTable.put(tx1, put);
+            tm.commit(tx1);
+
+            Transaction tx2 = tm.begin();
+            put = new Put(row1);
+            put.addColumn(testFamily, qualifier, Bytes.toBytes("test_data2"));
+            txTable.put(tx2, put);
+            tm.commit(tx2);
+
+            // The snapshot at the start of tx2 doesn't include its writes
+            Transaction snapshotTx = tm.beginReadOnly(tx2.getTransactionId());
+            Result r = txTable.get(snapshotTx, new Get(row1));
+            assertTrue(Bytes.equals(r.getValue(testFamily, qualifier), data1), "Wrong value for RO-TX " + snapshotTx);
+            try {
+                txTable.put(snapshotTx, put);
+                fail("Writes must be rejected in read-only transactions");
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+            tm.commit(snapshotTx);
+            assertEquals(snapshotTx.getStatus(), Transaction.Status.COMMITTED_RO);
+
+            // Snapshots below the low watermark are rejected
+            SettableFuture<Long> lowWatermark = SettableFuture.create();
+            lowWatermark.set(tx2.getTransactionId() + CommitTable.MAX_CHECKPOINTS_PER_TXN);
+            doReturn(lowWatermark).when(commitTableClient).readLowWatermark();
+            try {
+                tm.beginReadOnly(tx2.getTransactionId());
+                fail("Snapshots below the low watermark must be rejected");
+            } catch (TransactionException e) {
+                // Expected
+            }
+        }
+
+    }
+
+    @Test(timeOut = 20_000)
+    public void testAsyncTransactions(ITestContext context) throws Exception {
+
+        TransactionManager tm = newTransactionManager(context);
+
+        try (TTable txTable = new TTable(connection, TEST_TABLE)) {
+
+            Transaction tx1 = tm.beginAsync().get();
+            Transaction tx2 = tm.beginAsync().get();
+            assertTrue(tx2.getTransactionId() > tx1.getTransactionId());
+
+            Put put = new Put(row1);
+            put.addColumn(testFamily, qualifier, data1);
+            txTable.put(tx1, put);
+            txTable.put(tx2, put);
+
+            // The first tx to commit wins...
+            tm.commitAsync(tx1).get();
+            assertEquals(tx1.getStatus(), Transaction.Status.COMMITTED);
+
+            // ...and the conflicting one is rolled back
+            try {
+                tm.commitAsync(tx2).get();
+                fail("Tx " + tx2 + " should have been rolled back");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof RollbackException, "Unexpected failure " + e.getCause());
+            }
+            assertEquals(tx2.getStatus(), Transaction.Status.ROLLEDBACK);
+
+            Transaction tx3 = tm.beginAsync().get();
+            Result r = txTable.get(tx3, new Get(row1));
+            assertTrue(Bytes.equals(r.getValue(testFamily, qualifier), data1), "Wrong value for TX " + tx3);
+            put = new Put(row1);
+            put.addColumn(testFamily, qualifier, Bytes.toBytes("test_data2"));
+            txTable.put(tx3, put);
+            tm.rollbackAsync(tx3).get();
+            assertEquals(tx3.getStatus(), Transaction.Status.ROLLEDBACK);
+
+            Transaction tx4 = tm.begin();
+            r = txTable.get(tx4, new Get(row1));
+            assertTrue(Bytes.equals(r.getValue(testFamily, qualifier), data1), "Wrong value for TX " + tx4);
+            tm.commit(tx4);
+        }
+
+    }
+
 }
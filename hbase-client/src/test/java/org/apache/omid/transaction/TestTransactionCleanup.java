@@ -116,4 +116,48 @@ public class TestTransactionCleanup extends OmidTestBase {
         }
     }
 
+    @Test(timeOut = 10_000)
+    public void testTransactionIsCleanedUpInBackground(ITestContext context) throws Exception {
+
+        byte[] rowCleanedUp = Bytes.toBytes("row-cleaned-up-in-background");
+
+        HBaseOmidClientConfiguration clientConf = new HBaseOmidClientConfiguration();
+        clientConf.setConnectionString("localhost:" + port);
+        clientConf.setHBaseConfiguration(hbaseConf);
+        clientConf.setAsyncRollbackCleanup(true);
+        clientConf.setRollbackCleanupMaxDeletesPerSecond(1000);
+
+        try (HBaseTransactionManager tm = HBaseTransactionManager.builder(clientConf)
+                .commitTableClient(getCommitTable(context).getClient())
+                .commitTableWriter(getCommitTable(context).getWriter())
+                .tsoClient(getClient(context)).build();
+             TTable txTable = new TTable(connection, TEST_TABLE)) {
+
+            Transaction tx = tm.begin();
+            for (int i = 0; i < 10; i++) {
+                Put put = new Put(rowCleanedUp);
+                put.addColumn(family, Bytes.toBytes("qual" + i), data);
+                txTable.put(tx, put);
+            }
+            tm.rollback(tx);
+
+            while (tm.getRollbackCleanupBacklog() > 0) {
+                Thread.sleep(10);
+            }
+
+            // Each column has the put and the delete from the cleanup
+            Scan scan = new Scan(rowCleanedUp, Bytes.add(rowCleanedUp, new byte[] { 0 }));
+            scan.setRaw(true);
+            scan.setMaxVersions();
+            ResultScanner resultScanner = txTable.getHTable().getScanner(scan);
+            Result result = resultScanner.next();
+            assertEquals(result.size(), 20);
+            for (int i = 0; i < 10; i++) {
+                byte encodedType = result.getColumnLatestCell(family, Bytes.toBytes("qual" + i)).getTypeByte();
+                assertEquals(KeyValue.Type.codeToType(encodedType), KeyValue.Type.Delete);
+            }
+            resultScanner.close();
+        }
+    }
+
 }
@@ -22,8 +22,12 @@ import static org.apache.omid.committable.hbase.HBaseCommitTableConfig.INVALID_T
 import static org.apache.omid.committable.hbase.HBaseCommitTableConfig.LOW_WATERMARK_QUALIFIER;
 import static org.apache.omid.committable.hbase.HBaseCommitTableConfig.LOW_WATERMARK_ROW;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
 
 
 import javax.inject.Inject;
@@ -67,11 +71,11 @@ public class HBaseCommitTable implements CommitTable {
      */
     @Inject
     public HBaseCommitTable(Configuration hbaseConfig, HBaseCommitTableConfig config) throws IOException {
-        this(ConnectionFactory.createConnection(hbaseConfig), config, KeyGeneratorImplementations.defaultKeyGenerator());
+        this(ConnectionFactory.createConnection(hbaseConfig), config, keyGeneratorFor(config));
     }
 
     public HBaseCommitTable(Connection hbaseConnection, HBaseCommitTableConfig config) throws IOException {
-        this(hbaseConnection, config, KeyGeneratorImplementations.defaultKeyGenerator());
+        this(hbaseConnection, config, keyGeneratorFor(config));
     }
 
     public HBaseCommitTable(Configuration hbaseConfig, HBaseCommitTableConfig config, KeyGenerator keygen) throws IOException {
@@ -160,6 +164,142 @@ public class HBaseCommitTable implements CommitTable {
 
     }
 
+    /**
+     * Writer that coalesces the concurrent calls to {@link #atomicAddCommittedTransaction(long, long)} done by the
+     * threads of the same process into a single batch of commit table operations (group commit).
+     *
+     * Instead of a checkAndPut per transaction, the commit timestamps of a whole group are written with a single
+     * batch of puts, and the rows are then read back with a single batch of gets. A transaction is committed if its
+     * row does not contain the invalidation marker. This is equivalent to the checkAndPut done by the regular writer,
+     * as the invalidation does a checkAndPut on the absence of the commit timestamp, so whatever of both operations
+     * reaches the row first wins. Readers always check the invalidation marker first.
+     */
+    private class HBaseGroupCommitWriter extends HBaseWriter {
+
+        private final int maxBatchSize;
+
+        private final Queue<AtomicCommitRequest> pendingRequests = new ConcurrentLinkedQueue<>();
+        // Held by the leader of the group while writing it. Also protects the state of the requests
+        private final ReentrantLock groupCommitLock = new ReentrantLock();
+
+        HBaseGroupCommitWriter(int maxBatchSize) {
+            this.maxBatchSize = maxBatchSize;
+        }
+
+        @Override
+        public boolean atomicAddCommittedTransaction(long startTimestamp, long commitTimestamp) throws IOException {
+            assert (startTimestamp < commitTimestamp);
+            AtomicCommitRequest request = new AtomicCommitRequest(startTimestamp, commitTimestamp);
+            pendingRequests.add(request);
+            // The thread getting the lock becomes the leader and writes all the requests enqueued so far, including
+            // the ones of the threads waiting for the lock. Those ones will find their requests already completed
+            groupCommitLock.lock();
+            try {
+                while (!request.done) {
+                    writePendingRequests();
+                }
+            } finally {
+                groupCommitLock.unlock();
+            }
+            if (request.error != null) {
+                throw request.error;
+            }
+            return request.committed;
+        }
+
+        private void writePendingRequests() {
+
+            List<AtomicCommitRequest> group = new ArrayList<>();
+            AtomicCommitRequest request;
+            while (group.size() < maxBatchSize && (request = pendingRequests.poll()) != null) {
+                group.add(request);
+            }
+
+            try (Table table = hbaseConnection.getTable(TableName.valueOf(tableName))) {
+
+                List<Put> puts = new ArrayList<>(group.size());
+                for (AtomicCommitRequest groupRequest : group) {
+                    Put put = new Put(startTimestampToKey(groupRequest.startTimestamp), groupRequest.startTimestamp);
+                    byte[] value = encodeCommitTimestamp(groupRequest.startTimestamp, groupRequest.commitTimestamp);
+                    put.addColumn(commitTableFamily, COMMIT_TABLE_QUALIFIER, value);
+                    puts.add(put);
+                }
+
+                Object[] putResults = new Object[puts.size()];
+                try {
+                    table.batch(puts, putResults);
+                } catch (IOException e) {
+                    // The operations that failed are reported individually in the results
+                    LOG.warn("Error writing a group of {} commits", puts.size(), e);
+                }
+
+                List<AtomicCommitRequest> written = new ArrayList<>(group.size());
+                List<Get> gets = new ArrayList<>(group.size());
+                for (int i = 0; i < putResults.length; i++) {
+                    AtomicCommitRequest groupRequest = group.get(i);
+                    if (putResults[i] == null || putResults[i] instanceof Throwable) {
+                        groupRequest.fail(new IOException("Error writing commit for TX " + groupRequest.startTimestamp,
+                                                          (Throwable) putResults[i]));
+                    } else {
+                        Get get = new Get(puts.get(i).getRow());
+                        get.addColumn(commitTableFamily, INVALID_TX_QUALIFIER);
+                        gets.add(get);
+                        written.add(groupRequest);
+                    }
+                }
+
+                Result[] results = table.get(gets);
+                for (int i = 0; i < results.length; i++) {
+                    Result result = results[i];
+                    written.get(i).complete(result == null
+                                            || !result.containsColumn(commitTableFamily, INVALID_TX_QUALIFIER));
+                }
+            } catch (IOException e) {
+                LOG.error("Error in group commit", e);
+                failPending(group, e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failPending(group, new IOException("Interrupted during group commit", e));
+            }
+
+        }
+
+        private void failPending(List<AtomicCommitRequest> group, IOException e) {
+            for (AtomicCommitRequest groupRequest : group) {
+                if (!groupRequest.done) {
+                    groupRequest.fail(e);
+                }
+            }
+        }
+
+    }
+
+    private static class AtomicCommitRequest {
+
+        final long startTimestamp;
+        final long commitTimestamp;
+
+        boolean done = false;
+        boolean committed = false;
+        IOException error;
+
+        AtomicCommitRequest(long startTimestamp, long commitTimestamp) {
+            this.startTimestamp = startTimestamp;
+            this.commitTimestamp = commitTimestamp;
+        }
+
+        void complete(boolean committed) {
+            this.committed = committed;
+            this.done = true;
+        }
+
+        void fail(IOException error) {
+            this.error = error;
+            this.done = true;
+        }
+
+    }
+
     class HBaseClient implements Client{
 
         HBaseClient(){
@@ -312,6 +452,14 @@ public class HBaseCommitTable implements CommitTable {
         return new HBaseWriter();
     }
 
+    /**
+     * Returns a writer that groups the concurrent atomic commits of low latency transactions
+     * @param maxBatchSize maximum number of commits written in a single group
+     */
+    public Writer getGroupCommitWriter(int maxBatchSize) throws IOException {
+        return new HBaseGroupCommitWriter(maxBatchSize);
+    }
+
     @Override
     public Client getClient() throws IOException {
         return new HBaseClient();
@@ -324,6 +472,13 @@ public class HBaseCommitTable implements CommitTable {
         return startTimestamp - (startTimestamp % CommitTable.MAX_CHECKPOINTS_PER_TXN);
     }
 
+    private static KeyGenerator keyGeneratorFor(HBaseCommitTableConfig config) {
+        if (config.getNumBuckets() > 0) {
+            return new KeyGeneratorImplementations.RegionAwareBucketKeyGenerator(config.getNumBuckets());
+        }
+        return KeyGeneratorImplementations.defaultKeyGenerator();
+    }
+
     private byte[] startTimestampToKey(long startTimestamp) throws IOException {
         return keygen.startTimestampToKey(startTimestamp);
     }
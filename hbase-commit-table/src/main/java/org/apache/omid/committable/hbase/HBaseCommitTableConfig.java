@@ -28,10 +28,13 @@ public class HBaseCommitTableConfig {
     public static final String COMMIT_TABLE_NAME_KEY = "omid.committable.tablename";
     public static final String COMMIT_TABLE_CF_NAME_KEY = "omid.committable.cfname";
     public static final String COMMIT_TABLE_LWM_CF_NAME_KEY = "omid.committable.lwm.cfname";
+    public static final String COMMIT_TABLE_NUM_BUCKETS_KEY = "omid.committable.numBuckets";
 
     public static final String DEFAULT_COMMIT_TABLE_NAME = "OMID_COMMIT_TABLE";
     public static final String DEFAULT_COMMIT_TABLE_CF_NAME = "F";
     public static final String DEFAULT_COMMIT_TABLE_LWM_CF_NAME = "LWF";
+    // 0 means the default key generator, not aware of the regions of the table
+    public static final int DEFAULT_COMMIT_TABLE_NUM_BUCKETS = 0;
 
     static final byte[] COMMIT_TABLE_QUALIFIER = "C".getBytes(UTF_8);
     static final byte[] INVALID_TX_QUALIFIER = "IT".getBytes(UTF_8);
@@ -45,6 +48,7 @@ public class HBaseCommitTableConfig {
     private String tableName = DEFAULT_COMMIT_TABLE_NAME;
     private byte[] commitTableFamily = Bytes.toBytes(DEFAULT_COMMIT_TABLE_CF_NAME);
     private byte[] lowWatermarkFamily = Bytes.toBytes(DEFAULT_COMMIT_TABLE_LWM_CF_NAME);
+    private int numBuckets = DEFAULT_COMMIT_TABLE_NUM_BUCKETS;
 
     // ----------------------------------------------------------------------------------------------------------------
     // Getters and setters
@@ -79,4 +83,17 @@ public class HBaseCommitTableConfig {
         this.lowWatermarkFamily = lowWatermarkFamily.getBytes(UTF_8);
     }
 
+    public int getNumBuckets() {
+        return numBuckets;
+    }
+
+    /**
+     * Number of buckets used to salt the keys. It must match the number of regions the commit table was pre-split in
+     * with OmidTableManager, and must be the same in the TSO and in the clients
+     */
+    @Inject(optional = true)
+    public void setNumBuckets(@Named(COMMIT_TABLE_NUM_BUCKETS_KEY) int numBuckets) {
+        this.numBuckets = numBuckets;
+    }
+
 }
@@ -21,6 +21,11 @@ import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 import org.apache.hadoop.conf.Configuration;
@@ -305,6 +310,55 @@ public class TestHBaseCommitTable {
 
     }
 
+    @Test(timeOut = 30_000)
+    public void testGroupCommit() throws Throwable {
+
+        final int NUM_TXS = 100;
+        final int INVALIDATED_TX_ST = 10 * CommitTable.MAX_CHECKPOINTS_PER_TXN;
+
+        HBaseCommitTableConfig config = new HBaseCommitTableConfig();
+        config.setTableName(TEST_TABLE);
+        HBaseCommitTable commitTable = new HBaseCommitTable(connection, config);
+
+        // Components under test
+        final Writer writer = commitTable.getGroupCommitWriter(16);
+        Client client = commitTable.getClient();
+
+        // Invalidate one of the transactions before it commits
+        assertTrue(client.tryInvalidateTransaction(INVALIDATED_TX_ST).get());
+
+        // Commit all the transactions concurrently
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Boolean>> outcomes = new ArrayList<>(NUM_TXS);
+        for (int i = 0; i < NUM_TXS; i++) {
+            final long st = i * CommitTable.MAX_CHECKPOINTS_PER_TXN;
+            outcomes.add(executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return writer.atomicAddCommittedTransaction(st, st + 1);
+                }
+            }));
+        }
+        executor.shutdown();
+
+        // Test that each transaction gets its own outcome
+        for (int i = 0; i < NUM_TXS; i++) {
+            long st = i * CommitTable.MAX_CHECKPOINTS_PER_TXN;
+            Optional<CommitTimestamp> commitTimestamp = client.getCommitTimestamp(st).get();
+            assertTrue(commitTimestamp.isPresent());
+            if (st == INVALIDATED_TX_ST) {
+                assertFalse(outcomes.get(i).get(), "Invalidated transaction should not commit");
+                assertFalse(commitTimestamp.get().isValid());
+            } else {
+                assertTrue(outcomes.get(i).get(), "Transaction " + st + " should commit");
+                assertTrue(commitTimestamp.get().isValid());
+                assertEquals(commitTimestamp.get().getValue(), st + 1);
+            }
+        }
+        assertEquals(rowCount(TABLE_NAME, commitTableFamily), NUM_TXS, "Rows should be " + NUM_TXS);
+
+    }
+
     private static long rowCount(TableName tableName, byte[] family) throws Throwable {
         Scan scan = new Scan();
         scan.addFamily(family);
@@ -17,8 +17,10 @@
  */
 package org.apache.omid.committable.hbase;
 
+import org.apache.phoenix.thirdparty.com.google.common.base.Preconditions;
 import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.CodedOutputStream;
+import org.apache.omid.committable.CommitTable;
 
 import java.io.IOException;
 
@@ -66,6 +68,74 @@ public class KeyGeneratorImplementations {
 
     }
 
+    /**
+     * Salts the keys with a configurable number of buckets, so the commit table can be pre-split in one region
+     * per bucket. As start timestamps are multiples of {@link CommitTable#MAX_CHECKPOINTS_PER_TXN}, the bucket is
+     * computed from the transaction sequence number, so all the buckets are used uniformly. The bucket of a key can
+     * be computed from the start timestamp alone using {@link #bucketOf(long, int)}, which is also used by the TSO to
+     * route the commits of a bucket to the same commit table writer.
+     */
+    public static class RegionAwareBucketKeyGenerator implements KeyGenerator {
+
+        public static final int MAX_NUM_BUCKETS = 256;
+
+        private final int numBuckets;
+
+        public RegionAwareBucketKeyGenerator(int numBuckets) {
+            Preconditions.checkArgument(numBuckets > 0 && numBuckets <= MAX_NUM_BUCKETS,
+                                        "# of buckets [%s] must be in (0, %s]", numBuckets, MAX_NUM_BUCKETS);
+            this.numBuckets = numBuckets;
+        }
+
+        public static int bucketOf(long startTimestamp, int numBuckets) {
+            return (int) ((startTimestamp / CommitTable.MAX_CHECKPOINTS_PER_TXN) % numBuckets);
+        }
+
+        public int getNumBuckets() {
+            return numBuckets;
+        }
+
+        /**
+         * Returns the split keys that pre-split the commit table in one region per bucket
+         */
+        public byte[][] getSplitKeys() {
+            byte[][] splitKeys = new byte[numBuckets - 1][];
+            for (int bucket = 1; bucket < numBuckets; bucket++) {
+                splitKeys[bucket - 1] = new byte[]{(byte) bucket};
+            }
+            return splitKeys;
+        }
+
+        @Override
+        public byte[] startTimestampToKey(long startTimestamp) throws IOException {
+            byte[] bytes = new byte[9];
+            bytes[0] = (byte) bucketOf(startTimestamp, numBuckets);
+            bytes[1] = (byte) ((startTimestamp >> 56) & 0xFF);
+            bytes[2] = (byte) ((startTimestamp >> 48) & 0xFF);
+            bytes[3] = (byte) ((startTimestamp >> 40) & 0xFF);
+            bytes[4] = (byte) ((startTimestamp >> 32) & 0xFF);
+            bytes[5] = (byte) ((startTimestamp >> 24) & 0xFF);
+            bytes[6] = (byte) ((startTimestamp >> 16) & 0xFF);
+            bytes[7] = (byte) ((startTimestamp >> 8) & 0xFF);
+            bytes[8] = (byte) ((startTimestamp) & 0xFF);
+            return bytes;
+        }
+
+        @Override
+        public long keyToStartTimestamp(byte[] key) {
+            assert (key.length == 9);
+            return ((long) key[1] & 0xFF) << 56
+                    | ((long) key[2] & 0xFF) << 48
+                    | ((long) key[3] & 0xFF) << 40
+                    | ((long) key[4] & 0xFF) << 32
+                    | ((long) key[5] & 0xFF) << 24
+                    | ((long) key[6] & 0xFF) << 16
+                    | ((long) key[7] & 0xFF) << 8
+                    | ((long) key[8] & 0xFF);
+        }
+
+    }
+
     public static class FullRandomKeyGenerator implements KeyGenerator {
 
         @Override
@@ -20,7 +20,10 @@ package org.apache.omid.committable.hbase;
 import org.apache.omid.committable.hbase.KeyGeneratorImplementations.BadRandomKeyGenerator;
 import org.apache.omid.committable.hbase.KeyGeneratorImplementations.BucketKeyGenerator;
 import org.apache.omid.committable.hbase.KeyGeneratorImplementations.FullRandomKeyGenerator;
+import org.apache.omid.committable.hbase.KeyGeneratorImplementations.RegionAwareBucketKeyGenerator;
 import org.apache.omid.committable.hbase.KeyGeneratorImplementations.SeqKeyGenerator;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.omid.committable.CommitTable;
 import org.testng.annotations.Test;
 
 import java.io.IOException;
@@ -36,6 +39,28 @@ public class TestHBaseCommitTableKey {
         testKeyGen(new BadRandomKeyGenerator());
         testKeyGen(new FullRandomKeyGenerator());
         testKeyGen(new SeqKeyGenerator());
+        testKeyGen(new RegionAwareBucketKeyGenerator(16));
+        testKeyGen(new RegionAwareBucketKeyGenerator(7));
+    }
+
+    @Test(timeOut = 10_000)
+    public void testRegionAwareBucketsMatchSplitKeys() throws Exception {
+        final int NUM_BUCKETS = 12;
+        RegionAwareBucketKeyGenerator keyGen = new RegionAwareBucketKeyGenerator(NUM_BUCKETS);
+        byte[][] splitKeys = keyGen.getSplitKeys();
+        assertEquals(splitKeys.length, NUM_BUCKETS - 1);
+        // Consecutive transactions go to consecutive buckets, each one in its own region
+        for (int tx = 0; tx < 10 * NUM_BUCKETS; tx++) {
+            long startTimestamp = tx * CommitTable.MAX_CHECKPOINTS_PER_TXN;
+            byte[] key = keyGen.startTimestampToKey(startTimestamp);
+            int bucket = RegionAwareBucketKeyGenerator.bucketOf(startTimestamp, NUM_BUCKETS);
+            assertEquals(bucket, tx % NUM_BUCKETS);
+            int region = 0;
+            while (region < splitKeys.length && Bytes.compareTo(key, splitKeys[region]) >= 0) {
+                region++;
+            }
+            assertEquals(region, bucket, "Key should be in the region of its bucket");
+        }
     }
 
     @Test(enabled = false, timeOut = 10_000)
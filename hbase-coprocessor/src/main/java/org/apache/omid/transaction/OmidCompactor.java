@@ -45,6 +45,8 @@ import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 import static org.apache.omid.committable.hbase.HBaseCommitTableConfig.COMMIT_TABLE_NAME_KEY;
+import static org.apache.omid.committable.hbase.HBaseCommitTableConfig.COMMIT_TABLE_NUM_BUCKETS_KEY;
+import static org.apache.omid.committable.hbase.HBaseCommitTableConfig.DEFAULT_COMMIT_TABLE_NUM_BUCKETS;
 
 /**
  * Garbage collector for stale data: triggered upon HBase
@@ -95,6 +97,8 @@ public class OmidCompactor extends BaseRegionObserver {
         if (commitTableName != null) {
             commitTableConf.setTableName(commitTableName);
         }
+        commitTableConf.setNumBuckets(env.getConfiguration().getInt(COMMIT_TABLE_NUM_BUCKETS_KEY,
+                                                                    DEFAULT_COMMIT_TABLE_NUM_BUCKETS));
 
         connection = RegionConnectionFactory
                 .getConnection(RegionConnectionFactory.ConnectionType.COMPACTION_CONNECTION, (RegionCoprocessorEnvironment) env);
@@ -54,6 +54,8 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 import static org.apache.omid.committable.hbase.HBaseCommitTableConfig.COMMIT_TABLE_NAME_KEY;
+import static org.apache.omid.committable.hbase.HBaseCommitTableConfig.COMMIT_TABLE_NUM_BUCKETS_KEY;
+import static org.apache.omid.committable.hbase.HBaseCommitTableConfig.DEFAULT_COMMIT_TABLE_NUM_BUCKETS;
 
 /**
  * Server side filtering to identify the transaction snapshot.
@@ -88,6 +90,8 @@ public class OmidSnapshotFilter extends BaseRegionObserver {
         if (commitTableName != null) {
             commitTableConf.setTableName(commitTableName);
         }
+        commitTableConf.setNumBuckets(env.getConfiguration().getInt(COMMIT_TABLE_NUM_BUCKETS_KEY,
+                                                                    DEFAULT_COMMIT_TABLE_NUM_BUCKETS));
         connection = RegionConnectionFactory
                 .getConnection(RegionConnectionFactory.ConnectionType.READ_CONNECTION, (RegionCoprocessorEnvironment) env);
         commitTableClient = new HBaseCommitTable(connection, commitTableConf).getClient();
@@ -734,13 +734,18 @@ public class TestCompaction {
                     return null;
                 }
             }).when(failableHTable).flushCommits();
+            // The spy shares the already flushed buffer of the table
+            doReturn(true).when(failableHTable).hasBufferedMutations();
 
             newWriteSet.add(new HBaseCellId(failableHTable,
                                             id.getRow(), id.getFamily(),
                                             id.getQualifier(), id.getTimestamp()));
         }
         writeSet.clear();
-        writeSet.addAll(newWriteSet);
+        for (HBaseCellId cellId : newWriteSet) {
+            // Added through the transaction, so it flushes the table when committing
+            tx3.addWriteSetElement(cellId);
+        }
 
         try {
             tm.commit(tx3);
@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.ListeningExecutorService;
+import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.MoreExecutors;
+import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * HBase 1.x has no asynchronous client, so the operations of the {@link AsyncTableWrapper}s obtained from this class
+ * are issued through a blocking {@link Connection} from a pool of threads. Both are shared by all the tables, the same
+ * way a {@link Connection} is shared by its tables
+ */
+public class AsyncConnectionWrapper implements Closeable {
+
+    static final String THREADS_KEY = "omid.async.table.threads";
+    static final int DEFAULT_THREADS = 16;
+
+    private final Connection connection;
+    private final ListeningExecutorService executor;
+    private final boolean ownsConnection;
+
+    /**
+     * @param connection shared connection. It's not closed with this wrapper
+     * @param executor   shared pool running the blocking operations. It's not shut down with this wrapper
+     */
+    public AsyncConnectionWrapper(Connection connection, ExecutorService executor) {
+        this(connection, executor, false);
+    }
+
+    private AsyncConnectionWrapper(Connection connection, ExecutorService executor, boolean ownsConnection) {
+        this.connection = connection;
+        this.executor = MoreExecutors.listeningDecorator(executor);
+        this.ownsConnection = ownsConnection;
+    }
+
+    /**
+     * Opens a connection and a pool of threads of its own, whose size is configured with "omid.async.table.threads".
+     * They are released with the wrapper returned
+     */
+    public static AsyncConnectionWrapper createConnection(Configuration conf) throws IOException {
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                conf.getInt(THREADS_KEY, DEFAULT_THREADS),
+                new ThreadFactoryBuilder().setNameFormat("omid-async-table-%d").setDaemon(true).build());
+        return new AsyncConnectionWrapper(ConnectionFactory.createConnection(conf), executor, true);
+
+    }
+
+    public AsyncTableWrapper getTable(TableName tableName) {
+        return new AsyncTableWrapper(connection, tableName, executor);
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        if (ownsConnection) {
+            executor.shutdown();
+            connection.close();
+        }
+
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid;
+
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.ListenableFuture;
+import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.ListeningExecutorService;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * HBase 1.x has no asynchronous client, so the operations are issued through the blocking one from the pool of
+ * threads of the {@link AsyncConnectionWrapper} the table was obtained from. The futures returned complete in those
+ * threads, so their listeners must not block
+ */
+public class AsyncTableWrapper {
+
+    private final Connection connection;
+    private final TableName tableName;
+    private final ListeningExecutorService executor;
+
+    AsyncTableWrapper(Connection connection, TableName tableName, ListeningExecutorService executor) {
+        this.connection = connection;
+        this.tableName = tableName;
+        this.executor = executor;
+    }
+
+    public ListenableFuture<Result> get(final Get get) {
+
+        return executor.submit(new Callable<Result>() {
+            @Override
+            public Result call() throws IOException {
+                try (Table table = connection.getTable(tableName)) {
+                    return table.get(get);
+                }
+            }
+        });
+
+    }
+
+    public ListenableFuture<List<Result>> get(final List<Get> gets) {
+
+        return executor.submit(new Callable<List<Result>>() {
+            @Override
+            public List<Result> call() throws IOException {
+                try (Table table = connection.getTable(tableName)) {
+                    return Arrays.asList(table.get(gets));
+                }
+            }
+        });
+
+    }
+
+    public ListenableFuture<Void> put(final Put put) {
+
+        return executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                try (Table table = connection.getTable(tableName)) {
+                    table.put(put);
+                }
+                return null;
+            }
+        });
+
+    }
+
+    public ListenableFuture<Void> put(final List<Put> puts) {
+
+        return executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                try (Table table = connection.getTable(tableName)) {
+                    table.put(puts);
+                }
+                return null;
+            }
+        });
+
+    }
+
+    /**
+     * Returns all the rows of the scan at once, so it's meant for scans of bounded size
+     */
+    public ListenableFuture<List<Result>> scanAll(final Scan scan) {
+
+        return executor.submit(new Callable<List<Result>>() {
+            @Override
+            public List<Result> call() throws IOException {
+                List<Result> results = new ArrayList<>();
+                try (Table table = connection.getTable(tableName);
+                     ResultScanner scanner = table.getScanner(scan)) {
+                    for (Result result : scanner) {
+                        results.add(result);
+                    }
+                }
+                return results;
+            }
+        });
+
+    }
+
+}
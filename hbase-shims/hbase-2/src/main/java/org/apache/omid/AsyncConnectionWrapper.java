@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.AsyncConnection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * {@link AsyncConnection} of HBase 2.x shared by the {@link AsyncTableWrapper}s of the tables accessed through it, the
+ * same way a {@link org.apache.hadoop.hbase.client.Connection} is shared by its tables
+ */
+public class AsyncConnectionWrapper implements Closeable {
+
+    private final AsyncConnection connection;
+    private final boolean ownsConnection;
+
+    /**
+     * @param connection shared connection. It's not closed with this wrapper
+     */
+    public AsyncConnectionWrapper(AsyncConnection connection) {
+        this(connection, false);
+    }
+
+    private AsyncConnectionWrapper(AsyncConnection connection, boolean ownsConnection) {
+        this.connection = connection;
+        this.ownsConnection = ownsConnection;
+    }
+
+    /**
+     * Opens a connection of its own, which is closed with the wrapper returned
+     */
+    public static AsyncConnectionWrapper createConnection(Configuration conf) throws IOException {
+
+        try {
+            return new AsyncConnectionWrapper(ConnectionFactory.createAsyncConnection(conf).get(), true);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted connecting to HBase");
+        } catch (ExecutionException e) {
+            throw new IOException("Can't connect to HBase", e.getCause());
+        }
+
+    }
+
+    public AsyncTableWrapper getTable(TableName tableName) {
+        return new AsyncTableWrapper(connection.getTable(tableName));
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        if (ownsConnection) {
+            connection.close();
+        }
+
+    }
+
+}
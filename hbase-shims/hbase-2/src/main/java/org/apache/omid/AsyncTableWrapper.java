@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid;
+
+import org.apache.hadoop.hbase.client.AdvancedScanResultConsumer;
+import org.apache.hadoop.hbase.client.AsyncConnection;
+import org.apache.hadoop.hbase.client.AsyncTable;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.ListenableFuture;
+import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.SettableFuture;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Non-blocking access to a table on the {@link AsyncConnection} of HBase 2.x. It's obtained from an
+ * {@link AsyncConnectionWrapper} and holds no resources of its own. The futures returned complete in the threads of
+ * the HBase client, so their listeners must not block
+ */
+public class AsyncTableWrapper {
+
+    private final AsyncTable<AdvancedScanResultConsumer> table;
+
+    AsyncTableWrapper(AsyncTable<AdvancedScanResultConsumer> table) {
+        this.table = table;
+    }
+
+    public ListenableFuture<Result> get(Get get) {
+
+        return toListenableFuture(table.get(get));
+
+    }
+
+    public ListenableFuture<List<Result>> get(List<Get> gets) {
+
+        return toListenableFuture(table.getAll(gets));
+
+    }
+
+    public ListenableFuture<Void> put(Put put) {
+
+        return toListenableFuture(table.put(put));
+
+    }
+
+    public ListenableFuture<Void> put(List<Put> puts) {
+
+        return toListenableFuture(table.putAll(puts));
+
+    }
+
+    /**
+     * Returns all the rows of the scan at once, so it's meant for scans of bounded size
+     */
+    public ListenableFuture<List<Result>> scanAll(Scan scan) {
+
+        return toListenableFuture(table.scanAll(scan));
+
+    }
+
+    private static <T> ListenableFuture<T> toListenableFuture(CompletableFuture<T> future) {
+
+        final SettableFuture<T> result = SettableFuture.create();
+        future.whenComplete((value, error) -> {
+            if (error == null) {
+                result.set(value);
+            } else {
+                result.setException(error instanceof CompletionException && error.getCause() != null
+                                    ? error.getCause()
+                                    : error);
+            }
+        });
+        return result;
+
+    }
+
+}
@@ -96,7 +96,9 @@ public class OmidTableManager {
                     LOG.info("Performing actions related to COMMIT TABLE");
                     tableName = commitTableCommand.tableName;
                     tableFamilies = commitTableFamilies;
-                    if (commitTableCommand.numRegions > 1) {
+                    if (commitTableCommand.regionAwareBuckets) {
+                        splitKeys = splitInBucketRegions(commitTableCommand.numRegions);
+                    } else if (commitTableCommand.numRegions > 1) {
                         splitKeys = splitInUniformRegions(hbaseConf, commitTableCommand.numRegions);
                     }
                     break;
@@ -141,6 +143,13 @@ public class OmidTableManager {
 
     }
 
+    private static byte[][] splitInBucketRegions(int numRegions) {
+
+        // One region per bucket. The commit table has to be configured with numBuckets = numRegions
+        return new KeyGeneratorImplementations.RegionAwareBucketKeyGenerator(numRegions).getSplitKeys();
+
+    }
+
     private static void createTable(Admin admin, String tableName, byte[][] families, byte[][] splitKeys,
                                     int maxVersions)
             throws IOException {
@@ -187,6 +196,11 @@ public class OmidTableManager {
                    validateWith = IntegerGreaterThanZero.class)
         int numRegions = 16;
 
+        @Parameter(names = "-regionAwareBuckets",
+                   description = "Pre-split tableName in one region per key bucket. Requires configuring the commit "
+                           + "table with numBuckets equal to numRegions in the TSO and the clients", required = false)
+        boolean regionAwareBuckets = false;
+
     }
 
     @Parameters(commandDescription = "Specifies configuration for the Timestamp Table")
@@ -106,6 +106,22 @@ public class TestOmidTableManager {
         assertEquals(numRegions, 1, "Should have only 1 regions");
     }
 
+    @Test(timeOut = 20_000)
+    public void testCreateRegionAwareBucketsCommitTableSucceeds() throws Throwable {
+
+        String[] args = new String[]{COMMIT_TABLE_COMMAND_NAME, "-tableName", "my-bucketed-commit-table",
+                                     "-numRegions", "8", "-regionAwareBuckets"};
+
+        OmidTableManager omidTableManager = new OmidTableManager(args);
+        omidTableManager.executeActionsOnHBase(hbaseConf);
+
+        TableName tableName = TableName.valueOf("my-bucketed-commit-table");
+
+        assertTrue(hBaseAdmin.tableExists(tableName));
+        int numRegions = hBaseAdmin.getTableRegions(tableName).size();
+        assertEquals(numRegions, 8, "Should have 8 regions, one per bucket");
+    }
+
     @Test(expectedExceptions = IllegalArgumentException.class, timeOut = 20_000)
     public void testExceptionIsThrownWhenSpecifyingAWrongCommand() throws Throwable {
 
@@ -20,7 +20,9 @@ package org.apache.statemachine;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
@@ -37,74 +39,101 @@ public class StateMachine {
 
     private static final String HANDLER_METHOD_NAME = "handleEvent";
 
-    private static ConcurrentHashMap<Class<?>, ConcurrentHashMap<Class<?>, Method>> stateCaches;
+    // Type all the handlers are adapted to, so they can be invoked exactly
+    private static final MethodType HANDLER_TYPE = MethodType.methodType(State.class, State.class, Event.class);
+
+    private static ConcurrentHashMap<Class<?>, DispatchTable> dispatchTables;
 
     static {
-        stateCaches = new ConcurrentHashMap<>();
+        dispatchTables = new ConcurrentHashMap<>();
     }
 
-    public static abstract class State {
-
-        protected final Fsm fsm;
-        private final ConcurrentHashMap<Class<?>, Method> handlerCache;
-
-        public State(Fsm fsm) {
-            this.fsm = fsm;
+    /**
+     * Handlers of a state class. They are compiled to method handles once, when the first state of the class is
+     * created. The handler of each event class is resolved the first time the event is delivered to the state
+     */
+    static class DispatchTable {
 
-            ConcurrentHashMap<Class<?>, Method> handlerCache = stateCaches.get(getClass());
-            if (handlerCache == null) {
-                handlerCache = new ConcurrentHashMap<>();
-                ConcurrentHashMap<Class<?>, Method> old = stateCaches.putIfAbsent(getClass(), handlerCache);
-                if (old != null) {
-                    handlerCache = old;
-                }
+        private final List<Class<?>> eventTypes = new ArrayList<>();
+        private final List<MethodHandle> handlers = new ArrayList<>();
+        private final ClassValue<MethodHandle> handlerCache = new ClassValue<MethodHandle>() {
+            @Override
+            protected MethodHandle computeValue(Class<?> event) {
+                int best = resolve(event);
+                return best == -1 ? null : handlers.get(best);
             }
-            this.handlerCache = handlerCache;
-        }
+        };
 
-        private Method findHandlerInternal(Class<?> state, Class<?> e) throws NoSuchMethodException {
-            Method[] methods = state.getMethods();
-            List<Method> candidates = new ArrayList<>();
-            for (Method m : methods) {
+        DispatchTable(Class<?> state) {
+            for (Method m : state.getMethods()) {
                 if (m.getName().equals(HANDLER_METHOD_NAME)
                         && State.class.isAssignableFrom(m.getReturnType())
-                        && m.getGenericParameterTypes().length == 1) {
-                    candidates.add(m);
+                        && m.getGenericParameterTypes().length == 1
+                        && Event.class.isAssignableFrom(m.getParameterTypes()[0])) {
+                    m.setAccessible(true);
+                    MethodHandle handler;
+                    try {
+                        handler = MethodHandles.lookup().unreflect(m).asType(HANDLER_TYPE);
+                    } catch (IllegalAccessException e) {
+                        throw new IllegalStateException("Handler " + m + " can't be accessed", e);
+                    }
+                    eventTypes.add(m.getParameterTypes()[0]);
+                    handlers.add(handler);
                 }
             }
+            // Events are usually delivered to the handler declared for their exact class
+            for (Class<?> eventType : eventTypes) {
+                handlerCache.get(eventType);
+            }
+        }
 
-            Method best = null;
-            for (Method m : candidates) {
-                if (m.getParameterTypes()[0].isAssignableFrom(e)) {
-                    if (best == null) {
-                        best = m;
-                    } else if (best.getParameterTypes()[0]
-                            .isAssignableFrom(m.getParameterTypes()[0])) {
-                        best = m;
-                    }
+        // Returns the index of the most specific handler for the event class, or -1 if there's none
+        private int resolve(Class<?> e) {
+            int best = -1;
+            for (int i = 0; i < eventTypes.size(); i++) {
+                if (eventTypes.get(i).isAssignableFrom(e)
+                        && (best == -1 || eventTypes.get(best).isAssignableFrom(eventTypes.get(i)))) {
+                    best = i;
                 }
             }
-            if (best != null) {
-                best.setAccessible(true);
-                return best;
+            return best;
+        }
+
+        MethodHandle getHandler(Class<?> event) throws NoSuchMethodException {
+            MethodHandle handler = handlerCache.get(event);
+            if (handler == null) {
+                throw new NoSuchMethodException("Handler doesn't exist");
             }
-            throw new NoSuchMethodException("Handler doesn't exist");
+            return handler;
         }
 
-        private Method findHandler(Class<?> event) throws NoSuchMethodException {
-            Method m = handlerCache.get(event);
-            if (m == null) {
-                m = findHandlerInternal(getClass(), event);
-                Method m2 = handlerCache.putIfAbsent(event, m);
-                if (m2 != null) {
-                    m = m2;
+    }
+
+    public static abstract class State {
+
+        protected final Fsm fsm;
+        private final DispatchTable dispatchTable;
+
+        public State(Fsm fsm) {
+            this.fsm = fsm;
+
+            DispatchTable dispatchTable = dispatchTables.get(getClass());
+            if (dispatchTable == null) {
+                dispatchTable = new DispatchTable(getClass());
+                DispatchTable old = dispatchTables.putIfAbsent(getClass(), dispatchTable);
+                if (old != null) {
+                    dispatchTable = old;
                 }
             }
-            return m;
+            this.dispatchTable = dispatchTable;
         }
 
-        State dispatch(Event e) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
-            return (State) findHandler(e.getClass()).invoke(this, e);
+        /**
+         * Delivers an event to the handler of this state for its class in the calling thread, as the FSM does for
+         * the events sent to it
+         */
+        public State dispatch(Event e) throws Throwable {
+            return (State) dispatchTable.getHandler(e.getClass()).invokeExact(this, e);
         }
 
     }
@@ -17,6 +17,7 @@
  */
 package org.apache.statemachine;
 
+import org.apache.statemachine.StateMachine.Event;
 import org.apache.statemachine.StateMachine.Fsm;
 import org.apache.statemachine.StateMachine.FsmImpl;
 import org.apache.statemachine.StateMachine.State;
@@ -25,6 +26,9 @@ import org.slf4j.LoggerFactory;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
 
@@ -97,4 +101,72 @@ public class TestStateMachine {
         fsm.sendEvent(te);
         Assert.assertEquals(10, te.get());
     }
+
+    static class UserEvent implements Event {
+    }
+
+    static class RequestEvent extends UserEvent {
+    }
+
+    static class CloseEvent extends UserEvent {
+    }
+
+    static class TimeoutEvent implements Event {
+    }
+
+    static class OtherEvent implements Event {
+    }
+
+    static class BaseState extends State {
+        final List<String> handled = new ArrayList<>();
+
+        BaseState(Fsm fsm) {
+            super(fsm);
+        }
+
+        public State handleEvent(TimeoutEvent e) {
+            handled.add("timeout");
+            return this;
+        }
+    }
+
+    static class DispatchingState extends BaseState {
+
+        DispatchingState(Fsm fsm) {
+            super(fsm);
+        }
+
+        public State handleEvent(UserEvent e) {
+            handled.add("user");
+            return this;
+        }
+
+        public State handleEvent(RequestEvent e) {
+            handled.add("request");
+            return this;
+        }
+
+        // Not a handler, as it doesn't return a state
+        public void handleEvent(OtherEvent e) {
+            handled.add("other");
+        }
+    }
+
+    @Test(timeOut = 60_000)
+    public void testEventsAreDispatchedToTheMostSpecificHandler() throws Throwable {
+        DispatchingState state = new DispatchingState(null);
+        Assert.assertSame(state.dispatch(new RequestEvent()), state);
+        Assert.assertSame(state.dispatch(new CloseEvent()), state);
+        Assert.assertSame(state.dispatch(new UserEvent()), state);
+        Assert.assertSame(state.dispatch(new TimeoutEvent()), state);
+        // Cached handlers are dispatched as the first time
+        Assert.assertSame(state.dispatch(new RequestEvent()), state);
+        Assert.assertSame(state.dispatch(new CloseEvent()), state);
+        Assert.assertEquals(state.handled, Arrays.asList("request", "user", "user", "timeout", "request", "user"));
+    }
+
+    @Test(timeOut = 60_000, expectedExceptions = NoSuchMethodException.class)
+    public void testEventsWithoutHandlerAreRejected() throws Throwable {
+        new DispatchingState(null).dispatch(new OtherEvent());
+    }
 }
@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.timestamp.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+
+/**
+ * Stores the max timestamp assigned by the TO in a local memory-mapped file.
+ *
+ * The file is double buffered: it has two slots, each one holding a sequence number, the max timestamp and a check
+ * word. Updates always overwrite the slot not holding the current value, so a write torn by a crash leaves the
+ * previous value readable. The valid slot with the highest sequence number holds the current max timestamp.
+ *
+ * Updates are compare-and-swap operations performed under an exclusive lock of the file, so they are also atomic
+ * among processes sharing it.
+ */
+public class FileTimestampStorage implements TimestampStorage {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FileTimestampStorage.class);
+
+    static final long INITIAL_MAX_TS_VALUE = 0;
+
+    // Slot layout: sequence number | max timestamp | check word
+    static final int SLOT_SIZE = 32;
+    static final int FILE_SIZE = 2 * SLOT_SIZE;
+    private static final long CHECK_SEED = 0x4F4D49442D54534FL;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+
+    @Inject
+    public FileTimestampStorage(FileTimestampStorageConfig config) throws IOException {
+        this(new File(config.getPath()));
+    }
+
+    public FileTimestampStorage(File path) throws IOException {
+        File parent = path.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Can't create directory for timestamp storage file " + path);
+        }
+        file = new RandomAccessFile(path, "rw");
+        channel = file.getChannel();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+        LOG.info("Timestamp storage file {} opened. Max timestamp {}", path, getMaxTimestamp());
+    }
+
+    @Override
+    public synchronized void updateMaxTimestamp(long previousMaxTimestamp, long newMaxTimestamp) throws IOException {
+
+        if (newMaxTimestamp < 0) {
+            LOG.error("Negative value received for maxTimestamp: {}", newMaxTimestamp);
+            throw new IllegalArgumentException("Negative value received for maxTimestamp" + newMaxTimestamp);
+        }
+        if (newMaxTimestamp <= previousMaxTimestamp) {
+            LOG.error("maxTimestamp {} <= previousMaxTimesamp: {}", newMaxTimestamp, previousMaxTimestamp);
+            throw new IllegalArgumentException();
+        }
+        try (FileLock ignored = channel.lock()) {
+            int currentSlot = currentSlot();
+            long currentMaxTimestamp = currentSlot == -1 ? INITIAL_MAX_TS_VALUE : valueAt(currentSlot);
+            if (currentMaxTimestamp != previousMaxTimestamp) {
+                throw new IOException("Previous max timestamp is incorrect. Expected " + previousMaxTimestamp
+                        + " found " + currentMaxTimestamp);
+            }
+            long sequence = currentSlot == -1 ? 1 : sequenceAt(currentSlot) + 1;
+            int offset = (currentSlot == 0) ? SLOT_SIZE : 0;
+            buffer.putLong(offset, sequence);
+            buffer.putLong(offset + 8, newMaxTimestamp);
+            buffer.putLong(offset + 16, checkWord(sequence, newMaxTimestamp));
+            buffer.force();
+        }
+
+    }
+
+    @Override
+    public synchronized long getMaxTimestamp() throws IOException {
+
+        int currentSlot = currentSlot();
+        if (currentSlot == -1) {
+            // This happens for example when a new file is created
+            return INITIAL_MAX_TS_VALUE;
+        }
+        return valueAt(currentSlot);
+
+    }
+
+    public void close() throws IOException {
+        channel.close();
+        file.close();
+    }
+
+    /**
+     * @return the offset of the valid slot with the highest sequence number or -1 if there's no valid slot
+     */
+    private int currentSlot() {
+        boolean firstValid = isValid(0);
+        boolean secondValid = isValid(SLOT_SIZE);
+        if (firstValid && secondValid) {
+            return sequenceAt(0) > sequenceAt(SLOT_SIZE) ? 0 : SLOT_SIZE;
+        }
+        if (firstValid) {
+            return 0;
+        }
+        return secondValid ? SLOT_SIZE : -1;
+    }
+
+    private boolean isValid(int offset) {
+        long sequence = sequenceAt(offset);
+        return sequence > 0 && buffer.getLong(offset + 16) == checkWord(sequence, valueAt(offset));
+    }
+
+    private long sequenceAt(int offset) {
+        return buffer.getLong(offset);
+    }
+
+    private long valueAt(int offset) {
+        return buffer.getLong(offset + 8);
+    }
+
+    private static long checkWord(long sequence, long maxTimestamp) {
+        return sequence ^ Long.rotateLeft(maxTimestamp, 32) ^ CHECK_SEED;
+    }
+
+}
@@ -0,0 +1,49 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.timestamp.storage;
+
+import com.google.inject.Inject;
+
+import javax.inject.Named;
+
+public class FileTimestampStorageConfig {
+
+    public static final String TIMESTAMP_STORAGE_PATH_KEY = "omid.timestampstorage.path";
+
+    public static final String DEFAULT_TIMESTAMP_STORAGE_PATH = "omid-max-timestamp";
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Configuration parameters
+    // ----------------------------------------------------------------------------------------------------------------
+
+    private String path = DEFAULT_TIMESTAMP_STORAGE_PATH;
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Getters and setters
+    // ----------------------------------------------------------------------------------------------------------------
+
+    public String getPath() {
+        return path;
+    }
+
+    @Inject(optional = true)
+    public void setPath(@Named(TIMESTAMP_STORAGE_PATH_KEY) String path) {
+        this.path = path;
+    }
+
+}
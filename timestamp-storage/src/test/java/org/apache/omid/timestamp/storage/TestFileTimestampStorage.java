@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.timestamp.storage;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.apache.omid.timestamp.storage.FileTimestampStorage.INITIAL_MAX_TS_VALUE;
+import static org.apache.omid.timestamp.storage.FileTimestampStorage.SLOT_SIZE;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.fail;
+
+public class TestFileTimestampStorage {
+
+    private static final long NEGATIVE_TS = -1;
+
+    private static final int ITERATION_COUNT = 10;
+
+    private File file;
+
+    private FileTimestampStorage storage;
+
+    @BeforeMethod
+    public void initStuff() throws Exception {
+        file = File.createTempFile("omid-max-timestamp", null);
+        file.delete();
+        storage = new FileTimestampStorage(file);
+    }
+
+    @AfterMethod
+    public void closeStuff() throws Exception {
+        storage.close();
+        file.delete();
+    }
+
+    @Test(timeOut = 10_000)
+    public void testBasicFunctionality() throws Exception {
+
+        assertEquals(storage.getMaxTimestamp(), INITIAL_MAX_TS_VALUE);
+
+        // Check new timestamp does not allow negative values...
+        try {
+            storage.updateMaxTimestamp(INITIAL_MAX_TS_VALUE, NEGATIVE_TS);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected exception
+        }
+        assertEquals(storage.getMaxTimestamp(), INITIAL_MAX_TS_VALUE);
+
+        // ...nor values lower than the previous one
+        try {
+            storage.updateMaxTimestamp(100, 99);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected exception
+        }
+
+        long currentMaxTimestamp = INITIAL_MAX_TS_VALUE;
+        for (int i = 0; i < ITERATION_COUNT; i++) {
+            storage.updateMaxTimestamp(currentMaxTimestamp, currentMaxTimestamp + 1_000_000);
+            currentMaxTimestamp += 1_000_000;
+            assertEquals(storage.getMaxTimestamp(), currentMaxTimestamp);
+        }
+
+        // Check the compare and swap fails when the previous value is not the current one
+        try {
+            storage.updateMaxTimestamp(currentMaxTimestamp - 1, currentMaxTimestamp + 1);
+            fail();
+        } catch (IOException e) {
+            // Expected exception
+        }
+        assertEquals(storage.getMaxTimestamp(), currentMaxTimestamp);
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testValueIsSharedAndSurvivesReopening() throws Exception {
+
+        storage.updateMaxTimestamp(INITIAL_MAX_TS_VALUE, 1_000);
+
+        FileTimestampStorage otherStorage = new FileTimestampStorage(file);
+        try {
+            assertEquals(otherStorage.getMaxTimestamp(), 1_000);
+            // A storage with a stale view of the max timestamp can't overwrite it
+            try {
+                otherStorage.updateMaxTimestamp(INITIAL_MAX_TS_VALUE, 2_000);
+                fail();
+            } catch (IOException e) {
+                // Expected exception
+            }
+            otherStorage.updateMaxTimestamp(1_000, 2_000);
+        } finally {
+            otherStorage.close();
+        }
+        assertEquals(storage.getMaxTimestamp(), 2_000);
+
+        storage.close();
+        storage = new FileTimestampStorage(file);
+        assertEquals(storage.getMaxTimestamp(), 2_000);
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testTornWriteKeepsPreviousValue() throws Exception {
+
+        storage.updateMaxTimestamp(INITIAL_MAX_TS_VALUE, 1_000);
+        storage.updateMaxTimestamp(1_000, 2_000); // Written in the second slot
+        storage.close();
+
+        // Simulate a crash in the middle of the write of the second slot
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(SLOT_SIZE + 8);
+            raf.writeLong(3_000);
+        }
+
+        storage = new FileTimestampStorage(file);
+        assertEquals(storage.getMaxTimestamp(), 1_000);
+        storage.updateMaxTimestamp(1_000, 4_000);
+        assertEquals(storage.getMaxTimestamp(), 4_000);
+
+    }
+
+}
@@ -24,6 +24,7 @@ import org.apache.omid.tso.client.CellId;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -78,8 +79,11 @@ public abstract class AbstractTransaction<T extends CellId> implements Transacti
     private final long epoch;
     private long commitTimestamp;
     private boolean isRollbackOnly;
+    private boolean isReadOnly;
     private final Set<T> writeSet;
     private final Set<T> conflictFreeWriteSet;
+    // Elements of the write set not registered in the TSO yet, when the transaction manager registers them in advance
+    private Set<T> unregisteredWriteSet = new HashSet<>();
     private Status status = Status.RUNNING;
     private VisibilityLevel visibilityLevel;
     private final boolean isLowLatency;
@@ -232,6 +236,21 @@ public abstract class AbstractTransaction<T extends CellId> implements Transacti
         return isRollbackOnly;
     }
 
+    /**
+     * Marks this transaction as read-only. Any write attempted in its context will be rejected.
+     */
+    public void setReadOnly() {
+        isReadOnly = true;
+    }
+
+    /**
+     * Returns whether this transaction has been started as read-only.
+     * @return true if the transaction can not write
+     */
+    public boolean isReadOnly() {
+        return isReadOnly;
+    }
+
     /**
      * Returns transaction manager associated to this transaction.
      * @return transaction manager
@@ -338,7 +357,16 @@ public abstract class AbstractTransaction<T extends CellId> implements Transacti
      *            the element to add
      */
     public void addWriteSetElement(T element) {
-        writeSet.add(element);
+        if (writeSet.add(element) && transactionManager != null) {
+            int registrationBatchSize = transactionManager.getWriteSetRegistrationBatchSize();
+            if (registrationBatchSize > 0) {
+                unregisteredWriteSet.add(element);
+                if (unregisteredWriteSet.size() >= registrationBatchSize) {
+                    transactionManager.registerWriteSet(this, unregisteredWriteSet);
+                    unregisteredWriteSet = new HashSet<>();
+                }
+            }
+        }
     }
 
     /**
@@ -19,24 +19,31 @@ package org.apache.omid.transaction;
 
 import org.apache.phoenix.thirdparty.com.google.common.base.Function;
 import org.apache.phoenix.thirdparty.com.google.common.base.Optional;
-import org.apache.phoenix.thirdparty.com.google.common.hash.Hashing;
 import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.Futures;
+import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.ListenableFuture;
+import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.ListeningExecutorService;
 import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.MoreExecutors;
+import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.SettableFuture;
 import org.apache.omid.committable.CommitTable;
 import org.apache.omid.committable.CommitTable.CommitTimestamp;
 import org.apache.omid.metrics.Counter;
 import org.apache.omid.metrics.MetricsRegistry;
 import org.apache.omid.metrics.Timer;
+import org.apache.omid.proto.TSOProto;
 import org.apache.omid.transaction.Transaction.Status;
 import org.apache.omid.tso.client.AbortException;
 import org.apache.omid.tso.client.CellId;
 import org.apache.omid.tso.client.ConnectionException;
 import org.apache.omid.tso.client.ServiceUnavailableException;
+import org.apache.omid.tso.client.TSOFuture;
 import org.apache.omid.tso.client.TSOProtocol;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 
 
@@ -66,6 +73,13 @@ public abstract class AbstractTransactionManager implements TransactionManager {
     protected final CommitTable.Client commitTableClient;
     private final CommitTable.Writer commitTableWriter;
     private final TransactionFactory<? extends CellId> transactionFactory;
+    // Number of cells written by a transaction that are registered in the TSO at once. 0 disables the registration
+    private final int writeSetRegistrationBatchSize;
+    // Hash function used to compute the ids of the cells, rows and tables modified. Same as the TSO client's one
+    private final TSOProto.CellIdHash cellIdHash;
+    // Runs the steps of the asynchronous operations that may block (e.g. flushing the writes or the post-commit
+    // actions), so they never run in the threads that complete the TSO requests
+    private final ListeningExecutorService asyncExecutor;
 
     // Metrics
     private final Timer startTimestampTimer;
@@ -97,12 +111,43 @@ public abstract class AbstractTransactionManager implements TransactionManager {
                                       CommitTable.Client commitTableClient,
                                       CommitTable.Writer commitTableWriter,
                                       TransactionFactory<? extends CellId> transactionFactory) {
+        this(metrics, postCommitter, tsoClient, commitTableClient, commitTableWriter, transactionFactory,
+             MoreExecutors.newDirectExecutorService());
+    }
+
+    /**
+     * Constructor for transaction managers that support asynchronous operations that don't block the caller
+     *
+     * @param metrics
+     *            instrumentation metrics
+     * @param postCommitter
+     *            post commit action executor
+     * @param tsoClient
+     *            a client for accessing functionality of the status oracle
+     * @param commitTableClient
+     *            a client for accessing functionality of the commit table
+     * @param transactionFactory
+     *            a transaction factory to create the specific transaction
+     *            objects required by the transaction manager being implemented.
+     * @param asyncExecutor
+     *            executor for the steps of the asynchronous operations that may block. Shut down on close
+     */
+    public AbstractTransactionManager(MetricsRegistry metrics,
+                                      PostCommitActions postCommitter,
+                                      TSOProtocol tsoClient,
+                                      CommitTable.Client commitTableClient,
+                                      CommitTable.Writer commitTableWriter,
+                                      TransactionFactory<? extends CellId> transactionFactory,
+                                      ListeningExecutorService asyncExecutor) {
 
         this.tsoClient = tsoClient;
+        this.asyncExecutor = asyncExecutor;
         this.postCommitter = postCommitter;
         this.commitTableClient = commitTableClient;
         this.commitTableWriter = commitTableWriter;
         this.transactionFactory = transactionFactory;
+        this.writeSetRegistrationBatchSize = tsoClient.getWriteSetRegistrationBatchSize();
+        this.cellIdHash = tsoClient.getCellIdHash();
 
         // Metrics configuration
         this.startTimestampTimer = metrics.timer(name("omid", "tm", "hbase", "startTimestamp", "latency"));
@@ -163,6 +208,103 @@ public abstract class AbstractTransactionManager implements TransactionManager {
         }
     }
 
+    /**
+     * @see org.apache.omid.transaction.TransactionManager#begin(int)
+     */
+    @Override
+    public final List<Transaction> begin(int numTransactions) throws TransactionException {
+
+        try {
+            for (int i = 0; i < numTransactions; i++) {
+                preBegin();
+            }
+
+            List<Long> startTimestamps;
+            long epoch;
+
+            // Same as in begin(). The epoch is compared with the first timestamp, which is the lowest one
+            startTimestampTimer.start();
+            try {
+                do {
+                    startTimestamps = tsoClient.getNewStartTimestamps(numTransactions).get();
+                    epoch = tsoClient.getEpoch();
+                } while (epoch > startTimestamps.get(0));
+            } finally {
+                startTimestampTimer.stop();
+            }
+
+            List<Transaction> transactions = new ArrayList<>(numTransactions);
+            for (long startTimestamp : startTimestamps) {
+                AbstractTransaction<? extends CellId> tx = transactionFactory.createTransaction(startTimestamp, epoch, this);
+                postBegin(tx);
+                transactions.add(tx);
+            }
+
+            return transactions;
+        } catch (TransactionManagerException e) {
+            throw new TransactionException("An error has occured during PreBegin/PostBegin", e);
+        } catch (ExecutionException e) {
+            throw new TransactionException("Could not get new timestamps", e);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new TransactionException("Interrupted getting timestamps", ie);
+        }
+    }
+
+    /**
+     * @see org.apache.omid.transaction.TransactionManager#beginAsync()
+     */
+    @Override
+    public final ListenableFuture<Transaction> beginAsync() {
+
+        SettableFuture<Transaction> result = SettableFuture.create();
+        try {
+            preBegin();
+        } catch (TransactionManagerException e) {
+            result.setException(new TransactionException("An error has occured during PreBegin/PostBegin", e));
+            return result;
+        }
+        requestStartTimestamp(result, System.nanoTime());
+        return result;
+
+    }
+
+    private void requestStartTimestamp(final SettableFuture<Transaction> result, final long requestTimeInNs) {
+
+        final TSOFuture<Long> future = tsoClient.getNewStartTimestamp();
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    long startTimestamp = future.get();
+                    long epoch = tsoClient.getEpoch();
+                    if (epoch > startTimestamp) { // Same as in begin()
+                        requestStartTimestamp(result, requestTimeInNs);
+                        return;
+                    }
+                    startTimestampTimer.update(System.nanoTime() - requestTimeInNs);
+
+                    AbstractTransaction<? extends CellId> tx =
+                            transactionFactory.createTransaction(startTimestamp, epoch, AbstractTransactionManager.this);
+
+                    postBegin(tx);
+
+                    result.set(tx);
+                } catch (TransactionManagerException e) {
+                    result.setException(new TransactionException("An error has occured during PreBegin/PostBegin", e));
+                } catch (ExecutionException e) {
+                    result.setException(new TransactionException("Could not get new timestamp", e));
+                } catch (InterruptedException ie) { // Not expected, the future is already completed
+                    Thread.currentThread().interrupt();
+                    result.setException(new TransactionException("Interrupted getting timestamp", ie));
+                } catch (RuntimeException e) {
+                    result.setException(e);
+                }
+            }
+        }, MoreExecutors.directExecutor());
+
+    }
+
     /**
      * Generates hash ID for table name, this hash is later-on sent to the TSO and used for fencing
      * @param tableName - the table name
@@ -184,7 +326,7 @@ public abstract class AbstractTransactionManager implements TransactionManager {
     @Override
     public final Transaction fence(byte[] tableName) throws TransactionException {
         long fenceTimestamp;
-        long tableID = getHashForTable(tableName); Hashing.murmur3_128().newHasher().putBytes(tableName).hash().asLong();
+        long tableID = getHashForTable(tableName);
 
         try {
             fenceTimer.start();
@@ -230,10 +372,7 @@ public abstract class AbstractTransactionManager implements TransactionManager {
         AbstractTransaction<? extends CellId> tx = enforceAbstractTransactionAsParam(transaction);
         enforceTransactionIsInRunningState(tx);
 
-        if (tx.isRollbackOnly()) { // Manage explicit user rollback
-            rollback(tx);
-            throw new RollbackException(tx + ": Tx was set to rollback explicitly");
-        }
+        rollbackIfNotCommittable(tx);
 
         try {
 
@@ -262,6 +401,110 @@ public abstract class AbstractTransactionManager implements TransactionManager {
 
     }
 
+    /**
+     * @see org.apache.omid.transaction.TransactionManager#commitAsync(Transaction)
+     */
+    @Override
+    public final ListenableFuture<Void> commitAsync(Transaction transaction) {
+
+        final AbstractTransaction<? extends CellId> tx = enforceAbstractTransactionAsParam(transaction);
+        enforceTransactionIsInRunningState(tx);
+
+        final SettableFuture<Void> result = SettableFuture.create();
+        final long commitStartInNs = System.nanoTime();
+        asyncExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    rollbackIfNotCommittable(tx);
+
+                    preCommit(tx);
+
+                    if (tx.getWriteSet().isEmpty() && tx.getConflictFreeWriteSet().isEmpty()) {
+                        markReadOnlyTransaction(tx); // No need for read-only transactions to contact the TSO Server
+                        completeAsyncCommit(tx, commitStartInNs, result);
+                        return;
+                    }
+                    final boolean lowLatency = tsoClient.isLowLatency();
+                    final TSOFuture<Long> commitFuture =
+                            tsoClient.commit(tx.getStartTimestamp(), tx.getWriteSet(), tx.getConflictFreeWriteSet());
+                    // The outcome is processed in the async executor, as the post-commit actions may block
+                    commitFuture.addListener(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                try {
+                                    long commitTs = commitFuture.get();
+                                    if (lowLatency) {
+                                        completeLowLatencyCommit(tx, commitTs);
+                                    } else {
+                                        completeRegularCommit(tx, commitTs);
+                                    }
+                                } catch (ExecutionException e) {
+                                    if (lowLatency) {
+                                        handleLowLatencyCommitFailure(tx, e);
+                                    } else {
+                                        handleRegularCommitFailure(tx, e);
+                                    }
+                                }
+                                completeAsyncCommit(tx, commitStartInNs, result);
+                            } catch (Throwable t) {
+                                failAsyncOperation(result, t);
+                            }
+                        }
+                    }, asyncExecutor);
+                } catch (Throwable t) {
+                    failAsyncOperation(result, t);
+                }
+            }
+        });
+        return result;
+
+    }
+
+    private void completeAsyncCommit(AbstractTransaction<? extends CellId> tx, long commitStartInNs,
+                                     SettableFuture<Void> result) throws TransactionManagerException {
+
+        committedTxsCounter.inc();
+        commitTimer.update(System.nanoTime() - commitStartInNs);
+
+        postCommit(tx);
+
+        result.set(null);
+
+    }
+
+    private static void failAsyncOperation(SettableFuture<?> result, Throwable t) {
+
+        if (t instanceof TransactionManagerException) {
+            result.setException(new TransactionException(t.getMessage(), t));
+        } else if (t instanceof IOException && !(t instanceof TransactionException)) {
+            result.setException(new TransactionException("Could not complete the operation", t));
+        } else {
+            result.setException(t);
+        }
+
+    }
+
+    /**
+     * Rolls back the transactions marked as rollback-only and the ones the TSO already notified conflicts for
+     */
+    private void rollbackIfNotCommittable(AbstractTransaction<? extends CellId> tx)
+            throws RollbackException, TransactionException {
+
+        if (tx.isRollbackOnly()) { // Manage explicit user rollback
+            rollback(tx);
+            throw new RollbackException(tx + ": Tx was set to rollback explicitly");
+        }
+
+        if (writeSetRegistrationBatchSize > 0 && tsoClient.hasConflicts(tx.getStartTimestamp())) {
+            rollback(tx);
+            rolledbackTxsCounter.inc();
+            throw new RollbackException(tx.getStartTimestamp() + ": Conflicts detected in registered writeset");
+        }
+
+    }
+
     /**
      * Allows transaction manager developers to perform actions after committing a transaction.
      * @param transaction
@@ -299,11 +542,39 @@ public abstract class AbstractTransactionManager implements TransactionManager {
         } catch (TransactionManagerException e) {
             throw new TransactionException(e.getMessage(), e);
         } finally {
+            if (writeSetRegistrationBatchSize > 0) {
+                tsoClient.releaseWriteSet(tx.getStartTimestamp());
+            }
             tx.cleanup();
         }
 
     }
 
+    /**
+     * @see org.apache.omid.transaction.TransactionManager#rollbackAsync(Transaction)
+     */
+    @Override
+    public final ListenableFuture<Void> rollbackAsync(final Transaction transaction) {
+
+        enforceTransactionIsInRunningState(enforceAbstractTransactionAsParam(transaction));
+
+        final SettableFuture<Void> result = SettableFuture.create();
+        // Pre-rollback actions (e.g. flushing the writes) may block
+        asyncExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    rollback(transaction);
+                    result.set(null);
+                } catch (Throwable t) {
+                    failAsyncOperation(result, t);
+                }
+            }
+        });
+        return result;
+
+    }
+
     /**
      * Allows transaction manager developers to perform actions after rolling-back a transaction.
      * @param transaction
@@ -315,12 +586,40 @@ public abstract class AbstractTransactionManager implements TransactionManager {
 
     protected abstract void closeResources() throws IOException;
 
+    /**
+     * Returns the hash function the identifiers of the cells, rows and tables modified must be computed with
+     */
+    public TSOProto.CellIdHash getCellIdHash() {
+        return cellIdHash;
+    }
+
+    /**
+     * Returns the number of cells a transaction writes before registering them in the TSO, which detects their
+     * conflicts while the transaction runs. 0 if the write sets are not registered in advance
+     */
+    public int getWriteSetRegistrationBatchSize() {
+        return writeSetRegistrationBatchSize;
+    }
+
+    /**
+     * Registers part of the write set of a running transaction in the TSO, asynchronously. If the TSO already
+     * notified a conflict for the transaction, marks it as rollback-only instead, so it aborts without committing.
+     */
+    void registerWriteSet(AbstractTransaction<? extends CellId> tx, Set<? extends CellId> cells) {
+        if (tsoClient.hasConflicts(tx.getStartTimestamp())) {
+            tx.setRollbackOnly();
+            return;
+        }
+        tsoClient.registerWriteSet(tx.getStartTimestamp(), cells);
+    }
+
     /**
      * @see java.io.Closeable#close()
      */
     @Override
     public final void close() throws IOException {
         tsoClient.close();
+        asyncExecutor.shutdown();
         closeResources();
     }
 
@@ -360,31 +659,10 @@ public abstract class AbstractTransactionManager implements TransactionManager {
         try {
 
             long commitTs = tsoClient.commit(tx.getStartTimestamp(), tx.getWriteSet(), tx.getConflictFreeWriteSet()).get();
-            boolean committed = commitTableWriter.atomicAddCommittedTransaction(tx.getStartTimestamp(),commitTs);
-            if (!committed) {
-                // Transaction has been invalidated by other client
-                rollback(tx);
-                commitTableClient.deleteCommitEntry(tx.getStartTimestamp());
-                rolledbackTxsCounter.inc();
-                throw new RollbackException("Transaction " + tx.getTransactionId() + " got invalidated");
-            }
-            certifyCommitForTx(tx, commitTs);
-            updateShadowCellsAndRemoveCommitTableEntry(tx, postCommitter);
+            completeLowLatencyCommit(tx, commitTs);
 
         } catch (ExecutionException e) {
-            if (e.getCause() instanceof AbortException) { // TSO reports Tx conflicts as AbortExceptions in the future
-                rollback(tx);
-                rolledbackTxsCounter.inc();
-                throw new RollbackException(tx.getStartTimestamp() + ": Conflicts detected in writeset", e.getCause());
-            }
-
-            if (e.getCause() instanceof ServiceUnavailableException || e.getCause() instanceof ConnectionException) {
-                errorTxsCounter.inc();
-                rollback(tx); // Rollback proactively cause it's likely that a new TSOServer is now master
-                throw new RollbackException(tx.getStartTimestamp() + " rolled-back precautionary", e.getCause());
-            } else {
-                throw new TransactionException(tx.getStartTimestamp() + ": cannot determine Tx outcome", e.getCause());
-            }
+            handleLowLatencyCommitFailure(tx, e);
         } catch (InterruptedException e) {
             e.printStackTrace();
         } catch (IOException e) {
@@ -392,6 +670,41 @@ public abstract class AbstractTransactionManager implements TransactionManager {
         }
     }
 
+    private void completeLowLatencyCommit(AbstractTransaction<? extends CellId> tx, long commitTs)
+            throws RollbackException, TransactionException, IOException {
+
+        boolean committed = commitTableWriter.atomicAddCommittedTransaction(tx.getStartTimestamp(),commitTs);
+        if (!committed) {
+            // Transaction has been invalidated by other client
+            rollback(tx);
+            commitTableClient.deleteCommitEntry(tx.getStartTimestamp());
+            rolledbackTxsCounter.inc();
+            throw new RollbackException("Transaction " + tx.getTransactionId() + " got invalidated");
+        }
+        certifyCommitForTx(tx, commitTs);
+        updateShadowCellsAndRemoveCommitTableEntry(tx, postCommitter);
+
+    }
+
+    private void handleLowLatencyCommitFailure(AbstractTransaction<? extends CellId> tx, ExecutionException e)
+            throws RollbackException, TransactionException {
+
+        if (e.getCause() instanceof AbortException) { // TSO reports Tx conflicts as AbortExceptions in the future
+            rollback(tx);
+            rolledbackTxsCounter.inc();
+            throw new RollbackException(tx.getStartTimestamp() + ": Conflicts detected in writeset", e.getCause());
+        }
+
+        if (e.getCause() instanceof ServiceUnavailableException || e.getCause() instanceof ConnectionException) {
+            errorTxsCounter.inc();
+            rollback(tx); // Rollback proactively cause it's likely that a new TSOServer is now master
+            throw new RollbackException(tx.getStartTimestamp() + " rolled-back precautionary", e.getCause());
+        } else {
+            throw new TransactionException(tx.getStartTimestamp() + ": cannot determine Tx outcome", e.getCause());
+        }
+
+    }
+
     private void commitRegularTransaction(AbstractTransaction<? extends CellId> tx)
             throws RollbackException, TransactionException
     {
@@ -399,71 +712,83 @@ public abstract class AbstractTransactionManager implements TransactionManager {
         try {
 
             long commitTs = tsoClient.commit(tx.getStartTimestamp(), tx.getWriteSet(), tx.getConflictFreeWriteSet()).get();
-            certifyCommitForTx(tx, commitTs);
-            updateShadowCellsAndRemoveCommitTableEntry(tx, postCommitter);
+            completeRegularCommit(tx, commitTs);
 
         } catch (ExecutionException e) {
+            handleRegularCommitFailure(tx, e);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new TransactionException(tx.getStartTimestamp() + ": interrupted during commit", ie);
 
-            if (e.getCause() instanceof AbortException) { // TSO reports Tx conflicts as AbortExceptions in the future
-                rollback(tx);
-                rolledbackTxsCounter.inc();
-                throw new RollbackException(tx.getStartTimestamp() + ": Conflicts detected in writeset", e.getCause());
-            }
+        }
 
-            if (e.getCause() instanceof ServiceUnavailableException || e.getCause() instanceof ConnectionException) {
+    }
 
-                errorTxsCounter.inc();
-                try {
-                    LOG.warn("Can't contact the TSO for receiving outcome for Tx {}. Checking Commit Table...", tx.getStartTimestamp());
-                    // Check the commit table to find if the target TSO woke up in the meantime and added the commit
-                    // TODO: Decide what we should we do if we can not contact the commit table
-                    Optional<CommitTimestamp> commitTimestamp =
-                            commitTableClient.getCommitTimestamp(tx.getStartTimestamp()).get();
-                    if (commitTimestamp.isPresent()) {
-                        if (commitTimestamp.get().isValid()) {
+    private void completeRegularCommit(AbstractTransaction<? extends CellId> tx, long commitTs) {
+
+        certifyCommitForTx(tx, commitTs);
+        updateShadowCellsAndRemoveCommitTableEntry(tx, postCommitter);
+
+    }
+
+    private void handleRegularCommitFailure(AbstractTransaction<? extends CellId> tx, ExecutionException e)
+            throws RollbackException, TransactionException {
+
+        if (e.getCause() instanceof AbortException) { // TSO reports Tx conflicts as AbortExceptions in the future
+            rollback(tx);
+            rolledbackTxsCounter.inc();
+            throw new RollbackException(tx.getStartTimestamp() + ": Conflicts detected in writeset", e.getCause());
+        }
+
+        if (e.getCause() instanceof ServiceUnavailableException || e.getCause() instanceof ConnectionException) {
+
+            errorTxsCounter.inc();
+            try {
+                LOG.warn("Can't contact the TSO for receiving outcome for Tx {}. Checking Commit Table...", tx.getStartTimestamp());
+                // Check the commit table to find if the target TSO woke up in the meantime and added the commit
+                // TODO: Decide what we should we do if we can not contact the commit table
+                Optional<CommitTimestamp> commitTimestamp =
+                        commitTableClient.getCommitTimestamp(tx.getStartTimestamp()).get();
+                if (commitTimestamp.isPresent()) {
+                    if (commitTimestamp.get().isValid()) {
+                        LOG.warn("{}: Valid commit TS found in Commit Table. Committing Tx...", tx.getStartTimestamp());
+                        certifyCommitForTx(tx, commitTimestamp.get().getValue());
+                        postCommitter.updateShadowCells(tx); // But do NOT remove transaction from commit table
+                    } else { // Probably another Tx in a new TSO Server invalidated this transaction
+                        LOG.warn("{}: Invalidated commit TS found in Commit Table. Rolling-back...", tx.getStartTimestamp());
+                        rollback(tx);
+                        throw new RollbackException(tx.getStartTimestamp() + " invalidated by other Tx started", e.getCause());
+                    }
+                } else {
+                    LOG.warn("{}: Trying to invalidate Tx proactively in Commit Table...", tx.getStartTimestamp());
+                    boolean invalidated = commitTableClient.tryInvalidateTransaction(tx.getStartTimestamp()).get();
+                    if (invalidated) {
+                        LOG.warn("{}: Invalidated proactively in Commit Table. Rolling-back Tx...", tx.getStartTimestamp());
+                        invalidatedTxsCounter.inc();
+                        rollback(tx); // Rollback proactively cause it's likely that a new TSOServer is now master
+                        throw new RollbackException(tx.getStartTimestamp() + " rolled-back precautionary", e.getCause());
+                    } else {
+                        LOG.warn("{}: Invalidation could NOT be completed. Re-checking Commit Table...", tx.getStartTimestamp());
+                        // TODO: Decide what we should we do if we can not contact the commit table
+                        commitTimestamp = commitTableClient.getCommitTimestamp(tx.getStartTimestamp()).get();
+                        if (commitTimestamp.isPresent() && commitTimestamp.get().isValid()) {
                             LOG.warn("{}: Valid commit TS found in Commit Table. Committing Tx...", tx.getStartTimestamp());
                             certifyCommitForTx(tx, commitTimestamp.get().getValue());
                             postCommitter.updateShadowCells(tx); // But do NOT remove transaction from commit table
-                        } else { // Probably another Tx in a new TSO Server invalidated this transaction
-                            LOG.warn("{}: Invalidated commit TS found in Commit Table. Rolling-back...", tx.getStartTimestamp());
-                            rollback(tx);
-                            throw new RollbackException(tx.getStartTimestamp() + " invalidated by other Tx started", e.getCause());
-                        }
-                    } else {
-                        LOG.warn("{}: Trying to invalidate Tx proactively in Commit Table...", tx.getStartTimestamp());
-                        boolean invalidated = commitTableClient.tryInvalidateTransaction(tx.getStartTimestamp()).get();
-                        if (invalidated) {
-                            LOG.warn("{}: Invalidated proactively in Commit Table. Rolling-back Tx...", tx.getStartTimestamp());
-                            invalidatedTxsCounter.inc();
-                            rollback(tx); // Rollback proactively cause it's likely that a new TSOServer is now master
-                            throw new RollbackException(tx.getStartTimestamp() + " rolled-back precautionary", e.getCause());
                         } else {
-                            LOG.warn("{}: Invalidation could NOT be completed. Re-checking Commit Table...", tx.getStartTimestamp());
-                            // TODO: Decide what we should we do if we can not contact the commit table
-                            commitTimestamp = commitTableClient.getCommitTimestamp(tx.getStartTimestamp()).get();
-                            if (commitTimestamp.isPresent() && commitTimestamp.get().isValid()) {
-                                LOG.warn("{}: Valid commit TS found in Commit Table. Committing Tx...", tx.getStartTimestamp());
-                                certifyCommitForTx(tx, commitTimestamp.get().getValue());
-                                postCommitter.updateShadowCells(tx); // But do NOT remove transaction from commit table
-                            } else {
-                                LOG.error("{}: Can't determine Transaction outcome", tx.getStartTimestamp());
-                                throw new TransactionException(tx.getStartTimestamp() + ": cannot determine Tx outcome");
-                            }
+                            LOG.error("{}: Can't determine Transaction outcome", tx.getStartTimestamp());
+                            throw new TransactionException(tx.getStartTimestamp() + ": cannot determine Tx outcome");
                         }
                     }
-                } catch (ExecutionException e1) {
-                    throw new TransactionException(tx.getStartTimestamp() + ": problem reading commitTS from Commit Table", e1);
-                } catch (InterruptedException e1) {
-                    Thread.currentThread().interrupt();
-                    throw new TransactionException(tx.getStartTimestamp() + ": interrupted while reading commitTS from Commit Table", e1);
                 }
-            } else {
-                throw new TransactionException(tx.getStartTimestamp() + ": cannot determine Tx outcome", e.getCause());
+            } catch (ExecutionException e1) {
+                throw new TransactionException(tx.getStartTimestamp() + ": problem reading commitTS from Commit Table", e1);
+            } catch (InterruptedException e1) {
+                Thread.currentThread().interrupt();
+                throw new TransactionException(tx.getStartTimestamp() + ": interrupted while reading commitTS from Commit Table", e1);
             }
-        } catch (InterruptedException ie) {
-            Thread.currentThread().interrupt();
-            throw new TransactionException(tx.getStartTimestamp() + ": interrupted during commit", ie);
-
+        } else {
+            throw new TransactionException(tx.getStartTimestamp() + ": cannot determine Tx outcome", e.getCause());
         }
 
     }
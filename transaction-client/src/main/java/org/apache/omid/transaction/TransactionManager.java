@@ -17,7 +17,10 @@
  */
 package org.apache.omid.transaction;
 
+import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.ListenableFuture;
+
 import java.io.Closeable;
+import java.util.List;
 
 /**
  * Provides the methods to manage transactions (create, commit...)
@@ -35,6 +38,46 @@ public interface TransactionManager extends Closeable {
      */
     Transaction begin() throws TransactionException;
 
+    /**
+     * Starts several new transactions at once.
+     *
+     * All the start timestamps are obtained from the TSO in a single round trip, which amortizes the request
+     * latency for clients that start many short transactions in bulk. The transactions returned are independent and
+     * are ordered by start timestamp, as if they had been started one by one with {@link #begin()}.
+     *
+     * @param numTransactions number of transactions to start
+     * @return transaction representations of the created transactions
+     * @throws TransactionException in case of any issues
+     */
+    List<Transaction> begin(int numTransactions) throws TransactionException;
+
+    /**
+     * Starts a new read-only transaction.
+     *
+     * The transaction reads from a consistent snapshot, but implementations may take it from a start timestamp
+     * obtained recently instead of contacting the TSO, so it may not observe the transactions committed during a
+     * bounded interval before this call. Writes are rejected in its context.
+     *
+     * @return transaction representation of the created transaction
+     * @throws TransactionException in case of any issues
+     */
+    Transaction beginReadOnly() throws TransactionException;
+
+    /**
+     * Starts a read-only transaction on the snapshot defined by a timestamp chosen by the caller, without contacting
+     * the TSO.
+     *
+     * The snapshot includes exactly the transactions committed before the timestamp, so several processes can read
+     * the same consistent snapshot by sharing it. The timestamp must have been handed out by the TSO, e.g. the start
+     * or commit timestamp of a previous transaction, and must not be below the low watermark, as the versions
+     * required to rebuild older snapshots may have been already discarded. Writes are rejected in its context.
+     *
+     * @param snapshotTimestamp the timestamp that defines the snapshot to read from
+     * @return transaction representation of the created transaction
+     * @throws TransactionException if the timestamp is below the low watermark or in case of any other issues
+     */
+    Transaction beginReadOnly(long snapshotTimestamp) throws TransactionException;
+
     /**
      * Commits a transaction.
      *
@@ -58,6 +101,40 @@ public interface TransactionManager extends Closeable {
      */
     void rollback(Transaction tx) throws TransactionException;
 
+    /**
+     * Starts a new transaction without blocking the caller.
+     *
+     * The start timestamp is requested to the TSO as in {@link #begin()}, but the transaction is created when the
+     * reply arrives instead of waiting for it.
+     *
+     * @return future with the representation of the created transaction. It fails with a {@link TransactionException}
+     *         in case of any issues
+     */
+    ListenableFuture<Transaction> beginAsync();
+
+    /**
+     * Commits a transaction without blocking the caller.
+     *
+     * The steps that may block (flushing the writes, waiting for the TSO decision and the post-commit actions, e.g.
+     * updating the shadow cells and removing the commit table entry) are chained in a bounded executor owned by the
+     * transaction manager, so many transactions can be in flight from a few threads.
+     *
+     * @param tx transaction to be committed.
+     * @return future completed when the transaction has committed. It fails with a {@link RollbackException} when the
+     *         transaction has conflicts with another transaction or when was marked for rollback, and with a
+     *         {@link TransactionException} in case of any other issues
+     */
+    ListenableFuture<Void> commitAsync(Transaction tx);
+
+    /**
+     * Aborts a transaction without blocking the caller.
+     *
+     * @param tx transaction to be rolled-back
+     * @return future completed when the changes have been rolled back. It fails with a {@link TransactionException}
+     *         in case of any issues
+     */
+    ListenableFuture<Void> rollbackAsync(Transaction tx);
+
     /**
     * Creates a fence
     *
@@ -20,8 +20,11 @@ package org.apache.omid.tso.client;
 import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.SettableFuture;
 
 import org.apache.omid.committable.CommitTable;
+import org.apache.omid.proto.TSOProto;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.Map;
@@ -53,6 +56,19 @@ public class MockTSOClient implements TSOProtocol {
         }
     }
 
+    @Override
+    public TSOFuture<List<Long>> getNewStartTimestamps(int numTimestamps) {
+        synchronized (conflictMap) {
+            SettableFuture<List<Long>> f = SettableFuture.create();
+            List<Long> timestamps = new ArrayList<>(numTimestamps);
+            for (int i = 0; i < numTimestamps; i++) {
+                timestamps.add(timestampGenerator.incrementAndGet());
+            }
+            f.set(timestamps);
+            return new ForwardingTSOFuture<>(f);
+        }
+    }
+
     @Override
     public TSOFuture<Long> getFence(long tableId) {
         synchronized (conflictMap) {
@@ -151,6 +167,28 @@ public class MockTSOClient implements TSOProtocol {
         }
     }
 
+    @Override
+    public TSOFuture<Boolean> registerWriteSet(long transactionId, Set<? extends CellId> cells) {
+        // Conflicts are detected at commit time only
+        SettableFuture<Boolean> f = SettableFuture.create();
+        f.set(false);
+        return new ForwardingTSOFuture<>(f);
+    }
+
+    @Override
+    public boolean hasConflicts(long transactionId) {
+        return false;
+    }
+
+    @Override
+    public void releaseWriteSet(long transactionId) {
+    }
+
+    @Override
+    public int getWriteSetRegistrationBatchSize() {
+        return 0;
+    }
+
     @Override
     public TSOFuture<Void> close() {
         SettableFuture<Void> f = SettableFuture.create();
@@ -163,6 +201,11 @@ public class MockTSOClient implements TSOProtocol {
         return false;
     }
 
+    @Override
+    public TSOProto.CellIdHash getCellIdHash() {
+        return TSOProto.CellIdHash.MURMUR3_128;
+    }
+
     @Override
     public void setConflictDetectionLevel(OmidClientConfiguration.ConflictDetectionLevel conflictDetectionLevel) {
 
@@ -20,6 +20,7 @@ package org.apache.omid.tso.client;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 import org.apache.omid.YAMLUtils;
+import org.apache.omid.proto.TSOProto.CellIdHash;
 
 /**
  * Configuration for Omid client side
@@ -39,6 +40,8 @@ public class OmidClientConfiguration {
     private ConnType connectionType = ConnType.DIRECT;
     private String connectionString;
     private String zkCurrentTsoPath;
+    private String zkTsoInstancesPath;
+    private boolean standbyConnections;
     private String zkNamespace;
     private int zkConnectionTimeoutInSecs;
 
@@ -49,11 +52,18 @@ public class OmidClientConfiguration {
     private int reconnectionDelayInSecs;
     private int retryDelayInMs;
     private int executorThreads;
+    private boolean batchedMessages;
+    private int batchingWindowInUs;
+    private int connections;
 
     // Transaction Manager related params
 
     private PostCommitMode postCommitMode = PostCommitMode.SYNC;
     private ConflictDetectionLevel conflictAnalysisLevel = ConflictDetectionLevel.CELL;
+    private int conflictEscalationThreshold = 0;
+    private int writeSetRegistrationBatchSize = 0;
+    private CellIdHash cellIdHash = CellIdHash.MURMUR3_128;
+    private int asyncExecutorThreads;
 
     // ----------------------------------------------------------------------------------------------------------------
     // Instantiation
@@ -147,6 +157,36 @@ public class OmidClientConfiguration {
         this.executorThreads = executorThreads;
     }
 
+    public boolean isBatchedMessages() {
+        return batchedMessages;
+    }
+
+    @Inject(optional = true)
+    @Named("omid.client.batchedMessages")
+    public void setBatchedMessages(boolean batchedMessages) {
+        this.batchedMessages = batchedMessages;
+    }
+
+    public int getBatchingWindowInUs() {
+        return batchingWindowInUs;
+    }
+
+    @Inject(optional = true)
+    @Named("omid.client.batchingWindowInUs")
+    public void setBatchingWindowInUs(int batchingWindowInUs) {
+        this.batchingWindowInUs = batchingWindowInUs;
+    }
+
+    public int getConnections() {
+        return connections;
+    }
+
+    @Inject(optional = true)
+    @Named("omid.client.connections")
+    public void setConnections(int connections) {
+        this.connections = connections;
+    }
+
     public String getZkCurrentTsoPath() {
         return zkCurrentTsoPath;
     }
@@ -157,6 +197,26 @@ public class OmidClientConfiguration {
         this.zkCurrentTsoPath = zkCurrentTsoPath;
     }
 
+    public String getZkTsoInstancesPath() {
+        return zkTsoInstancesPath;
+    }
+
+    @Inject(optional = true)
+    @Named("omid.ha.zkTsoInstancesPath")
+    public void setZkTsoInstancesPath(String zkTsoInstancesPath) {
+        this.zkTsoInstancesPath = zkTsoInstancesPath;
+    }
+
+    public boolean getStandbyConnections() {
+        return standbyConnections;
+    }
+
+    @Inject(optional = true)
+    @Named("omid.ha.standbyConnections")
+    public void setStandbyConnections(boolean standbyConnections) {
+        this.standbyConnections = standbyConnections;
+    }
+
     public String getZkNamespace() {
         return zkNamespace;
     }
@@ -186,4 +246,44 @@ public class OmidClientConfiguration {
     public void setConflictAnalysisLevel(ConflictDetectionLevel conflictAnalysisLevel) {
         this.conflictAnalysisLevel = conflictAnalysisLevel;
     }
+
+    public int getConflictEscalationThreshold() {
+        return conflictEscalationThreshold;
+    }
+
+    @Inject(optional = true)
+    @Named("omid.tm.conflictEscalationThreshold")
+    public void setConflictEscalationThreshold(int conflictEscalationThreshold) {
+        this.conflictEscalationThreshold = conflictEscalationThreshold;
+    }
+
+    public int getWriteSetRegistrationBatchSize() {
+        return writeSetRegistrationBatchSize;
+    }
+
+    @Inject(optional = true)
+    @Named("omid.tm.writeSetRegistrationBatchSize")
+    public void setWriteSetRegistrationBatchSize(int writeSetRegistrationBatchSize) {
+        this.writeSetRegistrationBatchSize = writeSetRegistrationBatchSize;
+    }
+
+    public CellIdHash getCellIdHash() {
+        return cellIdHash;
+    }
+
+    @Inject(optional = true)
+    @Named("omid.tm.cellIdHash")
+    public void setCellIdHash(CellIdHash cellIdHash) {
+        this.cellIdHash = cellIdHash;
+    }
+
+    public int getAsyncExecutorThreads() {
+        return asyncExecutorThreads;
+    }
+
+    @Inject(optional = true)
+    @Named("omid.tm.asyncExecutorThreads")
+    public void setAsyncExecutorThreads(int asyncExecutorThreads) {
+        this.asyncExecutorThreads = asyncExecutorThreads;
+    }
 }
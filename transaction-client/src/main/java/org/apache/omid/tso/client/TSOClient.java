@@ -17,12 +17,22 @@
  */
 package org.apache.omid.tso.client;
 
+import com.google.protobuf.InvalidProtocolBufferException;
 import org.apache.phoenix.thirdparty.com.google.common.base.Charsets;
+import org.apache.phoenix.thirdparty.com.google.common.base.Function;
+import org.apache.phoenix.thirdparty.com.google.common.base.Preconditions;
 import org.apache.phoenix.thirdparty.com.google.common.net.HostAndPort;
 import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.AbstractFuture;
+import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.Futures;
+import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.ListenableFuture;
+import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.MoreExecutors;
+import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.SettableFuture;
 import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+import org.apache.omid.committable.CommitTable;
+import org.apache.omid.proto.ProtocolCapabilities;
 import org.apache.omid.proto.TSOProto;
+import org.apache.omid.proto.WriteSetEncoding;
 import org.apache.omid.tso.client.OmidClientConfiguration.ConflictDetectionLevel;
 import org.apache.omid.zk.ZKUtils;
 import org.apache.statemachine.StateMachine;
@@ -30,6 +40,10 @@ import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.recipes.cache.ChildData;
 import org.apache.curator.framework.recipes.cache.NodeCache;
 import org.apache.curator.framework.recipes.cache.NodeCacheListener;
+import org.apache.curator.framework.recipes.cache.PathChildrenCache;
+import org.apache.curator.framework.recipes.cache.PathChildrenCacheEvent;
+import org.apache.curator.framework.recipes.cache.PathChildrenCacheListener;
+import org.apache.curator.utils.ZKPaths;
 import org.jboss.netty.bootstrap.ClientBootstrap;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFactory;
@@ -55,16 +69,26 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -78,21 +102,36 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
     public static final String DEFAULT_ZK_CLUSTER = "localhost:2181";
 
     private static final long DEFAULT_EPOCH = -1L;
+
+    // Limits for coalescing requests into a single frame
+    static final int MAX_REQUESTS_PER_BATCH = 128;
+    static final int MAX_BATCHED_REQUEST_SIZE = 64 * 1024;
     private volatile long epoch = DEFAULT_EPOCH;
 
     // Attributes
     private CuratorFramework zkClient;
     private NodeCache currentTSOZNode;
+    // Instances of the TSO registered to accept connections while they're standbys
+    private PathChildrenCache tsoInstancesZNode;
+    // Handshaken channels to each standby TSO, one per connection. Guarded by this
+    private final Map<InetSocketAddress, StandbyChannel[]> standbyChannels = new HashMap<>();
+    private boolean standbyChannelsClosed = false;
 
     private ChannelFactory factory;
-    private ClientBootstrap bootstrap;
-    private Channel currentChannel;
     private final ScheduledExecutorService fsmExecutor;
+    // Connections to the TSO. Requests are striped across them
+    private final Connection[] connections;
+    private final AtomicInteger nextConnection = new AtomicInteger();
+    // FSM of the first connection
     StateMachine.Fsm fsm;
 
     private final int requestTimeoutInMs;
     private final int requestMaxRetries;
     private final int tsoReconnectionDelayInSecs;
+    // Wire-format features this client is willing to use and the ones agreed with the current TSO
+    private final Set<TSOProto.Feature> supportedFeatures;
+    private volatile Set<TSOProto.Feature> negotiatedFeatures = Collections.emptySet();
+    private final int batchingWindowInUs;
     private InetSocketAddress tsoAddr;
     private String zkCurrentTsoPath;
 
@@ -103,6 +142,15 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
     // Conflict detection level of the entire system. Can either be Row or Cell level.
     private ConflictDetectionLevel conflictDetectionLevel;
 
+    // Number of cells written in a table from which conflicts in the table are detected at table level
+    private final int conflictEscalationThreshold;
+
+    // Number of cells a transaction writes before registering them in the TSO, and the cells registered so far
+    private final int writeSetRegistrationBatchSize;
+    private final ConcurrentMap<Long, RegisteredWriteSet> registeredWriteSets = new ConcurrentHashMap<>();
+
+    // Hash used to compute the cell ids. The TSO enforces that all its clients use the same one
+    private final TSOProto.CellIdHash cellIdHash;
 
     // ----------------------------------------------------------------------------------------------------------------
     // Construction
@@ -123,12 +171,16 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
                         new ThreadFactoryBuilder().setNameFormat("tsoclient-boss-%d").build()),
                 Executors.newCachedThreadPool(
                         new ThreadFactoryBuilder().setNameFormat("tsoclient-worker-%d").build()), tsoExecutorThreads);
-        // Create the bootstrap
-        bootstrap = new ClientBootstrap(factory);
 
         requestTimeoutInMs = omidConf.getRequestTimeoutInMs();
         requestMaxRetries = omidConf.getRequestMaxRetries();
         tsoReconnectionDelayInSecs = omidConf.getReconnectionDelayInSecs();
+        supportedFeatures = EnumSet.of(TSOProto.Feature.PACKED_WRITE_SET, TSOProto.Feature.DELTA_ENCODED_WRITE_SET);
+        if (omidConf.isBatchedMessages()) {
+            supportedFeatures.add(TSOProto.Feature.BATCHED_MESSAGES);
+        }
+        batchingWindowInUs = omidConf.getBatchingWindowInUs();
+        cellIdHash = omidConf.getCellIdHash();
 
         LOG.info("Connecting to TSO...");
         HostAndPort hp;
@@ -157,25 +209,29 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
 
         fsmExecutor = Executors.newSingleThreadScheduledExecutor(
                 new ThreadFactoryBuilder().setNameFormat("tsofsm-%d").build());
-        fsm = new StateMachine.FsmImpl(fsmExecutor);
-        fsm.setInitState(new DisconnectedState(fsm));
-
-        ChannelPipeline pipeline = bootstrap.getPipeline();
-        pipeline.addLast("lengthbaseddecoder", new LengthFieldBasedFrameDecoder(8 * 1024, 0, 4, 0, 4));
-        pipeline.addLast("lengthprepender", new LengthFieldPrepender(4));
-        pipeline.addLast("protobufdecoder", new ProtobufDecoder(TSOProto.Response.getDefaultInstance()));
-        pipeline.addLast("protobufencoder", new ProtobufEncoder());
-        pipeline.addLast("handler", new Handler(fsm));
-
-        bootstrap.setOption("tcpNoDelay", true);
-        bootstrap.setOption("keepAlive", true);
-        bootstrap.setOption("reuseAddress", true);
-        bootstrap.setOption("connectTimeoutMillis", 100);
+        int numConnections = omidConf.getConnections();
+        Preconditions.checkArgument(numConnections > 0, "Invalid number of connections: %s", numConnections);
+        connections = new Connection[numConnections];
+        for (int i = 0; i < numConnections; i++) {
+            // All the connections share the FSM executor
+            connections[i] = new Connection(new StateMachine.FsmImpl(fsmExecutor));
+        }
+        fsm = connections[0].fsm;
         lowLatency = false;
 
-
+        if (omidConf.getConnectionType() == OmidClientConfiguration.ConnType.HA && omidConf.getStandbyConnections()) {
+            configureTSOInstancesZNodeCache(omidConf.getZkTsoInstancesPath());
+        }
 
         conflictDetectionLevel = omidConf.getConflictAnalysisLevel();
+        conflictEscalationThreshold = omidConf.getConflictEscalationThreshold();
+        if (conflictEscalationThreshold > 0) {
+            supportedFeatures.add(TSOProto.Feature.TABLE_CONFLICT_ESCALATION);
+        }
+        writeSetRegistrationBatchSize = omidConf.getWriteSetRegistrationBatchSize();
+        if (writeSetRegistrationBatchSize > 0) {
+            supportedFeatures.add(TSOProto.Feature.WRITE_SET_REGISTRATION);
+        }
 
     }
 
@@ -192,10 +248,35 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
         TSOProto.TimestampRequest.Builder tsreqBuilder = TSOProto.TimestampRequest.newBuilder();
         builder.setTimestampRequest(tsreqBuilder.build());
         RequestEvent request = new RequestEvent(builder.build(), requestMaxRetries);
-        fsm.sendEvent(request);
+        sendRequest(nextConnection(), request);
         return new ForwardingTSOFuture<>(request);
     }
 
+    /**
+     * @see TSOProtocol#getNewStartTimestamps(int)
+     */
+    @Override
+    public TSOFuture<List<Long>> getNewStartTimestamps(final int numTimestamps) {
+        Preconditions.checkArgument(numTimestamps > 0 && numTimestamps <= MAX_TIMESTAMPS_PER_REQUEST,
+                                    "Invalid number of timestamps requested: %s", numTimestamps);
+        TSOProto.Request.Builder builder = TSOProto.Request.newBuilder();
+        TSOProto.TimestampRequest.Builder tsreqBuilder = TSOProto.TimestampRequest.newBuilder();
+        tsreqBuilder.setNumTimestamps(numTimestamps);
+        builder.setTimestampRequest(tsreqBuilder.build());
+        RequestEvent request = new RequestEvent(builder.build(), requestMaxRetries);
+        sendRequest(nextConnection(), request);
+        return new ForwardingTSOFuture<>(Futures.transform(request, new Function<Long, List<Long>>() {
+            @Override
+            public List<Long> apply(Long firstTimestamp) {
+                List<Long> timestamps = new ArrayList<>(numTimestamps);
+                for (int i = 0; i < numTimestamps; i++) {
+                    timestamps.add(firstTimestamp + i * CommitTable.MAX_CHECKPOINTS_PER_TXN);
+                }
+                return timestamps;
+            }
+        }, MoreExecutors.directExecutor()));
+    }
+
     /**
      * @see TSOProtocol#commit(long, Set)
      */
@@ -209,48 +290,191 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
      */
     @Override
     public TSOFuture<Long> commit(long transactionId, Set<? extends CellId> cells, Set<? extends CellId> conflictFreeWriteSet) {
+        RegisteredWriteSet registeredWriteSet = registeredWriteSets.remove(transactionId);
+        if (registeredWriteSet != null && registeredWriteSet.conflict) {
+            // The TSO already notified a conflict, so there's no need to send the write set
+            SettableFuture<Long> f = SettableFuture.create();
+            f.setException(new AbortException());
+            return new ForwardingTSOFuture<>(f);
+        }
+        Set<Long> registeredCellIds = registeredWriteSet == null || registeredWriteSet.lost
+                ? Collections.<Long>emptySet() : registeredWriteSet.cellIds;
+        boolean includesRegisteredWriteSet = false;
+
         TSOProto.Request.Builder builder = TSOProto.Request.newBuilder();
         TSOProto.CommitRequest.Builder commitbuilder = TSOProto.CommitRequest.newBuilder();
         commitbuilder.setStartTimestamp(transactionId);
         HashSet<Long> rowLevelWriteSet = new HashSet<Long>();
         HashSet<Long> tableIDs = new HashSet<Long>();
-        rowLevelWriteSet.clear();
+        Set<Long> escalatedTableIDs = getTablesToEscalate(cells);
+        long[] cellIds = new long[cells.size()];
+        int numCells = 0;
         for (CellId cell : cells) {
-            long id;
-
-            switch (conflictDetectionLevel) {
-            case ROW:
-                id = cell.getRowId();
-                if (rowLevelWriteSet.contains(id)) {
-                    continue;
-                } else {
-                    rowLevelWriteSet.add(id);
-                }
-                break;
-            case CELL:
-                id = cell.getCellId();
-                break;
-            default:
-                id = 0;
-                assert (false);
+            if (escalatedTableIDs.contains(cell.getTableId())) {
+                tableIDs.add(cell.getTableId());
+                continue;
             }
-
-            commitbuilder.addCellId(id);
             tableIDs.add(cell.getTableId());
+            long id = getConflictId(cell);
+            if (conflictDetectionLevel == ConflictDetectionLevel.ROW && !rowLevelWriteSet.add(id)) {
+                continue;
+            }
+            if (registeredCellIds.contains(id)) { // Already part of the write set in the TSO
+                includesRegisteredWriteSet = true;
+                continue;
+            }
+            cellIds[numCells++] = id;
         }
+        WriteSetEncoding.setCellIds(commitbuilder, cellIds, numCells, negotiatedFeatures);
+        commitbuilder.setIncludesRegisteredWriteSet(includesRegisteredWriteSet);
 
         for (CellId cell : conflictFreeWriteSet) {
             tableIDs.add(cell.getTableId());
         }
 
         commitbuilder.addAllTableId(tableIDs);
+        commitbuilder.addAllEscalatedTableId(escalatedTableIDs);
         tableIDs.clear();
         builder.setCommitRequest(commitbuilder.build());
         RequestEvent request = new RequestEvent(builder.build(), requestMaxRetries);
-        fsm.sendEvent(request);
+        sendRequest(getConnection(transactionId), request);
         return new ForwardingTSOFuture<>(request);
     }
 
+    /**
+     * Sends the request straight to the TSO when connected. Otherwise, the FSM takes care of connecting first
+     */
+    private void sendRequest(Connection connection, RequestEvent request) {
+        ConnectedState connectedState = connection.connectedState;
+        if (connectedState == null || !connectedState.trySendRequest(request)) {
+            connection.fsm.sendEvent(request);
+        }
+    }
+
+    /**
+     * Returns the connection for the next request that doesn't belong to a transaction
+     */
+    private Connection nextConnection() {
+        return connections[(nextConnection.getAndIncrement() & Integer.MAX_VALUE) % connections.length];
+    }
+
+    /**
+     * Returns the connection for the requests of a transaction. They all go through the same connection, so the TSO
+     * receives them in order
+     */
+    private Connection getConnection(long transactionId) {
+        return connections[(int) ((transactionId / CommitTable.MAX_CHECKPOINTS_PER_TXN) % connections.length)];
+    }
+
+    private Connection getConnection(StateMachine.Fsm fsm) {
+        for (Connection connection : connections) {
+            if (connection.fsm == fsm) {
+                return connection;
+            }
+        }
+        throw new IllegalArgumentException("Unknown FSM " + fsm);
+    }
+
+    /**
+     * Returns the identifier used to detect the conflicts of a cell, which depends on the conflict detection level
+     */
+    private long getConflictId(CellId cell) {
+        switch (conflictDetectionLevel) {
+            case ROW:
+                return cell.getRowId();
+            case CELL:
+                return cell.getCellId();
+            default:
+                assert (false);
+                return 0;
+        }
+    }
+
+    /**
+     * @see TSOProtocol#registerWriteSet(long, Set)
+     */
+    @Override
+    public TSOFuture<Boolean> registerWriteSet(long transactionId, Set<? extends CellId> cells) {
+        if (!negotiatedFeatures.contains(TSOProto.Feature.WRITE_SET_REGISTRATION)) {
+            // The cells will be sent in the commit request
+            SettableFuture<Boolean> f = SettableFuture.create();
+            f.set(false);
+            return new ForwardingTSOFuture<>(f);
+        }
+        if (!registeredWriteSets.containsKey(transactionId)) {
+            registeredWriteSets.putIfAbsent(transactionId, new RegisteredWriteSet());
+        }
+        TSOProto.WriteSetRegistration.Builder registrationBuilder = TSOProto.WriteSetRegistration.newBuilder();
+        registrationBuilder.setStartTimestamp(transactionId);
+        for (CellId cell : cells) {
+            registrationBuilder.addCellId(getConflictId(cell));
+        }
+        TSOProto.Request.Builder builder = TSOProto.Request.newBuilder();
+        builder.setWriteSetRegistration(registrationBuilder.build());
+        // Registrations are not retried. The cells not registered are sent in the commit request
+        RequestEvent request = new RequestEvent(builder.build(), 0);
+        sendRequest(getConnection(transactionId), request);
+        return new ForwardingTSOFuture<>(Futures.transform(request, REGISTERED, MoreExecutors.directExecutor()));
+    }
+
+    /**
+     * @see TSOProtocol#hasConflicts(long)
+     */
+    @Override
+    public boolean hasConflicts(long transactionId) {
+        RegisteredWriteSet registeredWriteSet = registeredWriteSets.get(transactionId);
+        return registeredWriteSet != null && registeredWriteSet.conflict;
+    }
+
+    /**
+     * @see TSOProtocol#releaseWriteSet(long)
+     */
+    @Override
+    public void releaseWriteSet(long transactionId) {
+        if (registeredWriteSets.remove(transactionId) != null
+                && negotiatedFeatures.contains(TSOProto.Feature.WRITE_SET_REGISTRATION)) {
+            TSOProto.WriteSetRegistration.Builder registrationBuilder = TSOProto.WriteSetRegistration.newBuilder();
+            registrationBuilder.setStartTimestamp(transactionId);
+            registrationBuilder.setRelease(true);
+            TSOProto.Request.Builder builder = TSOProto.Request.newBuilder();
+            builder.setWriteSetRegistration(registrationBuilder.build());
+            sendRequest(getConnection(transactionId), new RequestEvent(builder.build(), 0));
+        }
+    }
+
+    /**
+     * @see TSOProtocol#getWriteSetRegistrationBatchSize()
+     */
+    @Override
+    public int getWriteSetRegistrationBatchSize() {
+        return writeSetRegistrationBatchSize;
+    }
+
+    /**
+     * Returns the tables where the transaction writes so many cells that its conflicts must be detected at table level
+     */
+    private Set<Long> getTablesToEscalate(Set<? extends CellId> cells) {
+        if (conflictEscalationThreshold <= 0 || cells.size() <= conflictEscalationThreshold
+                || !negotiatedFeatures.contains(TSOProto.Feature.TABLE_CONFLICT_ESCALATION)) {
+            return Collections.emptySet();
+        }
+        Map<Long, Integer> cellsPerTable = new HashMap<>();
+        for (CellId cell : cells) {
+            Integer count = cellsPerTable.get(cell.getTableId());
+            cellsPerTable.put(cell.getTableId(), count == null ? 1 : count + 1);
+        }
+        Set<Long> escalatedTableIDs = new HashSet<>();
+        for (Map.Entry<Long, Integer> entry : cellsPerTable.entrySet()) {
+            if (entry.getValue() > conflictEscalationThreshold) {
+                escalatedTableIDs.add(entry.getKey());
+            }
+        }
+        if (!escalatedTableIDs.isEmpty()) {
+            LOG.debug("Conflicts of transaction escalated to table level in tables {}", escalatedTableIDs);
+        }
+        return escalatedTableIDs;
+    }
+
     /**
      * @see TSOProtocol#getFence(long)
      */
@@ -261,7 +485,7 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
         fenceReqBuilder.setTableId(tableId);
         builder.setFenceRequest(fenceReqBuilder.build());
         RequestEvent request = new RequestEvent(builder.build(), requestMaxRetries);
-        fsm.sendEvent(request);
+        sendRequest(nextConnection(), request);
         return new ForwardingTSOFuture<>(request);
     }
 
@@ -270,19 +494,27 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
      */
     @Override
     public TSOFuture<Void> close() {
-        final CloseEvent closeEvent = new CloseEvent();
-        fsm.sendEvent(closeEvent);
-        closeEvent.addListener(new Runnable() {
+        closeStandbyChannels();
+        List<CloseEvent> closeEvents = new ArrayList<>(connections.length);
+        for (Connection connection : connections) {
+            CloseEvent closeEvent = new CloseEvent();
+            connection.fsm.sendEvent(closeEvent);
+            closeEvents.add(closeEvent);
+        }
+        final ListenableFuture<List<Void>> closeFuture = Futures.allAsList(closeEvents);
+        closeFuture.addListener(new Runnable() {
             @Override
             public void run() {
                 try {
-                    closeEvent.get();
+                    closeFuture.get();
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
                     e.printStackTrace();
                 } catch (ExecutionException e) {
                     e.printStackTrace();
                 } finally {
+                    // Shared by all the connections
+                    factory.releaseExternalResources();
                     fsmExecutor.shutdown();
                     if (currentTSOZNode != null) {
                         try {
@@ -298,7 +530,12 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
 
             }
         }, fsmExecutor);
-        return new ForwardingTSOFuture<>(closeEvent);
+        return new ForwardingTSOFuture<>(Futures.transform(closeFuture, new Function<List<Void>, Void>() {
+            @Override
+            public Void apply(List<Void> closed) {
+                return null;
+            }
+        }, MoreExecutors.directExecutor()));
     }
 
     // ----------------------------------------------------------------------------------------------------------------
@@ -313,6 +550,14 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
         return epoch;
     }
 
+    /**
+     * @see TSOProtocol#getCellIdHash()
+     */
+    @Override
+    public TSOProto.CellIdHash getCellIdHash() {
+        return cellIdHash;
+    }
+
     /**
      * Used for family deletion
      * @return the conflict detection level.
@@ -342,9 +587,21 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
         setTSOAddress(hp.getHost(), hp.getPort());
         epoch = Long.parseLong(currentTSOAndEpochArray[1]);
         LOG.info("CurrentTSO ZNode changed. New TSO Host & Port {}/Epoch {}", hp, getEpoch());
-        if (currentChannel != null && currentChannel.isConnected()) {
-            LOG.info("\tClosing channel with previous TSO {}", currentChannel);
-            currentChannel.close();
+        // All the connections fail over to the new TSO. The ones with a handshaken channel to it switch to it
+        StandbyChannel[] newTSOChannels = takeStandbyChannels(getAddress());
+        for (int i = 0; i < connections.length; i++) {
+            if (newTSOChannels != null) {
+                connections[i].fsm.sendEvent(new FailoverEvent(newTSOChannels[i]));
+                continue;
+            }
+            Channel channel = connections[i].channel;
+            if (channel != null && channel.isConnected()) {
+                LOG.info("\tClosing channel with previous TSO {}", channel);
+                channel.close();
+            }
+        }
+        if (tsoInstancesZNode != null) {
+            refreshStandbyChannels();
         }
 
     }
@@ -354,6 +611,13 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
         return lowLatency;
     }
 
+    /**
+     * Returns the wire-format features agreed with the TSO in the last handshake
+     */
+    public Set<TSOProto.Feature> getNegotiatedFeatures() {
+        return negotiatedFeatures;
+    }
+
     // ****************************************** Finite State Machine ************************************************
 
     // ----------------------------------------------------------------------------------------------------------------
@@ -387,6 +651,13 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
         }
     }
 
+    private static class FailoverEvent extends ParamEvent<StandbyChannel> {
+
+        FailoverEvent(StandbyChannel c) {
+            super(c);
+        }
+    }
+
     private static class UserEvent<T> extends AbstractFuture<T>
             implements StateMachine.DeferrableEvent {
 
@@ -419,36 +690,6 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
 
     }
 
-    private static class TimestampRequestTimeoutEvent implements StateMachine.Event {
-
-    }
-
-    private static class CommitRequestTimeoutEvent implements StateMachine.Event {
-
-        final long startTimestamp;
-
-        CommitRequestTimeoutEvent(long startTimestamp) {
-            this.startTimestamp = startTimestamp;
-        }
-
-        public long getStartTimestamp() {
-            return startTimestamp;
-        }
-    }
-
-    private static class FenceRequestTimeoutEvent implements StateMachine.Event {
-
-        final long tableID;
-
-        FenceRequestTimeoutEvent(long tableID) {
-            this.tableID = tableID;
-        }
-
-        public long getTableID() {
-            return tableID;
-        }
-    }
-
     private static class RequestEvent extends UserEvent<Long> {
 
         TSOProto.Request req;
@@ -484,6 +725,25 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
         }
     }
 
+    // Cells of a running transaction registered in the TSO, and whether the TSO notified a conflict on them. When
+    // the outcome of a registration is unknown (e.g. after a timeout or a disconnection) the registration is lost,
+    // and the whole write set is sent in the commit request
+    private static class RegisteredWriteSet {
+
+        final Set<Long> cellIds = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+        volatile boolean conflict = false;
+        volatile boolean lost = false;
+
+    }
+
+    // Result of a write set registration request: 1 if the cells were registered, 0 otherwise
+    private static final Function<Long, Boolean> REGISTERED = new Function<Long, Boolean>() {
+        @Override
+        public Boolean apply(Long registered) {
+            return registered == 1L;
+        }
+    };
+
     // ----------------------------------------------------------------------------------------------------------------
     // FSM: States
     // ----------------------------------------------------------------------------------------------------------------
@@ -498,6 +758,37 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
             LOG.error("Unhandled event {} while in state {}", e, this.getClass().getName());
             return this;
         }
+
+        public StateMachine.State handleEvent(FailoverEvent e) {
+            // The connection can't switch channels now, so it reconnects to the new TSO instead
+            e.getParam().release();
+            Channel channel = getConnection(fsm).channel;
+            if (channel != null && channel.isConnected()) {
+                LOG.info("\tClosing channel with previous TSO {}", channel);
+                channel.close();
+            }
+            return this;
+        }
+
+        /**
+         * Makes the handshaken channel with the new TSO the channel of the connection
+         */
+        StateMachine.State switchTo(StandbyChannel standby) {
+            Connection connection = getConnection(fsm);
+            Channel channel = standby.handOver();
+            LOG.info("Switching to channel {} with the new TSO", channel);
+            channel.getPipeline().replace("handler", "handler", connection.handler);
+            connection.channel = channel;
+            lowLatency = standby.lowLatency;
+            negotiatedFeatures = standby.features;
+            ConnectedState connectedState = new ConnectedState(fsm, channel, standby.features);
+            if (!channel.isOpen()) {
+                // Closed before its events reached the connection handler
+                fsm.sendEvent(new ErrorEvent(new ConnectionException()));
+                fsm.sendEvent(new ChannelClosedEvent(new ConnectionException()));
+            }
+            return connectedState;
+        }
     }
 
     class DisconnectedState extends BaseState {
@@ -513,15 +804,23 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
         }
 
         public StateMachine.State handleEvent(CloseEvent e) {
-            factory.releaseExternalResources();
+            // The resources shared by the connections are released once all of them are closed
             e.success(null);
             return this;
         }
 
+        @Override
+        public StateMachine.State handleEvent(FailoverEvent e) {
+            if (!e.getParam().isReady()) {
+                return super.handleEvent(e);
+            }
+            return switchTo(e.getParam());
+        }
+
         private StateMachine.State tryToConnectToTSOServer() {
             final InetSocketAddress tsoAddress = getAddress();
             LOG.info("Trying to connect to TSO [{}]", tsoAddress);
-            ChannelFuture channelFuture = bootstrap.connect(tsoAddress);
+            ChannelFuture channelFuture = getConnection(fsm).bootstrap.connect(tsoAddress);
             channelFuture.addListener(new ChannelFutureListener() {
                 @Override
                 public void operationComplete(ChannelFuture channelFuture) throws Exception {
@@ -567,19 +866,20 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
     private static class RequestAndTimeout {
 
         final RequestEvent event;
-        final Timeout timeout;
+        // System.nanoTime() from which the request times out
+        final long timeoutAt;
 
-        RequestAndTimeout(RequestEvent event, Timeout timeout) {
+        RequestAndTimeout(RequestEvent event, long timeoutAt) {
             this.event = event;
-            this.timeout = timeout;
+            this.timeoutAt = timeoutAt;
         }
 
         RequestEvent getRequest() {
             return event;
         }
 
-        Timeout getTimeout() {
-            return timeout;
+        boolean isExpired(long now) {
+            return now - timeoutAt >= 0;
         }
 
         public String toString() {
@@ -609,7 +909,7 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
             this.channel = channel;
             TSOProto.HandshakeRequest.Builder handshake = TSOProto.HandshakeRequest.newBuilder();
             // Add the required handshake capabilities when necessary
-            handshake.setClientCapabilities(TSOProto.Capabilities.newBuilder().build());
+            handshake.setClientCapabilities(ProtocolCapabilities.advertise(supportedFeatures, cellIdHash));
             channel.write(TSOProto.Request.newBuilder().setHandshakeRequest(handshake.build()).build());
             timeout = newTimeout();
         }
@@ -635,10 +935,24 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
         public StateMachine.State handleEvent(ResponseEvent e) {
             lowLatency = e.getParam().getHandshakeResponse().getLowLatency();
             if (e.getParam().hasHandshakeResponse() && e.getParam().getHandshakeResponse().getClientCompatible()) {
+                // The timer is only needed for the handshake
+                timeoutExecutor.stop();
                 if (timeout != null) {
                     timeout.cancel();
                 }
-                return new ConnectedState(fsm, channel, timeoutExecutor);
+                // Old servers don't advertise any feature, so the client falls back to the basic wire format
+                TSOProto.Capabilities serverCapabilities = e.getParam().getHandshakeResponse().getServerCapabilities();
+                if (ProtocolCapabilities.getCellIdHash(serverCapabilities) != cellIdHash) {
+                    // Old servers can't check that all their clients hash cell ids the same way
+                    cleanupState();
+                    LOG.error("TSO doesn't support cell id hash {}", cellIdHash);
+                    return new HandshakeFailedState(fsm, new HandshakeFailedException());
+                }
+                negotiatedFeatures = Collections.unmodifiableSet(
+                        ProtocolCapabilities.negotiate(supportedFeatures, serverCapabilities));
+                LOG.info("Handshake with TSO completed. Protocol version {}. Features {}",
+                         ProtocolCapabilities.negotiateVersion(serverCapabilities), negotiatedFeatures);
+                return new ConnectedState(fsm, channel, negotiatedFeatures);
             } else {
                 cleanupState();
                 LOG.error("Client incompatible with server");
@@ -717,77 +1031,264 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
 
     class ConnectedState extends BaseState {
 
-        final Queue<RequestAndTimeout> timestampRequests;
-        final Map<Long, RequestAndTimeout> commitRequests;
-        final Map<Long, RequestAndTimeout> fenceRequests;
+        // Timestamp, commit and fence requests are sent and completed without going through the FSM executor, so
+        // their outstanding requests can be accessed concurrently by the caller threads, the Netty worker thread and
+        // the FSM executor. Timestamp responses are matched in order with the requests of the same size
+        final ConcurrentMap<Integer, Queue<RequestAndTimeout>> timestampRequests;
+        final ConcurrentMap<Long, RequestAndTimeout> commitRequests;
+        final ConcurrentMap<Long, RequestAndTimeout> fenceRequests;
+        // Registrations are sent by the caller threads too, so they keep their order with the commit request of the
+        // transaction. Guarded by itself, as the responses of a transaction are matched in order with its requests
+        final Map<Long, Queue<RequestAndTimeout>> writeSetRegistrationRequests;
         final Channel channel;
 
-        final HashedWheelTimer timeoutExecutor;
+        final ScheduledFuture<?> timeoutChecker;
+
+        // Features agreed with the server on this connection
+        final Set<TSOProto.Feature> features;
 
-        ConnectedState(StateMachine.Fsm fsm, Channel channel, HashedWheelTimer timeoutExecutor) {
+        // Requests waiting to be coalesced into a single frame when batching has been negotiated with the server.
+        // The queue is also the lock that serializes the flushes
+        final boolean batchingEnabled;
+        final Queue<TSOProto.Request> pendingRequests;
+        final AtomicInteger numPendingRequests;
+
+        // Set by the FSM executor when leaving the state. Requests that see it set are sent through the FSM instead
+        volatile boolean closed = false;
+
+        ConnectedState(StateMachine.Fsm fsm, Channel channel, Set<TSOProto.Feature> features) {
             super(fsm);
-            LOG.debug("NEW STATE: CONNECTED");
+            LOG.debug("NEW STATE: CONNECTED (Features: {})", features);
             this.channel = channel;
-            this.timeoutExecutor = timeoutExecutor;
-            timestampRequests = new ArrayDeque<>();
-            commitRequests = new HashMap<>();
-            fenceRequests = new HashMap<>();
-        }
-
-        private Timeout newTimeout(final StateMachine.Event timeoutEvent) {
+            this.features = features;
+            this.batchingEnabled = features.contains(TSOProto.Feature.BATCHED_MESSAGES);
+            timestampRequests = new ConcurrentHashMap<>();
+            commitRequests = new ConcurrentHashMap<>();
+            fenceRequests = new ConcurrentHashMap<>();
+            writeSetRegistrationRequests = new HashMap<>();
+            pendingRequests = new ConcurrentLinkedQueue<>();
+            numPendingRequests = new AtomicInteger();
             if (requestTimeoutInMs > 0) {
-                return timeoutExecutor.newTimeout(new TimerTask() {
+                // A single periodic check instead of a timer task per request
+                long checkPeriodInMs = Math.max(1, requestTimeoutInMs / 10);
+                timeoutChecker = fsmExecutor.scheduleWithFixedDelay(new Runnable() {
                     @Override
-                    public void run(Timeout timeout) {
-                        fsm.sendEvent(timeoutEvent);
+                    public void run() {
+                        expireRequests();
                     }
-                }, requestTimeoutInMs, TimeUnit.MILLISECONDS);
+                }, checkPeriodInMs, checkPeriodInMs, TimeUnit.MILLISECONDS);
             } else {
-                return null;
+                timeoutChecker = null;
             }
+            getConnection(fsm).connectedState = this;
         }
 
-        private void sendRequest(final StateMachine.Fsm fsm, RequestEvent request) {
-            TSOProto.Request req = request.getRequest();
+        private long newTimeout() {
+            return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(requestTimeoutInMs);
+        }
 
+        /**
+         * Sends a timestamp, commit, fence or write set registration request from the calling thread
+         * @return false if the request must be handled by the FSM instead
+         */
+        boolean trySendRequest(RequestEvent request) {
+            if (closed) {
+                return false;
+            }
+            TSOProto.Request req = request.getRequest();
+            RequestAndTimeout r;
             if (req.hasTimestampRequest()) {
-                timestampRequests.add(new RequestAndTimeout(request, newTimeout(new TimestampRequestTimeoutEvent())));
+                int numTimestamps = req.getTimestampRequest().getNumTimestamps();
+                Queue<RequestAndTimeout> sizeRequests = timestampRequests.get(numTimestamps);
+                if (sizeRequests == null) {
+                    sizeRequests = new ConcurrentLinkedQueue<>();
+                    Queue<RequestAndTimeout> prev = timestampRequests.putIfAbsent(numTimestamps, sizeRequests);
+                    if (prev != null) {
+                        sizeRequests = prev;
+                    }
+                }
+                r = new RequestAndTimeout(request, newTimeout());
+                sizeRequests.add(r);
+                if (closed) {
+                    // Sent through the FSM unless it's already being retried or errored
+                    return !sizeRequests.remove(r);
+                }
             } else if (req.hasCommitRequest()) {
                 TSOProto.CommitRequest commitReq = req.getCommitRequest();
-                commitRequests.put(commitReq.getStartTimestamp(), new RequestAndTimeout(
-                        request, newTimeout(new CommitRequestTimeoutEvent(commitReq.getStartTimestamp()))));
+                if (commitReq.getEscalatedTableIdCount() > 0
+                        && !features.contains(TSOProto.Feature.TABLE_CONFLICT_ESCALATION)) {
+                    // The server can't detect the conflicts of the write set sent. It's safe to abort the transaction
+                    LOG.warn("TSO doesn't support table level conflicts. Aborting tx {}",
+                             commitReq.getStartTimestamp());
+                    request.error(new AbortException());
+                    return true;
+                }
+                if (!WriteSetEncoding.isSupported(commitReq, features)) {
+                    // Encoded for a previous server (e.g. before an HA failover) that supported a compact write set
+                    try {
+                        commitReq = WriteSetEncoding.toBasicEncoding(commitReq);
+                    } catch (InvalidProtocolBufferException ipbe) {
+                        request.error(new IllegalArgumentException("Invalid write set", ipbe));
+                        return true;
+                    }
+                    req = TSOProto.Request.newBuilder().setCommitRequest(commitReq).build();
+                    request.setRequest(req);
+                }
+                r = new RequestAndTimeout(request, newTimeout());
+                commitRequests.put(commitReq.getStartTimestamp(), r);
+                if (closed) {
+                    // Sent through the FSM unless it's already being retried or errored
+                    return !commitRequests.remove(commitReq.getStartTimestamp(), r);
+                }
             } else if (req.hasFenceRequest()) {
                 TSOProto.FenceRequest fenceReq = req.getFenceRequest();
-                fenceRequests.put(fenceReq.getTableId(), new RequestAndTimeout(
-                        request, newTimeout(new FenceRequestTimeoutEvent(fenceReq.getTableId()))));
+                r = new RequestAndTimeout(request, newTimeout());
+                fenceRequests.put(fenceReq.getTableId(), r);
+                if (closed) {
+                    // Sent through the FSM unless it's already being retried or errored
+                    return !fenceRequests.remove(fenceReq.getTableId(), r);
+                }
+            } else if (req.hasWriteSetRegistration()) {
+                return trySendWriteSetRegistration(request);
             } else {
-                request.error(new IllegalArgumentException("Unknown request type"));
+                return false;
+            }
+            send(req);
+            return true;
+        }
+
+        private boolean trySendWriteSetRegistration(RequestEvent request) {
+            if (!features.contains(TSOProto.Feature.WRITE_SET_REGISTRATION)) {
+                // Not registered. The cells will be sent in the commit request
+                request.success(0L);
+                return true;
+            }
+            long startTimestamp = request.getRequest().getWriteSetRegistration().getStartTimestamp();
+            synchronized (writeSetRegistrationRequests) {
+                // Checked under the lock, so the request is either sent through the FSM or drained when leaving
+                if (closed) {
+                    return false;
+                }
+                Queue<RequestAndTimeout> txRequests = writeSetRegistrationRequests.get(startTimestamp);
+                if (txRequests == null) {
+                    txRequests = new ArrayDeque<>();
+                    writeSetRegistrationRequests.put(startTimestamp, txRequests);
+                }
+                txRequests.add(new RequestAndTimeout(request, newTimeout()));
+                // Sent under the lock, so the requests of a transaction are sent in the order of their responses
+                send(request.getRequest());
+            }
+            return true;
+        }
+
+        private void send(TSOProto.Request req) {
+            if (batchingEnabled) {
+                addToPendingRequests(req);
+            } else {
+                write(req);
+            }
+        }
+
+        private void addToPendingRequests(TSOProto.Request req) {
+            if (req.getSerializedSize() > MAX_BATCHED_REQUEST_SIZE) {
+                // Big requests (e.g. commits with huge write sets) don't benefit from coalescing. Written under the
+                // flush lock, so they can't overtake the requests queued before them
+                synchronized (pendingRequests) {
+                    flushPendingRequests();
+                    write(req);
+                }
                 return;
             }
+            // Counted before being queued, so a flush never leaves a queued request unaccounted
+            int numPending = numPendingRequests.incrementAndGet();
+            pendingRequests.add(req);
+            if (numPending >= MAX_REQUESTS_PER_BATCH) {
+                flushPendingRequests();
+            } else if (numPending == 1) {
+                scheduleFlush();
+            }
+        }
+
+        private void scheduleFlush() {
+            Runnable flush = new Runnable() {
+                @Override
+                public void run() {
+                    flushPendingRequests();
+                    if (numPendingRequests.get() > 0 && !closed) {
+                        scheduleFlush();
+                    }
+                }
+            };
+            try {
+                if (batchingWindowInUs > 0) {
+                    fsmExecutor.schedule(flush, batchingWindowInUs, TimeUnit.MICROSECONDS);
+                } else {
+                    // The flush is queued behind the tasks that are already waiting in the FSM executor
+                    fsmExecutor.execute(flush);
+                }
+            } catch (RejectedExecutionException ree) {
+                // The client is being closed
+                flushPendingRequests();
+            }
+        }
+
+        /**
+         * Writes the requests queued in a single frame. Flushes are serialized on the queue, so the batches are written
+         * in the order they are polled and a request (e.g. a write set registration) is never overtaken by a later
+         * one of the same client (e.g. its commit) flushed concurrently by another thread
+         */
+        private void flushPendingRequests() {
+            synchronized (pendingRequests) {
+                List<TSOProto.Request> batch = new ArrayList<>();
+                TSOProto.Request req;
+                while (batch.size() < MAX_REQUESTS_PER_BATCH && (req = pendingRequests.poll()) != null) {
+                    batch.add(req);
+                }
+                if (batch.isEmpty()) {
+                    return;
+                }
+                numPendingRequests.addAndGet(-batch.size());
+                if (batch.size() == 1) {
+                    write(batch.get(0));
+                } else {
+                    TSOProto.RequestBatch.Builder batchBuilder = TSOProto.RequestBatch.newBuilder();
+                    batchBuilder.addAllRequest(batch);
+                    write(TSOProto.Request.newBuilder().setRequestBatch(batchBuilder.build()).build());
+                }
+            }
+        }
+
+        private void write(TSOProto.Request req) {
             ChannelFuture f = channel.write(req);
 
             f.addListener(new ChannelFutureListener() {
                 @Override
                 public void operationComplete(ChannelFuture future) {
-                    if (!future.isSuccess()) {
+                    // Once the state is left, the connection may be using another channel already
+                    if (!future.isSuccess() && !closed) {
                         fsm.sendEvent(new ErrorEvent(future.getCause()));
                     }
                 }
             });
         }
 
-        private void handleResponse(ResponseEvent response) {
-            TSOProto.Response resp = response.getParam();
-            if (resp.hasTimestampResponse()) {
-                if (timestampRequests.size() == 0) {
+        /**
+         * Completes the requests answered by the server. Called by the Netty worker thread
+         */
+        void handleResponse(TSOProto.Response resp) {
+            if (resp.hasResponseBatch()) {
+                for (TSOProto.Response batchedResp : resp.getResponseBatch().getResponseList()) {
+                    handleResponse(batchedResp);
+                }
+            } else if (resp.hasTimestampResponse()) {
+                TSOProto.TimestampResponse tsResp = resp.getTimestampResponse();
+                Queue<RequestAndTimeout> sizeRequests = timestampRequests.get(tsResp.getNumTimestamps());
+                RequestAndTimeout e = sizeRequests == null ? null : sizeRequests.poll();
+                if (e == null) {
                     LOG.debug("Received timestamp response when no requests outstanding");
                     return;
                 }
-                RequestAndTimeout e = timestampRequests.remove();
-                e.getRequest().success(resp.getTimestampResponse().getStartTimestamp());
-                if (e.getTimeout() != null) {
-                    e.getTimeout().cancel();
-                }
+                e.getRequest().success(tsResp.getStartTimestamp());
             } else if (resp.hasCommitResponse()) {
                 long startTimestamp = resp.getCommitResponse().getStartTimestamp();
                 RequestAndTimeout e = commitRequests.remove(startTimestamp);
@@ -795,9 +1296,6 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
                     LOG.debug("Received commit response for request that doesn't exist. Start TS: {}", startTimestamp);
                     return;
                 }
-                if (e.getTimeout() != null) {
-                    e.getTimeout().cancel();
-                }
                 if (resp.getCommitResponse().getAborted()) {
                     e.getRequest().error(new AbortException());
                 } else {
@@ -810,105 +1308,184 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
                     LOG.debug("Received fence response for request that doesn't exist. Table ID: {}", tableID);
                     return;
                 }
-                if (e.getTimeout() != null) {
-                    e.getTimeout().cancel();
-                }
-
                 e.getRequest().success(resp.getFenceResponse().getFenceId());
+            } else if (resp.hasWriteSetRegistrationResponse()) {
+                fsm.sendEvent(new ResponseEvent(resp));
             }
         }
 
-        public StateMachine.State handleEvent(TimestampRequestTimeoutEvent e) {
-            if (!timestampRequests.isEmpty()) {
-                RequestAndTimeout r = timestampRequests.remove();
-                if (r.getTimeout() != null) {
-                    r.getTimeout().cancel();
+        private void handleWriteSetRegistrationResponse(TSOProto.WriteSetRegistrationResponse resp) {
+            long startTimestamp = resp.getStartTimestamp();
+            RegisteredWriteSet registeredWriteSet = registeredWriteSets.get(startTimestamp);
+            if (resp.getConflict() && registeredWriteSet != null) {
+                LOG.debug("TSO notified a conflict to running tx {}", startTimestamp);
+                registeredWriteSet.conflict = true;
+            }
+            if (!resp.hasRegistered()) { // Conflict notification
+                return;
+            }
+            RequestAndTimeout e;
+            synchronized (writeSetRegistrationRequests) {
+                Queue<RequestAndTimeout> txRequests = writeSetRegistrationRequests.get(startTimestamp);
+                if (txRequests == null) {
+                    LOG.debug("Received registration response for request that doesn't exist. Start TS: {}",
+                              startTimestamp);
+                    return;
+                }
+                e = txRequests.remove();
+                if (txRequests.isEmpty()) {
+                    writeSetRegistrationRequests.remove(startTimestamp);
                 }
-                queueRetryOrError(fsm, r.getRequest());
             }
-            return this;
+            if (resp.getRegistered() && registeredWriteSet != null && !registeredWriteSet.lost) {
+                registeredWriteSet.cellIds.addAll(
+                        e.getRequest().getRequest().getWriteSetRegistration().getCellIdList());
+            }
+            e.getRequest().success(resp.getRegistered() ? 1L : 0L);
         }
 
-        public StateMachine.State handleEvent(CommitRequestTimeoutEvent e) {
-            long startTimestamp = e.getStartTimestamp();
-            if (commitRequests.containsKey(startTimestamp)) {
-                RequestAndTimeout r = commitRequests.remove(startTimestamp);
-                if (r.getTimeout() != null) {
-                    r.getTimeout().cancel();
+        /**
+         * Retries or errors the requests that timed out. Runs in the FSM executor
+         */
+        private void expireRequests() {
+            if (closed) {
+                return;
+            }
+            long now = System.nanoTime();
+            for (Queue<RequestAndTimeout> sizeRequests : timestampRequests.values()) {
+                // Requests of the same size time out in order
+                RequestAndTimeout r;
+                while ((r = sizeRequests.peek()) != null && r.isExpired(now)) {
+                    if (sizeRequests.remove(r)) {
+                        queueRetryOrError(r.getRequest());
+                    }
+                }
+            }
+            expireRequests(commitRequests, now);
+            expireRequests(fenceRequests, now);
+            synchronized (writeSetRegistrationRequests) {
+                Iterator<Map.Entry<Long, Queue<RequestAndTimeout>>> iter =
+                        writeSetRegistrationRequests.entrySet().iterator();
+                while (iter.hasNext()) {
+                    Map.Entry<Long, Queue<RequestAndTimeout>> entry = iter.next();
+                    if (!entry.getValue().peek().isExpired(now)) {
+                        continue;
+                    }
+                    // Late responses can't be matched with their requests anymore
+                    RegisteredWriteSet registeredWriteSet = registeredWriteSets.get(entry.getKey());
+                    if (registeredWriteSet != null) {
+                        registeredWriteSet.lost = true;
+                    }
+                    for (RequestAndTimeout r : entry.getValue()) {
+                        queueRetryOrError(r.getRequest());
+                    }
+                    iter.remove();
                 }
-                queueRetryOrError(fsm, r.getRequest());
             }
-            return this;
         }
 
-        public StateMachine.State handleEvent(FenceRequestTimeoutEvent e) {
-            long tableID = e.getTableID();
-            if (fenceRequests.containsKey(tableID)) {
-                RequestAndTimeout r = fenceRequests.remove(tableID);
-                if (r.getTimeout() != null) {
-                    r.getTimeout().cancel();
+        private <K> void expireRequests(ConcurrentMap<K, RequestAndTimeout> requests, long now) {
+            for (Map.Entry<K, RequestAndTimeout> entry : requests.entrySet()) {
+                RequestAndTimeout r = entry.getValue();
+                if (r.isExpired(now) && requests.remove(entry.getKey(), r)) {
+                    queueRetryOrError(r.getRequest());
                 }
-                queueRetryOrError(fsm, r.getRequest());
             }
-            return this;
         }
 
         public StateMachine.State handleEvent(CloseEvent e) {
             LOG.debug("CONNECTED STATE: CloseEvent");
-            timeoutExecutor.stop();
+            leaveState();
             closeChannelAndErrorRequests();
             fsm.deferEvent(e);
             return new ClosingState(fsm);
         }
 
         public StateMachine.State handleEvent(RequestEvent e) {
-            sendRequest(fsm, e);
+            if (!trySendRequest(e)) {
+                e.error(new IllegalArgumentException("Unknown request type"));
+            }
             return this;
         }
 
         public StateMachine.State handleEvent(ResponseEvent e) {
-            handleResponse(e);
+            if (e.getParam().hasWriteSetRegistrationResponse()) {
+                handleWriteSetRegistrationResponse(e.getParam().getWriteSetRegistrationResponse());
+            } else {
+                handleResponse(e.getParam());
+            }
             return this;
         }
 
         public StateMachine.State handleEvent(ErrorEvent e) {
             LOG.debug("CONNECTED STATE: ErrorEvent");
-            timeoutExecutor.stop();
-            handleError(fsm);
+            leaveState();
+            handleError();
+            channel.close();
             return new ClosingState(fsm);
         }
 
-        private void handleError(StateMachine.Fsm fsm) {
-            LOG.debug("CONNECTED STATE: Cancelling Timeouts in handleError");
-            while (timestampRequests.size() > 0) {
-                RequestAndTimeout r = timestampRequests.remove();
-                if (r.getTimeout() != null) {
-                    r.getTimeout().cancel();
+        @Override
+        public StateMachine.State handleEvent(FailoverEvent e) {
+            if (!e.getParam().isReady()) {
+                return super.handleEvent(e);
+            }
+            LOG.debug("CONNECTED STATE: FailoverEvent");
+            // The events of the channel with the previous TSO must not reach the new state
+            getConnection(fsm).retire(channel);
+            leaveState();
+            // Outstanding requests are retried through the new channel, as after a disconnection
+            handleError();
+            StateMachine.State newState = switchTo(e.getParam());
+            // Its closing is dropped by the handler, as the channel has been retired
+            channel.close();
+            return newState;
+        }
+
+        // After this, no new request is added to the outstanding ones, which can be drained safely
+        private void leaveState() {
+            closed = true;
+            getConnection(fsm).connectedState = null;
+            if (timeoutChecker != null) {
+                timeoutChecker.cancel(false);
+            }
+        }
+
+        private void handleError() {
+            LOG.debug("CONNECTED STATE: Retrying outstanding requests in handleError");
+            for (Queue<RequestAndTimeout> sizeRequests : timestampRequests.values()) {
+                RequestAndTimeout r;
+                while ((r = sizeRequests.poll()) != null) {
+                    queueRetryOrError(r.getRequest());
                 }
-                queueRetryOrError(fsm, r.getRequest());
             }
-            Iterator<Map.Entry<Long, RequestAndTimeout>> iter = commitRequests.entrySet().iterator();
-            while (iter.hasNext()) {
-                RequestAndTimeout r = iter.next().getValue();
-                if (r.getTimeout() != null) {
-                    r.getTimeout().cancel();
+            for (Long startTimestamp : commitRequests.keySet()) {
+                RequestAndTimeout r = commitRequests.remove(startTimestamp);
+                if (r != null) {
+                    queueRetryOrError(r.getRequest());
                 }
-                queueRetryOrError(fsm, r.getRequest());
-                iter.remove();
             }
-            iter = fenceRequests.entrySet().iterator();
-            while (iter.hasNext()) {
-                RequestAndTimeout r = iter.next().getValue();
-                if (r.getTimeout() != null) {
-                    r.getTimeout().cancel();
+            for (Long tableID : fenceRequests.keySet()) {
+                RequestAndTimeout r = fenceRequests.remove(tableID);
+                if (r != null) {
+                    queueRetryOrError(r.getRequest());
                 }
-                queueRetryOrError(fsm, r.getRequest());
-                iter.remove();
             }
-            channel.close();
+            synchronized (writeSetRegistrationRequests) {
+                for (Queue<RequestAndTimeout> txRequests : writeSetRegistrationRequests.values()) {
+                    for (RequestAndTimeout r : txRequests) {
+                        queueRetryOrError(r.getRequest());
+                    }
+                }
+                writeSetRegistrationRequests.clear();
+            }
+            // The next connection may be to another TSO, which won't have the registered write sets
+            for (RegisteredWriteSet registeredWriteSet : registeredWriteSets.values()) {
+                registeredWriteSet.lost = true;
+            }
         }
 
-        private void queueRetryOrError(StateMachine.Fsm fsm, RequestEvent e) {
+        private void queueRetryOrError(RequestEvent e) {
             if (e.getRetriesLeft() > 0) {
                 e.decrementRetries();
                 if (e.getRequest().hasCommitRequest()) {
@@ -931,23 +1508,31 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
 
         private void closeChannelAndErrorRequests() {
             channel.close();
-            for (RequestAndTimeout r : timestampRequests) {
-                if (r.getTimeout() != null) {
-                    r.getTimeout().cancel();
+            for (Queue<RequestAndTimeout> sizeRequests : timestampRequests.values()) {
+                RequestAndTimeout r;
+                while ((r = sizeRequests.poll()) != null) {
+                    r.getRequest().error(new ClosingException());
                 }
-                r.getRequest().error(new ClosingException());
             }
-            for (RequestAndTimeout r : commitRequests.values()) {
-                if (r.getTimeout() != null) {
-                    r.getTimeout().cancel();
+            for (Long startTimestamp : commitRequests.keySet()) {
+                RequestAndTimeout r = commitRequests.remove(startTimestamp);
+                if (r != null) {
+                    r.getRequest().error(new ClosingException());
+                }
+            }
+            for (Long tableID : fenceRequests.keySet()) {
+                RequestAndTimeout r = fenceRequests.remove(tableID);
+                if (r != null) {
+                    r.getRequest().error(new ClosingException());
                 }
-                r.getRequest().error(new ClosingException());
             }
-            for (RequestAndTimeout r : fenceRequests.values()) {
-                if (r.getTimeout() != null) {
-                    r.getTimeout().cancel();
+            synchronized (writeSetRegistrationRequests) {
+                for (Queue<RequestAndTimeout> txRequests : writeSetRegistrationRequests.values()) {
+                    for (RequestAndTimeout r : txRequests) {
+                        r.getRequest().error(new ClosingException());
+                    }
                 }
-                r.getRequest().error(new ClosingException());
+                writeSetRegistrationRequests.clear();
             }
         }
     }
@@ -959,21 +1544,6 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
             LOG.debug("NEW STATE: CLOSING");
         }
 
-        public StateMachine.State handleEvent(TimestampRequestTimeoutEvent e) {
-            // Ignored. They will be retried or errored
-            return this;
-        }
-
-        public StateMachine.State handleEvent(CommitRequestTimeoutEvent e) {
-            // Ignored. They will be retried or errored
-            return this;
-        }
-
-        public StateMachine.State handleEvent(FenceRequestTimeoutEvent e) {
-            // Ignored. They will be retried or errored
-            return this;
-        }
-
         public StateMachine.State handleEvent(ErrorEvent e) {
             // Ignored. They will be retried or errored
             return this;
@@ -1003,37 +1573,99 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
     // Helper classes & methods
     // ----------------------------------------------------------------------------------------------------------------
 
-    private class Handler extends SimpleChannelHandler {
+    // A connection to the TSO, driven by its own FSM
+    private class Connection {
 
-        private StateMachine.Fsm fsm;
+        final StateMachine.Fsm fsm;
+        final Handler handler;
+        final ClientBootstrap bootstrap;
+        volatile Channel channel;
+        // Set while the FSM is in the connected state, to send requests and handle responses without going through it
+        volatile ConnectedState connectedState;
+        // Channels replaced after a failover, until they're closed
+        final Set<Channel> retiredChannels = Collections.newSetFromMap(new ConcurrentHashMap<Channel, Boolean>());
 
-        Handler(StateMachine.Fsm fsm) {
+        Connection(StateMachine.Fsm fsm) {
             this.fsm = fsm;
+            handler = new Handler(this);
+            bootstrap = newBootstrap(handler);
+            fsm.setInitState(new DisconnectedState(fsm));
+        }
+
+        void retire(Channel channel) {
+            retiredChannels.add(channel);
+        }
+
+        boolean isRetired(Channel channel) {
+            return retiredChannels.contains(channel);
+        }
+
+    }
+
+    private ClientBootstrap newBootstrap(SimpleChannelHandler handler) {
+        ClientBootstrap bootstrap = new ClientBootstrap(factory);
+        ChannelPipeline pipeline = bootstrap.getPipeline();
+        pipeline.addLast("lengthbaseddecoder", new LengthFieldBasedFrameDecoder(8 * 1024, 0, 4, 0, 4));
+        pipeline.addLast("lengthprepender", new LengthFieldPrepender(4));
+        pipeline.addLast("protobufdecoder", new ProtobufDecoder(TSOProto.Response.getDefaultInstance()));
+        pipeline.addLast("protobufencoder", new ProtobufEncoder());
+        pipeline.addLast("handler", handler);
+
+        bootstrap.setOption("tcpNoDelay", true);
+        bootstrap.setOption("keepAlive", true);
+        bootstrap.setOption("reuseAddress", true);
+        bootstrap.setOption("connectTimeoutMillis", 100);
+        return bootstrap;
+    }
+
+    private class Handler extends SimpleChannelHandler {
+
+        private final Connection connection;
+        private final StateMachine.Fsm fsm;
+
+        Handler(Connection connection) {
+            this.connection = connection;
+            this.fsm = connection.fsm;
         }
 
         @Override
         public void channelConnected(ChannelHandlerContext ctx, ChannelStateEvent e) {
-            currentChannel = e.getChannel();
+            connection.channel = e.getChannel();
             LOG.debug("HANDLER (CHANNEL CONNECTED): Connection {}. Sending connected event to FSM", e);
             fsm.sendEvent(new ConnectedEvent(e.getChannel()));
         }
 
         @Override
         public void channelDisconnected(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+            if (connection.isRetired(e.getChannel())) {
+                return;
+            }
             LOG.debug("HANDLER (CHANNEL DISCONNECTED): Connection {}. Sending error event to FSM", e);
             fsm.sendEvent(new ErrorEvent(new ConnectionException()));
         }
 
         @Override
         public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+            if (connection.retiredChannels.remove(e.getChannel())) {
+                LOG.debug("HANDLER (CHANNEL CLOSED): Channel with previous TSO {} closed", e.getChannel());
+                return;
+            }
             LOG.debug("HANDLER (CHANNEL CLOSED): Connection {}. Sending channel closed event to FSM", e);
             fsm.sendEvent(new ChannelClosedEvent(new ConnectionException()));
         }
 
         @Override
         public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) {
-            if (e.getMessage() instanceof TSOProto.Response) {
-                fsm.sendEvent(new ResponseEvent((TSOProto.Response) e.getMessage()));
+            if (connection.isRetired(e.getChannel())) {
+                // Its requests are being retried with the new TSO
+                LOG.debug("Ignored response from previous TSO on channel {}", e.getChannel());
+            } else if (e.getMessage() instanceof TSOProto.Response) {
+                ConnectedState connectedState = connection.connectedState;
+                if (connectedState != null && connectedState.channel == e.getChannel()) {
+                    connectedState.handleResponse((TSOProto.Response) e.getMessage());
+                } else {
+                    fsm.sendEvent(new ResponseEvent((TSOProto.Response) e.getMessage()));
+                }
             } else {
                 LOG.warn("Received unknown message", e.getMessage());
             }
@@ -1042,10 +1674,136 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
         @Override
         public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) throws Exception {
             LOG.error("Error on channel {}", ctx.getChannel(), e.getCause());
+            if (connection.isRetired(ctx.getChannel())) {
+                ctx.getChannel().close();
+                return;
+            }
             fsm.sendEvent(new ErrorEvent(e.getCause()));
         }
     }
 
+    /**
+     * Handshaken channel of a connection with a standby TSO. When the TSO becomes the master the connection switches
+     * to it, without waiting to reconnect and handshake again. Reconnected after the reconnection delay while the TSO
+     * is a standby
+     */
+    private class StandbyChannel {
+
+        final InetSocketAddress address;
+        final ClientBootstrap bootstrap;
+        volatile Channel channel;
+        // Agreed with the standby TSO. Null until the handshake of the current channel completes
+        volatile Set<TSOProto.Feature> features;
+        volatile boolean lowLatency;
+        // Set once the TSO is no longer a standby, so the channel isn't reconnected anymore
+        volatile boolean released = false;
+
+        StandbyChannel(InetSocketAddress address) {
+            this.address = address;
+            this.bootstrap = newBootstrap(new StandbyHandler(this));
+        }
+
+        void connect() {
+            if (released) {
+                return;
+            }
+            LOG.debug("Connecting to standby TSO [{}]", address);
+            bootstrap.connect(address);
+        }
+
+        void scheduleReconnection() {
+            if (released) {
+                return;
+            }
+            try {
+                fsmExecutor.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        connect();
+                    }
+                }, tsoReconnectionDelayInSecs, TimeUnit.SECONDS);
+            } catch (RejectedExecutionException ree) {
+                // The client is being closed
+            }
+        }
+
+        void handshakeCompleted(Channel channel, TSOProto.HandshakeResponse response) {
+            if (!response.getClientCompatible()
+                    || ProtocolCapabilities.getCellIdHash(response.getServerCapabilities()) != cellIdHash) {
+                LOG.error("Client incompatible with standby TSO [{}]", address);
+                channel.close();
+                return;
+            }
+            lowLatency = response.getLowLatency();
+            features = Collections.unmodifiableSet(
+                    ProtocolCapabilities.negotiate(supportedFeatures, response.getServerCapabilities()));
+            LOG.info("Handshake with standby TSO [{}] completed. Features {}", address, features);
+        }
+
+        boolean isReady() {
+            Channel channel = this.channel;
+            return !released && features != null && channel != null && channel.isConnected();
+        }
+
+        /**
+         * Stops reconnecting the channel and returns it, so the connection can take it over
+         */
+        Channel handOver() {
+            released = true;
+            return channel;
+        }
+
+        void release() {
+            released = true;
+            Channel channel = this.channel;
+            if (channel != null) {
+                channel.close();
+            }
+        }
+
+    }
+
+    private class StandbyHandler extends SimpleChannelHandler {
+
+        private final StandbyChannel standby;
+
+        StandbyHandler(StandbyChannel standby) {
+            this.standby = standby;
+        }
+
+        @Override
+        public void channelConnected(ChannelHandlerContext ctx, ChannelStateEvent e) {
+            standby.features = null;
+            standby.channel = e.getChannel();
+            TSOProto.HandshakeRequest.Builder handshake = TSOProto.HandshakeRequest.newBuilder();
+            handshake.setClientCapabilities(ProtocolCapabilities.advertise(supportedFeatures, cellIdHash));
+            e.getChannel().write(TSOProto.Request.newBuilder().setHandshakeRequest(handshake.build()).build());
+        }
+
+        @Override
+        public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) {
+            LOG.debug("Channel with standby TSO [{}] closed", standby.address);
+            standby.features = null;
+            standby.scheduleReconnection();
+        }
+
+        @Override
+        public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) {
+            if (e.getMessage() instanceof TSOProto.Response
+                    && ((TSOProto.Response) e.getMessage()).hasHandshakeResponse()) {
+                standby.handshakeCompleted(e.getChannel(), ((TSOProto.Response) e.getMessage()).getHandshakeResponse());
+            } else {
+                LOG.warn("Received unexpected message from standby TSO [{}]: {}", standby.address, e.getMessage());
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) {
+            LOG.warn("Error on channel with standby TSO [{}]", standby.address, e.getCause());
+            ctx.getChannel().close();
+        }
+    }
+
     private synchronized void setTSOAddress(String host, int port) {
         tsoAddr = new InetSocketAddress(host, port);
     }
@@ -1064,6 +1822,96 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
         }
     }
 
+    private void configureTSOInstancesZNodeCache(String tsoInstancesPath) {
+        try {
+            tsoInstancesZNode = new PathChildrenCache(zkClient, tsoInstancesPath, false);
+            tsoInstancesZNode.getListenable().addListener(new PathChildrenCacheListener() {
+                @Override
+                public void childEvent(CuratorFramework client, PathChildrenCacheEvent event) {
+                    refreshStandbyChannels();
+                }
+            });
+            tsoInstancesZNode.start(PathChildrenCache.StartMode.POST_INITIALIZED_EVENT);
+        } catch (Exception e) {
+            throw new IllegalStateException("Cannot start watcher on TSO instances ZNode: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Connects to the TSO instances registered that are not the current TSO, and releases the channels with the
+     * instances that are no longer registered
+     */
+    private synchronized void refreshStandbyChannels() {
+        if (standbyChannelsClosed) {
+            return;
+        }
+        InetSocketAddress currentTSOAddress = getAddress();
+        Set<InetSocketAddress> standbyAddresses = new HashSet<>();
+        for (ChildData instance : tsoInstancesZNode.getCurrentData()) {
+            HostAndPort hp = HostAndPort.fromString(ZKPaths.getNodeFromPath(instance.getPath()));
+            InetSocketAddress address = new InetSocketAddress(hp.getHost(), hp.getPort());
+            if (!address.equals(currentTSOAddress)) {
+                standbyAddresses.add(address);
+            }
+        }
+        Iterator<Map.Entry<InetSocketAddress, StandbyChannel[]>> iter = standbyChannels.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<InetSocketAddress, StandbyChannel[]> entry = iter.next();
+            if (!standbyAddresses.remove(entry.getKey())) {
+                LOG.info("Releasing channels with TSO [{}], no longer a standby", entry.getKey());
+                release(entry.getValue());
+                iter.remove();
+            }
+        }
+        for (InetSocketAddress address : standbyAddresses) {
+            LOG.info("Connecting to standby TSO [{}]", address);
+            StandbyChannel[] channels = new StandbyChannel[connections.length];
+            for (int i = 0; i < channels.length; i++) {
+                channels[i] = new StandbyChannel(address);
+                channels[i].connect();
+            }
+            standbyChannels.put(address, channels);
+        }
+    }
+
+    /**
+     * Returns the channels with the standby TSO, which stop being maintained as standby channels, or null if there are
+     * none
+     */
+    private synchronized StandbyChannel[] takeStandbyChannels(InetSocketAddress address) {
+        return standbyChannels.remove(address);
+    }
+
+    /**
+     * Returns the handshaken channel of the first connection with the standby TSO, or null if it's not ready. Used
+     * in tests
+     */
+    synchronized Channel getReadyStandbyChannel(InetSocketAddress address) {
+        StandbyChannel[] channels = standbyChannels.get(address);
+        return channels != null && channels[0].isReady() ? channels[0].channel : null;
+    }
+
+    private synchronized void closeStandbyChannels() {
+        standbyChannelsClosed = true;
+        if (tsoInstancesZNode != null) {
+            try {
+                tsoInstancesZNode.close();
+            } catch (IOException e) {
+                LOG.warn("Error closing watcher on TSO instances ZNode", e);
+            }
+        }
+        for (StandbyChannel[] channels : standbyChannels.values()) {
+            release(channels);
+        }
+        standbyChannels.clear();
+    }
+
+    private static void release(StandbyChannel[] channels) {
+        for (StandbyChannel channel : channels) {
+            channel.release();
+        }
+    }
+
     private String getCurrentTSOInfoFoundInZK(String currentTsoPath) {
         ChildData currentTSOData = currentTSOZNode.getCurrentData();
         if (currentTSOData == null) {
@@ -17,6 +17,9 @@
  */
 package org.apache.omid.tso.client;
 
+import org.apache.omid.proto.TSOProto;
+
+import java.util.List;
 import java.util.Set;
 
 
@@ -25,6 +28,11 @@ import java.util.Set;
  */
 public interface TSOProtocol {
 
+    /**
+     * Maximum number of timestamps that can be requested in a single call to getNewStartTimestamps()
+     */
+    int MAX_TIMESTAMPS_PER_REQUEST = 1000;
+
     /**
      * Returns the epoch of the current TSO server. Used in HA mode.
      *
@@ -41,6 +49,18 @@ public interface TSOProtocol {
      */
     TSOFuture<Long> getNewStartTimestamp();
 
+    /**
+     * Returns several new timestamps assigned on the server-side in a single round trip. The timestamps are reserved
+     * in one step, so they are ordered as if they had been requested one by one.
+     * @param numTimestamps
+     *          the number of timestamps requested. Must be between 1 and MAX_TIMESTAMPS_PER_REQUEST
+     * @return the newly assigned timestamps, in ascending order, as a future. If an error was detected, the future
+     * will contain a corresponding protocol exception
+     * see org.apache.omid.tso.TimestampOracle
+     * see org.apache.omid.tso.TSOServer
+     */
+    TSOFuture<List<Long>> getNewStartTimestamps(int numTimestamps);
+
     /**
      * Returns the result of the conflict detection made on the server-side for the specified transaction
      * @param transactionId
@@ -71,6 +91,40 @@ public interface TSOProtocol {
      */
     TSOFuture<Long> commit(long transactionId, Set<? extends CellId> writeSet, Set<? extends CellId> conflictFreeWriteSet);
 
+    /**
+     * Registers part of the writeSet of a running transaction on the server-side before it commits, so conflicts with
+     * the cells registered are detected as soon as a concurrent transaction commits them
+     * @param transactionId
+     *          the transaction writing the cells
+     * @param cells
+     *          the cells written by the transaction since its previous registration
+     * @return true as a future if the cells were registered. false if the server didn't register them, in which case
+     * they are sent again at commit time. If an error was detected, the future will contain a corresponding protocol
+     * exception
+     */
+    TSOFuture<Boolean> registerWriteSet(long transactionId, Set<? extends CellId> cells);
+
+    /**
+     * Returns whether the server-side notified a conflict on the writeSet registered by the specified transaction
+     * @param transactionId
+     *          the transaction to check for conflicts
+     * @return true if the transaction is known to abort
+     */
+    boolean hasConflicts(long transactionId);
+
+    /**
+     * Releases the writeSet registered by a transaction that won't commit
+     * @param transactionId
+     *          the transaction rolled back
+     */
+    void releaseWriteSet(long transactionId);
+
+    /**
+     * Returns the number of cells a transaction writes before registering them on the server-side
+     * @return the batch size, or 0 if writeSets are not registered before commit
+     */
+    int getWriteSetRegistrationBatchSize();
+
     /**
      * Returns a new fence timestamp assigned by on the server-side
      * @param tableId
@@ -94,6 +148,12 @@ public interface TSOProtocol {
      */
     boolean isLowLatency();
 
+    /**
+     * Returns the hash function the cell, row and table identifiers sent to the server must be computed with
+     * @return the cell id hash
+     */
+    TSOProto.CellIdHash getCellIdHash();
+
     void setConflictDetectionLevel(OmidClientConfiguration.ConflictDetectionLevel conflictDetectionLevel);
 
     OmidClientConfiguration.ConflictDetectionLevel getConflictDetectionLevel();
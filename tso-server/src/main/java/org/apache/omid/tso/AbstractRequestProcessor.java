@@ -18,6 +18,7 @@
 package org.apache.omid.tso;
 
 import org.apache.phoenix.thirdparty.com.google.common.base.Optional;
+import org.apache.phoenix.thirdparty.com.google.common.collect.Iterables;
 import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.lmax.disruptor.EventFactory;
 import com.lmax.disruptor.EventHandler;
@@ -33,11 +34,18 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
@@ -58,7 +66,21 @@ abstract class AbstractRequestProcessor implements EventHandler<AbstractRequestP
 
     private final TimestampOracle timestampOracle;
     private final CommitHashMap hashmap;
+    // Fences and table-level writes of the transactions with escalated conflicts. A transaction that started before
+    // any of them and modified the table aborts
     private final Map<Long, Long> tableFences;
+    // Latest commit in each table, in commit order. A transaction with escalated conflicts in a table aborts if any
+    // transaction modified the table after it started. Escalation is disabled by default, so the writes are tracked
+    // from the first commit with escalated conflicts on. Transactions that started before the latest commit not
+    // tracked can't escalate their conflicts
+    private final Map<Long, Long> tableLatestWrites;
+    private boolean trackingTableWrites = false;
+    private long lastUntrackedCommit = -1L;
+    // Write sets registered in advance by running transactions, by start timestamp, and the registrations of each cell
+    private final TreeMap<Long, RegisteredWriteSet> registeredWriteSets;
+    private final Map<Long, List<RegisteredWriteSet>> registeredCells;
+    private final int maxRegisteredCells;
+    private int numRegisteredCells = 0;
     private final MetricsRegistry metrics;
     private final LowWatermarkWriter lowWatermarkWriter;
     private long lowWatermark = -1L;
@@ -96,6 +118,10 @@ abstract class AbstractRequestProcessor implements EventHandler<AbstractRequestP
         this.timestampOracle = timestampOracle;
         this.hashmap = new CommitHashMap(config.getConflictMapSize());
         this.tableFences = new HashMap<Long, Long>();
+        this.tableLatestWrites = new LinkedHashMap<Long, Long>();
+        this.registeredWriteSets = new TreeMap<>();
+        this.registeredCells = new HashMap<>();
+        this.maxRegisteredCells = config.getMaxRegisteredCells();
         this.lowWatermarkWriter = lowWatermarkWriter;
 
         this.replyProcessor = replyProcessor;
@@ -111,6 +137,9 @@ abstract class AbstractRequestProcessor implements EventHandler<AbstractRequestP
     public void update(TSOState state) throws Exception {
         LOG.info("Initializing RequestProcessor state...");
         this.lowWatermark = state.getLowWatermark();
+        registeredWriteSets.clear();
+        registeredCells.clear();
+        numRegisteredCells = 0;
         lowWatermarkWriter.persistLowWatermark(lowWatermark).get(); // Sync persist
         LOG.info("RequestProcessor state initialized with LWMs {} and Epoch {}", lowWatermark, state.getEpoch());
     }
@@ -128,6 +157,9 @@ abstract class AbstractRequestProcessor implements EventHandler<AbstractRequestP
             case FENCE:
                 handleFence(event);
                 break;
+            case WRITE_SET_REGISTRATION:
+                handleWriteSetRegistration(event);
+                break;
             default:
                 throw new IllegalStateException("Event not allowed in Request Processor: " + event);
         }
@@ -149,10 +181,17 @@ abstract class AbstractRequestProcessor implements EventHandler<AbstractRequestP
     @Override
     public void timestampRequest(Channel c, MonitoringContext monCtx) {
 
+        timestampRequest(1, c, monCtx);
+
+    }
+
+    @Override
+    public void timestampRequest(int numTimestamps, Channel c, MonitoringContext monCtx) {
+
         monCtx.timerStart("request.processor.timestamp.latency");
         long seq = requestRing.next();
         RequestEvent e = requestRing.get(seq);
-        RequestEvent.makeTimestampRequest(e, c, monCtx);
+        RequestEvent.makeTimestampRequest(e, numTimestamps, c, monCtx);
         requestRing.publish(seq);
 
     }
@@ -161,10 +200,31 @@ abstract class AbstractRequestProcessor implements EventHandler<AbstractRequestP
     public void commitRequest(long startTimestamp, Collection<Long> writeSet, Collection<Long> tableIdSet, boolean isRetry, Channel c,
                               MonitoringContext monCtx) {
 
+        commitRequest(startTimestamp, writeSet, tableIdSet, Collections.<Long>emptyList(), false, isRetry, c, monCtx);
+
+    }
+
+    @Override
+    public void commitRequest(long startTimestamp, Collection<Long> writeSet, Collection<Long> tableIdSet,
+                              Collection<Long> escalatedTableIdSet, boolean includesRegisteredWriteSet,
+                              boolean isRetry, Channel c, MonitoringContext monCtx) {
+
         monCtx.timerStart("request.processor.commit.latency");
         long seq = requestRing.next();
         RequestEvent e = requestRing.get(seq);
-        RequestEvent.makeCommitRequest(e, startTimestamp, monCtx, writeSet, tableIdSet, isRetry, c);
+        RequestEvent.makeCommitRequest(e, startTimestamp, monCtx, writeSet, tableIdSet, escalatedTableIdSet,
+                                       includesRegisteredWriteSet, isRetry, c);
+        requestRing.publish(seq);
+
+    }
+
+    @Override
+    public void writeSetRegistration(long startTimestamp, Collection<Long> writeSet, boolean release, Channel c,
+                                     MonitoringContext monCtx) {
+
+        long seq = requestRing.next();
+        RequestEvent e = requestRing.get(seq);
+        RequestEvent.makeWriteSetRegistration(e, startTimestamp, writeSet, release, c, monCtx);
         requestRing.publish(seq);
 
     }
@@ -182,9 +242,16 @@ abstract class AbstractRequestProcessor implements EventHandler<AbstractRequestP
 
     private void handleTimestamp(RequestEvent requestEvent) throws Exception {
 
-        long timestamp = timestampOracle.next();
-        requestEvent.getMonCtx().timerStop("request.processor.timestamp.latency");
-        forwardTimestamp(timestamp, requestEvent.getChannel(), requestEvent.getMonCtx());
+        int numTimestamps = requestEvent.getNumTimestamps();
+        if (numTimestamps == 1) {
+            long timestamp = timestampOracle.next();
+            requestEvent.getMonCtx().timerStop("request.processor.timestamp.latency");
+            forwardTimestamp(timestamp, requestEvent.getChannel(), requestEvent.getMonCtx());
+        } else {
+            long firstTimestamp = timestampOracle.next(numTimestamps);
+            requestEvent.getMonCtx().timerStop("request.processor.timestamp.latency");
+            forwardTimestamps(firstTimestamp, numTimestamps, requestEvent.getChannel(), requestEvent.getMonCtx());
+        }
     }
 
     // Checks whether transaction transactionId started before a fence creation of a table transactionId modified.
@@ -204,6 +271,53 @@ abstract class AbstractRequestProcessor implements EventHandler<AbstractRequestP
         return false;
     }
 
+    // Checks whether a transaction modified any of the tables with escalated conflicts after transactionId started.
+    private boolean hasConflictsWithTableWrites(long startTimestamp, Collection<Long> escalatedTableIdSet) {
+        if (escalatedTableIdSet.isEmpty()) {
+            return false;
+        }
+        if (lastUntrackedCommit > startTimestamp) {
+            return true;
+        }
+        for (long tableId : escalatedTableIdSet) {
+            Long latestWrite = tableLatestWrites.get(tableId);
+            if (latestWrite != null && latestWrite > startTimestamp) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void updateTableWrites(long commitTimestamp, Collection<Long> tableIdSet,
+                                   Collection<Long> escalatedTableIdSet) {
+        if (!trackingTableWrites) {
+            lastUntrackedCommit = commitTimestamp;
+        } else {
+            for (long tableId : tableIdSet) {
+                // Reinserted to keep the commit order
+                tableLatestWrites.remove(tableId);
+                tableLatestWrites.put(tableId, commitTimestamp);
+            }
+            garbageCollectTableWrites();
+        }
+        for (long tableId : escalatedTableIdSet) {
+            Long fence = tableFences.get(tableId);
+            if (fence == null || fence < commitTimestamp) {
+                tableFences.put(tableId, commitTimestamp);
+            }
+        }
+    }
+
+    // Entries below the low watermark can't cause conflicts, as the transactions that started before it abort. They
+    // are the oldest ones, so each entry is visited once
+    private void garbageCollectTableWrites() {
+        Iterator<Long> it = tableLatestWrites.values().iterator();
+        while (it.hasNext() && it.next() < lowWatermark) {
+            it.remove();
+        }
+    }
+
  // Checks whether transactionId has a write-write conflict with a transaction committed after transactionId.
     private boolean hasConflictsWithCommittedTransactions(long startTimestamp, Iterable<Long> writeSet) {
         for (long cellId : writeSet) {
@@ -216,25 +330,133 @@ abstract class AbstractRequestProcessor implements EventHandler<AbstractRequestP
         return false;
     }
 
+    private void handleWriteSetRegistration(RequestEvent event) {
+
+        long startTimestamp = event.getStartTimestamp();
+        Channel c = event.getChannel();
+
+        if (event.isRelease()) {
+            releaseWriteSet(startTimestamp);
+            replyProcessor.sendWriteSetRegistrationResponse(startTimestamp, false, false, c);
+            return;
+        }
+
+        RegisteredWriteSet registeredWriteSet = registeredWriteSets.get(startTimestamp);
+        if (startTimestamp <= lowWatermark || (registeredWriteSet != null && registeredWriteSet.conflict)) {
+            replyProcessor.sendWriteSetRegistrationResponse(startTimestamp, false, true, c);
+            return;
+        }
+        if (numRegisteredCells + event.getNumCells() > maxRegisteredCells) {
+            // The client will send these cells in the commit request
+            replyProcessor.sendWriteSetRegistrationResponse(startTimestamp, false, false, c);
+            return;
+        }
+
+        if (registeredWriteSet == null) {
+            registeredWriteSet = new RegisteredWriteSet(startTimestamp, c);
+            registeredWriteSets.put(startTimestamp, registeredWriteSet);
+        }
+        if (hasConflictsWithCommittedTransactions(startTimestamp, event.writeSet())) {
+            // No need to keep the cells, the commit will abort anyway
+            registeredWriteSet.conflict = true;
+        } else {
+            for (long cellId : event.writeSet()) {
+                if (registeredWriteSet.cells.add(cellId)) {
+                    List<RegisteredWriteSet> cellRegistrations = registeredCells.get(cellId);
+                    if (cellRegistrations == null) {
+                        cellRegistrations = new ArrayList<>(1);
+                        registeredCells.put(cellId, cellRegistrations);
+                    }
+                    cellRegistrations.add(registeredWriteSet);
+                    numRegisteredCells++;
+                }
+            }
+        }
+        replyProcessor.sendWriteSetRegistrationResponse(startTimestamp, true, registeredWriteSet.conflict, c);
+
+    }
+
+    // Discards the write set registered by a transaction, if any, and returns it.
+    private RegisteredWriteSet releaseWriteSet(long startTimestamp) {
+        RegisteredWriteSet registeredWriteSet = registeredWriteSets.remove(startTimestamp);
+        if (registeredWriteSet != null) {
+            for (long cellId : registeredWriteSet.cells) {
+                List<RegisteredWriteSet> cellRegistrations = registeredCells.get(cellId);
+                cellRegistrations.remove(registeredWriteSet);
+                if (cellRegistrations.isEmpty()) {
+                    registeredCells.remove(cellId);
+                }
+            }
+            numRegisteredCells -= registeredWriteSet.cells.size();
+        }
+        return registeredWriteSet;
+    }
+
+    // Notifies the running transactions that registered any of the cells just committed that they're going to abort.
+    // All of them started before the commit, as the commit timestamp is the latest one assigned.
+    private void notifyConflictsWithRegisteredWriteSets(Iterable<Long> writeSet) {
+        for (long cellId : writeSet) {
+            List<RegisteredWriteSet> cellRegistrations = registeredCells.get(cellId);
+            if (cellRegistrations != null) {
+                for (RegisteredWriteSet registeredWriteSet : cellRegistrations) {
+                    if (!registeredWriteSet.conflict) {
+                        registeredWriteSet.conflict = true;
+                        replyProcessor.sendConflictNotification(registeredWriteSet.startTimestamp,
+                                                                registeredWriteSet.channel);
+                    }
+                }
+            }
+        }
+    }
+
+    // Registrations of transactions that started before the low watermark are useless, as those transactions abort.
+    private void garbageCollectRegisteredWriteSets() {
+        while (!registeredWriteSets.isEmpty() && registeredWriteSets.firstKey() <= lowWatermark) {
+            releaseWriteSet(registeredWriteSets.firstKey());
+        }
+    }
+
     private void handleCommit(RequestEvent event) throws Exception {
 
         long startTimestamp = event.getStartTimestamp();
         Iterable<Long> writeSet = event.writeSet();
         Collection<Long> tableIdSet = event.getTableIdSet();
+        Collection<Long> escalatedTableIdSet = event.getEscalatedTableIdSet();
         boolean isCommitRetry = event.isCommitRetry();
         Channel c = event.getChannel();
 
+        // The commit ends the registration of the write set, whatever the outcome
+        RegisteredWriteSet registeredWriteSet = releaseWriteSet(startTimestamp);
+        boolean missingRegisteredWriteSet = false;
+        if (event.includesRegisteredWriteSet()) {
+            if (registeredWriteSet == null || registeredWriteSet.conflict) {
+                missingRegisteredWriteSet = true;
+            } else {
+                writeSet = Iterables.concat(writeSet, registeredWriteSet.cells);
+            }
+        }
+
         boolean nonEmptyWriteSet = writeSet.iterator().hasNext();
 
+        if (!trackingTableWrites && !escalatedTableIdSet.isEmpty()) {
+            LOG.info("Tracking table writes from the first escalated conflicts on, by Tx {}", startTimestamp);
+            trackingTableWrites = true;
+        }
+
         // If the transaction started before the low watermark, or
         // it started before a fence and modified the table the fence created for, or
-        // it has a write-write conflict with a transaction committed after it started
+        // it has a write-write conflict with a transaction committed after it started, or
+        // it escalated the conflicts of a table modified by a transaction committed after it started, or
+        // its registered write set was lost or conflicts with a transaction committed after it started
         // Then it should abort. Otherwise, it can commit.
         if (startTimestamp > lowWatermark &&
+            !missingRegisteredWriteSet &&
             !hasConflictsWithFences(startTimestamp, tableIdSet) &&
-            !hasConflictsWithCommittedTransactions(startTimestamp, writeSet)) {
+            !hasConflictsWithCommittedTransactions(startTimestamp, writeSet) &&
+            !hasConflictsWithTableWrites(startTimestamp, escalatedTableIdSet)) {
 
             long commitTimestamp = timestampOracle.next();
+            updateTableWrites(commitTimestamp, tableIdSet, escalatedTableIdSet);
             Optional<Long> forwardNewWaterMark = Optional.absent();
             if (nonEmptyWriteSet) {
                 long newLowWatermark = lowWatermark;
@@ -248,6 +470,11 @@ abstract class AbstractRequestProcessor implements EventHandler<AbstractRequestP
                     LOG.trace("Setting new low Watermark to {}", newLowWatermark);
                     lowWatermark = newLowWatermark;
                     forwardNewWaterMark = Optional.of(lowWatermark);
+                    garbageCollectRegisteredWriteSets();
+                }
+
+                if (!registeredCells.isEmpty()) {
+                    notifyConflictsWithRegisteredWriteSets(writeSet);
                 }
             }
             event.getMonCtx().timerStop("request.processor.commit.latency");
@@ -301,14 +528,29 @@ abstract class AbstractRequestProcessor implements EventHandler<AbstractRequestP
     protected abstract void forwardCommitRetry(long startTimestamp, Channel c, MonitoringContext monCtx) throws Exception;
     protected abstract void forwardAbort(long startTimestamp, Channel c, MonitoringContext monCtx) throws Exception;
     protected abstract void forwardTimestamp(long startTimestamp, Channel c, MonitoringContext monCtx) throws Exception;
+    protected abstract void forwardTimestamps(long firstTimestamp, int numTimestamps, Channel c, MonitoringContext monCtx) throws Exception;
     protected abstract void onTimeout() throws Exception;
 
 
 
+    private static final class RegisteredWriteSet {
+
+        final long startTimestamp;
+        final Channel channel;
+        final Set<Long> cells = new HashSet<>();
+        boolean conflict = false;
+
+        RegisteredWriteSet(long startTimestamp, Channel channel) {
+            this.startTimestamp = startTimestamp;
+            this.channel = channel;
+        }
+
+    }
+
     final static class RequestEvent implements Iterable<Long> {
 
         enum Type {
-            TIMESTAMP, COMMIT, FENCE
+            TIMESTAMP, COMMIT, FENCE, WRITE_SET_REGISTRATION
         }
 
         private Type type = null;
@@ -324,12 +566,17 @@ abstract class AbstractRequestProcessor implements EventHandler<AbstractRequestP
         private Collection<Long> writeSetAsCollection = null; // for the case where there's more than MAX_INLINE
 
         private Collection<Long> tableIdSet = null;
+        private Collection<Long> escalatedTableIdSet = null;
+        private boolean includesRegisteredWriteSet = false;
+        private boolean release = false;
         private long tableID = 0;
+        private int numTimestamps = 1;
 
-        static void makeTimestampRequest(RequestEvent e, Channel c, MonitoringContext monCtx) {
+        static void makeTimestampRequest(RequestEvent e, int numTimestamps, Channel c, MonitoringContext monCtx) {
             e.type = Type.TIMESTAMP;
             e.channel = c;
             e.monCtx = monCtx;
+            e.numTimestamps = numTimestamps;
         }
 
         static void makeCommitRequest(RequestEvent e,
@@ -337,6 +584,8 @@ abstract class AbstractRequestProcessor implements EventHandler<AbstractRequestP
                                       MonitoringContext monCtx,
                                       Collection<Long> writeSet,
                                       Collection<Long> TableIdSet,
+                                      Collection<Long> escalatedTableIdSet,
+                                      boolean includesRegisteredWriteSet,
                                       boolean isRetry,
                                       Channel c) {
             e.monCtx = monCtx;
@@ -344,6 +593,27 @@ abstract class AbstractRequestProcessor implements EventHandler<AbstractRequestP
             e.channel = c;
             e.startTimestamp = startTimestamp;
             e.isCommitRetry = isRetry;
+            setWriteSet(e, writeSet);
+            e.tableIdSet = TableIdSet;
+            e.escalatedTableIdSet = escalatedTableIdSet;
+            e.includesRegisteredWriteSet = includesRegisteredWriteSet;
+        }
+
+        static void makeWriteSetRegistration(RequestEvent e,
+                                             long startTimestamp,
+                                             Collection<Long> writeSet,
+                                             boolean release,
+                                             Channel c,
+                                             MonitoringContext monCtx) {
+            e.monCtx = monCtx;
+            e.type = Type.WRITE_SET_REGISTRATION;
+            e.channel = c;
+            e.startTimestamp = startTimestamp;
+            e.release = release;
+            setWriteSet(e, writeSet);
+        }
+
+        private static void setWriteSet(RequestEvent e, Collection<Long> writeSet) {
             if (writeSet.size() > MAX_INLINE) {
                 e.numCells = writeSet.size();
                 e.writeSetAsCollection = writeSet;
@@ -356,7 +626,6 @@ abstract class AbstractRequestProcessor implements EventHandler<AbstractRequestP
                     ++i;
                 }
             }
-            e.tableIdSet = TableIdSet;
         }
 
         static void makeFenceRequest(RequestEvent e,
@@ -389,10 +658,30 @@ abstract class AbstractRequestProcessor implements EventHandler<AbstractRequestP
             return tableIdSet;
         }
 
+        Collection<Long> getEscalatedTableIdSet() {
+            return escalatedTableIdSet;
+        }
+
+        boolean includesRegisteredWriteSet() {
+            return includesRegisteredWriteSet;
+        }
+
+        boolean isRelease() {
+            return release;
+        }
+
+        long getNumCells() {
+            return numCells;
+        }
+
         long getTableId() {
             return tableID;
         }
 
+        int getNumTimestamps() {
+            return numTimestamps;
+        }
+
         @Override
         public Iterator<Long> iterator() {
 
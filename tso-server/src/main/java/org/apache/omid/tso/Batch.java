@@ -104,6 +104,16 @@ public class Batch {
 
     }
 
+    void addTimestamps(long firstTimestamp, int numTimestamps, Channel c, MonitoringContext context) {
+
+        Preconditions.checkState(!isFull(), "batch is full");
+        int index = numEvents++;
+        PersistEvent e = events[index];
+        context.timerStart("persistence.processor.timestamp.latency");
+        e.makePersistTimestamps(firstTimestamp, numTimestamps, c, context);
+
+    }
+
     void addFence(long tableID, long fenceTimestamp, Channel c, MonitoringContext context) {
 
         Preconditions.checkState(!isFull(), "batch is full");
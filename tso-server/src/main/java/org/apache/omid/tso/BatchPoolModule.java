@@ -48,6 +48,9 @@ public class BatchPoolModule extends AbstractModule {
     ObjectPool<Batch> getBatchPool() throws Exception {
 
         int poolSize = config.getNumConcurrentCTWriters();
+        if (config.getCtWriterAffinity()) {
+            poolSize *= 2; // Each writer has its own batch being filled besides the one being flushed
+        }
         int batchSize = config.getBatchSizePerCTWriter();
 
         LOG.info("Pool Size (# of Batches) {}; Batch Size {}", poolSize, batchSize);
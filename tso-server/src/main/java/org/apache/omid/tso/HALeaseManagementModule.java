@@ -38,6 +38,8 @@ public class HALeaseManagementModule extends AbstractModule {
     private long leasePeriodInMs = 10_000; // 10 secs
     private String tsoLeasePath = "/tso-lease";
     private String currentTsoPath = "/current-tso";
+    private boolean acceptStandbyConnections = false;
+    private String tsoInstancesPath = "/tso-instances";
     private String zkCluster = "localhost:2181";
     private String zkNamespace = "omid";
 
@@ -84,6 +86,7 @@ public class HALeaseManagementModule extends AbstractModule {
                                 leasePeriodInMs,
                                 tsoLeasePath,
                                 currentTsoPath,
+                                acceptStandbyConnections ? tsoInstancesPath : null,
                                 zkClient,
                                 panicker);
 
@@ -101,6 +104,22 @@ public class HALeaseManagementModule extends AbstractModule {
         this.currentTsoPath = currentTsoPath;
     }
 
+    public boolean getAcceptStandbyConnections() {
+        return acceptStandbyConnections;
+    }
+
+    public void setAcceptStandbyConnections(boolean acceptStandbyConnections) {
+        this.acceptStandbyConnections = acceptStandbyConnections;
+    }
+
+    public String getTsoInstancesPath() {
+        return tsoInstancesPath;
+    }
+
+    public void setTsoInstancesPath(String tsoInstancesPath) {
+        this.tsoInstancesPath = tsoInstancesPath;
+    }
+
     public long getLeasePeriodInMs() {
         return leasePeriodInMs;
     }
@@ -0,0 +1,289 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+import org.apache.phoenix.thirdparty.com.google.common.annotations.VisibleForTesting;
+import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.apache.omid.committable.CommitTable;
+import org.apache.omid.metrics.Gauge;
+import org.apache.omid.metrics.MetricsRegistry;
+import org.apache.omid.timestamp.storage.TimestampStorage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.apache.omid.metrics.MetricsUtils.name;
+
+/**
+ * The Timestamp Oracle that gives monotonically increasing timestamps based on a hybrid logical clock.
+ *
+ * As in {@link WorldClockOracleImpl}, each millisecond of world time maps to a range of timestamps. Each timestamp
+ * is the maximum of the first timestamp of the current millisecond and the successor of the last one given. So the
+ * oracle follows world time when the clock moves forward. It keeps counting logically, and stays monotonic, when the
+ * clock stalls or jumps backwards and while it runs behind the timestamps allocated by a previous TSO after a
+ * failover. The request thread never sleeps. It only waits, on a monitor the ts-persist thread notifies, when the
+ * whole allocated interval is exhausted.
+ */
+@Singleton
+public class HybridClockOracleImpl implements TimestampOracle {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HybridClockOracleImpl.class);
+
+    static final long MAX_TX_PER_MS = WorldClockOracleImpl.MAX_TX_PER_MS;
+    static final long TIMESTAMP_INTERVAL_MS = 10_000; // 10 seconds interval
+    static final long TIMESTAMP_ALLOCATION_INTERVAL_MS = 7_000; // 7 seconds
+    private static final long ALLOCATION_WAIT_IN_MS = 1;
+
+    private long lastTimestamp;
+    private long maxTimestamp;
+
+    private TimestampStorage storage;
+    private Panicker panicker;
+
+    private volatile long maxAllocatedTimestamp;
+    private volatile boolean allocationRequested = false;
+    private final Object allocationMonitor = new Object();
+
+    // Stalls of next() waiting for the storage and world clock anomalies
+    private volatile long stallCount = 0;
+    private volatile long stallTimeInNs = 0;
+    private volatile long clockBackwardJumps = 0;
+    private long lastWorldTimestamp;
+
+    private final ScheduledExecutorService scheduler =
+            Executors.newScheduledThreadPool(1, new ThreadFactoryBuilder().setNameFormat("ts-persist-%d").build());
+
+    private Runnable allocateTimestampsBatchTask;
+
+    private class AllocateTimestampBatchTask implements Runnable {
+        long previousMaxTimestamp;
+
+        AllocateTimestampBatchTask(long previousMaxTimestamp) {
+            this.previousMaxTimestamp = previousMaxTimestamp;
+        }
+
+        @Override
+        public void run() {
+            // Extend the interval from world time or, when world time is behind the interval already allocated (e.g.
+            // the clock jumped backwards or a previous TSO allocated ahead), from the end of that interval
+            long newMaxTimestamp = Math.max(clock() + TIMESTAMP_INTERVAL_MS,
+                                            previousMaxTimestamp / MAX_TX_PER_MS + TIMESTAMP_ALLOCATION_INTERVAL_MS)
+                                   * MAX_TX_PER_MS;
+            try {
+                storage.updateMaxTimestamp(previousMaxTimestamp, newMaxTimestamp);
+                synchronized (allocationMonitor) {
+                    maxAllocatedTimestamp = newMaxTimestamp;
+                    allocationMonitor.notifyAll();
+                }
+                previousMaxTimestamp = newMaxTimestamp;
+                allocationRequested = false;
+            } catch (Throwable e) {
+                panicker.panic("Can't store the new max timestamp", e);
+            }
+        }
+    }
+
+    @Inject
+    public HybridClockOracleImpl(MetricsRegistry metrics,
+                                 TimestampStorage tsStorage,
+                                 Panicker panicker) throws IOException {
+
+        this.storage = tsStorage;
+        this.panicker = panicker;
+
+        metrics.gauge(name("tso", "maxTimestamp"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return maxTimestamp;
+            }
+        });
+        metrics.gauge(name("tso", "timestampOracle", "headroomInMs"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return (maxAllocatedTimestamp - lastTimestamp) / MAX_TX_PER_MS;
+            }
+        });
+        metrics.gauge(name("tso", "timestampOracle", "skewInMs"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return lastTimestamp / MAX_TX_PER_MS - clock();
+            }
+        });
+        metrics.gauge(name("tso", "timestampOracle", "clockBackwardJumps"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return clockBackwardJumps;
+            }
+        });
+        metrics.gauge(name("tso", "timestampOracle", "stalls"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return stallCount;
+            }
+        });
+        metrics.gauge(name("tso", "timestampOracle", "stallTimeInMs"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return TimeUnit.NANOSECONDS.toMillis(stallTimeInNs);
+            }
+        });
+
+    }
+
+    @Override
+    public void initialize() throws IOException {
+
+        this.lastTimestamp = this.maxTimestamp = this.maxAllocatedTimestamp = storage.getMaxTimestamp();
+        this.lastWorldTimestamp = clock() * MAX_TX_PER_MS;
+
+        this.allocateTimestampsBatchTask = new AllocateTimestampBatchTask(lastTimestamp);
+
+        // Trigger first allocation of timestamps
+        scheduler.execute(allocateTimestampsBatchTask);
+
+        // In case of failover the previous TSO may have allocated timestamps ahead of world time. There's no need to
+        // wait for world time to reach them: the clock keeps counting logically from there until world time catches up
+        long skewInMs = lastTimestamp / MAX_TX_PER_MS - clock();
+        if (skewInMs > 0) {
+            LOG.info("Max timestamp stored is {} ms ahead of world time. Timestamps will run ahead of it", skewInMs);
+        }
+
+        // Launch the periodic timestamp interval allocation. In this case, the timestamp interval is extended even
+        // though the TSO is idle, so the first request after a long time does not need to wait for new allocations
+        scheduler.scheduleAtFixedRate(allocateTimestampsBatchTask, TIMESTAMP_ALLOCATION_INTERVAL_MS,
+                                      TIMESTAMP_ALLOCATION_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the next timestamp. Only waits when the interval allocated in the storage is exhausted.
+     */
+    @Override
+    public long next() {
+
+        long worldTimestamp = clock() * MAX_TX_PER_MS;
+        if (worldTimestamp < lastWorldTimestamp) {
+            clockBackwardJumps++;
+            LOG.warn("World clock moved backwards {} ms. Timestamps keep growing logically",
+                     (lastWorldTimestamp - worldTimestamp) / MAX_TX_PER_MS);
+        }
+        lastWorldTimestamp = worldTimestamp;
+
+        long timestamp = Math.max(worldTimestamp, lastTimestamp + CommitTable.MAX_CHECKPOINTS_PER_TXN);
+
+        if (timestamp >= maxTimestamp) { // Intentional race to reduce synchronization overhead in every access
+            maxTimestamp = maxAllocatedTimestamp;
+            if (timestamp >= maxTimestamp) {
+                // World time is beyond the allocated interval (e.g. a forward clock jump or a slow storage). Keep
+                // counting logically from the last timestamp while there's room and ask for a new allocation
+                requestAllocation();
+                long logicalTimestamp = lastTimestamp + CommitTable.MAX_CHECKPOINTS_PER_TXN;
+                if (logicalTimestamp >= maxTimestamp) {
+                    waitForAllocation(logicalTimestamp);
+                }
+                if (timestamp >= maxTimestamp) {
+                    timestamp = logicalTimestamp;
+                }
+            }
+        }
+
+        lastTimestamp = timestamp;
+        return lastTimestamp;
+    }
+
+    @Override
+    public long next(int numTimestamps) {
+
+        long firstTimestamp = next();
+        long timestamp = firstTimestamp + (numTimestamps - 1) * CommitTable.MAX_CHECKPOINTS_PER_TXN;
+
+        if (timestamp >= maxTimestamp) {
+            maxTimestamp = maxAllocatedTimestamp;
+            if (timestamp >= maxTimestamp) {
+                requestAllocation();
+                waitForAllocation(timestamp);
+            }
+        }
+
+        lastTimestamp = timestamp;
+        return firstTimestamp;
+    }
+
+    private void requestAllocation() {
+        if (!allocationRequested) {
+            allocationRequested = true;
+            scheduler.execute(allocateTimestampsBatchTask);
+        }
+    }
+
+    /**
+     * Blocks, without sleeping, until the ts-persist thread allocates an interval that includes the timestamp
+     */
+    private void waitForAllocation(long timestamp) {
+        long startTimeInNs = System.nanoTime();
+        boolean interrupted = false;
+        synchronized (allocationMonitor) {
+            while (maxAllocatedTimestamp <= timestamp) {
+                try {
+                    allocationMonitor.wait(ALLOCATION_WAIT_IN_MS);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        maxTimestamp = maxAllocatedTimestamp;
+        stallCount++;
+        stallTimeInNs += System.nanoTime() - startTimeInNs;
+    }
+
+    @VisibleForTesting
+    long clock() {
+        return System.currentTimeMillis();
+    }
+
+    @VisibleForTesting
+    long getStallCount() {
+        return stallCount;
+    }
+
+    @VisibleForTesting
+    long getClockBackwardJumps() {
+        return clockBackwardJumps;
+    }
+
+    @Override
+    public long getLast() {
+        return lastTimestamp;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TimestampOracle -> LastTimestamp: %d, MaxTimestamp: %d", lastTimestamp, maxTimestamp);
+    }
+
+}
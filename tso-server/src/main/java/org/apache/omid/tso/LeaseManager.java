@@ -23,7 +23,9 @@ import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.AbstractS
 import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.utils.EnsurePath;
+import org.apache.curator.utils.ZKPaths;
 import org.apache.omid.tso.TSOStateManager.TSOState;
+import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.data.Stat;
 import org.slf4j.Logger;
@@ -74,6 +76,8 @@ class LeaseManager extends AbstractScheduledService implements LeaseManagement {
 
     private final String leasePath;
     private final String currentTSOPath;
+    // Where the instance registers itself to accept connections from clients while it's a standby. Null if it doesn't
+    private final String tsoInstancesPath;
 
     LeaseManager(String tsoHostAndPort,
                  TSOChannelHandler tsoChannelHandler,
@@ -83,6 +87,19 @@ class LeaseManager extends AbstractScheduledService implements LeaseManagement {
                  String currentTSOPath,
                  CuratorFramework zkClient,
                  Panicker panicker) {
+        this(tsoHostAndPort, tsoChannelHandler, stateManager, leasePeriodInMs, leasePath, currentTSOPath, null,
+             zkClient, panicker);
+    }
+
+    LeaseManager(String tsoHostAndPort,
+                 TSOChannelHandler tsoChannelHandler,
+                 TSOStateManager stateManager,
+                 long leasePeriodInMs,
+                 String leasePath,
+                 String currentTSOPath,
+                 String tsoInstancesPath,
+                 CuratorFramework zkClient,
+                 Panicker panicker) {
 
         this.tsoHostAndPort = tsoHostAndPort;
         this.tsoChannelHandler = tsoChannelHandler;
@@ -90,6 +107,7 @@ class LeaseManager extends AbstractScheduledService implements LeaseManagement {
         this.leasePeriodInMs = leasePeriodInMs;
         this.leasePath = leasePath;
         this.currentTSOPath = currentTSOPath;
+        this.tsoInstancesPath = tsoInstancesPath;
         this.zkClient = zkClient;
         this.panicker = panicker;
         LOG.info("LeaseManager {} initialized. Lease period {}ms", toString(), leasePeriodInMs);
@@ -106,10 +124,16 @@ class LeaseManager extends AbstractScheduledService implements LeaseManagement {
         createCurrentTSOZNode();
         startAsync();
         awaitRunning();
+        if (acceptsStandbyConnections()) {
+            registerTSOInstanceZNode();
+        }
     }
 
     @Override
     public void stopService() throws LeaseManagementException {
+        if (acceptsStandbyConnections()) {
+            unregisterTSOInstanceZNode();
+        }
         stopAsync();
         awaitTerminated();
     }
@@ -135,8 +159,14 @@ class LeaseManager extends AbstractScheduledService implements LeaseManagement {
                 public void run() {
                     try {
                         TSOState newTSOState = stateManager.initialize();
-                        advertiseTSOServerInfoThroughZK(newTSOState.getEpoch());
-                        tsoChannelHandler.reconnect();
+                        if (acceptsStandbyConnections()) {
+                            // The clients connected to the standby switch to it as soon as it's advertised
+                            tsoChannelHandler.serve();
+                            advertiseTSOServerInfoThroughZK(newTSOState.getEpoch());
+                        } else {
+                            advertiseTSOServerInfoThroughZK(newTSOState.getEpoch());
+                            tsoChannelHandler.reconnect();
+                        }
                     } catch (Exception e) {
                         Thread t = Thread.currentThread();
                         t.getUncaughtExceptionHandler().uncaughtException(t, e);
@@ -148,8 +178,13 @@ class LeaseManager extends AbstractScheduledService implements LeaseManagement {
                 // TSO State initialization
                 @Override
                 public void run() {
-                    // In case the TSO was paused close the connection
-                    tsoChannelHandler.closeConnection();
+                    if (acceptsStandbyConnections()) {
+                        // Let clients connect in advance. If the TSO was paused the connections it served are closed
+                        tsoChannelHandler.standby();
+                    } else {
+                        // In case the TSO was paused close the connection
+                        tsoChannelHandler.closeConnection();
+                    }
                 }
             });
         }
@@ -277,6 +312,35 @@ class LeaseManager extends AbstractScheduledService implements LeaseManagement {
         }
     }
 
+    private boolean acceptsStandbyConnections() {
+        return tsoInstancesPath != null;
+    }
+
+    private void registerTSOInstanceZNode() throws LeaseManagementException {
+        try {
+            validateZKPath(tsoInstancesPath);
+            // Ephemeral, so the clients stop connecting to the instance when its session expires
+            zkClient.create().withMode(CreateMode.EPHEMERAL).forPath(getTSOInstanceZNodePath());
+            LOG.info("TSO instance {} registered through ZK", tsoHostAndPort);
+        } catch (KeeperException.NodeExistsException e) {
+            LOG.warn("TSO instance {} was already registered through ZK", tsoHostAndPort);
+        } catch (Exception e) {
+            throw new LeaseManagementException("Error registering TSO instance ZNode", e);
+        }
+    }
+
+    private void unregisterTSOInstanceZNode() {
+        try {
+            zkClient.delete().forPath(getTSOInstanceZNodePath());
+        } catch (Exception e) {
+            LOG.warn("Error unregistering TSO instance {} from ZK", tsoHostAndPort, e);
+        }
+    }
+
+    private String getTSOInstanceZNodePath() {
+        return ZKPaths.makePath(tsoInstancesPath, tsoHostAndPort);
+    }
+
     private void validateZKPath(String zkPath) throws Exception {
         EnsurePath path = zkClient.newNamespaceAwareEnsurePath(zkPath);
         path.ensure(zkClient.getZookeeperClient());
@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Provides;
+import org.apache.omid.committable.CommitTable;
+import org.apache.omid.committable.MappedFileCommitTable;
+
+import javax.inject.Singleton;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Stores the Commit Table in local memory-mapped files, for testing the TSO at full speed with a durable Commit Table
+ * and for standalone setups. Only the JVM of the TSO can read it, so it can't be used with HBase clients, the
+ * compactor or the coprocessors, which look up the Commit Table themselves.
+ *
+ * This class is instantiated by the yaml parser.
+ * Snake_yaml needs a public POJO style class to work properly with all the setters and getters.
+ */
+public class MappedFileCommitTableStorageModule extends AbstractModule {
+
+    private String path = "omid-commit-table";
+    private int segmentSizeInMB = MappedFileCommitTable.DEFAULT_SEGMENT_SIZE / (1024 * 1024);
+
+    @Override
+    public void configure() {
+    }
+
+    @Provides
+    @Singleton
+    CommitTable provideCommitTable() throws IOException {
+        return new MappedFileCommitTable(new File(path), segmentSizeInMB * 1024 * 1024);
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // WARNING: Do not remove getters/setters, needed by snake_yaml!
+    // ----------------------------------------------------------------------------------------------------------------
+
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    public int getSegmentSizeInMB() {
+        return segmentSizeInMB;
+    }
+
+    public void setSegmentSizeInMB(int segmentSizeInMB) {
+        this.segmentSizeInMB = segmentSizeInMB;
+    }
+
+}
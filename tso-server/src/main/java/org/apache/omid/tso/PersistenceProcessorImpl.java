@@ -23,12 +23,14 @@ import org.apache.phoenix.thirdparty.com.google.common.base.Optional;
 import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.name.Named;
 import com.lmax.disruptor.EventFactory;
+import com.lmax.disruptor.EventHandler;
 import com.lmax.disruptor.RingBuffer;
 import com.lmax.disruptor.WaitStrategy;
 import com.lmax.disruptor.dsl.Disruptor;
 
 import org.apache.commons.pool2.ObjectPool;
 import org.apache.omid.committable.CommitTable;
+import org.apache.omid.committable.hbase.KeyGeneratorImplementations.RegionAwareBucketKeyGenerator;
 import org.apache.omid.metrics.MetricsRegistry;
 import org.jboss.netty.channel.Channel;
 import org.slf4j.Logger;
@@ -55,8 +57,12 @@ class PersistenceProcessorImpl implements PersistenceProcessor {
     private final RingBuffer<PersistBatchEvent> persistRing;
 
     private final ObjectPool<Batch> batchPool;
+    // With commit table writer affinity, each writer has its own batch and receives only the events of the
+    // commit table buckets it owns. Otherwise, there's a single batch that is flushed by any writer
     @VisibleForTesting
-    Batch currentBatch;
+    final Batch[] currentBatches;
+    // Whether the current batch of each writer holds events written to the commit table
+    private final boolean[] pendingCommits;
 
     // TODO Next two need to be either int or AtomicLong
     volatile private long batchSequence;
@@ -81,7 +87,11 @@ class PersistenceProcessorImpl implements PersistenceProcessor {
 
         this.disruptor = new Disruptor<>(EVENT_FACTORY, 1 << 20, disruptorExec , SINGLE, strategy);
         disruptor.handleExceptionsWith(new FatalExceptionHandler(panicker)); // This must be before handleEventsWith()
-        disruptor.handleEventsWithWorkerPool(handlers);
+        if (config.getCtWriterAffinity()) {
+            disruptor.handleEventsWith(toWriterAffinityHandlers(handlers));
+        } else {
+            disruptor.handleEventsWithWorkerPool(handlers);
+        }
         this.persistRing = disruptor.start();
 
         // ------------------------------------------------------------------------------------------------------------
@@ -91,7 +101,11 @@ class PersistenceProcessorImpl implements PersistenceProcessor {
         this.metrics = metrics;
         this.batchSequence = 0L;
         this.batchPool = batchPool;
-        this.currentBatch = batchPool.borrowObject();
+        this.currentBatches = new Batch[config.getCtWriterAffinity() ? handlers.length : 1];
+        for (int i = 0; i < currentBatches.length; i++) {
+            currentBatches[i] = batchPool.borrowObject();
+        }
+        this.pendingCommits = new boolean[currentBatches.length];
 
         LOG.info("PersistentProcessor initialized");
     }
@@ -99,15 +113,52 @@ class PersistenceProcessorImpl implements PersistenceProcessor {
     @Override
     public void triggerCurrentBatchFlush() throws Exception {
 
-        if (currentBatch.isEmpty()) {
+        for (int writer = 0; writer < currentBatches.length; writer++) {
+            triggerBatchFlush(writer);
+        }
+
+    }
+
+    private void triggerBatchFlush(int writer) throws Exception {
+
+        Batch batch = currentBatches[writer];
+        if (batch.isEmpty()) {
             return;
         }
         long seq = persistRing.next();
         PersistBatchEvent e = persistRing.get(seq);
-        makePersistBatch(e, batchSequence++, currentBatch);
+        makePersistBatch(e, batchSequence++, batch, writer);
         persistRing.publish(seq);
-        currentBatch = batchPool.borrowObject();
+        currentBatches[writer] = batchPool.borrowObject();
+        pendingCommits[writer] = false;
+
+    }
+
+    /**
+     * The replies follow the sequence of the batches. A timestamp or a fence must be replied after the commits that
+     * precede it, so that no client reads a snapshot including a commit not persisted yet. With writer affinity,
+     * those commits may be waiting in the batches of other writers, so they are flushed first
+     */
+    private void flushPendingCommitsOfOtherWriters(int writer) throws Exception {
 
+        for (int other = 0; other < currentBatches.length; other++) {
+            if (other != writer && pendingCommits[other]) {
+                triggerBatchFlush(other);
+            }
+        }
+
+    }
+
+    /**
+     * Returns the writer whose batch receives the events related to the timestamp passed. With writer affinity,
+     * the writer is derived from the commit table bucket of the timestamp, so all the commits flushed by a writer
+     * go to the same commit table region when the number of buckets matches the number of writers
+     */
+    private int writerFor(long timestamp) {
+        if (currentBatches.length == 1) {
+            return 0;
+        }
+        return RegionAwareBucketKeyGenerator.bucketOf(timestamp, currentBatches.length);
     }
 
     @Override
@@ -115,18 +166,21 @@ class PersistenceProcessorImpl implements PersistenceProcessor {
                                  Optional<Long> newLowWatermark)
             throws Exception {
 
-        currentBatch.addCommit(startTimestamp, commitTimestamp, c, monCtx, newLowWatermark);
-        if (currentBatch.isFull()) {
-            triggerCurrentBatchFlush();
+        int writer = writerFor(startTimestamp);
+        currentBatches[writer].addCommit(startTimestamp, commitTimestamp, c, monCtx, newLowWatermark);
+        pendingCommits[writer] = true;
+        if (currentBatches[writer].isFull()) {
+            triggerBatchFlush(writer);
         }
 
     }
 
     @Override
     public void addCommitRetryToBatch(long startTimestamp, Channel c, MonitoringContext monCtx) throws Exception {
-        currentBatch.addCommitRetry(startTimestamp, c, monCtx);
-        if (currentBatch.isFull()) {
-            triggerCurrentBatchFlush();
+        int writer = writerFor(startTimestamp);
+        currentBatches[writer].addCommitRetry(startTimestamp, c, monCtx);
+        if (currentBatches[writer].isFull()) {
+            triggerBatchFlush(writer);
         }
     }
 
@@ -134,9 +188,10 @@ class PersistenceProcessorImpl implements PersistenceProcessor {
     public void addAbortToBatch(long startTimestamp, Channel c, MonitoringContext monCtx)
             throws Exception {
 
-        currentBatch.addAbort(startTimestamp, c, monCtx);
-        if (currentBatch.isFull()) {
-            triggerCurrentBatchFlush();
+        int writer = writerFor(startTimestamp);
+        currentBatches[writer].addAbort(startTimestamp, c, monCtx);
+        if (currentBatches[writer].isFull()) {
+            triggerBatchFlush(writer);
         }
 
     }
@@ -144,9 +199,24 @@ class PersistenceProcessorImpl implements PersistenceProcessor {
     @Override
     public void addTimestampToBatch(long startTimestamp, Channel c, MonitoringContext monCtx) throws Exception {
 
-        currentBatch.addTimestamp(startTimestamp, c, monCtx);
-        if (currentBatch.isFull()) {
-            triggerCurrentBatchFlush();
+        int writer = writerFor(startTimestamp);
+        flushPendingCommitsOfOtherWriters(writer);
+        currentBatches[writer].addTimestamp(startTimestamp, c, monCtx);
+        if (currentBatches[writer].isFull()) {
+            triggerBatchFlush(writer);
+        }
+
+    }
+
+    @Override
+    public void addTimestampsToBatch(long firstTimestamp, int numTimestamps, Channel c, MonitoringContext monCtx)
+            throws Exception {
+
+        int writer = writerFor(firstTimestamp);
+        flushPendingCommitsOfOtherWriters(writer);
+        currentBatches[writer].addTimestamps(firstTimestamp, numTimestamps, c, monCtx);
+        if (currentBatches[writer].isFull()) {
+            triggerBatchFlush(writer);
         }
 
     }
@@ -154,9 +224,12 @@ class PersistenceProcessorImpl implements PersistenceProcessor {
     @Override
     public void addFenceToBatch(long tableID, long fenceTimestamp, Channel c, MonitoringContext monCtx) throws Exception {
 
-        currentBatch.addFence(tableID, fenceTimestamp, c, monCtx);
-        if (currentBatch.isFull()) {
-            triggerCurrentBatchFlush();
+        int writer = writerFor(fenceTimestamp);
+        flushPendingCommitsOfOtherWriters(writer);
+        currentBatches[writer].addFence(tableID, fenceTimestamp, c, monCtx);
+        pendingCommits[writer] = true;
+        if (currentBatches[writer].isFull()) {
+            triggerBatchFlush(writer);
         }
 
     }
@@ -180,14 +253,51 @@ class PersistenceProcessorImpl implements PersistenceProcessor {
 
     }
 
+    @SuppressWarnings("unchecked")
+    private static EventHandler<PersistBatchEvent>[] toWriterAffinityHandlers(PersistenceProcessorHandler[] handlers) {
+        EventHandler<PersistBatchEvent>[] affinityHandlers = new EventHandler[handlers.length];
+        for (int i = 0; i < handlers.length; i++) {
+            affinityHandlers[i] = new WriterAffinityHandler(i, handlers[i]);
+        }
+        return affinityHandlers;
+    }
+
+    /**
+     * Makes a handler process only the batches of the writer it has been assigned to
+     */
+    private static class WriterAffinityHandler implements EventHandler<PersistBatchEvent> {
+
+        private final int writer;
+        private final PersistenceProcessorHandler handler;
+
+        WriterAffinityHandler(int writer, PersistenceProcessorHandler handler) {
+            this.writer = writer;
+            this.handler = handler;
+        }
+
+        @Override
+        public void onEvent(PersistBatchEvent event, long sequence, boolean endOfBatch) throws Exception {
+            if (event.getWriter() == writer) {
+                handler.onEvent(event);
+            }
+        }
+
+    }
+
     final static class PersistBatchEvent {
 
         private long batchSequence;
         private Batch batch;
+        private int writer;
 
         static void makePersistBatch(PersistBatchEvent e, long batchSequence, Batch batch) {
+            makePersistBatch(e, batchSequence, batch, 0);
+        }
+
+        static void makePersistBatch(PersistBatchEvent e, long batchSequence, Batch batch, int writer) {
             e.batch = batch;
             e.batchSequence = batchSequence;
+            e.writer = writer;
         }
 
         Batch getBatch() {
@@ -198,6 +308,10 @@ class PersistenceProcessorImpl implements PersistenceProcessor {
             return batchSequence;
         }
 
+        int getWriter() {
+            return writer;
+        }
+
         final static EventFactory<PersistBatchEvent> EVENT_FACTORY = new EventFactory<PersistBatchEvent>() {
             public PersistBatchEvent newInstance() {
                 return new PersistBatchEvent();
@@ -209,6 +323,7 @@ class PersistenceProcessorImpl implements PersistenceProcessor {
             return MoreObjects.toStringHelper(this)
                     .add("batchSequence", batchSequence)
                     .add("batch", batch)
+                    .add("writer", writer)
                     .toString();
         }
 
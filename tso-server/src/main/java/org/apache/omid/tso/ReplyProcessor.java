@@ -69,6 +69,18 @@ interface ReplyProcessor extends Closeable {
 
     void sendTimestampResponse(long startTimestamp, Channel channel, MonitoringContext monCtx);
 
+    /**
+     * Allow to send a response with several consecutive timestamps back to the client.
+     *
+     * @param firstTimestamp
+     *            the first of the start timestamps reserved for the client
+     * @param numTimestamps
+     *            the number of start timestamps reserved
+     * @param channel
+     *            the channel used to send the response back to the client
+     */
+    void sendTimestampsResponse(long firstTimestamp, int numTimestamps, Channel channel, MonitoringContext monCtx);
+
     /**
      * Allow to send a fence response back to the client.
      *
@@ -82,5 +94,30 @@ interface ReplyProcessor extends Closeable {
 
     void sendFenceResponse(long tableID, long fenceTimestamp, Channel channel, MonitoringContext monCtx);
 
+    /**
+     * Allow to send the outcome of a write set registration back to the client.
+     *
+     * @param startTimestamp
+     *            the start timestamp of the transaction registering its write set
+     * @param registered
+     *            whether the cells were registered
+     * @param conflict
+     *            whether the transaction conflicts with a committed one
+     * @param channel
+     *            the channel used to send the response back to the client
+     */
+    void sendWriteSetRegistrationResponse(long startTimestamp, boolean registered, boolean conflict, Channel channel);
+
+    /**
+     * Allow to notify the client that a transaction committed after a running transaction started modified a cell
+     * registered by the latter.
+     *
+     * @param startTimestamp
+     *            the start timestamp of the transaction with the conflicting registered write set
+     * @param channel
+     *            the channel used to send the notification to the client
+     */
+    void sendConflictNotification(long startTimestamp, Channel channel);
+
 }
 
@@ -37,6 +37,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -69,10 +71,20 @@ class ReplyProcessorImpl implements EventHandler<ReplyProcessorImpl.ReplyBatchEv
     private final Meter commitMeter;
     private final Meter timestampMeter;
     private final Meter fenceMeter;
+    private final Meter earlyConflictMeter;
 
     private final LowWatermarkWriter lowWatermarkWriter;
     private long highestLowWaterMarkSeen;
 
+    // Max responses grouped in a single frame. Keeps the frames well below the max frame size accepted by the clients
+    static final int MAX_RESPONSES_PER_BATCH = 128;
+
+    // While a batch is being replied, the responses to the channels that accept batched messages are grouped per
+    // channel and written together at the end. Only the thread replying the batch groups them; the responses sent
+    // concurrently from other threads (e.g. the retry processor) are written directly
+    private final Map<Channel, TSOProto.ResponseBatch.Builder> responseBatches = new LinkedHashMap<>();
+    private Thread responseBatchesOwner = null;
+
     @Inject
     ReplyProcessorImpl(@Named("ReplyStrategy") WaitStrategy strategy,
                        MetricsRegistry metrics,
@@ -110,6 +122,7 @@ class ReplyProcessorImpl implements EventHandler<ReplyProcessorImpl.ReplyBatchEv
         this.commitMeter = metrics.meter(name("tso", "commits"));
         this.timestampMeter = metrics.meter(name("tso", "timestampAllocation"));
         this.fenceMeter = metrics.meter(name("tso", "fences"));
+        this.earlyConflictMeter = metrics.meter(name("tso", "earlyConflictNotifications"));
 
         LOG.info("ReplyProcessor initialized");
 
@@ -120,6 +133,19 @@ class ReplyProcessorImpl implements EventHandler<ReplyProcessorImpl.ReplyBatchEv
     void handleReplyBatchEvent(ReplyBatchEvent replyBatchEvent) throws Exception {
 
         Batch batch = replyBatchEvent.getBatch();
+        responseBatchesOwner = Thread.currentThread();
+        try {
+            replyBatch(batch);
+        } finally {
+            responseBatchesOwner = null;
+            flushResponseBatches();
+        }
+
+        batchPool.returnObject(batch);
+    }
+
+    private void replyBatch(Batch batch) {
+
         for (int i = 0; i < batch.getNumEvents(); i++) {
             PersistEvent event = batch.get(i);
 
@@ -135,7 +161,12 @@ class ReplyProcessorImpl implements EventHandler<ReplyProcessorImpl.ReplyBatchEv
                     sendAbortResponse(event.getStartTimestamp(), event.getChannel(), event.getMonCtx());
                     break;
                 case TIMESTAMP:
-                    sendTimestampResponse(event.getStartTimestamp(), event.getChannel(), event.getMonCtx());
+                    if (event.getNumTimestamps() == 1) {
+                        sendTimestampResponse(event.getStartTimestamp(), event.getChannel(), event.getMonCtx());
+                    } else {
+                        sendTimestampsResponse(event.getStartTimestamp(), event.getNumTimestamps(),
+                                               event.getChannel(), event.getMonCtx());
+                    }
                     break;
                 case FENCE:
                     sendFenceResponse(event.getStartTimestamp(), event.getCommitTimestamp(), event.getChannel(), event.getMonCtx());
@@ -148,7 +179,39 @@ class ReplyProcessorImpl implements EventHandler<ReplyProcessorImpl.ReplyBatchEv
             event.getMonCtx().publish();
         }
 
-        batchPool.returnObject(batch);
+    }
+
+    private void write(Channel c, TSOProto.Response response) {
+
+        if (responseBatchesOwner != Thread.currentThread() || !TSOChannelHandler.isFeatureEnabled(c, TSOProto.Feature.BATCHED_MESSAGES)) {
+            c.write(response);
+            return;
+        }
+        TSOProto.ResponseBatch.Builder responseBatch = responseBatches.get(c);
+        if (responseBatch == null) {
+            responseBatch = TSOProto.ResponseBatch.newBuilder();
+            responseBatches.put(c, responseBatch);
+        }
+        responseBatch.addResponse(response);
+        if (responseBatch.getResponseCount() >= MAX_RESPONSES_PER_BATCH) {
+            c.write(TSOProto.Response.newBuilder().setResponseBatch(responseBatch.build()).build());
+            responseBatches.remove(c);
+        }
+
+    }
+
+    private void flushResponseBatches() {
+
+        for (Map.Entry<Channel, TSOProto.ResponseBatch.Builder> entry : responseBatches.entrySet()) {
+            TSOProto.ResponseBatch.Builder responseBatch = entry.getValue();
+            if (responseBatch.getResponseCount() == 1) {
+                entry.getKey().write(responseBatch.getResponse(0));
+            } else {
+                entry.getKey().write(TSOProto.Response.newBuilder().setResponseBatch(responseBatch.build()).build());
+            }
+        }
+        responseBatches.clear();
+
     }
 
     private void processWaitingEvents() throws Exception {
@@ -210,7 +273,7 @@ class ReplyProcessorImpl implements EventHandler<ReplyProcessorImpl.ReplyBatchEv
                 .setStartTimestamp(startTimestamp)
                 .setCommitTimestamp(commitTimestamp);
         builder.setCommitResponse(commitBuilder.build());
-        c.write(builder.build());
+        write(c, builder.build());
         commitMeter.mark();
         monCtx.timerStop("reply.processor.commit.latency");
     }
@@ -223,7 +286,7 @@ class ReplyProcessorImpl implements EventHandler<ReplyProcessorImpl.ReplyBatchEv
         commitBuilder.setAborted(true);
         commitBuilder.setStartTimestamp(startTimestamp);
         builder.setCommitResponse(commitBuilder.build());
-        c.write(builder.build());
+        write(c, builder.build());
         abortMeter.mark();
         monCtx.timerStop("reply.processor.abort.latency");
     }
@@ -235,11 +298,24 @@ class ReplyProcessorImpl implements EventHandler<ReplyProcessorImpl.ReplyBatchEv
         TSOProto.TimestampResponse.Builder respBuilder = TSOProto.TimestampResponse.newBuilder();
         respBuilder.setStartTimestamp(startTimestamp);
         builder.setTimestampResponse(respBuilder.build());
-        c.write(builder.build());
+        write(c, builder.build());
         timestampMeter.mark();
         monCtx.timerStop("reply.processor.timestamp.latency");
     }
 
+    @Override
+    public void sendTimestampsResponse(long firstTimestamp, int numTimestamps, Channel c, MonitoringContext monCtx) {
+
+        TSOProto.Response.Builder builder = TSOProto.Response.newBuilder();
+        TSOProto.TimestampResponse.Builder respBuilder = TSOProto.TimestampResponse.newBuilder();
+        respBuilder.setStartTimestamp(firstTimestamp);
+        respBuilder.setNumTimestamps(numTimestamps);
+        builder.setTimestampResponse(respBuilder.build());
+        write(c, builder.build());
+        timestampMeter.mark(numTimestamps);
+        monCtx.timerStop("reply.processor.timestamp.latency");
+    }
+
     @Override
     public void sendFenceResponse(long tableID, long fenceTimestamp, Channel c, MonitoringContext monCtx) {
 
@@ -248,11 +324,35 @@ class ReplyProcessorImpl implements EventHandler<ReplyProcessorImpl.ReplyBatchEv
         fenceBuilder.setTableId(tableID);
         fenceBuilder.setFenceId(fenceTimestamp);
         builder.setFenceResponse(fenceBuilder.build());
-        c.write(builder.build());
+        write(c, builder.build());
         monCtx.timerStop("reply.processor.fence.latency");
         fenceMeter.mark();
     }
 
+    @Override
+    public void sendWriteSetRegistrationResponse(long startTimestamp, boolean registered, boolean conflict, Channel c) {
+
+        TSOProto.WriteSetRegistrationResponse.Builder registrationBuilder =
+                TSOProto.WriteSetRegistrationResponse.newBuilder();
+        registrationBuilder.setStartTimestamp(startTimestamp)
+                .setRegistered(registered)
+                .setConflict(conflict);
+        write(c, TSOProto.Response.newBuilder().setWriteSetRegistrationResponse(registrationBuilder.build()).build());
+
+    }
+
+    @Override
+    public void sendConflictNotification(long startTimestamp, Channel c) {
+
+        TSOProto.WriteSetRegistrationResponse.Builder registrationBuilder =
+                TSOProto.WriteSetRegistrationResponse.newBuilder();
+        registrationBuilder.setStartTimestamp(startTimestamp)
+                .setConflict(true);
+        write(c, TSOProto.Response.newBuilder().setWriteSetRegistrationResponse(registrationBuilder.build()).build());
+        earlyConflictMeter.mark();
+
+    }
+
     @Override
     public void close() {
 
@@ -27,7 +27,25 @@ public interface RequestProcessor extends TSOStateManager.StateObserver, Closeab
 
     void timestampRequest(Channel c, MonitoringContext monCtx);
 
+    void timestampRequest(int numTimestamps, Channel c, MonitoringContext monCtx);
+
     void commitRequest(long startTimestamp, Collection<Long> writeSet, Collection<Long> tableIdSet, boolean isRetry, Channel c, MonitoringContext monCtx);
 
+    /**
+     * Requests the commit of a transaction whose conflicts in the tables of escalatedTableIdSet are detected at table
+     * level, instead of per cell/row of the write set, and whose write set may include the cells it registered in
+     * advance
+     */
+    void commitRequest(long startTimestamp, Collection<Long> writeSet, Collection<Long> tableIdSet,
+                       Collection<Long> escalatedTableIdSet, boolean includesRegisteredWriteSet, boolean isRetry,
+                       Channel c, MonitoringContext monCtx);
+
+    /**
+     * Registers part of the write set of a running transaction, so its conflicts are detected (and notified to the
+     * client) before it commits. With release set, discards the write set registered instead
+     */
+    void writeSetRegistration(long startTimestamp, Collection<Long> writeSet, boolean release, Channel c,
+                              MonitoringContext monCtx);
+
     void fenceRequest(long tableID, Channel c, MonitoringContext monCtx);
 }
@@ -63,6 +63,12 @@ public class RequestProcessorPersistCT extends AbstractRequestProcessor {
         persistenceProcessor.addTimestampToBatch(startTimestamp,c,monCtx);
     }
 
+    @Override
+    public void forwardTimestamps(long firstTimestamp, int numTimestamps, Channel c, MonitoringContext monCtx)
+            throws Exception {
+        persistenceProcessor.addTimestampsToBatch(firstTimestamp, numTimestamps, c, monCtx);
+    }
+
     @Override
     public void onTimeout() throws Exception {
         persistenceProcessor.triggerCurrentBatchFlush();
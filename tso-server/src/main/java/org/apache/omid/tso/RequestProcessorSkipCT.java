@@ -81,6 +81,12 @@ public class RequestProcessorSkipCT extends AbstractRequestProcessor {
         replyProcessor.sendTimestampResponse(startTimestamp, c, monCtx);
     }
 
+    @Override
+    public void forwardTimestamps(long firstTimestamp, int numTimestamps, Channel c, MonitoringContext monCtx) {
+        monCtx.timerStart("reply.processor.timestamp.latency");
+        replyProcessor.sendTimestampsResponse(firstTimestamp, numTimestamps, c, monCtx);
+    }
+
     @Override
     public void onTimeout() {
         
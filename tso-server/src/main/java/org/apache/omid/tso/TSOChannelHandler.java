@@ -17,10 +17,16 @@
  */
 package org.apache.omid.tso;
 
+import com.google.protobuf.InvalidProtocolBufferException;
 import org.apache.phoenix.thirdparty.com.google.common.annotations.VisibleForTesting;
 import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.omid.metrics.Counter;
 import org.apache.omid.metrics.MetricsRegistry;
+import org.apache.omid.proto.ProtocolCapabilities;
 import org.apache.omid.proto.TSOProto;
+import org.apache.omid.proto.TSOProto.Feature;
+import org.apache.omid.proto.WriteSetEncoding;
+import org.apache.omid.tso.client.TSOProtocol;
 import org.jboss.netty.bootstrap.ServerBootstrap;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFactory;
@@ -48,8 +54,16 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.channels.ClosedChannelException;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Executors;
 
+import static org.apache.omid.metrics.MetricsUtils.name;
+
 /**
  * ChannelHandler for the TSO Server.
  *
@@ -59,6 +73,13 @@ public class TSOChannelHandler extends SimpleChannelHandler implements Closeable
 
     private static final Logger LOG = LoggerFactory.getLogger(TSOChannelHandler.class);
 
+    // Wire-format features this server can agree on with its clients
+    static final Set<Feature> SUPPORTED_FEATURES = Collections.unmodifiableSet(EnumSet.of(Feature.BATCHED_MESSAGES,
+                                                                                          Feature.PACKED_WRITE_SET,
+                                                                                          Feature.DELTA_ENCODED_WRITE_SET,
+                                                                                          Feature.TABLE_CONFLICT_ESCALATION,
+                                                                                          Feature.WRITE_SET_REGISTRATION));
+
     private final ChannelFactory factory;
 
     private final ServerBootstrap bootstrap;
@@ -74,12 +95,23 @@ public class TSOChannelHandler extends SimpleChannelHandler implements Closeable
 
     private MetricsRegistry metrics;
 
+    // Number of connections using each feature and number of connections from clients that predate the negotiation
+    private final Map<Feature, Counter> featureConnections = new EnumMap<>(Feature.class);
+    private final Counter legacyConnections;
+
+    // False while this instance is a standby. Clients can connect and handshake, but requests are rejected
+    private volatile boolean serving = true;
+
     @Inject
     public TSOChannelHandler(TSOServerConfig config, RequestProcessor requestProcessor, MetricsRegistry metrics) {
 
         this.config = config;
         this.metrics = metrics;
         this.requestProcessor = requestProcessor;
+        for (Feature feature : Feature.values()) {
+            featureConnections.put(feature, metrics.counter(name("tso", "connections", "features", feature.name())));
+        }
+        this.legacyConnections = metrics.counter(name("tso", "connections", "legacy"));
         // Setup netty listener
         this.factory = new NioServerSocketChannelFactory(
                 Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("boss-%d").build()),
@@ -101,6 +133,44 @@ public class TSOChannelHandler extends SimpleChannelHandler implements Closeable
             LOG.debug("Reconnecting communication channel...");
             closeConnection();
         }
+        serving = true;
+        bind();
+    }
+
+    /**
+     * Listens for clients without serving their requests, so they can keep handshaken connections to this instance
+     * while it's a standby. The connections of the clients served until now, if any, are closed
+     */
+    void standby() {
+        if (isListening() && !serving) {
+            return;
+        }
+        if (isListening()) {
+            LOG.info("Closing the connections served before becoming a standby");
+            closeConnection();
+        }
+        serving = false;
+        bind();
+    }
+
+    /**
+     * Starts serving requests. The connections handshaken while this instance was a standby are kept, so their
+     * clients can switch to this instance without reconnecting
+     */
+    void serve() {
+        if (isListening()) {
+            LOG.info("Serving the {} connections accepted as a standby", channelGroup.size() - 1);
+            serving = true;
+        } else {
+            reconnect();
+        }
+    }
+
+    private boolean isListening() {
+        return listeningChannel != null && listeningChannel.isBound();
+    }
+
+    private void bind() {
         // Create the global ChannelGroup
         channelGroup = new DefaultChannelGroup(TSOChannelHandler.class.getName());
         LOG.debug("\tCreating channel to listening for incoming connections in port {}", config.getPort());
@@ -145,6 +215,10 @@ public class TSOChannelHandler extends SimpleChannelHandler implements Closeable
     @Override
     public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
         LOG.debug("TSO channel closed: {}", ctx.getChannel());
+        Object o = ctx.getChannel().getAttachment();
+        if (o instanceof TSOChannelContext) {
+            updateCapabilityMetrics((TSOChannelContext) o, -1);
+        }
     }
 
     /**
@@ -159,33 +233,92 @@ public class TSOChannelHandler extends SimpleChannelHandler implements Closeable
                 checkHandshake(ctx, request.getHandshakeRequest());
                 return;
             }
+            if (!serving) {
+                LOG.warn("Request received by a standby instance. Closing channel {}", ctx.getChannel());
+                ctx.getChannel().close();
+                return;
+            }
             if (!handshakeCompleted(ctx)) {
                 LOG.error("Handshake not completed. Closing channel {}", ctx.getChannel());
                 ctx.getChannel().close();
             }
 
-            if (request.hasTimestampRequest()) {
+            if (request.hasRequestBatch()) {
+                if (!isFeatureEnabled(ctx.getChannel(), Feature.BATCHED_MESSAGES)) {
+                    LOG.error("Batched messages not negotiated. Closing channel {}", ctx.getChannel());
+                    ctx.getChannel().close();
+                    return;
+                }
+                for (TSOProto.Request batchedRequest : request.getRequestBatch().getRequestList()) {
+                    handleRequest(ctx, batchedRequest);
+                }
+            } else {
+                handleRequest(ctx, request);
+            }
+        } else {
+            LOG.error("Unknown message type", msg);
+        }
+    }
+
+    private void handleRequest(ChannelHandlerContext ctx, TSOProto.Request request) {
+
+        if (request.hasTimestampRequest()) {
+            int numTimestamps = request.getTimestampRequest().getNumTimestamps();
+            if (numTimestamps == 1) {
                 requestProcessor.timestampRequest(ctx.getChannel(), MonitoringContextFactory.getInstance(config,metrics));
-            } else if (request.hasCommitRequest()) {
-                TSOProto.CommitRequest cr = request.getCommitRequest();
+            } else if (numTimestamps > 1 && numTimestamps <= TSOProtocol.MAX_TIMESTAMPS_PER_REQUEST) {
+                requestProcessor.timestampRequest(numTimestamps,
+                                                  ctx.getChannel(),
+                                                  MonitoringContextFactory.getInstance(config,metrics));
+            } else {
+                LOG.error("Invalid number of timestamps requested {}. Closing channel {}", numTimestamps, ctx.getChannel());
+                ctx.getChannel().close();
+            }
+        } else if (request.hasCommitRequest()) {
+            TSOProto.CommitRequest cr = request.getCommitRequest();
+            List<Long> writeSet;
+            try {
+                writeSet = WriteSetEncoding.getCellIds(cr);
+            } catch (InvalidProtocolBufferException ipbe) {
+                LOG.error("Invalid write set in commit request {}. Closing channel {}", cr.getStartTimestamp(),
+                          ctx.getChannel(), ipbe);
+                ctx.getChannel().close();
+                return;
+            }
+            if (cr.getEscalatedTableIdCount() > 0 || cr.getIncludesRegisteredWriteSet()) {
                 requestProcessor.commitRequest(cr.getStartTimestamp(),
-                                               cr.getCellIdList(),
+                                               writeSet,
                                                cr.getTableIdList(),
+                                               cr.getEscalatedTableIdList(),
+                                               cr.getIncludesRegisteredWriteSet(),
                                                cr.getIsRetry(),
                                                ctx.getChannel(),
                                                MonitoringContextFactory.getInstance(config,metrics));
-            } else if (request.hasFenceRequest()) {
-                TSOProto.FenceRequest fr = request.getFenceRequest();
-                requestProcessor.fenceRequest(fr.getTableId(),
-                        ctx.getChannel(),
-                        MonitoringContextFactory.getInstance(config,metrics));
             } else {
-                LOG.error("Invalid request {}. Closing channel {}", request, ctx.getChannel());
-                ctx.getChannel().close();
+                requestProcessor.commitRequest(cr.getStartTimestamp(),
+                                               writeSet,
+                                               cr.getTableIdList(),
+                                               cr.getIsRetry(),
+                                               ctx.getChannel(),
+                                               MonitoringContextFactory.getInstance(config,metrics));
             }
+        } else if (request.hasFenceRequest()) {
+            TSOProto.FenceRequest fr = request.getFenceRequest();
+            requestProcessor.fenceRequest(fr.getTableId(),
+                    ctx.getChannel(),
+                    MonitoringContextFactory.getInstance(config,metrics));
+        } else if (request.hasWriteSetRegistration()) {
+            TSOProto.WriteSetRegistration wsr = request.getWriteSetRegistration();
+            requestProcessor.writeSetRegistration(wsr.getStartTimestamp(),
+                                                  wsr.getCellIdList(),
+                                                  wsr.getRelease(),
+                                                  ctx.getChannel(),
+                                                  MonitoringContextFactory.getInstance(config,metrics));
         } else {
-            LOG.error("Unknown message type", msg);
+            LOG.error("Invalid request {}. Closing channel {}", request, ctx.getChannel());
+            ctx.getChannel().close();
         }
+
     }
 
     @SuppressWarnings("ThrowableResultOfMethodCallIgnored")
@@ -213,14 +346,19 @@ public class TSOChannelHandler extends SimpleChannelHandler implements Closeable
     // ----------------------------------------------------------------------------------------------------------------
 
     /**
-     * Contains the required context for handshake
+     * Contains the required context for handshake and the capabilities agreed with the client. Attached to the
+     * channel, so the reply side can also check them
      */
     private static class TSOChannelContext {
 
         boolean handshakeComplete;
+        int protocolVersion;
+        Set<Feature> features;
 
         TSOChannelContext() {
             handshakeComplete = false;
+            protocolVersion = 0;
+            features = EnumSet.noneOf(Feature.class);
         }
 
         boolean getHandshakeComplete() {
@@ -231,18 +369,78 @@ public class TSOChannelHandler extends SimpleChannelHandler implements Closeable
             handshakeComplete = true;
         }
 
+        int getProtocolVersion() {
+            return protocolVersion;
+        }
+
+        Set<Feature> getFeatures() {
+            return features;
+        }
+
+        void setNegotiatedCapabilities(int protocolVersion, Set<Feature> features) {
+            this.protocolVersion = protocolVersion;
+            this.features = features;
+        }
+
+    }
+
+    /**
+     * Returns whether the client at the other side of the channel agreed on using the feature
+     */
+    static boolean isFeatureEnabled(Channel channel, Feature feature) {
+
+        Object o = channel.getAttachment();
+        if (o instanceof TSOChannelContext) {
+            return ((TSOChannelContext) o).getFeatures().contains(feature);
+        }
+        return false;
+
+    }
+
+    private void updateCapabilityMetrics(TSOChannelContext tsoCtx, int delta) {
+
+        if (!tsoCtx.getHandshakeComplete()) {
+            return;
+        }
+        if (tsoCtx.getProtocolVersion() == 0) {
+            legacyConnections.inc(delta);
+        }
+        for (Feature feature : tsoCtx.getFeatures()) {
+            featureConnections.get(feature).inc(delta);
+        }
+
     }
 
     private void checkHandshake(final ChannelHandlerContext ctx, TSOProto.HandshakeRequest request) {
 
         TSOProto.HandshakeResponse.Builder response = TSOProto.HandshakeResponse.newBuilder();
-        if (request.hasClientCapabilities()) {
-
+        TSOProto.CellIdHash cellIdHash = config.getCellIdHashEnum();
+        if (request.hasClientCapabilities()
+                && ProtocolCapabilities.getCellIdHash(request.getClientCapabilities()) != cellIdHash) {
+            // Its cell ids would never collide with the ones of the rest of clients
+            LOG.error("Client {} rejected. It doesn't hash cell ids with {}", ctx.getChannel().getRemoteAddress(),
+                      cellIdHash);
+            response.setClientCompatible(false)
+                    .setServerCapabilities(ProtocolCapabilities.advertise(EnumSet.noneOf(Feature.class), cellIdHash));
+        } else if (request.hasClientCapabilities()) {
+
+            TSOProto.Capabilities clientCapabilities = request.getClientCapabilities();
+            int protocolVersion = ProtocolCapabilities.negotiateVersion(clientCapabilities);
+            Set<Feature> features = ProtocolCapabilities.negotiate(SUPPORTED_FEATURES, clientCapabilities);
+            // Only the agreed features are echoed back, so the client knows which ones it can use
             response.setClientCompatible(true)
-                    .setServerCapabilities(TSOProto.Capabilities.newBuilder().build());
+                    .setServerCapabilities(ProtocolCapabilities.advertise(features, cellIdHash));
+            Object o = ctx.getChannel().getAttachment();
+            if (o instanceof TSOChannelContext) { // Handshake repeated on the same channel
+                updateCapabilityMetrics((TSOChannelContext) o, -1);
+            }
             TSOChannelContext tsoCtx = new TSOChannelContext();
+            tsoCtx.setNegotiatedCapabilities(protocolVersion, features);
             tsoCtx.setHandshakeComplete();
-            ctx.setAttachment(tsoCtx);
+            ctx.getChannel().setAttachment(tsoCtx);
+            updateCapabilityMetrics(tsoCtx, 1);
+            LOG.info("Client {} connected. Protocol version {}. Features {}", ctx.getChannel().getRemoteAddress(),
+                     protocolVersion, features);
         } else {
             response.setClientCompatible(false);
         }
@@ -253,7 +451,7 @@ public class TSOChannelHandler extends SimpleChannelHandler implements Closeable
 
     private boolean handshakeCompleted(ChannelHandlerContext ctx) {
 
-        Object o = ctx.getAttachment();
+        Object o = ctx.getChannel().getAttachment();
         if (o instanceof TSOChannelContext) {
             TSOChannelContext tsoCtx = (TSOChannelContext) o;
             return tsoCtx.getHandshakeComplete();
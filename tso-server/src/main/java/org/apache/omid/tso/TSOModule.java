@@ -49,6 +49,8 @@ class TSOModule extends AbstractModule {
 
         if (config.getTimestampTypeEnum() == TIMESTAMP_TYPE.WORLD_TIME) {
             bind(TimestampOracle.class).to(WorldClockOracleImpl.class).in(Singleton.class);
+        } else if (config.getTimestampTypeEnum() == TIMESTAMP_TYPE.HYBRID_CLOCK) {
+            bind(TimestampOracle.class).to(HybridClockOracleImpl.class).in(Singleton.class);
         } else {
             bind(TimestampOracle.class).to(TimestampOracleImpl.class).in(Singleton.class);
         }
@@ -23,6 +23,7 @@ import com.google.inject.Module;
 import org.apache.omid.NetworkUtils;
 import org.apache.omid.YAMLUtils;
 import org.apache.omid.metrics.MetricsRegistry;
+import org.apache.omid.proto.TSOProto;
 import org.apache.omid.tools.hbase.SecureHBaseConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,7 +47,8 @@ public class TSOServerConfig extends SecureHBaseConfig {
 
     public static enum TIMESTAMP_TYPE {
       INCREMENTAL,
-      WORLD_TIME
+      WORLD_TIME,
+      HYBRID_CLOCK
     };
 
     // ----------------------------------------------------------------------------------------------------------------
@@ -77,12 +79,18 @@ public class TSOServerConfig extends SecureHBaseConfig {
 
     private int conflictMapSize;
 
+    private int maxRegisteredCells;
+
+    private String cellIdHash;
+
     private int numConcurrentCTWriters;
 
     private int batchSizePerCTWriter;
 
     private int batchPersistTimeoutInMs;
 
+    private boolean ctWriterAffinity;
+
     private String waitStrategy;
 
     private String networkIfaceName = NetworkUtils.getDefaultNetworkInterface();
@@ -125,6 +133,26 @@ public class TSOServerConfig extends SecureHBaseConfig {
         this.conflictMapSize = conflictMapSize;
     }
 
+    public int getMaxRegisteredCells() {
+        return maxRegisteredCells;
+    }
+
+    public void setMaxRegisteredCells(int maxRegisteredCells) {
+        this.maxRegisteredCells = maxRegisteredCells;
+    }
+
+    public String getCellIdHash() {
+        return cellIdHash;
+    }
+
+    public TSOProto.CellIdHash getCellIdHashEnum() {
+        return TSOProto.CellIdHash.valueOf(cellIdHash);
+    }
+
+    public void setCellIdHash(String cellIdHash) {
+        this.cellIdHash = cellIdHash;
+    }
+
     public int getNumConcurrentCTWriters() {
         return numConcurrentCTWriters;
     }
@@ -149,6 +177,14 @@ public class TSOServerConfig extends SecureHBaseConfig {
         this.batchPersistTimeoutInMs = value;
     }
 
+    public boolean getCtWriterAffinity() {
+        return ctWriterAffinity;
+    }
+
+    public void setCtWriterAffinity(boolean ctWriterAffinity) {
+        this.ctWriterAffinity = ctWriterAffinity;
+    }
+
     public String getNetworkIfaceName() {
         return networkIfaceName;
     }
@@ -36,6 +36,14 @@ public interface TimestampOracle {
      */
     long next();
 
+    /**
+     * Reserves the next numTimestamps timestamps in a single step.
+     *
+     * @return the first timestamp reserved. The rest are consecutive to it in steps of
+     *         CommitTable.MAX_CHECKPOINTS_PER_TXN, as if next() had been called numTimestamps times in a row
+     */
+    long next(int numTimestamps);
+
     /**
      * Returns the last timestamp assigned.
      */
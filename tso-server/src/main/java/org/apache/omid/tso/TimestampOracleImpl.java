@@ -33,6 +33,7 @@ import javax.inject.Singleton;
 import java.io.IOException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import static org.apache.omid.metrics.MetricsUtils.name;
 
@@ -71,10 +72,18 @@ public class TimestampOracleImpl implements TimestampOracle {
 
         @Override
         public void run() {
-            long newMaxTimestamp = previousMaxTimestamp + TIMESTAMP_BATCH;
+            long newMaxTimestamp = previousMaxTimestamp + timestampBatch;
             try {
+                long startTimeInNs = System.nanoTime();
                 storage.updateMaxTimestamp(previousMaxTimestamp, newMaxTimestamp);
-                maxAllocatedTimestamp = newMaxTimestamp;
+                long latencyInNs = System.nanoTime() - startTimeInNs;
+                storageLatencyInNs = storageLatencyInNs == 0
+                        ? latencyInNs
+                        : (long) (EWMA_WEIGHT * latencyInNs + (1 - EWMA_WEIGHT) * storageLatencyInNs);
+                synchronized (allocationMonitor) {
+                    maxAllocatedTimestamp = newMaxTimestamp;
+                    allocationMonitor.notifyAll();
+                }
                 previousMaxTimestamp = newMaxTimestamp;
             } catch (Throwable e) {
                 panicker.panic("Can't store the new max timestamp", e);
@@ -84,7 +93,18 @@ public class TimestampOracleImpl implements TimestampOracle {
     }
 
     static final long TIMESTAMP_BATCH = 10_000_000 * CommitTable.MAX_CHECKPOINTS_PER_TXN; // 10 million
-    private static final long TIMESTAMP_REMAINING_THRESHOLD = 1_000_000 * CommitTable.MAX_CHECKPOINTS_PER_TXN; // 1 million
+    static final long MAX_TIMESTAMP_BATCH = 10 * TIMESTAMP_BATCH;
+    static final long TIMESTAMP_REMAINING_THRESHOLD = 1_000_000 * CommitTable.MAX_CHECKPOINTS_PER_TXN; // 1 million
+
+    // The consumption rate is sampled every time this number of timestamps is handed out
+    static final long RATE_SAMPLE_INTERVAL = 65_536 * CommitTable.MAX_CHECKPOINTS_PER_TXN;
+    // Allocations start when the remaining timestamps last less than this number of storage writes
+    static final int HEADROOM_SAFETY_FACTOR = 4;
+    // Batches are sized to last at least this long at the current consumption rate
+    static final long TARGET_ALLOCATION_PERIOD_IN_NS = TimeUnit.SECONDS.toNanos(10);
+    static final int MAX_SPINS_WAITING_FOR_ALLOCATION = 1_000;
+    private static final long ALLOCATION_WAIT_IN_MS = 1;
+    private static final double EWMA_WEIGHT = 0.25;
 
     private long lastTimestamp;
 
@@ -95,6 +115,19 @@ public class TimestampOracleImpl implements TimestampOracle {
 
     private long nextAllocationThreshold;
     private volatile long maxAllocatedTimestamp;
+    private final Object allocationMonitor = new Object();
+
+    // Consumption rate and storage latency tracking. Written by the thread calling next() and the ts-persist thread
+    private long nextRateSampleTimestamp;
+    private long lastRateSampleTimestamp;
+    private long lastRateSampleTimeInNs;
+    private double timestampsPerNs = 0;
+    private volatile long storageLatencyInNs = 0;
+    private volatile long timestampBatch = TIMESTAMP_BATCH;
+
+    // Stalls of next() waiting for the storage
+    private volatile long stallCount = 0;
+    private volatile long stallTimeInNs = 0;
 
     private Executor executor = Executors.newSingleThreadExecutor(
             new ThreadFactoryBuilder().setNameFormat("ts-persist-%d").build());
@@ -115,6 +148,36 @@ public class TimestampOracleImpl implements TimestampOracle {
                 return maxTimestamp;
             }
         });
+        metrics.gauge(name("tso", "timestampOracle", "headroom"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return maxTimestamp - lastTimestamp;
+            }
+        });
+        metrics.gauge(name("tso", "timestampOracle", "batchSize"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return timestampBatch;
+            }
+        });
+        metrics.gauge(name("tso", "timestampOracle", "storageLatencyInMs"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return TimeUnit.NANOSECONDS.toMillis(storageLatencyInNs);
+            }
+        });
+        metrics.gauge(name("tso", "timestampOracle", "stalls"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return stallCount;
+            }
+        });
+        metrics.gauge(name("tso", "timestampOracle", "stallTimeInMs"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return TimeUnit.NANOSECONDS.toMillis(stallTimeInNs);
+            }
+        });
 
     }
 
@@ -125,6 +188,10 @@ public class TimestampOracleImpl implements TimestampOracle {
 
         this.allocateTimestampsBatchTask = new AllocateTimestampBatchTask(lastTimestamp);
 
+        this.lastRateSampleTimestamp = lastTimestamp;
+        this.lastRateSampleTimeInNs = System.nanoTime();
+        this.nextRateSampleTimestamp = lastTimestamp + RATE_SAMPLE_INTERVAL;
+
         // Trigger first allocation of timestamps
         executor.execute(allocateTimestampsBatchTask);
 
@@ -132,33 +199,119 @@ public class TimestampOracleImpl implements TimestampOracle {
     }
 
     /**
-     * Returns the next timestamp if available. Otherwise spins till the ts-persist thread allocates a new timestamp.
+     * Returns the next timestamp if available. Otherwise waits till the ts-persist thread allocates a new timestamp.
      */
-    @SuppressWarnings("StatementWithEmptyBody")
     @Override
     public long next() {
-        lastTimestamp += CommitTable.MAX_CHECKPOINTS_PER_TXN;
+        return reserve(1);
+    }
+
+    /**
+     * Reserves the whole range with a single bump of the last timestamp, so the allocation checks are done once
+     * per request instead of once per timestamp
+     */
+    @Override
+    public long next(int numTimestamps) {
+        return reserve(numTimestamps);
+    }
+
+    private long reserve(int numTimestamps) {
+        long firstTimestamp = lastTimestamp + CommitTable.MAX_CHECKPOINTS_PER_TXN;
+        lastTimestamp += numTimestamps * CommitTable.MAX_CHECKPOINTS_PER_TXN;
+
+        if (lastTimestamp >= nextRateSampleTimestamp) {
+            sampleConsumptionRate();
+        }
 
         if (lastTimestamp >= nextAllocationThreshold) {
             // set the nextAllocationThread to max value of long in order to
             // make sure only one call to this function will execute a thread to extend the timestamp batch.
-            nextAllocationThreshold = Long.MAX_VALUE; 
+            nextAllocationThreshold = Long.MAX_VALUE;
+            timestampBatch = computeTimestampBatch();
             executor.execute(allocateTimestampsBatchTask);
         }
 
         if (lastTimestamp >= maxTimestamp) {
             assert (maxTimestamp <= maxAllocatedTimestamp);
-            while (maxAllocatedTimestamp == maxTimestamp) {
-                // spin
+            if (maxAllocatedTimestamp == maxTimestamp) {
+                waitForAllocation();
             }
             assert (maxAllocatedTimestamp > maxTimestamp);
             maxTimestamp = maxAllocatedTimestamp;
-            nextAllocationThreshold = maxTimestamp - TIMESTAMP_REMAINING_THRESHOLD;
+            nextAllocationThreshold = maxTimestamp - computeHeadroom();
             assert (nextAllocationThreshold > lastTimestamp && nextAllocationThreshold < maxTimestamp);
             assert (lastTimestamp < maxTimestamp);
         }
 
-        return lastTimestamp;
+        return firstTimestamp;
+    }
+
+    /**
+     * Spins briefly and then blocks until the ts-persist thread publishes a new max timestamp, so a slow storage
+     * can't make the caller burn a core
+     */
+    private void waitForAllocation() {
+        long startTimeInNs = System.nanoTime();
+        for (int i = 0; i < MAX_SPINS_WAITING_FOR_ALLOCATION && maxAllocatedTimestamp == maxTimestamp; i++) {
+            // spin
+        }
+        if (maxAllocatedTimestamp == maxTimestamp) {
+            LOG.warn("Timestamps exhausted. Waiting for the storage to allocate more after {}", maxTimestamp);
+            boolean interrupted = false;
+            synchronized (allocationMonitor) {
+                while (maxAllocatedTimestamp == maxTimestamp) {
+                    try {
+                        allocationMonitor.wait(ALLOCATION_WAIT_IN_MS);
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        stallCount++;
+        stallTimeInNs += System.nanoTime() - startTimeInNs;
+    }
+
+    /**
+     * Updates the consumption rate and, if no allocation is in progress, moves the allocation threshold so the
+     * remaining timestamps cover the time the storage takes to allocate more at the current rate
+     */
+    private void sampleConsumptionRate() {
+        long nowInNs = System.nanoTime();
+        long elapsedInNs = nowInNs - lastRateSampleTimeInNs;
+        if (elapsedInNs > 0) {
+            double sampledRate = (double) (lastTimestamp - lastRateSampleTimestamp) / elapsedInNs;
+            timestampsPerNs = timestampsPerNs == 0
+                    ? sampledRate
+                    : EWMA_WEIGHT * sampledRate + (1 - EWMA_WEIGHT) * timestampsPerNs;
+        }
+        lastRateSampleTimestamp = lastTimestamp;
+        lastRateSampleTimeInNs = nowInNs;
+        nextRateSampleTimestamp = lastTimestamp + RATE_SAMPLE_INTERVAL;
+
+        if (nextAllocationThreshold != Long.MAX_VALUE) {
+            nextAllocationThreshold = maxTimestamp - computeHeadroom();
+        }
+    }
+
+    private long computeHeadroom() {
+        long requiredHeadroom = (long) (timestampsPerNs * storageLatencyInNs * HEADROOM_SAFETY_FACTOR);
+        // Never ask for more than half of the remaining timestamps, so they're not re-allocated on every sample
+        return Math.min(Math.max(requiredHeadroom, TIMESTAMP_REMAINING_THRESHOLD), (maxTimestamp - lastTimestamp) / 2);
+    }
+
+    private long computeTimestampBatch() {
+        long batch = (long) (timestampsPerNs * TARGET_ALLOCATION_PERIOD_IN_NS);
+        batch -= batch % CommitTable.MAX_CHECKPOINTS_PER_TXN;
+        return Math.min(Math.max(batch, TIMESTAMP_BATCH), MAX_TIMESTAMP_BATCH);
+    }
+
+    @VisibleForTesting
+    long getStallCount() {
+        return stallCount;
     }
 
     @Override
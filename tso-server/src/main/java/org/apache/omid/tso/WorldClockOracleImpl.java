@@ -56,6 +56,7 @@ public class WorldClockOracleImpl implements TimestampOracle {
     private Panicker panicker;
 
     private volatile long maxAllocatedTime;
+    private final Object allocationMonitor = new Object();
 
     private final ScheduledExecutorService scheduler =
             Executors.newScheduledThreadPool(1, new ThreadFactoryBuilder().setNameFormat("ts-persist-%d").build());
@@ -74,7 +75,10 @@ public class WorldClockOracleImpl implements TimestampOracle {
             long newMaxTime = (System.currentTimeMillis() + TIMESTAMP_INTERVAL_MS) * MAX_TX_PER_MS;
             try {
                 storage.updateMaxTimestamp(previousMaxTime, newMaxTime);
-                maxAllocatedTime = newMaxTime;
+                synchronized (allocationMonitor) {
+                    maxAllocatedTime = newMaxTime;
+                    allocationMonitor.notifyAll();
+                }
                 previousMaxTime = newMaxTime;
             } catch (Throwable e) {
                 panicker.panic("Can't store the new max timestamp", e);
@@ -124,35 +128,63 @@ public class WorldClockOracleImpl implements TimestampOracle {
     }
 
     /**
-     * Returns the next timestamp if available. Otherwise spins till the ts-persist thread allocates a new timestamp.
+     * Returns the next timestamp if available. Otherwise waits till the ts-persist thread allocates a new timestamp.
      */
     @Override
     public long next() {
+        return reserve(1);
+    }
+
+    /**
+     * Reserves the whole range in one step, so the interval allocation is checked once per request
+     */
+    @Override
+    public long next(int numTimestamps) {
+        return reserve(numTimestamps);
+    }
+
+    private long reserve(int numTimestamps) {
 
         long currentMsFirstTimestamp = System.currentTimeMillis() * MAX_TX_PER_MS;
 
-        lastTimestamp += CommitTable.MAX_CHECKPOINTS_PER_TXN;
+        long firstTimestamp = lastTimestamp + CommitTable.MAX_CHECKPOINTS_PER_TXN;
 
-        // Return the next timestamp in case we are still in the same millisecond as the previous timestamp was. 
-        if (lastTimestamp >= currentMsFirstTimestamp) {
-            return lastTimestamp;
+        // Move to the current millisecond unless we are still in the same millisecond as the previous timestamp was.
+        if (firstTimestamp < currentMsFirstTimestamp) {
+            firstTimestamp = currentMsFirstTimestamp;
         }
 
-        if (currentMsFirstTimestamp >= maxTimestamp) { // Intentional race to reduce synchronization overhead in every access to maxTimestamp                                                                                                                       
-            while (maxAllocatedTime <= currentMsFirstTimestamp) { // Waiting for the interval allocation
-                try {
-                    Thread.sleep(1000);
-                } catch (InterruptedException e) {
-                   continue;
-                }
+        lastTimestamp = firstTimestamp + (numTimestamps - 1) * CommitTable.MAX_CHECKPOINTS_PER_TXN;
+
+        // Intentional race to reduce synchronization overhead in every access to maxTimestamp
+        if (lastTimestamp >= maxTimestamp) {
+            if (maxAllocatedTime <= lastTimestamp) {
+                waitForAllocation(lastTimestamp);
             }
             assert (maxAllocatedTime > maxTimestamp);
             maxTimestamp = maxAllocatedTime;
         }
 
-        lastTimestamp = currentMsFirstTimestamp;
+        return firstTimestamp;
+    }
 
-        return lastTimestamp;
+    /**
+     * Blocks until the ts-persist thread publishes an interval that covers the given timestamp
+     */
+    private void waitForAllocation(long timestamp) {
+        boolean interrupted = false;
+        synchronized (allocationMonitor) {
+            while (maxAllocatedTime <= timestamp) {
+                try {
+                    allocationMonitor.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     @Override
@@ -54,6 +54,8 @@ public class TSOMockModule extends AbstractModule {
         bind(TimestampStorage.class).to(InMemoryTimestampStorage.class).in(Singleton.class);
         if (config.getTimestampTypeEnum() == TIMESTAMP_TYPE.WORLD_TIME) {
             bind(TimestampOracle.class).to(WorldClockOracleImpl.class).in(Singleton.class);
+        } else if (config.getTimestampTypeEnum() == TIMESTAMP_TYPE.HYBRID_CLOCK) {
+            bind(TimestampOracle.class).to(HybridClockOracleImpl.class).in(Singleton.class);
         } else {
             bind(TimestampOracle.class).to(PausableTimestampOracle.class).in(Singleton.class);
         }
@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+import org.apache.omid.committable.CommitTable;
+import org.apache.omid.metrics.NullMetricsProvider;
+import org.apache.omid.tso.TimestampOracleImpl.InMemoryTimestampStorage;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.apache.omid.tso.HybridClockOracleImpl.MAX_TX_PER_MS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestHybridClockOracle {
+
+    private static final long NOW = 1_500_000_000_000L;
+
+    private final AtomicLong clock = new AtomicLong();
+
+    private InMemoryTimestampStorage timestampStorage;
+
+    private HybridClockOracleImpl hybridClockOracle;
+
+    @BeforeMethod
+    public void initComponents() throws IOException {
+        clock.set(NOW);
+        timestampStorage = new InMemoryTimestampStorage();
+        hybridClockOracle = new HybridClockOracleImpl(new NullMetricsProvider(), timestampStorage, new MockPanicker()) {
+            @Override
+            long clock() {
+                return clock.get();
+            }
+        };
+    }
+
+    @Test(timeOut = 10_000)
+    public void testFollowsWorldTime() throws Exception {
+
+        hybridClockOracle.initialize();
+
+        long first = hybridClockOracle.next();
+        assertEquals(first, NOW * MAX_TX_PER_MS);
+        long second = hybridClockOracle.next();
+        assertEquals(second, first + CommitTable.MAX_CHECKPOINTS_PER_TXN, "Logical increment within the same ms");
+
+        clock.addAndGet(5);
+        assertEquals(hybridClockOracle.next(), (NOW + 5) * MAX_TX_PER_MS);
+        assertTrue(timestampStorage.getMaxTimestamp() > hybridClockOracle.getLast());
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testMultipleTimestampsAreReservedInOneStep() throws Exception {
+
+        hybridClockOracle.initialize();
+
+        long first = hybridClockOracle.next(10);
+        assertEquals(first, NOW * MAX_TX_PER_MS);
+        assertEquals(hybridClockOracle.getLast(), first + 9 * CommitTable.MAX_CHECKPOINTS_PER_TXN);
+        assertEquals(hybridClockOracle.next(), first + 10 * CommitTable.MAX_CHECKPOINTS_PER_TXN);
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testClockJumpingBackwardsKeepsTimestampsMonotonic() throws Exception {
+
+        hybridClockOracle.initialize();
+
+        long last = hybridClockOracle.next();
+        clock.addAndGet(-5_000);
+        for (int i = 0; i < 1_000; i++) {
+            long current = hybridClockOracle.next();
+            assertEquals(current, last + CommitTable.MAX_CHECKPOINTS_PER_TXN, "Not monotonic growth");
+            last = current;
+        }
+        assertEquals(hybridClockOracle.getClockBackwardJumps(), 1);
+
+        // Once world time goes beyond the last timestamp given, the oracle follows it again
+        clock.set(NOW + 1);
+        assertEquals(hybridClockOracle.next(), (NOW + 1) * MAX_TX_PER_MS);
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testFailoverDoesNotWaitForWorldTime() throws Exception {
+
+        // The previous TSO allocated timestamps up to 8 seconds ahead of world time
+        long previousMaxTimestamp = (NOW + 8_000) * MAX_TX_PER_MS;
+        timestampStorage.updateMaxTimestamp(0, previousMaxTimestamp);
+
+        long startTimeInMs = System.currentTimeMillis();
+        hybridClockOracle.initialize();
+        long timestamp = hybridClockOracle.next();
+        assertTrue(System.currentTimeMillis() - startTimeInMs < TimeUnit.SECONDS.toMillis(1));
+
+        assertEquals(timestamp, previousMaxTimestamp + CommitTable.MAX_CHECKPOINTS_PER_TXN);
+        assertEquals(hybridClockOracle.getStallCount(), 1, "Only the first allocation must be waited for");
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testClockJumpingForwardBeyondTheAllocatedInterval() throws Exception {
+
+        hybridClockOracle.initialize();
+        long last = hybridClockOracle.next();
+
+        // World time jumps beyond the allocated interval. The oracle keeps counting logically meanwhile
+        clock.addAndGet(HybridClockOracleImpl.TIMESTAMP_INTERVAL_MS * 2);
+        long current = hybridClockOracle.next();
+        assertTrue(current > last);
+        assertTrue(current < timestampStorage.getMaxTimestamp());
+
+        // Eventually the new allocation covers world time again
+        long worldTimestamp = clock.get() * MAX_TX_PER_MS;
+        while (current < worldTimestamp) {
+            current = hybridClockOracle.next();
+        }
+        assertEquals(current, worldTimestamp);
+        assertTrue(current < timestampStorage.getMaxTimestamp());
+
+    }
+
+}
@@ -27,6 +27,8 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.testng.annotations.AfterMethod;
@@ -36,18 +38,23 @@ import org.testng.annotations.Test;
 import com.lmax.disruptor.BlockingWaitStrategy;
 
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
 
 // TODO Refactor: Make visible currentBatch in PersistenceProcessorImpl to add proper verifications
 public class TestPersistenceProcessor {
@@ -248,6 +255,136 @@ public class TestPersistenceProcessor {
 
     }
 
+    @Test(timeOut = 30_000)
+    public void testCommitPersistenceWithCommitTableWriterAffinity() throws Exception {
+
+        final int NUM_CT_WRITERS = 2;
+        final int BATCH_SIZE_PER_CT_WRITER = 2;
+        // Consecutive transactions belong to consecutive commit table buckets
+        final long BUCKET_0_ST = 0;
+        final long BUCKET_1_ST = CommitTable.MAX_CHECKPOINTS_PER_TXN;
+        final long OTHER_BUCKET_0_ST = 2 * CommitTable.MAX_CHECKPOINTS_PER_TXN;
+
+        // Init a non-HA lease manager
+        VoidLeaseManager leaseManager = spy(new VoidLeaseManager(mock(TSOChannelHandler.class),
+                                                                 mock(TSOStateManager.class)));
+
+        TSOServerConfig tsoConfig = new TSOServerConfig();
+        tsoConfig.setBatchSizePerCTWriter(BATCH_SIZE_PER_CT_WRITER);
+        tsoConfig.setNumConcurrentCTWriters(NUM_CT_WRITERS);
+        tsoConfig.setCtWriterAffinity(true);
+
+        ObjectPool<Batch> batchPool = spy(new BatchPoolModule(tsoConfig).getBatchPool());
+
+        ReplyProcessor replyProcessor = new ReplyProcessorImpl(new BlockingWaitStrategy(), metrics, panicker, batchPool, lowWatermarkWriter);
+
+        PersistenceProcessorHandler[] handlers = new PersistenceProcessorHandler[tsoConfig.getNumConcurrentCTWriters()];
+        for (int i = 0; i < tsoConfig.getNumConcurrentCTWriters(); i++) {
+            handlers[i] = spy(new PersistenceProcessorHandler(metrics,
+                                                              "localhost:1234",
+                                                              leaseManager,
+                                                              commitTable,
+                                                              replyProcessor,
+                                                              retryProcessor,
+                                                              panicker));
+        }
+
+        // Component under test
+        PersistenceProcessorImpl proc = new PersistenceProcessorImpl(tsoConfig, new BlockingWaitStrategy(), commitTable, batchPool,
+                                                                     panicker, handlers, metrics);
+
+        verify(batchPool, times(NUM_CT_WRITERS)).borrowObject(); // One batch per writer during initialization
+
+        // Each commit goes to the batch of the writer of its bucket, so no batch is full yet
+        proc.addCommitToBatch(BUCKET_0_ST, BUCKET_0_ST + 1, mock(Channel.class), mock(MonitoringContextImpl.class), Optional.<Long>absent());
+        proc.addCommitToBatch(BUCKET_1_ST, BUCKET_1_ST + 1, mock(Channel.class), mock(MonitoringContextImpl.class), Optional.<Long>absent());
+        verify(batchPool, times(NUM_CT_WRITERS)).borrowObject();
+
+        // Fill the batch of the 1st writer, which is flushed only by its handler
+        proc.addCommitToBatch(OTHER_BUCKET_0_ST, OTHER_BUCKET_0_ST + 1, mock(Channel.class), mock(MonitoringContextImpl.class), Optional.<Long>absent());
+        verify(batchPool, times(NUM_CT_WRITERS + 1)).borrowObject();
+        verify(handlers[0], timeout(1000).times(1)).onEvent(any(PersistenceProcessorImpl.PersistBatchEvent.class));
+        verify(handlers[1], never()).onEvent(any(PersistenceProcessorImpl.PersistBatchEvent.class));
+        verify(mockWriter, timeout(1000).times(1)).addCommittedTransaction(BUCKET_0_ST, BUCKET_0_ST + 1);
+        verify(mockWriter, timeout(1000).times(1)).addCommittedTransaction(OTHER_BUCKET_0_ST, OTHER_BUCKET_0_ST + 1);
+
+        // Flushing the current batches sends the pending commit of the 2nd writer to its handler
+        proc.triggerCurrentBatchFlush();
+        verify(batchPool, times(NUM_CT_WRITERS + 2)).borrowObject();
+        verify(handlers[1], timeout(1000).times(1)).onEvent(any(PersistenceProcessorImpl.PersistBatchEvent.class));
+        verify(mockWriter, timeout(1000).times(1)).addCommittedTransaction(BUCKET_1_ST, BUCKET_1_ST + 1);
+
+    }
+
+    @Test(timeOut = 30_000)
+    public void testTimestampsAndFencesAreRepliedAfterTheCommitsOfOtherWriters() throws Exception {
+
+        final int NUM_CT_WRITERS = 2;
+        final int BATCH_SIZE_PER_CT_WRITER = 2;
+        // Even transactions belong to the bucket of the 1st writer and odd ones to the bucket of the 2nd
+        final long COMMIT_ST = CommitTable.MAX_CHECKPOINTS_PER_TXN;
+        final long TIMESTAMP = 2 * CommitTable.MAX_CHECKPOINTS_PER_TXN;
+        final long ANOTHER_COMMIT_ST = 3 * CommitTable.MAX_CHECKPOINTS_PER_TXN;
+        final long FENCE_TIMESTAMP = 4 * CommitTable.MAX_CHECKPOINTS_PER_TXN;
+
+        TSOServerConfig tsoConfig = new TSOServerConfig();
+        tsoConfig.setBatchSizePerCTWriter(BATCH_SIZE_PER_CT_WRITER);
+        tsoConfig.setNumConcurrentCTWriters(NUM_CT_WRITERS);
+        tsoConfig.setCtWriterAffinity(true);
+
+        final ObjectPool<Batch> batchPool = new BatchPoolModule(tsoConfig).getBatchPool();
+
+        // Records the sequence each event is replied in and hands the batches back, as the reply processor does
+        final Map<String, Long> replySequences = new ConcurrentHashMap<>();
+        ReplyProcessor replyProcessor = mock(ReplyProcessor.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Exception {
+                long sequence = (Long) invocation.getArguments()[0];
+                Batch batch = (Batch) invocation.getArguments()[1];
+                for (int i = 0; i < batch.getNumEvents(); i++) {
+                    replySequences.put(batch.get(i).getType() + ":" + batch.get(i).getStartTimestamp(), sequence);
+                }
+                batchPool.returnObject(batch);
+                return null;
+            }
+        }).when(replyProcessor).manageResponsesBatch(anyLong(), any(Batch.class));
+
+        PersistenceProcessorHandler[] handlers = new PersistenceProcessorHandler[tsoConfig.getNumConcurrentCTWriters()];
+        for (int i = 0; i < tsoConfig.getNumConcurrentCTWriters(); i++) {
+            handlers[i] = new PersistenceProcessorHandler(metrics,
+                                                          "localhost:1234",
+                                                          new VoidLeaseManager(mock(TSOChannelHandler.class),
+                                                                               mock(TSOStateManager.class)),
+                                                          commitTable,
+                                                          replyProcessor,
+                                                          retryProcessor,
+                                                          panicker);
+        }
+
+        // Component under test
+        PersistenceProcessorImpl proc = new PersistenceProcessorImpl(tsoConfig, new BlockingWaitStrategy(), commitTable,
+                                                                     batchPool, panicker, handlers, metrics);
+
+        // A commit waits in the batch of the 2nd writer while timestamps fill the batch of the 1st one...
+        proc.addCommitToBatch(COMMIT_ST, COMMIT_ST + 1, mock(Channel.class), mock(MonitoringContextImpl.class),
+                              Optional.<Long>absent());
+        proc.addTimestampToBatch(TIMESTAMP, mock(Channel.class), mock(MonitoringContextImpl.class));
+        proc.addTimestampsToBatch(TIMESTAMP, 2, mock(Channel.class), mock(MonitoringContextImpl.class));
+        // ...and another commit waits in the batch of the 2nd writer while a fence goes to the batch of the 1st one
+        proc.addCommitToBatch(ANOTHER_COMMIT_ST, ANOTHER_COMMIT_ST + 1, mock(Channel.class),
+                              mock(MonitoringContextImpl.class), Optional.<Long>absent());
+        proc.addFenceToBatch(ANY_ST, FENCE_TIMESTAMP, mock(Channel.class), mock(MonitoringContextImpl.class));
+        proc.triggerCurrentBatchFlush();
+
+        verify(replyProcessor, timeout(1000).times(4)).manageResponsesBatch(anyLong(), any(Batch.class));
+
+        // The replies follow the sequence of the batches, so the commits must be in earlier batches
+        assertTrue(replySequences.get("COMMIT:" + COMMIT_ST) < replySequences.get("TIMESTAMP:" + TIMESTAMP));
+        assertTrue(replySequences.get("COMMIT:" + ANOTHER_COMMIT_ST) < replySequences.get("FENCE:" + ANY_ST));
+
+    }
+
     @Test(timeOut = 30_000)
     public void testCommitPersistenceWithNonHALeaseManager() throws Exception {
 
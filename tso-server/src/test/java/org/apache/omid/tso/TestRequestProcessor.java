@@ -40,6 +40,7 @@ import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 import static org.testng.Assert.assertTrue;
@@ -111,6 +112,26 @@ public class TestRequestProcessor {
 
     }
 
+    @Test(timeOut = 30_000)
+    public void testMultipleTimestampsAreReservedInOneStep() throws Exception {
+
+        requestProc.timestampRequest(null, new MonitoringContextImpl(metrics));
+        ArgumentCaptor<Long> firstTScapture = ArgumentCaptor.forClass(Long.class);
+        verify(persist, timeout(100).times(1)).addTimestampToBatch(
+                firstTScapture.capture(), any(Channel.class), any(MonitoringContextImpl.class));
+        long firstTS = firstTScapture.getValue();
+
+        requestProc.timestampRequest(10, null, new MonitoringContextImpl(metrics));
+        verify(persist, timeout(100).times(1)).addTimestampsToBatch(
+                eq(firstTS + CommitTable.MAX_CHECKPOINTS_PER_TXN), eq(10), any(Channel.class), any(MonitoringContext.class));
+
+        // The next single timestamp must follow the whole range reserved
+        requestProc.timestampRequest(null, new MonitoringContextImpl(metrics));
+        verify(persist, timeout(100).times(1)).addTimestampToBatch(
+                eq(firstTS + 11 * CommitTable.MAX_CHECKPOINTS_PER_TXN), any(Channel.class), any(MonitoringContext.class));
+
+    }
+
     @Test(timeOut = 30_000)
     public void testCommit() throws Exception {
 
@@ -150,6 +171,125 @@ public class TestRequestProcessor {
 
     }
 
+    @Test(timeOut = 30_000)
+    public void testEscalatedConflictsAreDetectedAtTableLevel() throws Exception {
+
+        final long TABLE_ID = 666L;
+        List<Long> tableIdSet = Lists.newArrayList(TABLE_ID);
+        List<Long> emptyWriteSet = Collections.emptyList();
+
+        requestProc.timestampRequest(2, null, new MonitoringContextImpl(metrics));
+        ArgumentCaptor<Long> TScapture = ArgumentCaptor.forClass(Long.class);
+        verify(persist, timeout(100).times(1)).addTimestampsToBatch(
+                TScapture.capture(), eq(2), any(Channel.class), any(MonitoringContext.class));
+        long bulkTS = TScapture.getValue();
+        long concurrentTS = bulkTS + CommitTable.MAX_CHECKPOINTS_PER_TXN;
+
+        // A transaction modifying a single cell of the table commits first...
+        requestProc.commitRequest(concurrentTS, Lists.newArrayList(1L), tableIdSet, false, null,
+                                  new MonitoringContextImpl(metrics));
+        verify(persist, timeout(100).times(1)).addCommitToBatch(eq(concurrentTS), anyLong(), any(Channel.class),
+                                                                any(MonitoringContext.class), any(Optional.class));
+
+        // ...so a bulk transaction that started before and escalated the conflicts of the table aborts, although
+        // the cell is not part of its write set
+        requestProc.commitRequest(bulkTS, emptyWriteSet, tableIdSet, tableIdSet, false, false, null,
+                                  new MonitoringContextImpl(metrics));
+        verify(persist, timeout(100).times(1)).addAbortToBatch(eq(bulkTS), any(Channel.class),
+                                                               any(MonitoringContext.class));
+
+        // A bulk transaction that started after the concurrent one committed commits...
+        long anotherBulkTS = concurrentTS + 2 * CommitTable.MAX_CHECKPOINTS_PER_TXN;
+        requestProc.timestampRequest(null, new MonitoringContextImpl(metrics));
+        verify(persist, timeout(100).times(1)).addTimestampToBatch(eq(anotherBulkTS), any(Channel.class),
+                                                                   any(MonitoringContext.class));
+        requestProc.commitRequest(anotherBulkTS, emptyWriteSet, tableIdSet, tableIdSet, false, false, null,
+                                  new MonitoringContextImpl(metrics));
+        verify(persist, timeout(100).times(1)).addCommitToBatch(eq(anotherBulkTS), anyLong(), any(Channel.class),
+                                                                any(MonitoringContext.class), any(Optional.class));
+
+        // ...and makes any transaction that started before and modified the table abort
+        requestProc.commitRequest(concurrentTS + 1, Lists.newArrayList(2L), tableIdSet, false, null,
+                                  new MonitoringContextImpl(metrics));
+        verify(persist, timeout(100).times(1)).addAbortToBatch(eq(concurrentTS + 1), any(Channel.class),
+                                                               any(MonitoringContext.class));
+
+        // Once tracked, the writes to the table make the bulk transactions that started before them abort too
+        long lateBulkTS = anotherBulkTS + 2 * CommitTable.MAX_CHECKPOINTS_PER_TXN;
+        long writerTS = lateBulkTS + CommitTable.MAX_CHECKPOINTS_PER_TXN;
+        requestProc.timestampRequest(2, null, new MonitoringContextImpl(metrics));
+        verify(persist, timeout(100).times(1)).addTimestampsToBatch(
+                eq(lateBulkTS), eq(2), any(Channel.class), any(MonitoringContext.class));
+        requestProc.commitRequest(writerTS, Lists.newArrayList(3L), tableIdSet, false, null,
+                                  new MonitoringContextImpl(metrics));
+        verify(persist, timeout(100).times(1)).addCommitToBatch(eq(writerTS), anyLong(), any(Channel.class),
+                                                                any(MonitoringContext.class), any(Optional.class));
+        requestProc.commitRequest(lateBulkTS, emptyWriteSet, tableIdSet, tableIdSet, false, false, null,
+                                  new MonitoringContextImpl(metrics));
+        verify(persist, timeout(100).times(1)).addAbortToBatch(eq(lateBulkTS), any(Channel.class),
+                                                               any(MonitoringContext.class));
+
+    }
+
+    @Test(timeOut = 30_000)
+    public void testConflictsWithRegisteredWriteSetsAreNotifiedEarly() throws Exception {
+
+        List<Long> tableIdSet = Collections.emptyList();
+        List<Long> emptyWriteSet = Collections.emptyList();
+
+        requestProc.timestampRequest(3, null, new MonitoringContextImpl(metrics));
+        ArgumentCaptor<Long> TScapture = ArgumentCaptor.forClass(Long.class);
+        verify(persist, timeout(100).times(1)).addTimestampsToBatch(
+                TScapture.capture(), eq(3), any(Channel.class), any(MonitoringContext.class));
+        long registeringTS = TScapture.getValue();
+        long concurrentTS = registeringTS + CommitTable.MAX_CHECKPOINTS_PER_TXN;
+        long anotherRegisteringTS = concurrentTS + CommitTable.MAX_CHECKPOINTS_PER_TXN;
+
+        // Two running transactions register their write sets...
+        requestProc.writeSetRegistration(registeringTS, Lists.newArrayList(1L, 2L), false, null,
+                                         new MonitoringContextImpl(metrics));
+        verify(replyProcessor, timeout(100).times(1)).sendWriteSetRegistrationResponse(
+                eq(registeringTS), eq(true), eq(false), any(Channel.class));
+        requestProc.writeSetRegistration(anotherRegisteringTS, Lists.newArrayList(3L), false, null,
+                                         new MonitoringContextImpl(metrics));
+        verify(replyProcessor, timeout(100).times(1)).sendWriteSetRegistrationResponse(
+                eq(anotherRegisteringTS), eq(true), eq(false), any(Channel.class));
+
+        // ...and only the one sharing a cell with a concurrent commit is notified of the conflict
+        requestProc.commitRequest(concurrentTS, Lists.newArrayList(2L), tableIdSet, false, null,
+                                  new MonitoringContextImpl(metrics));
+        verify(persist, timeout(100).times(1)).addCommitToBatch(eq(concurrentTS), anyLong(), any(Channel.class),
+                                                                any(MonitoringContext.class), any(Optional.class));
+        verify(replyProcessor, timeout(100).times(1)).sendConflictNotification(eq(registeringTS), any(Channel.class));
+        verify(replyProcessor, never()).sendConflictNotification(eq(anotherRegisteringTS), any(Channel.class));
+
+        // The notified transaction aborts, although the conflicting cell is not in the write set of its commit
+        requestProc.commitRequest(registeringTS, emptyWriteSet, tableIdSet, emptyWriteSet, true, false, null,
+                                  new MonitoringContextImpl(metrics));
+        verify(persist, timeout(100).times(1)).addAbortToBatch(eq(registeringTS), any(Channel.class),
+                                                               any(MonitoringContext.class));
+
+        // The other one commits, and its registered cells become part of its write set...
+        requestProc.commitRequest(anotherRegisteringTS, emptyWriteSet, tableIdSet, emptyWriteSet, true, false, null,
+                                  new MonitoringContextImpl(metrics));
+        verify(persist, timeout(100).times(1)).addCommitToBatch(eq(anotherRegisteringTS), anyLong(),
+                                                                any(Channel.class), any(MonitoringContext.class),
+                                                                any(Optional.class));
+
+        // ...so a transaction that started before and modified one of them aborts
+        requestProc.commitRequest(concurrentTS + 1, Lists.newArrayList(3L), tableIdSet, false, null,
+                                  new MonitoringContextImpl(metrics));
+        verify(persist, timeout(100).times(1)).addAbortToBatch(eq(concurrentTS + 1), any(Channel.class),
+                                                               any(MonitoringContext.class));
+
+        // A commit relying on a registration the TSO doesn't have aborts
+        requestProc.commitRequest(concurrentTS + 2, emptyWriteSet, tableIdSet, emptyWriteSet, true, false, null,
+                                  new MonitoringContextImpl(metrics));
+        verify(persist, timeout(100).times(1)).addAbortToBatch(eq(concurrentTS + 2), any(Channel.class),
+                                                               any(MonitoringContext.class));
+
+    }
+
     @Test(timeOut = 30_000)
     public void testFence() {
 
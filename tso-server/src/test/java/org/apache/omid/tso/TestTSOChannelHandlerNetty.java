@@ -268,6 +268,50 @@ public class TestTSOChannelHandlerNetty {
 
     }
 
+    @Test(timeOut = 10_000)
+    public void testStandbyConnectionsAreKeptWhenServing() throws Exception {
+        int port = NetworkUtils.getFreePort();
+        TSOChannelHandler channelHandler = getTSOChannelHandler(port);
+        try {
+            channelHandler.standby();
+            assertTrue(channelHandler.listeningChannel.isBound());
+            ClientBootstrap nettyClient = createNettyClientBootstrap();
+
+            // ------------------------------------------------------------------------------------------------------------
+            // Test a standby accepts handshakes but rejects requests
+            // ------------------------------------------------------------------------------------------------------------
+            Channel rejectedChannel = connectAndHandshake(nettyClient, port);
+            while (channelHandler.channelGroup.size() != 2) /** do nothing */ ;
+            reset(requestProcessor);
+            rejectedChannel.write(TSOProto.Request.newBuilder()
+                                          .setTimestampRequest(TSOProto.TimestampRequest.newBuilder().build()).build());
+            rejectedChannel.getCloseFuture().await();
+            while (channelHandler.channelGroup.size() != 1) /** do nothing */ ;
+            verify(requestProcessor, timeout(100).times(0))
+                    .timestampRequest(any(Channel.class), any(MonitoringContextImpl.class));
+
+            // ------------------------------------------------------------------------------------------------------------
+            // Test the connections accepted as a standby are served without reconnecting
+            // ------------------------------------------------------------------------------------------------------------
+            channelHandler.standby(); // Repeated while the instance is a standby
+            Channel channel = connectAndHandshake(nettyClient, port);
+            while (channelHandler.channelGroup.size() != 2) /** do nothing */ ;
+            channelHandler.serve();
+            assertTrue(channel.isConnected());
+            testWritingTimestampRequest(channel);
+
+            // ------------------------------------------------------------------------------------------------------------
+            // Test the connections served are closed when becoming a standby again
+            // ------------------------------------------------------------------------------------------------------------
+            channelHandler.standby();
+            channel.getCloseFuture().await();
+            assertTrue(channelHandler.listeningChannel.isBound());
+        } finally {
+            if (channelHandler != null) channelHandler.close();
+        }
+
+    }
+
     private void testWritingTimestampRequest(Channel channel) throws InterruptedException {
         // Reset mock
         reset(requestProcessor);
@@ -318,6 +362,16 @@ public class TestTSOChannelHandlerNetty {
     // Helper methods
     // ----------------------------------------------------------------------------------------------------------------
 
+    private Channel connectAndHandshake(ClientBootstrap nettyClient, int port) {
+        ChannelFuture channelF = nettyClient.connect(new InetSocketAddress("localhost", port));
+        while (!channelF.isDone()) /** do nothing */ ;
+        assertTrue(channelF.isSuccess());
+        TSOProto.HandshakeRequest.Builder handshake = TSOProto.HandshakeRequest.newBuilder();
+        handshake.setClientCapabilities(TSOProto.Capabilities.newBuilder().build());
+        channelF.getChannel().write(TSOProto.Request.newBuilder().setHandshakeRequest(handshake.build()).build());
+        return channelF.getChannel();
+    }
+
     private ClientBootstrap createNettyClientBootstrap() {
 
         ChannelFactory factory = new NioClientSocketChannelFactory(
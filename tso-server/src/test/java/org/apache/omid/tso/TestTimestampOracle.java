@@ -20,7 +20,6 @@ package org.apache.omid.tso;
 import org.apache.omid.committable.CommitTable;
 import org.apache.omid.metrics.MetricsRegistry;
 import org.apache.omid.timestamp.storage.TimestampStorage;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.mockito.invocation.InvocationOnMock;
@@ -55,12 +54,13 @@ public class TestTimestampOracle {
     TSOServerConfig config;
 
     // Component under test
-    @InjectMocks
     private TimestampOracleImpl timestampOracle;
 
     @BeforeMethod(alwaysRun = true, timeOut = 30_000)
-    public void initMocksAndComponents() {
+    public void initMocksAndComponents() throws Exception {
         MockitoAnnotations.initMocks(this);
+        // A fresh oracle per test, as the allocation state of a previous test would skip the waits tested here
+        timestampOracle = new TimestampOracleImpl(metrics, timestampStorage, panicker);
     }
 
     @Test(timeOut = 60_000)
@@ -79,6 +79,59 @@ public class TestTimestampOracle {
         LOG.info("Last timestamp: {}", last);
     }
 
+    @Test(timeOut = 60_000)
+    public void testMultipleTimestampsAreReservedInOneStep() throws Exception {
+
+        // Intialize component under test
+        timestampOracle.initialize();
+
+        long last = timestampOracle.next();
+        for (int i = 0; i < 100; i++) {
+            long first = timestampOracle.next(1_000);
+            assertEquals(first, last + CommitTable.MAX_CHECKPOINTS_PER_TXN, "Not monotonic growth");
+            last = first + 999 * CommitTable.MAX_CHECKPOINTS_PER_TXN;
+            assertEquals(timestampOracle.getLast(), last);
+        }
+        assertEquals(timestampOracle.next(), last + CommitTable.MAX_CHECKPOINTS_PER_TXN);
+    }
+
+    @Test(timeOut = 10_000)
+    public void testNextWaitsWithoutSpinningWhenTheStorageIsSlow() throws Exception {
+
+        // Block the first allocation of timestamps until the test releases it
+        final CountDownLatch allocationReleased = new CountDownLatch(1);
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocationOnMock) throws Throwable {
+                allocationReleased.await();
+                return null;
+            }
+        }).when(timestampStorage).updateMaxTimestamp(anyLong(), anyLong());
+
+        // Intialize component under test
+        timestampOracle.initialize();
+
+        final CountDownLatch timestampReturned = new CountDownLatch(1);
+        Thread requestThread = new Thread("RequestThread") {
+            @Override
+            public void run() {
+                timestampOracle.next();
+                timestampReturned.countDown();
+            }
+        };
+        requestThread.start();
+
+        // The request thread must end up waiting, not spinning, for the storage
+        while (requestThread.getState() != Thread.State.TIMED_WAITING) {
+            Thread.sleep(10);
+        }
+        assertEquals(timestampReturned.getCount(), 1);
+
+        allocationReleased.countDown();
+        timestampReturned.await();
+        assertEquals(timestampOracle.getStallCount(), 1);
+    }
+
     @Test(timeOut = 10_000)
     public void testTimestampOraclePanicsWhenTheStorageHasProblems() throws Exception {
 
@@ -17,6 +17,7 @@
  */
 package org.apache.omid.tso;
 
+import org.apache.omid.committable.CommitTable;
 import org.apache.omid.metrics.MetricsRegistry;
 import org.apache.omid.timestamp.storage.TimestampStorage;
 import org.mockito.InjectMocks;
@@ -37,6 +38,7 @@ import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertTrue;
 
 public class TestWorldTimeOracle {
@@ -81,6 +83,22 @@ public class TestWorldTimeOracle {
         LOG.info("Last timestamp: {}", last);
     }
 
+    @Test(timeOut = 30_000)
+    public void testMultipleTimestampsAreReservedInOneStep() throws Exception {
+
+        // Intialize component under test
+        worldClockOracle.initialize();
+
+        long last = worldClockOracle.next();
+        for (int i = 0; i < 100; i++) {
+            long first = worldClockOracle.next(1_000);
+            assertTrue(first > last, "Timestamp should grow monotonically");
+            last = first + 999 * CommitTable.MAX_CHECKPOINTS_PER_TXN;
+            assertEquals(worldClockOracle.getLast(), last);
+        }
+        assertTrue(worldClockOracle.next() > last, "Timestamp should grow monotonically");
+    }
+
     @Test(timeOut = 10_000)
     public void testTimestampOraclePanicsWhenTheStorageHasProblems() throws Exception {
 
@@ -26,6 +26,7 @@ import com.google.inject.Module;
 
 import org.apache.omid.TestUtils;
 import org.apache.omid.committable.CommitTable;
+import org.apache.omid.proto.TSOProto;
 import org.apache.omid.tso.LowWatermarkWriter;
 import org.apache.omid.tso.TSOMockModule;
 import org.apache.omid.tso.TSOServer;
@@ -38,7 +39,10 @@ import org.testng.annotations.AfterClass;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 
@@ -151,6 +155,24 @@ public class TestIntegrationOfTSOClientServerBasicFunctionality {
         assertTrue(startTsTx3 >= referenceTimestamp, "Should grow monotonically");
     }
 
+    @Test(timeOut = 30_000)
+    public void testMultipleTimestampsCanBeObtainedInOneRequest() throws Exception {
+        long startTsTx1 = tsoClient.getNewStartTimestamp().get();
+
+        List<Long> startTimestamps = tsoClient.getNewStartTimestamps(10).get();
+        assertEquals(startTimestamps.size(), 10);
+        long referenceTimestamp = startTsTx1;
+        for (long startTimestamp : startTimestamps) {
+            assertTrue(startTimestamp > referenceTimestamp, "Should grow monotonically");
+            referenceTimestamp = startTimestamp;
+        }
+
+        // All the timestamps obtained are valid start timestamps
+        long commitTs = tsoClient.commit(startTimestamps.get(9), Sets.newHashSet(c1)).get();
+        assertTrue(commitTs > startTimestamps.get(9), "Commit TS must be greater than Start TS");
+        assertTrue(tsoClient.getNewStartTimestamp().get() > commitTs, "TS should grow monotonically");
+    }
+
     @Test(timeOut = 30_000)
     public void testSimpleTransactionWithNoWriteSetCanCommit() throws Exception {
         long startTsTx1 = tsoClient.getNewStartTimestamp().get();
@@ -318,4 +340,125 @@ public class TestIntegrationOfTSOClientServerBasicFunctionality {
         assert(afterCommitLWM > beforeCommitLWM);
     }
 
+    @Test(timeOut = 30_000)
+    public void testConcurrentRequestsFromMultipleThreads() throws Exception {
+        final int numThreads = 8;
+        final int numTxsPerThread = 500;
+        final List<Long> commitTimestamps = Collections.synchronizedList(new ArrayList<Long>());
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        List<Thread> threads = new ArrayList<>(numThreads);
+        for (int t = 0; t < numThreads; t++) {
+            final int threadId = t;
+            Thread thread = new Thread("Tx Thread " + t) {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < numTxsPerThread; i++) {
+                            long startTimestamp = tsoClient.getNewStartTimestamp().get();
+                            // Every tx writes a different cell
+                            CellId cell = new DummyCellIdImpl(threadId * numTxsPerThread + i);
+                            long commitTimestamp = tsoClient.commit(startTimestamp, Sets.newHashSet(cell)).get();
+                            assertTrue(commitTimestamp > startTimestamp, "Commit TS should be after start TS");
+                            commitTimestamps.add(commitTimestamp);
+                        }
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(errors.isEmpty(), "Requests should succeed: " + errors);
+        assertEquals(new HashSet<>(commitTimestamps).size(), numThreads * numTxsPerThread,
+                     "Each tx should get its own commit timestamp");
+    }
+
+    @Test(timeOut = 30_000)
+    public void testRequestsStripedAcrossMultipleConnections() throws Exception {
+        OmidClientConfiguration tsoClientConf = new OmidClientConfiguration();
+        tsoClientConf.setConnectionString(TSO_SERVER_HOST + ":" + tsoServerPortForTest);
+        tsoClientConf.setConnections(4);
+        TSOClient multiConnectionTSOClient = TSOClient.newInstance(tsoClientConf);
+        try {
+            final int numTxs = 100;
+            List<Long> startTimestamps = new ArrayList<>(numTxs);
+            for (int i = 0; i < numTxs; i++) {
+                startTimestamps.add(multiConnectionTSOClient.getNewStartTimestamp().get());
+            }
+            for (int i = 1; i < numTxs; i++) {
+                assertTrue(startTimestamps.get(i) > startTimestamps.get(i - 1), "Should grow monotonically");
+            }
+
+            // Every tx writes a different cell but the last one, which conflicts with the first. Consecutive txs
+            // commit through different connections, so the first one commits before the others are sent
+            List<TSOFuture<Long>> commitFutures = new ArrayList<>(numTxs);
+            for (int i = 0; i < numTxs; i++) {
+                CellId cell = new DummyCellIdImpl(i == numTxs - 1 ? 0 : i);
+                commitFutures.add(multiConnectionTSOClient.commit(startTimestamps.get(i), Sets.newHashSet(cell)));
+                if (i == 0) {
+                    commitFutures.get(0).get();
+                }
+            }
+            for (int i = 0; i < numTxs - 1; i++) {
+                assertTrue(commitFutures.get(i).get() > startTimestamps.get(numTxs - 1));
+            }
+            try {
+                commitFutures.get(numTxs - 1).get();
+                Assert.fail("Last commit should fail as conflicts with the first one");
+            } catch (ExecutionException ee) {
+                assertEquals(AbortException.class, ee.getCause().getClass(), "Should have aborted");
+            }
+        } finally {
+            multiConnectionTSOClient.close().get();
+        }
+    }
+
+    @Test(timeOut = 30_000)
+    public void testBatchedRequestsAndResponses() throws Exception {
+        OmidClientConfiguration tsoClientConf = new OmidClientConfiguration();
+        tsoClientConf.setConnectionString(TSO_SERVER_HOST + ":" + tsoServerPortForTest);
+        tsoClientConf.setBatchedMessages(true);
+        tsoClientConf.setBatchingWindowInUs(100);
+        TSOClient batchingTSOClient = TSOClient.newInstance(tsoClientConf);
+        try {
+            final int numTxs = 1000;
+            List<TSOFuture<Long>> startTimestampFutures = new ArrayList<>(numTxs);
+            for (int i = 0; i < numTxs; i++) {
+                startTimestampFutures.add(batchingTSOClient.getNewStartTimestamp());
+            }
+            List<Long> startTimestamps = new ArrayList<>(numTxs);
+            for (TSOFuture<Long> future : startTimestampFutures) {
+                startTimestamps.add(future.get());
+            }
+            for (int i = 1; i < numTxs; i++) {
+                assertTrue(startTimestamps.get(i) > startTimestamps.get(i - 1), "Should grow monotonically");
+            }
+            assertTrue(batchingTSOClient.getNegotiatedFeatures().contains(TSOProto.Feature.BATCHED_MESSAGES));
+            assertFalse(tsoClient.getNegotiatedFeatures().contains(TSOProto.Feature.BATCHED_MESSAGES),
+                        "Feature not requested by the client");
+
+            // Every tx writes a different cell but the last one, which conflicts with the first
+            List<TSOFuture<Long>> commitFutures = new ArrayList<>(numTxs);
+            for (int i = 0; i < numTxs; i++) {
+                CellId cell = new DummyCellIdImpl(i == numTxs - 1 ? 0 : i);
+                commitFutures.add(batchingTSOClient.commit(startTimestamps.get(i), Sets.newHashSet(cell)));
+            }
+            for (int i = 0; i < numTxs - 1; i++) {
+                assertTrue(commitFutures.get(i).get() > startTimestamps.get(numTxs - 1));
+            }
+            try {
+                commitFutures.get(numTxs - 1).get();
+                Assert.fail("Last commit should fail as conflicts with the first one");
+            } catch (ExecutionException ee) {
+                assertEquals(AbortException.class, ee.getCause().getClass(), "Should have aborted");
+            }
+        } finally {
+            batchingTSOClient.close().get();
+        }
+    }
+
 }
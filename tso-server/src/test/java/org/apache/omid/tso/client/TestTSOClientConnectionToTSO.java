@@ -20,31 +20,41 @@ package org.apache.omid.tso.client;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 
+import org.apache.phoenix.thirdparty.com.google.common.base.Charsets;
+import org.apache.phoenix.thirdparty.com.google.common.collect.Sets;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.test.TestingServer;
 import org.apache.curator.utils.CloseableUtils;
 import org.apache.omid.TestUtils;
 import org.apache.omid.committable.CommitTable;
 import org.apache.omid.tso.HALeaseManagementModule;
+import org.apache.omid.tso.PausableTimestampOracle;
 import org.apache.omid.tso.TSOMockModule;
 import org.apache.omid.tso.TSOServer;
 import org.apache.omid.tso.TSOServerConfig;
+import org.apache.omid.tso.TimestampOracle;
 import org.apache.omid.tso.VoidLeaseManagementModule;
 import org.apache.omid.tso.TSOServerConfig.TIMESTAMP_TYPE;
+import org.apache.omid.tso.util.DummyCellIdImpl;
 import org.apache.statemachine.StateMachine.FsmImpl;
+import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException.NoNodeException;
 import org.apache.zookeeper.data.Stat;
+import org.jboss.netty.channel.Channel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.net.InetSocketAddress;
 import java.util.concurrent.ExecutionException;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 
@@ -56,6 +66,7 @@ public class TestTSOClientConnectionToTSO {
     private static final String TSO_HOST = "localhost";
     private static final String CURRENT_TSO_PATH = "/current_tso_path";
     private static final String TSO_LEASE_PATH = "/tso_lease_path";
+    private static final String TSO_INSTANCES_PATH = "/tso_instances_path";
 
     private int tsoPortForTest;
     private String zkClusterForTest;
@@ -274,6 +285,163 @@ public class TestTSOClientConnectionToTSO {
         LOG.info("Restarted TSO Server Stopped");
     }
 
+    @Test(timeOut = 30_000)
+    public void testTSOClientSwitchesToTheStandbyChannelOnFailover() throws Exception {
+
+        // Start a TSO with HA...
+        TSOServerConfig config = new TSOServerConfig();
+        config.setConflictMapSize(1000);
+        config.setPort(tsoPortForTest);
+        config.setLeaseModule(new HALeaseManagementModule(1000, TSO_LEASE_PATH, CURRENT_TSO_PATH, zkClusterForTest, "omid"));
+        injector = Guice.createInjector(new TSOMockModule(config));
+        LOG.info("Starting Initial TSO");
+        tsoServer = injector.getInstance(TSOServer.class);
+        tsoServer.startAsync();
+        tsoServer.awaitRunning();
+        TestUtils.waitForSocketListening(TSO_HOST, tsoPortForTest, 100);
+        LOG.info("Finished loading TSO");
+
+        waitTillTsoRegisters(injector.getInstance(CuratorFramework.class));
+
+        // ... and the TSO that takes over, registered as an instance accepting standby connections
+        int newTSOPort = TestUtils.getFreeLocalPort();
+        TSOServer newTSOServer = startTSOServer(newTSOPort);
+        registerTSOInstance(newTSOPort);
+
+        // Then create the TSO Client under test...
+        TSOClient tsoClient = TSOClient.newInstance(newHAClientConfiguration());
+        long startTS = tsoClient.getNewStartTimestamp().get();
+
+        // ... and wait until it has handshaken the standby channel
+        InetSocketAddress newTSOAddress = new InetSocketAddress(TSO_HOST, newTSOPort);
+        Channel standbyChannel;
+        while ((standbyChannel = tsoClient.getReadyStandbyChannel(newTSOAddress)) == null) {
+            Thread.sleep(100);
+        }
+
+        // Keep a timestamp and a commit request outstanding in the current TSO...
+        PausableTimestampOracle pausableTSOracle =
+                (PausableTimestampOracle) injector.getInstance(TimestampOracle.class);
+        pausableTSOracle.pause();
+        TSOFuture<Long> timestamp = tsoClient.getNewStartTimestamp();
+        TSOFuture<Long> commit = tsoClient.commit(startTS, Sets.newHashSet(new DummyCellIdImpl(0xdeadbeefL)));
+        assertFalse(timestamp.isDone());
+        assertFalse(commit.isDone());
+
+        // ... and advertise the new TSO as the current one
+        advertiseTSO(newTSOPort);
+
+        // The requests complete through the standby channel, without reconnecting
+        assertNotNull(timestamp.get());
+        assertNotNull(commit.get());
+        FsmImpl fsm = (FsmImpl) tsoClient.fsm;
+        assertEquals(fsm.getState().getClass(), TSOClient.ConnectedState.class);
+        assertSame(((TSOClient.ConnectedState) fsm.getState()).channel, standbyChannel);
+
+        // Close the tsoClient connection and stop the TSO Servers
+        tsoClient.close().get();
+        pausableTSOracle.resume();
+        stopTSOServer(tsoServer, tsoPortForTest);
+        tsoServer = null;
+        stopTSOServer(newTSOServer, newTSOPort);
+
+    }
+
+    @Test(timeOut = 30_000)
+    public void testTSOClientReconnectsOnFailoverWhenTheStandbyChannelIsNotReady() throws Exception {
+
+        // Start a TSO with HA...
+        TSOServerConfig config = new TSOServerConfig();
+        config.setConflictMapSize(1000);
+        config.setPort(tsoPortForTest);
+        config.setLeaseModule(new HALeaseManagementModule(1000, TSO_LEASE_PATH, CURRENT_TSO_PATH, zkClusterForTest, "omid"));
+        injector = Guice.createInjector(new TSOMockModule(config));
+        LOG.info("Starting Initial TSO");
+        tsoServer = injector.getInstance(TSOServer.class);
+        tsoServer.startAsync();
+        tsoServer.awaitRunning();
+        TestUtils.waitForSocketListening(TSO_HOST, tsoPortForTest, 100);
+        LOG.info("Finished loading TSO");
+
+        waitTillTsoRegisters(injector.getInstance(CuratorFramework.class));
+
+        // ... and register the TSO that takes over before it listens, so the client can't handshake with it
+        int newTSOPort = TestUtils.getFreeLocalPort();
+        registerTSOInstance(newTSOPort);
+
+        // Then create the TSO Client under test. The standby channel isn't reconnected during the test
+        OmidClientConfiguration tsoClientConf = newHAClientConfiguration();
+        tsoClientConf.setReconnectionDelayInSecs(60);
+        TSOClient tsoClient = TSOClient.newInstance(tsoClientConf);
+        assertNotNull(tsoClient.getNewStartTimestamp().get());
+
+        // After that, start the new TSO and advertise it as the current one...
+        TSOServer newTSOServer = startTSOServer(newTSOPort);
+        assertNull(tsoClient.getReadyStandbyChannel(new InetSocketAddress(TSO_HOST, newTSOPort)));
+        advertiseTSO(newTSOPort);
+
+        // ... and check that, eventually, the client reconnects to it
+        Long startTS = null;
+        while (startTS == null) {
+            try {
+                startTS = tsoClient.getNewStartTimestamp().get();
+            } catch (ExecutionException e) {
+                // Expected while reconnecting
+            }
+        }
+        FsmImpl fsm = (FsmImpl) tsoClient.fsm;
+        assertEquals(fsm.getState().getClass(), TSOClient.ConnectedState.class);
+        Channel channel = ((TSOClient.ConnectedState) fsm.getState()).channel;
+        assertEquals(((InetSocketAddress) channel.getRemoteAddress()).getPort(), newTSOPort);
+
+        // Close the tsoClient connection and stop the TSO Servers
+        tsoClient.close().get();
+        stopTSOServer(tsoServer, tsoPortForTest);
+        tsoServer = null;
+        stopTSOServer(newTSOServer, newTSOPort);
+
+    }
+
+    private OmidClientConfiguration newHAClientConfiguration() {
+        OmidClientConfiguration tsoClientConf = new OmidClientConfiguration();
+        tsoClientConf.setConnectionType(OmidClientConfiguration.ConnType.HA);
+        tsoClientConf.setConnectionString(zkClusterForTest);
+        tsoClientConf.setZkCurrentTsoPath(CURRENT_TSO_PATH);
+        tsoClientConf.setZkTsoInstancesPath(TSO_INSTANCES_PATH);
+        tsoClientConf.setStandbyConnections(true);
+        return tsoClientConf;
+    }
+
+    // Started without HA, so it serves requests without holding the lease
+    private TSOServer startTSOServer(int port) throws Exception {
+        TSOServerConfig config = new TSOServerConfig();
+        config.setConflictMapSize(1000);
+        config.setPort(port);
+        config.setLeaseModule(new VoidLeaseManagementModule());
+        TSOServer server = Guice.createInjector(new TSOMockModule(config)).getInstance(TSOServer.class);
+        LOG.info("Starting TSO in port {}", port);
+        server.startAsync();
+        server.awaitRunning();
+        TestUtils.waitForSocketListening(TSO_HOST, port, 100);
+        return server;
+    }
+
+    private void stopTSOServer(TSOServer server, int port) throws Exception {
+        server.stopAsync();
+        server.awaitTerminated();
+        TestUtils.waitForSocketNotListening(TSO_HOST, port, 1000);
+        LOG.info("TSO Server in port {} Stopped", port);
+    }
+
+    private void registerTSOInstance(int port) throws Exception {
+        zkClient.create().creatingParentsIfNeeded().withMode(CreateMode.EPHEMERAL)
+                .forPath(TSO_INSTANCES_PATH + "/" + TSO_HOST + ":" + port);
+    }
+
+    private void advertiseTSO(int port) throws Exception {
+        zkClient.setData().forPath(CURRENT_TSO_PATH, (TSO_HOST + ":" + port + "#1").getBytes(Charsets.UTF_8));
+    }
+
     private void waitTillTsoRegisters(CuratorFramework zkClient) throws Exception {
         while (true) {
             try {